@@ -0,0 +1,229 @@
+package io.gotan.kit.image;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Remplacement de la transparence par une couleur de fond, directement sur les rasters.
+ * <p>
+ * Les pixels sont lus dans les tableaux des <code>DataBuffer</code> et mélangés
+ * avec le fond en arithmétique entière, par bandes de lignes réparties sur le
+ * <code>ForkJoinPool</code> commun. Les formats non reconnus passent par
+ * <code>getRGB</code>, ligne par ligne.
+ */
+public final class AlphaFlattener {
+
+	private static final int[] RGB_MASKS = {0xFF0000, 0xFF00, 0xFF};
+
+	/**
+	 * Avoid instantiation
+	 */
+	private AlphaFlattener() {
+	}
+
+	/**
+	 * Remplace la transparence par une couleur de fond.
+	 *
+	 * @param image      Image source
+	 * @param background Couleur d'arrière plan (son canal alpha est ignoré)
+	 * @param inPlace    Réutilise les pixels de la source quand son type le permet
+	 *                   (<code>TYPE_INT_ARGB</code> / <code>TYPE_INT_ARGB_PRE</code>) : la
+	 *                   source devient alors opaque et partage ses données avec le résultat
+	 * @return Image opaque en <code>TYPE_INT_RGB</code>, ou la source si elle n'a pas de canal alpha
+	 */
+	public static BufferedImage flatten(BufferedImage image, Color background, boolean inPlace) {
+		if (!image.getColorModel().hasAlpha()) {
+			return image;
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int bg = background.getRGB() & 0xFFFFFF;
+		WritableRaster raster = image.getRaster();
+
+		if (isPackedArgb(image)) {
+			SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+			DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+			int stride = sm.getScanlineStride();
+			int base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+			boolean premultiplied = image.isAlphaPremultiplied();
+			int[] src = buffer.getData();
+			if (inPlace && base == 0 && buffer.getNumBanks() == 1) {
+				ParallelRows.run(height, width, true, (y0, y1) -> blendInts(src, 0, stride, src, 0, stride, width, y0, y1, bg, premultiplied));
+				WritableRaster view = Raster.createPackedRaster(buffer, width, height, stride, RGB_MASKS, null);
+				return new BufferedImage(new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]), view, false, null);
+			}
+			BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			int[] dst = pixels(result);
+			ParallelRows.run(height, width, true, (y0, y1) -> blendInts(src, base, stride, dst, 0, width, width, y0, y1, bg, premultiplied));
+			return result;
+		}
+
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] dst = pixels(result);
+		if (isInterleavedRgba(image)) {
+			ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+			DataBuffer buffer = raster.getDataBuffer();
+			byte[] src = ((DataBufferByte) buffer).getData();
+			int stride = sm.getScanlineStride();
+			int pixelStride = sm.getPixelStride();
+			int base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride
+					- raster.getSampleModelTranslateX() * pixelStride;
+			int[] offsets = sm.getBandOffsets();
+			boolean premultiplied = image.isAlphaPremultiplied();
+			ParallelRows.run(height, width, true, (y0, y1) -> blendBytes(src, base, stride, pixelStride, offsets, dst, width, y0, y1, bg,
+					premultiplied));
+		} else if (isIndexed(image)) {
+			int[] palette = blendedPalette((IndexColorModel) image.getColorModel(), bg);
+			ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+			DataBuffer buffer = raster.getDataBuffer();
+			byte[] src = ((DataBufferByte) buffer).getData();
+			int stride = sm.getScanlineStride();
+			int base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+			ParallelRows.run(height, width, true, (y0, y1) -> {
+				for (int y = y0; y < y1; y++) {
+					int s = base + y * stride;
+					int d = y * width;
+					for (int x = 0; x < width; x++) {
+						dst[d + x] = palette[src[s + x] & 0xFF];
+					}
+				}
+			});
+		} else {
+			ParallelRows.run(height, width, true, (y0, y1) -> {
+				int[] row = new int[width];
+				for (int y = y0; y < y1; y++) {
+					image.getRGB(0, y, width, 1, row, 0, width);
+					blendInts(row, 0, width, dst, y * width, width, width, 0, 1, bg, false);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Mélange des pixels ARGB packés sur une bande de lignes.
+	 */
+	private static void blendInts(int[] src, int srcBase, int srcStride, int[] dst, int dstBase, int dstStride,
+								  int width, int y0, int y1, int bg, boolean premultiplied) {
+		int bgR = bg >>> 16;
+		int bgG = (bg >>> 8) & 0xFF;
+		int bgB = bg & 0xFF;
+		for (int y = y0; y < y1; y++) {
+			int s = srcBase + y * srcStride;
+			int d = dstBase + y * dstStride;
+			for (int x = 0; x < width; x++) {
+				int pixel = src[s + x];
+				int a = pixel >>> 24;
+				if (a == 0xFF) {
+					dst[d + x] = pixel;
+				} else if (a == 0) {
+					dst[d + x] = 0xFF000000 | bg;
+				} else {
+					dst[d + x] = blend((pixel >>> 16) & 0xFF, (pixel >>> 8) & 0xFF, pixel & 0xFF, a,
+							bgR, bgG, bgB, premultiplied);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mélange des pixels RGBA entrelacés sur octets (<code>TYPE_4BYTE_ABGR</code>, PNG RGBA décodés...).
+	 */
+	private static void blendBytes(byte[] src, int srcBase, int srcStride, int pixelStride, int[] offsets, int[] dst,
+								   int width, int y0, int y1, int bg, boolean premultiplied) {
+		int bgR = bg >>> 16;
+		int bgG = (bg >>> 8) & 0xFF;
+		int bgB = bg & 0xFF;
+		int oR = offsets[0];
+		int oG = offsets[1];
+		int oB = offsets[2];
+		int oA = offsets[3];
+		for (int y = y0; y < y1; y++) {
+			int s = srcBase + y * srcStride;
+			int d = y * width;
+			for (int x = 0; x < width; x++, s += pixelStride) {
+				int a = src[s + oA] & 0xFF;
+				dst[d + x] = blend(src[s + oR] & 0xFF, src[s + oG] & 0xFF, src[s + oB] & 0xFF, a,
+						bgR, bgG, bgB, premultiplied);
+			}
+		}
+	}
+
+	static int blend(int r, int g, int b, int a, int bgR, int bgG, int bgB, boolean premultiplied) {
+		int inverse = 255 - a;
+		if (premultiplied) {
+			r += div255(bgR * inverse);
+			g += div255(bgG * inverse);
+			b += div255(bgB * inverse);
+		} else {
+			r = div255(r * a + bgR * inverse);
+			g = div255(g * a + bgG * inverse);
+			b = div255(b * a + bgB * inverse);
+		}
+		return 0xFF000000 | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Division arrondie par 255, exacte sur [0, 255 * 255].
+	 */
+	static int div255(int value) {
+		int t = value + 128;
+		return (t + (t >>> 8)) >>> 8;
+	}
+
+	private static int[] blendedPalette(IndexColorModel cm, int bg) {
+		int[] palette = new int[256];
+		int size = cm.getMapSize();
+		for (int i = 0; i < 256; i++) {
+			int argb = cm.getRGB(Math.min(i, size - 1));
+			palette[i] = blend((argb >>> 16) & 0xFF, (argb >>> 8) & 0xFF, argb & 0xFF, argb >>> 24,
+					bg >>> 16, (bg >>> 8) & 0xFF, bg & 0xFF, false);
+		}
+		return palette;
+	}
+
+	private static boolean isPackedArgb(BufferedImage image) {
+		Raster raster = image.getRaster();
+		if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm)
+				|| !(raster.getDataBuffer() instanceof DataBufferInt)
+				|| !(image.getColorModel() instanceof DirectColorModel)) {
+			return false;
+		}
+		int[] masks = sm.getBitMasks();
+		return masks.length == 4 && masks[0] == 0xFF0000 && masks[1] == 0xFF00 && masks[2] == 0xFF
+				&& masks[3] == 0xFF000000;
+	}
+
+	private static boolean isInterleavedRgba(BufferedImage image) {
+		Raster raster = image.getRaster();
+		return raster.getSampleModel() instanceof ComponentSampleModel sm
+				&& raster.getDataBuffer() instanceof DataBufferByte
+				&& raster.getDataBuffer().getNumBanks() == 1
+				&& sm.getNumBands() == 4
+				&& image.getColorModel() instanceof ComponentColorModel cm
+				&& cm.getColorSpace().isCS_sRGB();
+	}
+
+	private static boolean isIndexed(BufferedImage image) {
+		Raster raster = image.getRaster();
+		return image.getColorModel() instanceof IndexColorModel
+				&& raster.getSampleModel() instanceof ComponentSampleModel sm
+				&& raster.getDataBuffer() instanceof DataBufferByte
+				&& sm.getNumBands() == 1
+				&& sm.getPixelStride() == 1;
+	}
+
+	static int[] pixels(BufferedImage image) {
+		return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+}
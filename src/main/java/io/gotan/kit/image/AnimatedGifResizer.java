@@ -0,0 +1,350 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Redimensionnement des GIF animés, image par image.
+ * <p>
+ * <code>ImageIO.read</code> ne rend que la première image d'un GIF. Ici les
+ * images sont lues une à une (<code>ImageReader.read(i)</code>) avec leurs
+ * métadonnées (position, méthode de disposition, délai), composées sur un
+ * canevas réutilisé de la taille de l'écran logique, redimensionnées puis
+ * écrites aussitôt par un encodeur en mode séquence. Seuls le canevas et, pour la
+ * disposition <code>restoreToPrevious</code>, la zone à restaurer restent en
+ * mémoire : la consommation ne dépend pas du nombre d'images.
+ */
+public final class AnimatedGifResizer {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(AnimatedGifResizer.class);
+
+	private static final String IMAGE_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+
+	private static final String STREAM_METADATA_FORMAT = "javax_imageio_gif_stream_1.0";
+
+	/**
+	 * Avoid instantiation
+	 */
+	private AnimatedGifResizer() {
+	}
+
+	/**
+	 * Redimensionne un GIF (animé ou non).
+	 *
+	 * @param data   GIF source
+	 * @param width  Largeur du cadre
+	 * @param height Hauteur du cadre
+	 * @param mode   Façon de remplir le cadre
+	 * @return GIF redimensionné
+	 * @see #resize(InputStream, OutputStream, int, int, ResizeMode)
+	 */
+	public static byte[] resize(byte[] data, int width, int height, ResizeMode mode)
+			throws IOException, BadImageFormatException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+			resize(input, output, width, height, mode);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Redimensionne un GIF (animé ou non) d'un flux à l'autre.
+	 *
+	 * @param input  GIF source (non fermé)
+	 * @param output Flux de sortie (non fermé)
+	 * @param width  Largeur du cadre
+	 * @param height Hauteur du cadre
+	 * @param mode   Façon de remplir le cadre. Le contenu changeant d'une image à
+	 *               l'autre, {@link ResizeMode#SMART_CROP} est traité comme {@link ResizeMode#COVER}
+	 */
+	public static void resize(InputStream input, OutputStream output, int width, int height, ResizeMode mode)
+			throws IOException, BadImageFormatException {
+		try (ImageInputStream stream = ImageCodecPool.createInputStream(input)) {
+			resize(stream, output, width, height, mode);
+		}
+	}
+
+	private static void resize(ImageInputStream input, OutputStream output, int width, int height, ResizeMode mode)
+			throws IOException, BadImageFormatException {
+		if (!"gif".equals(ImageCodecPool.detectFormat(input))) {
+			throw new BadImageFormatException();
+		}
+		ImageReader reader = ImageCodecPool.borrowReader("gif");
+		if (reader == null) {
+			throw new BadImageFormatException();
+		}
+		boolean healthy = false;
+		try {
+			// Lecture en avant uniquement : les images déjà traitées ne sont pas conservées
+			reader.setInput(input, true, false);
+			write(reader, output, width, height, mode == ResizeMode.SMART_CROP ? ResizeMode.COVER : mode);
+			healthy = true;
+		} finally {
+			ImageCodecPool.release(reader, healthy);
+		}
+	}
+
+	private static void write(ImageReader reader, OutputStream output, int width, int height, ResizeMode mode)
+			throws IOException {
+		Canvas canvas = new Canvas(reader.getStreamMetadata());
+		Rectangle bounds = new Rectangle(0, 0, canvas.width, canvas.height);
+		Rectangle region = mode.sourceRegion(bounds, width, height);
+		Dimension target = mode.targetSize(region, width, height);
+
+		ImageWriter writer = ImageCodecPool.borrowWriter("gif",
+				ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB));
+		if (writer == null) {
+			throw new IOException("No GIF writer available");
+		}
+		boolean healthy = false;
+		try (ImageOutputStream stream = ImageCodecPool.createOutputStream(output)) {
+			writer.setOutput(stream);
+			writer.prepareWriteSequence(null);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			int index = 0;
+			while (true) {
+				IIOMetadata metadata;
+				try {
+					metadata = reader.getImageMetadata(index);
+				} catch (IndexOutOfBoundsException e) {
+					break;
+				}
+				Frame frame = new Frame(metadata);
+				canvas.draw(frame, reader.read(index));
+
+				BufferedImage view = canvas.view(region);
+				BufferedImage resized = view.getWidth() == target.getWidth() && view.getHeight() == target.getHeight()
+						? copy(view)
+						: Resampler.resize(view, target.getWidth(), target.getHeight(), Resampler.Filter.LANCZOS3, true);
+				binarizeAlpha(resized);
+				IIOMetadata outputMetadata = writer.getDefaultImageMetadata(
+						ImageTypeSpecifier.createFromRenderedImage(resized), param);
+				frame.writeTo(outputMetadata, index == 0);
+				writer.writeToSequence(new IIOImage(resized, null, outputMetadata), param);
+
+				canvas.dispose(frame);
+				index++;
+			}
+			if (index == 0) {
+				throw new IOException("GIF without any frame");
+			}
+			writer.endWriteSequence();
+			healthy = true;
+			logger.debug("Resized {} GIF frames to {}", index, target);
+		} finally {
+			ImageCodecPool.release(writer, healthy);
+		}
+	}
+
+	/**
+	 * Copie une vue du canevas : le canevas est modifié par l'image suivante.
+	 */
+	private static BufferedImage copy(BufferedImage view) {
+		BufferedImage result = new BufferedImage(view.getWidth(), view.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		int[] row = new int[view.getWidth()];
+		int[] dst = AlphaFlattener.pixels(result);
+		for (int y = 0; y < view.getHeight(); y++) {
+			view.getRGB(0, y, row.length, 1, row, 0, row.length);
+			System.arraycopy(row, 0, dst, y * row.length, row.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Le GIF n'a qu'une couleur transparente : l'alpha intermédiaire créé par le filtre est seuillé.
+	 */
+	private static void binarizeAlpha(BufferedImage image) {
+		if (!image.getColorModel().hasAlpha()) {
+			return;
+		}
+		int[] pixels = AlphaFlattener.pixels(image);
+		for (int i = 0; i < pixels.length; i++) {
+			int p = pixels[i];
+			pixels[i] = (p >>> 24) < 0x80 ? 0 : p | 0xFF000000;
+		}
+	}
+
+	private static int intAttribute(Node node, String name, int defaultValue) {
+		Node attribute = node.getAttributes().getNamedItem(name);
+		return attribute == null ? defaultValue : Integer.parseInt(attribute.getNodeValue());
+	}
+
+	private static IIOMetadataNode child(IIOMetadataNode parent, String name) {
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (name.equals(node.getNodeName())) {
+				return (IIOMetadataNode) node;
+			}
+		}
+		IIOMetadataNode node = new IIOMetadataNode(name);
+		parent.appendChild(node);
+		return node;
+	}
+
+	/**
+	 * Image d'un GIF : position, disposition, délai et boucle.
+	 */
+	private static final class Frame {
+		final Rectangle area;
+		final String disposal;
+		final int delay;
+		/**
+		 * Nombre de répétitions de l'animation (extension NETSCAPE2.0), -1 si absente.
+		 */
+		final int loops;
+
+		Frame(IIOMetadata metadata) {
+			IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(IMAGE_METADATA_FORMAT);
+			IIOMetadataNode descriptor = child(root, "ImageDescriptor");
+			area = new Rectangle(intAttribute(descriptor, "imageLeftPosition", 0),
+					intAttribute(descriptor, "imageTopPosition", 0),
+					intAttribute(descriptor, "imageWidth", 0),
+					intAttribute(descriptor, "imageHeight", 0));
+			IIOMetadataNode control = child(root, "GraphicControlExtension");
+			Node disposalMethod = control.getAttributes().getNamedItem("disposalMethod");
+			disposal = disposalMethod == null ? "none" : disposalMethod.getNodeValue();
+			delay = intAttribute(control, "delayTime", 0);
+			int loopCount = -1;
+			IIOMetadataNode extensions = child(root, "ApplicationExtensions");
+			for (Node node = extensions.getFirstChild(); node != null; node = node.getNextSibling()) {
+				IIOMetadataNode extension = (IIOMetadataNode) node;
+				if ("NETSCAPE".equals(extension.getAttribute("applicationID"))
+						&& extension.getUserObject() instanceof byte[] data && data.length >= 3) {
+					loopCount = (data[1] & 0xFF) | (data[2] & 0xFF) << 8;
+				}
+			}
+			loops = loopCount;
+		}
+
+		/**
+		 * Reporte délai et boucle sur les métadonnées de l'image écrite.
+		 * Chaque image écrite couvre tout l'écran : l'écran est effacé avant l'image suivante.
+		 */
+		void writeTo(IIOMetadata metadata, boolean first) throws IIOInvalidTreeException {
+			IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(IMAGE_METADATA_FORMAT);
+			IIOMetadataNode control = child(root, "GraphicControlExtension");
+			control.setAttribute("disposalMethod", "restoreToBackgroundColor");
+			control.setAttribute("userInputFlag", "FALSE");
+			control.setAttribute("delayTime", Integer.toString(delay));
+			if (first && loops >= 0) {
+				IIOMetadataNode extension = new IIOMetadataNode("ApplicationExtension");
+				extension.setAttribute("applicationID", "NETSCAPE");
+				extension.setAttribute("authenticationCode", "2.0");
+				extension.setUserObject(new byte[]{1, (byte) loops, (byte) (loops >> 8)});
+				child(root, "ApplicationExtensions").appendChild(extension);
+			}
+			metadata.setFromTree(IMAGE_METADATA_FORMAT, root);
+		}
+	}
+
+	/**
+	 * Écran logique du GIF, sur lequel les images sont composées.
+	 */
+	private static final class Canvas {
+		final int width;
+		final int height;
+		final BufferedImage image;
+		final int[] pixels;
+		/**
+		 * Zone sauvegardée pour la disposition <code>restoreToPrevious</code>.
+		 */
+		int[] saved;
+		int[] row = new int[0];
+
+		Canvas(IIOMetadata streamMetadata) throws IOException {
+			if (streamMetadata == null) {
+				throw new IOException("Missing GIF logical screen descriptor");
+			}
+			IIOMetadataNode root = (IIOMetadataNode) streamMetadata.getAsTree(STREAM_METADATA_FORMAT);
+			IIOMetadataNode screen = child(root, "LogicalScreenDescriptor");
+			width = intAttribute(screen, "logicalScreenWidth", 0);
+			height = intAttribute(screen, "logicalScreenHeight", 0);
+			if (width <= 0 || height <= 0) {
+				throw new IOException("Invalid GIF logical screen: %dx%d".formatted(width, height));
+			}
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		}
+
+		/**
+		 * Compose une image sur le canevas, les pixels transparents laissant voir le canevas.
+		 */
+		void draw(Frame frame, BufferedImage decoded) {
+			Rectangle area = frame.area.intersection(new Rectangle(0, 0, width, height));
+			if ("restoreToPrevious".equals(frame.disposal) && !area.isEmpty()) {
+				saved = new int[area.width * area.height];
+				for (int y = 0; y < area.height; y++) {
+					System.arraycopy(pixels, (area.y + y) * width + area.x, saved, y * area.width, area.width);
+				}
+			}
+			int decodedWidth = Math.min(decoded.getWidth(), width - frame.area.x);
+			int decodedHeight = Math.min(decoded.getHeight(), height - frame.area.y);
+			if (row.length < decoded.getWidth()) {
+				row = new int[decoded.getWidth()];
+			}
+			PixelFormats.RowReader source = PixelFormats.rowReader(decoded);
+			for (int y = 0; y < decodedHeight; y++) {
+				source.read(y, row);
+				int offset = (frame.area.y + y) * width + frame.area.x;
+				for (int x = 0; x < decodedWidth; x++) {
+					if ((row[x] >>> 24) != 0) {
+						pixels[offset + x] = row[x] | 0xFF000000;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Applique la méthode de disposition d'une image avant la suivante.
+		 */
+		void dispose(Frame frame) {
+			Rectangle area = frame.area.intersection(new Rectangle(0, 0, width, height));
+			if (area.isEmpty()) {
+				return;
+			}
+			if ("restoreToBackgroundColor".equals(frame.disposal)) {
+				// Comme les navigateurs : le fond restauré est transparent
+				for (int y = area.y; y < area.y + area.height; y++) {
+					Arrays.fill(pixels, y * width + area.x, y * width + area.x + area.width, 0);
+				}
+			} else if ("restoreToPrevious".equals(frame.disposal) && saved != null) {
+				for (int y = 0; y < area.height; y++) {
+					System.arraycopy(saved, y * area.width, pixels, (area.y + y) * width + area.x, area.width);
+				}
+				saved = null;
+			}
+		}
+
+		BufferedImage view(Rectangle region) {
+			if (region.x == 0 && region.y == 0 && region.width == width && region.height == height) {
+				return image;
+			}
+			return image.getSubimage(region.x, region.y, region.width, region.height);
+		}
+	}
+}
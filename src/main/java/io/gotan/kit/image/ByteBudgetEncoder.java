@@ -0,0 +1,409 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodage d'une image sous une taille maximum en octets (pièces jointes d'e-mail,
+ * notifications push…).
+ * <p>
+ * Pour le JPEG, la qualité est d'abord cherchée entre 0.3 et la qualité des
+ * {@link EncodeOptions} (0.9 si elle n'est pas renseignée) : la plus haute qualité
+ * qui tient dans le budget est retenue. Si même la qualité minimum dépasse, l'image
+ * est réduite ({@link Dimension#scale(float)}) d'un facteur estimé à partir de la taille
+ * obtenue en qualité 0.6 (proportionnelle au nombre de pixels), puis la qualité est
+ * cherchée de nouveau.
+ * Les formats sans perte (PNG, GIF, WebP sans perte, TIFF) n'ont que l'échelle comme
+ * paramètre : elle est affinée entre la plus grande échelle qui tient et la plus petite
+ * qui dépasse.
+ * <p>
+ * Chaque tour de recherche encode plusieurs candidats en parallèle sur le
+ * <code>ForkJoinPool</code> commun (un par cœur, de 2 à 4), répartis sur l'intervalle
+ * restant : la recherche converge en 2 ou 3 tours. L'image source n'est décodée et
+ * préparée qu'une fois ; les encodeurs sont empruntés à {@link ImageCodecPool}.
+ * <p>
+ * Usage :
+ * <pre>
+ * ByteBudgetEncoder.Result result = ByteBudgetEncoder.encode(image, ImageFormat.JPEG, 100_000);
+ * byte[] attachment = result.getData();
+ * </pre>
+ */
+public final class ByteBudgetEncoder {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(ByteBudgetEncoder.class);
+
+	/**
+	 * Qualité JPEG minimum : en dessous, réduire l'image donne un meilleur rendu.
+	 */
+	private static final float MIN_QUALITY = 0.3f;
+
+	/**
+	 * Qualité JPEG maximum si les paramètres d'encodage n'en fixent pas.
+	 */
+	private static final float DEFAULT_MAX_QUALITY = 0.9f;
+
+	/**
+	 * Qualité JPEG visée quand l'image doit être réduite : la réduction est estimée
+	 * pour que l'image tienne dans le budget à cette qualité.
+	 */
+	private static final float SCALED_QUALITY = 0.6f;
+
+	private static final float QUALITY_PRECISION = 0.02f;
+
+	private static final float SCALE_PRECISION = 0.01f;
+
+	/**
+	 * Marge appliquée au facteur de réduction estimé, pour tenir dans le budget dès le premier essai.
+	 */
+	private static final float SCALE_MARGIN = 0.95f;
+
+	private static final int MAX_ROUNDS = 3;
+
+	/**
+	 * Plus grand côté minimum d'une image réduite.
+	 */
+	private static final int MIN_SIDE = 16;
+
+	/**
+	 * Nombre de candidats encodés simultanément par tour.
+	 */
+	private static final int SPECULATION = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	/**
+	 * Avoid instantiation
+	 */
+	private ByteBudgetEncoder() {
+	}
+
+	/**
+	 * Encode une image sous une taille maximum, avec les paramètres d'encodage par défaut.
+	 *
+	 * @param image    Image à encoder
+	 * @param format   Format de sortie
+	 * @param maxBytes Taille maximum, en octets
+	 * @return Image encodée et paramètres retenus
+	 * @throws BudgetExceededException Le budget est trop petit, même pour une vignette
+	 */
+	public static Result encode(BufferedImage image, ImageFormat format, long maxBytes)
+			throws IOException, BadImageFormatException {
+		return encode(image, format, maxBytes, EncodeOptions.defaults());
+	}
+
+	/**
+	 * Encode une image sous une taille maximum.
+	 *
+	 * @param image    Image à encoder
+	 * @param format   Format de sortie
+	 * @param maxBytes Taille maximum, en octets
+	 * @param options  Paramètres d'encodage ; pour le JPEG, la qualité renseignée est la qualité maximum
+	 * @return Image encodée et paramètres retenus
+	 * @throws BudgetExceededException Le budget est trop petit, même pour une vignette
+	 */
+	public static Result encode(BufferedImage image, ImageFormat format, long maxBytes, EncodeOptions options)
+			throws IOException, BadImageFormatException {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Byte budget must be positive: " + maxBytes);
+		}
+		long start = System.nanoTime();
+		Search search = new Search(format, options, maxBytes);
+		boolean lossy = format == ImageFormat.JPEG;
+		// Préparée une seule fois pour tous les candidats
+		BufferedImage source = lossy ? ImageFormatConverter.removeAlphaChannel(image) : image;
+		float maxQuality = options.getJpegQuality() == EncodeOptions.UNSET ? DEFAULT_MAX_QUALITY : options.getJpegQuality();
+		float minQuality = Math.min(MIN_QUALITY, maxQuality);
+		float scaledQuality = Math.max(minQuality, Math.min(SCALED_QUALITY, maxQuality));
+
+		float factor = 1;
+		float failingFactor = 1;
+		BufferedImage scaled = source;
+		Candidate fit;
+		while (true) {
+			BufferedImage current = scaled;
+			float currentFactor = factor;
+			Outcome outcome = lossy
+					? search.run(minQuality, maxQuality, scaledQuality, QUALITY_PRECISION,
+							quality -> search.encode(current, currentFactor, quality))
+					: search.run(factor, factor, factor, SCALE_PRECISION,
+							f -> search.encode(current, f, EncodeOptions.UNSET));
+			if (outcome.fit != null) {
+				fit = outcome.fit;
+				break;
+			}
+			failingFactor = factor;
+			// Taille proportionnelle au nombre de pixels : facteur en racine carrée du rapport des tailles
+			double ratio = (double) maxBytes / outcome.failure.data.length;
+			factor *= (float) Math.min(SCALE_MARGIN, Math.sqrt(ratio) * SCALE_MARGIN);
+			Dimension size = new Dimension(source.getWidth(), source.getHeight()).scale(factor);
+			if (size.getWidth() < 1 || size.getHeight() < 1 || Math.max(size.getWidth(), size.getHeight()) < MIN_SIDE) {
+				throw new BudgetExceededException(maxBytes, outcome.failure.data.length);
+			}
+			scaled = Resampler.resize(source, size.getWidth(), size.getHeight(), Resampler.Filter.LANCZOS3, true);
+		}
+		if (!lossy && factor < 1) {
+			// Seule l'échelle règle la taille : affinée entre l'échelle retenue et la précédente
+			fit = search.refine(fit, failingFactor, SCALE_PRECISION, f -> {
+				Dimension size = new Dimension(source.getWidth(), source.getHeight()).scale(f);
+				return search.encode(Resampler.resize(source, size.getWidth(), size.getHeight(),
+						Resampler.Filter.LANCZOS3, false), f, EncodeOptions.UNSET);
+			});
+		}
+		logger.debug("Encoded {} within {} bytes: {} bytes, {}x{}, quality {}, {} encodes in {} ms", format, maxBytes,
+				fit.data.length, fit.width, fit.height, fit.quality, search.encodes.get(),
+				(System.nanoTime() - start) / 1_000_000);
+		return new Result(fit, search.encodes.get());
+	}
+
+	/**
+	 * Recherche du plus grand paramètre (qualité ou échelle) dont l'encodage tient dans le budget,
+	 * la taille étant supposée croissante avec le paramètre.
+	 */
+	private static final class Search {
+		private final ImageFormat format;
+		private final EncodeOptions options;
+		private final long maxBytes;
+		private final AtomicInteger encodes = new AtomicInteger();
+
+		Search(ImageFormat format, EncodeOptions options, long maxBytes) {
+			this.format = format;
+			this.options = options;
+			this.maxBytes = maxBytes;
+		}
+
+		Candidate encode(BufferedImage image, float factor, float quality) throws IOException, BadImageFormatException {
+			EncodeOptions candidateOptions = options;
+			if (quality != EncodeOptions.UNSET) {
+				candidateOptions = options.copy().setJpegQuality(quality);
+			}
+			encodes.incrementAndGet();
+			byte[] data = ImageFormatConverter.convertImage(image, format, candidateOptions);
+			return new Candidate(factor, quality, image.getWidth(), image.getHeight(), data);
+		}
+
+		/**
+		 * Premier tour : les deux bornes et des points intermédiaires, puis affinage.
+		 *
+		 * @param estimate Paramètre du candidat retenu pour estimer la réduction, si aucun ne tient
+		 */
+		Outcome run(float lo, float hi, float estimate, float precision, Encoding encoding)
+				throws IOException, BadImageFormatException {
+			int count = hi > lo ? SPECULATION : 1;
+			float[] points = new float[count];
+			for (int i = 0; i < count; i++) {
+				points[i] = count == 1 ? hi : lo + (hi - lo) * i / (count - 1);
+			}
+			List<Candidate> candidates = encodeAll(points, encoding);
+			Candidate fit = null;
+			Candidate failure = null;
+			for (Candidate candidate : candidates) {
+				if (candidate.data.length > maxBytes) {
+					failure = candidate;
+					break;
+				}
+				fit = candidate;
+			}
+			if (fit == null) {
+				for (Candidate candidate : candidates) {
+					if (Math.abs(candidate.param() - estimate) < Math.abs(failure.param() - estimate)) {
+						failure = candidate;
+					}
+				}
+				return new Outcome(null, failure);
+			}
+			if (failure == null) {
+				return new Outcome(fit, null);
+			}
+			return new Outcome(refine(fit, failure.param(), precision, encoding), null);
+		}
+
+		/**
+		 * Tours suivants : candidats répartis strictement entre le plus grand paramètre
+		 * qui tient et le plus petit qui dépasse.
+		 */
+		Candidate refine(Candidate fit, float failing, float precision, Encoding encoding)
+				throws IOException, BadImageFormatException {
+			for (int round = 0; round < MAX_ROUNDS && failing - fit.param() > precision; round++) {
+				float from = fit.param();
+				float[] points = new float[SPECULATION];
+				for (int i = 0; i < SPECULATION; i++) {
+					points[i] = from + (failing - from) * (i + 1) / (SPECULATION + 1);
+				}
+				for (Candidate candidate : encodeAll(points, encoding)) {
+					if (candidate.data.length > maxBytes) {
+						failing = candidate.param();
+						break;
+					}
+					fit = candidate;
+				}
+			}
+			return fit;
+		}
+
+		/**
+		 * Encode les candidats en parallèle, le dernier dans le thread appelant.
+		 *
+		 * @return Candidats, dans l'ordre des paramètres
+		 */
+		private List<Candidate> encodeAll(float[] points, Encoding encoding) throws IOException, BadImageFormatException {
+			List<CompletableFuture<Candidate>> futures = new ArrayList<>();
+			for (int i = 0; i < points.length - 1; i++) {
+				float point = points[i];
+				futures.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						return encoding.encode(point);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					} catch (BadImageFormatException e) {
+						throw new CompletionException(e);
+					}
+				}, ForkJoinPool.commonPool()));
+			}
+			Candidate last = encoding.encode(points[points.length - 1]);
+			List<Candidate> candidates = new ArrayList<>();
+			for (CompletableFuture<Candidate> future : futures) {
+				candidates.add(join(future));
+			}
+			candidates.add(last);
+			return candidates;
+		}
+
+		private static Candidate join(CompletableFuture<Candidate> future) throws IOException, BadImageFormatException {
+			try {
+				return future.join();
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof UncheckedIOException unchecked) {
+					throw unchecked.getCause();
+				}
+				if (cause instanceof BadImageFormatException badFormat) {
+					throw badFormat;
+				}
+				if (cause instanceof RuntimeException runtime) {
+					throw runtime;
+				}
+				if (cause instanceof Error error) {
+					throw error;
+				}
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Encodage d'un candidat pour une valeur du paramètre cherché.
+	 */
+	@FunctionalInterface
+	private interface Encoding {
+		Candidate encode(float param) throws IOException, BadImageFormatException;
+	}
+
+	/**
+	 * Résultat d'un encodage candidat.
+	 */
+	private static final class Candidate {
+		private final float factor;
+		private final float quality;
+		private final int width;
+		private final int height;
+		private final byte[] data;
+
+		Candidate(float factor, float quality, int width, int height, byte[] data) {
+			this.factor = factor;
+			this.quality = quality;
+			this.width = width;
+			this.height = height;
+			this.data = data;
+		}
+
+		/**
+		 * Valeur du paramètre cherché : la qualité si elle varie, sinon l'échelle.
+		 */
+		float param() {
+			return quality != EncodeOptions.UNSET ? quality : factor;
+		}
+	}
+
+	/**
+	 * Premier tour d'une recherche : le meilleur candidat qui tient, ou le candidat servant à
+	 * estimer la réduction.
+	 */
+	private static final class Outcome {
+		private final Candidate fit;
+		private final Candidate failure;
+
+		Outcome(Candidate fit, Candidate failure) {
+			this.fit = fit;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Image encodée sous le budget.
+	 */
+	public static final class Result {
+		private final byte[] data;
+		private final float quality;
+		private final Dimension dimension;
+		private final int encodes;
+
+		Result(Candidate candidate, int encodes) {
+			this.data = candidate.data;
+			this.quality = candidate.quality;
+			this.dimension = new Dimension(candidate.width, candidate.height);
+			this.encodes = encodes;
+		}
+
+		/**
+		 * @return Image encodée
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return Qualité JPEG retenue, {@link EncodeOptions#UNSET} pour un format sans perte
+		 */
+		public float getQuality() {
+			return quality;
+		}
+
+		/**
+		 * @return Dimension de l'image encodée
+		 */
+		public Dimension getDimension() {
+			return dimension;
+		}
+
+		/**
+		 * @return Nombre d'encodages effectués par la recherche
+		 */
+		public int getEncodes() {
+			return encodes;
+		}
+	}
+
+	/**
+	 * Budget impossible à respecter, même en réduisant l'image au minimum.
+	 */
+	public static class BudgetExceededException extends IOException {
+		private static final long serialVersionUID = 4931870826345562917L;
+
+		BudgetExceededException(long maxBytes, long smallest) {
+			super("Unable to encode image within %d bytes (smallest attempt: %d bytes)".formatted(maxBytes, smallest));
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package io.gotan.kit.image;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Flux ImageIO en lecture sur un <code>ByteBuffer</code> (fichier mappé en mémoire, tableau...).
+ * <p>
+ * Les lectures sont absolues : plusieurs flux peuvent partager le même buffer
+ * depuis des threads différents, sans copie ni cache.
+ */
+final class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+	private final ByteBuffer buffer;
+
+	ByteBufferImageInputStream(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		if (streamPos >= buffer.limit()) {
+			return -1;
+		}
+		bitOffset = 0;
+		return buffer.get((int) streamPos++) & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (streamPos >= buffer.limit()) {
+			return -1;
+		}
+		bitOffset = 0;
+		int count = (int) Math.min(len, buffer.limit() - streamPos);
+		buffer.get((int) streamPos, b, off, count);
+		streamPos += count;
+		return count;
+	}
+
+	@Override
+	public long length() {
+		return buffer.limit();
+	}
+
+	@Override
+	public boolean isCached() {
+		return true;
+	}
+
+	@Override
+	public boolean isCachedMemory() {
+		return true;
+	}
+}
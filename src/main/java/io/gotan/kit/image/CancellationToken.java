@@ -0,0 +1,138 @@
+package io.gotan.kit.image;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+
+/**
+ * Annulation d'un décodage ou d'un encodage, explicite ({@link #cancel()}) ou à échéance.
+ * <p>
+ * Le jeton est consulté par les écouteurs de progression ImageIO, dans le thread du
+ * codec (le décodeur JPEG du JDK refuse un <code>abort()</code> venant d'un autre
+ * thread) : le codec est interrompu à la notification suivante, en général la ligne
+ * suivante, puis libéré au lieu d'être rendu au pool, avec l'image partielle.
+ * L'opération lève alors {@link CancelledException}, ou {@link DeadlineExceededException}
+ * si l'échéance est dépassée. {@link #cancel()} peut être appelé depuis n'importe quel thread.
+ * <p>
+ * Usage :
+ * <pre>
+ * CancellationToken token = CancellationToken.withTimeout(Duration.ofMillis(800));
+ * BufferedImage image = ImageUtils.getImage(upload, token);
+ * </pre>
+ */
+public final class CancellationToken {
+
+	/**
+	 * Jeton jamais annulé, pour les appels sans échéance.
+	 */
+	static final CancellationToken NONE = new CancellationToken(Long.MAX_VALUE);
+
+	/**
+	 * Échéance en <code>System.nanoTime()</code>, <code>Long.MAX_VALUE</code> si aucune.
+	 */
+	private final long deadline;
+
+	private volatile boolean cancelled;
+
+	private CancellationToken(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return Jeton sans échéance, annulé uniquement par {@link #cancel()}
+	 */
+	public static CancellationToken create() {
+		return new CancellationToken(Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param timeout Durée maximum de l'opération, à partir de maintenant
+	 * @return Jeton annulé à l'échéance ou par {@link #cancel()}
+	 */
+	public static CancellationToken withTimeout(Duration timeout) {
+		// System.nanoTime() peut être négatif : seule une addition vérifiée détecte le dépassement
+		long now = System.nanoTime();
+		long deadline;
+		try {
+			deadline = timeout.isNegative() ? now : Math.addExact(now, timeout.toNanos());
+		} catch (ArithmeticException e) {
+			deadline = Long.MAX_VALUE - 1;
+		}
+		return new CancellationToken(Math.min(deadline, Long.MAX_VALUE - 1));
+	}
+
+	/**
+	 * Annule les opérations utilisant ce jeton.
+	 */
+	public void cancel() {
+		if (this != NONE) {
+			cancelled = true;
+		}
+	}
+
+	/**
+	 * @return true si le jeton a été annulé ou si son échéance est dépassée
+	 */
+	public boolean isCancelled() {
+		return cancelled || isExpired();
+	}
+
+	/**
+	 * @return true si l'échéance est dépassée
+	 */
+	public boolean isExpired() {
+		return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * @return Temps restant avant l'échéance, <code>null</code> si le jeton n'en a pas
+	 */
+	public Duration remaining() {
+		if (deadline == Long.MAX_VALUE) {
+			return null;
+		}
+		return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+	}
+
+	/**
+	 * @return Échéance en <code>System.nanoTime()</code>, <code>Long.MAX_VALUE</code> si aucune
+	 */
+	long deadline() {
+		return deadline;
+	}
+
+	/**
+	 * Point de contrôle pour les traitements longs.
+	 *
+	 * @throws CancelledException Le jeton est annulé, ou son échéance dépassée
+	 */
+	public void throwIfCancelled() throws CancelledException {
+		if (isExpired()) {
+			throw new DeadlineExceededException();
+		}
+		if (cancelled) {
+			throw new CancelledException("Image operation cancelled");
+		}
+	}
+
+	/**
+	 * Opération annulée.
+	 */
+	public static class CancelledException extends InterruptedIOException {
+		private static final long serialVersionUID = 3620145482733416208L;
+
+		CancelledException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Opération interrompue par l'échéance de son jeton.
+	 */
+	public static class DeadlineExceededException extends CancelledException {
+		private static final long serialVersionUID = -2260737212563101958L;
+
+		DeadlineExceededException() {
+			super("Image operation deadline exceeded");
+		}
+	}
+}
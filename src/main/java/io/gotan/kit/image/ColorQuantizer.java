@@ -0,0 +1,621 @@
+package io.gotan.kit.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * Réduction d'une image en couleurs vraies à une palette (GIF, PNG-8).
+ * <p>
+ * Les couleurs sont comptées dans un histogramme de 32768 cases (5 bits par
+ * composante) ; la palette est initialisée par découpage médian de l'histogramme
+ * puis affinée par quelques itérations de k-means pondérées par les effectifs.
+ * Une image comptant déjà au plus <code>maxColors</code> couleurs est convertie
+ * sans perte, avec ses couleurs exactes (transparence partielle comprise).
+ * <p>
+ * Sinon la transparence est binaire : les pixels dont l'alpha est inférieur à 128
+ * utilisent une entrée transparente réservée, les autres sont rendus opaques.
+ */
+public final class ColorQuantizer {
+
+	/**
+	 * Nombre maximum de couleurs d'une palette.
+	 */
+	public static final int MAX_COLORS = 256;
+
+	private static final int HISTOGRAM_SIZE = 1 << 15;
+
+	private static final int ALPHA_THRESHOLD = 128;
+
+	private static final int KMEANS_ITERATIONS = 5;
+
+	/**
+	 * Matrice de Bayer 8x8 du tramage ordonné.
+	 */
+	private static final int[] BAYER = {
+			0, 32, 8, 40, 2, 34, 10, 42,
+			48, 16, 56, 24, 50, 18, 58, 26,
+			12, 44, 4, 36, 14, 46, 6, 38,
+			60, 28, 52, 20, 62, 30, 54, 22,
+			3, 35, 11, 43, 1, 33, 9, 41,
+			51, 19, 59, 27, 49, 17, 57, 25,
+			15, 47, 7, 39, 13, 45, 5, 37,
+			63, 31, 55, 23, 61, 29, 53, 21
+	};
+
+	/**
+	 * Avoid instantiation
+	 */
+	private ColorQuantizer() {
+	}
+
+	/**
+	 * Réduit une image à 256 couleurs, avec tramage Floyd-Steinberg.
+	 *
+	 * @param image Image source
+	 * @return Image <code>TYPE_BYTE_INDEXED</code>
+	 */
+	public static BufferedImage quantize(BufferedImage image) {
+		return quantize(image, MAX_COLORS, Dithering.FLOYD_STEINBERG);
+	}
+
+	/**
+	 * Réduit une image à une palette.
+	 *
+	 * @param image     Image source
+	 * @param maxColors Nombre maximum de couleurs (2 à 256), entrée transparente comprise
+	 * @param dithering Tramage
+	 * @return Image <code>TYPE_BYTE_INDEXED</code>
+	 */
+	public static BufferedImage quantize(BufferedImage image, int maxColors, Dithering dithering) {
+		if (maxColors < 2 || maxColors > MAX_COLORS) {
+			throw new IllegalArgumentException("Palette size must be between 2 and " + MAX_COLORS);
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = readPixels(image);
+
+		int[] exact = distinctColors(argb, maxColors);
+		if (exact != null) {
+			return mapExact(argb, width, height, exact);
+		}
+
+		Histogram histogram = new Histogram(argb);
+		int[] palette = histogram.palette(histogram.transparent ? maxColors - 1 : maxColors);
+		Mapper mapper = new Mapper(palette);
+		int transparentIndex = histogram.transparent ? palette.length : -1;
+
+		int size = palette.length + (histogram.transparent ? 1 : 0);
+		byte[] r = new byte[size];
+		byte[] g = new byte[size];
+		byte[] b = new byte[size];
+		for (int i = 0; i < palette.length; i++) {
+			r[i] = (byte) (palette[i] >>> 16);
+			g[i] = (byte) (palette[i] >>> 8);
+			b[i] = (byte) palette[i];
+		}
+		IndexColorModel colorModel = new IndexColorModel(8, size, r, g, b, transparentIndex);
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+		byte[] indices = ((DataBufferByte) result.getRaster().getDataBuffer()).getData();
+		switch (dithering) {
+			case NONE -> ParallelRows.run(height, width, true, (y0, y1) -> {
+				for (int i = y0 * width, end = y1 * width; i < end; i++) {
+					int pixel = argb[i];
+					indices[i] = (byte) (pixel >>> 24 < ALPHA_THRESHOLD ? transparentIndex
+							: mapper.index((pixel >>> 16) & 0xFF, (pixel >>> 8) & 0xFF, pixel & 0xFF));
+				}
+			});
+			case ORDERED -> {
+				int spread = (int) (128 / Math.cbrt(palette.length));
+				ParallelRows.run(height, width, true, (y0, y1) -> {
+					for (int y = y0; y < y1; y++) {
+						for (int x = 0, i = y * width; x < width; x++, i++) {
+							int pixel = argb[i];
+							if (pixel >>> 24 < ALPHA_THRESHOLD) {
+								indices[i] = (byte) transparentIndex;
+								continue;
+							}
+							int offset = (BAYER[(y & 7) << 3 | (x & 7)] - 32) * spread / 64;
+							indices[i] = (byte) mapper.index(clamp(((pixel >>> 16) & 0xFF) + offset),
+									clamp(((pixel >>> 8) & 0xFF) + offset), clamp((pixel & 0xFF) + offset));
+						}
+					}
+				});
+			}
+			case FLOYD_STEINBERG -> floydSteinberg(argb, width, height, palette, mapper, transparentIndex, indices);
+		}
+		return result;
+	}
+
+	/**
+	 * Lit les pixels en ARGB non prémultiplié.
+	 */
+	private static int[] readPixels(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = new int[width * height];
+		PixelFormats.RowReader reader = PixelFormats.rowReader(image);
+		ParallelRows.run(height, width, true, (y0, y1) -> {
+			int[] row = new int[width];
+			for (int y = y0; y < y1; y++) {
+				reader.read(y, row);
+				if (reader.isPremultiplied()) {
+					for (int x = 0; x < width; x++) {
+						row[x] = PixelFormats.unpremultiply(row[x]);
+					}
+				}
+				System.arraycopy(row, 0, argb, y * width, width);
+			}
+		});
+		return argb;
+	}
+
+	/**
+	 * @return Couleurs distinctes de l'image triées, <code>null</code> s'il y en a plus de <code>max</code>
+	 */
+	private static int[] distinctColors(int[] argb, int max) {
+		int[] slots = new int[1024];
+		boolean[] used = new boolean[slots.length];
+		int count = 0;
+		int previous = 0;
+		for (int i = 0; i < argb.length; i++) {
+			int pixel = argb[i];
+			if (pixel >>> 24 == 0) {
+				pixel = 0;
+			}
+			if (pixel == previous && i > 0) {
+				continue;
+			}
+			previous = pixel;
+			int slot = (pixel * 0x9E3779B1) >>> 22;
+			while (used[slot] && slots[slot] != pixel) {
+				slot = (slot + 1) & (slots.length - 1);
+			}
+			if (!used[slot]) {
+				if (++count > max) {
+					return null;
+				}
+				used[slot] = true;
+				slots[slot] = pixel;
+			}
+		}
+		int[] colors = new int[count];
+		int n = 0;
+		for (int i = 0; i < slots.length; i++) {
+			if (used[i]) {
+				colors[n++] = slots[i];
+			}
+		}
+		Arrays.sort(colors);
+		return colors;
+	}
+
+	private static BufferedImage mapExact(int[] argb, int width, int height, int[] colors) {
+		int size = colors.length;
+		byte[] r = new byte[size];
+		byte[] g = new byte[size];
+		byte[] b = new byte[size];
+		byte[] a = new byte[size];
+		for (int i = 0; i < size; i++) {
+			a[i] = (byte) (colors[i] >>> 24);
+			r[i] = (byte) (colors[i] >>> 16);
+			g[i] = (byte) (colors[i] >>> 8);
+			b[i] = (byte) colors[i];
+		}
+		IndexColorModel colorModel = new IndexColorModel(8, size, r, g, b, a);
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+		byte[] indices = ((DataBufferByte) result.getRaster().getDataBuffer()).getData();
+		ParallelRows.run(height, width, true, (y0, y1) -> {
+			int previous = 0;
+			int index = -1;
+			for (int i = y0 * width, end = y1 * width; i < end; i++) {
+				int pixel = argb[i] >>> 24 == 0 ? 0 : argb[i];
+				if (pixel != previous || index < 0) {
+					index = Arrays.binarySearch(colors, pixel);
+					previous = pixel;
+				}
+				indices[i] = (byte) index;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Diffusion d'erreur de Floyd-Steinberg, en serpentin. L'erreur diffusée est bornée
+	 * pour limiter les traînées sur les aplats saturés.
+	 */
+	private static void floydSteinberg(int[] argb, int width, int height, int[] palette, Mapper mapper,
+									   int transparentIndex, byte[] indices) {
+		// Erreurs en 1/16 par composante, avec une colonne de marge de chaque côté
+		int[] current = new int[(width + 2) * 3];
+		int[] next = new int[(width + 2) * 3];
+		for (int y = 0; y < height; y++) {
+			boolean reverse = (y & 1) != 0;
+			int step = reverse ? -1 : 1;
+			for (int n = 0, x = reverse ? width - 1 : 0; n < width; n++, x += step) {
+				int i = y * width + x;
+				int pixel = argb[i];
+				if (pixel >>> 24 < ALPHA_THRESHOLD) {
+					indices[i] = (byte) transparentIndex;
+					continue;
+				}
+				int e = (x + 1) * 3;
+				int r = clamp(((pixel >>> 16) & 0xFF) + limit(current[e]));
+				int g = clamp(((pixel >>> 8) & 0xFF) + limit(current[e + 1]));
+				int b = clamp((pixel & 0xFF) + limit(current[e + 2]));
+				int index = mapper.index(r, g, b);
+				indices[i] = (byte) index;
+				int color = palette[index];
+				diffuse(current, next, e, step * 3, r - ((color >>> 16) & 0xFF));
+				diffuse(current, next, e + 1, step * 3, g - ((color >>> 8) & 0xFF));
+				diffuse(current, next, e + 2, step * 3, b - (color & 0xFF));
+			}
+			int[] swap = current;
+			current = next;
+			next = swap;
+			Arrays.fill(next, 0);
+		}
+	}
+
+	private static void diffuse(int[] current, int[] next, int e, int step, int error) {
+		// 7/8 de l'erreur seulement : moins de bruit sur les zones unies
+		error = error * 7 / 8;
+		current[e + step] += error * 7;
+		next[e - step] += error * 3;
+		next[e] += error * 5;
+		next[e + step] += error;
+	}
+
+	/**
+	 * Borne l'erreur accumulée (en 1/16) à ±32 niveaux.
+	 */
+	private static int limit(int error) {
+		return Math.max(-32, Math.min(32, (error + 8) >> 4));
+	}
+
+	private static int clamp(int value) {
+		return value < 0 ? 0 : Math.min(255, value);
+	}
+
+	/**
+	 * Histogramme des couleurs opaques sur 5 bits par composante, avec la somme des
+	 * composantes 8 bits de chaque case pour calculer des moyennes exactes.
+	 */
+	private static final class Histogram {
+		private final int[] counts = new int[HISTOGRAM_SIZE];
+		private final long[] sums = new long[HISTOGRAM_SIZE * 3];
+		private boolean transparent;
+
+		Histogram(int[] argb) {
+			for (int pixel : argb) {
+				if (pixel >>> 24 < ALPHA_THRESHOLD) {
+					transparent = true;
+					continue;
+				}
+				int r = (pixel >>> 16) & 0xFF;
+				int g = (pixel >>> 8) & 0xFF;
+				int b = pixel & 0xFF;
+				int cell = (r >> 3) << 10 | (g >> 3) << 5 | (b >> 3);
+				counts[cell]++;
+				sums[cell * 3] += r;
+				sums[cell * 3 + 1] += g;
+				sums[cell * 3 + 2] += b;
+			}
+		}
+
+		/**
+		 * @return Palette d'au plus <code>colors</code> couleurs opaques
+		 */
+		int[] palette(int colors) {
+			int cells = 0;
+			for (int count : counts) {
+				if (count > 0) {
+					cells++;
+				}
+			}
+			if (cells == 0) {
+				return new int[]{0xFF000000};
+			}
+			// Couleur moyenne et effectif de chaque case non vide
+			int[] red = new int[cells];
+			int[] green = new int[cells];
+			int[] blue = new int[cells];
+			int[] weight = new int[cells];
+			for (int cell = 0, n = 0; cell < HISTOGRAM_SIZE; cell++) {
+				int count = counts[cell];
+				if (count > 0) {
+					red[n] = (int) ((sums[cell * 3] + count / 2) / count);
+					green[n] = (int) ((sums[cell * 3 + 1] + count / 2) / count);
+					blue[n] = (int) ((sums[cell * 3 + 2] + count / 2) / count);
+					weight[n++] = count;
+				}
+			}
+			int[][] channels = {red, green, blue};
+
+			int[] centroids = medianCut(channels, weight, Math.min(colors, cells));
+			int k = centroids.length / 3;
+			int[] assignment = new int[cells];
+			Arrays.fill(assignment, -1);
+			for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+				boolean changed = false;
+				long[] totals = new long[k * 4];
+				ColorSearch search = new ColorSearch(centroids, k);
+				for (int i = 0; i < cells; i++) {
+					int nearest = search.nearest(red[i], green[i], blue[i]);
+					if (nearest != assignment[i]) {
+						changed = true;
+						assignment[i] = nearest;
+					}
+					long w = weight[i];
+					totals[nearest * 4] += red[i] * w;
+					totals[nearest * 4 + 1] += green[i] * w;
+					totals[nearest * 4 + 2] += blue[i] * w;
+					totals[nearest * 4 + 3] += w;
+				}
+				if (!changed) {
+					break;
+				}
+				for (int c = 0; c < k; c++) {
+					long w = totals[c * 4 + 3];
+					if (w > 0) {
+						centroids[c * 3] = (int) ((totals[c * 4] + w / 2) / w);
+						centroids[c * 3 + 1] = (int) ((totals[c * 4 + 1] + w / 2) / w);
+						centroids[c * 3 + 2] = (int) ((totals[c * 4 + 2] + w / 2) / w);
+					}
+				}
+			}
+
+			int[] palette = new int[k];
+			for (int c = 0; c < k; c++) {
+				palette[c] = 0xFF000000 | centroids[c * 3] << 16 | centroids[c * 3 + 1] << 8 | centroids[c * 3 + 2];
+			}
+			return palette;
+		}
+
+		/**
+		 * Découpage médian : la boîte de plus forte variance pondérée est coupée en deux
+		 * au médian de sa composante la plus étendue, jusqu'à obtenir <code>k</code> boîtes.
+		 *
+		 * @return Centres des boîtes (r, g, b consécutifs)
+		 */
+		private static int[] medianCut(int[][] channels, int[] weight, int k) {
+			int cells = weight.length;
+			int[] order = new int[cells];
+			for (int i = 0; i < cells; i++) {
+				order[i] = i;
+			}
+			// Boîtes : [début, fin[ dans order
+			int[] starts = new int[k];
+			int[] ends = new int[k];
+			ends[0] = cells;
+			int boxes = 1;
+			// Variance et axe de découpe de chaque boîte, calculés à sa création
+			double[] scores = new double[k];
+			int[] axes = new int[k];
+			score(channels, weight, order, starts, ends, scores, axes, 0);
+			long[] keys = new long[cells];
+			while (boxes < k) {
+				int best = -1;
+				double bestScore = 0;
+				for (int box = 0; box < boxes; box++) {
+					if (scores[box] > bestScore) {
+						bestScore = scores[box];
+						best = box;
+					}
+				}
+				if (best < 0) {
+					break;
+				}
+				int bestAxis = axes[best];
+				int start = starts[best];
+				int end = ends[best];
+				int[] channel = channels[bestAxis];
+				for (int i = start; i < end; i++) {
+					keys[i] = (long) channel[order[i]] << 32 | order[i];
+				}
+				Arrays.sort(keys, start, end);
+				long total = 0;
+				for (int i = start; i < end; i++) {
+					order[i] = (int) keys[i];
+					total += weight[order[i]];
+				}
+				long half = 0;
+				int split = start + 1;
+				for (int i = start; i < end - 1; i++) {
+					half += weight[order[i]];
+					split = i + 1;
+					if (half * 2 >= total) {
+						break;
+					}
+				}
+				ends[best] = split;
+				starts[boxes] = split;
+				ends[boxes] = end;
+				score(channels, weight, order, starts, ends, scores, axes, best);
+				score(channels, weight, order, starts, ends, scores, axes, boxes);
+				boxes++;
+			}
+
+			int[] centroids = new int[boxes * 3];
+			for (int box = 0; box < boxes; box++) {
+				long w = 0;
+				long r = 0;
+				long g = 0;
+				long b = 0;
+				for (int i = starts[box]; i < ends[box]; i++) {
+					int cell = order[i];
+					w += weight[cell];
+					r += (long) channels[0][cell] * weight[cell];
+					g += (long) channels[1][cell] * weight[cell];
+					b += (long) channels[2][cell] * weight[cell];
+				}
+				centroids[box * 3] = (int) ((r + w / 2) / w);
+				centroids[box * 3 + 1] = (int) ((g + w / 2) / w);
+				centroids[box * 3 + 2] = (int) ((b + w / 2) / w);
+			}
+			return centroids;
+		}
+
+		private static void score(int[][] channels, int[] weight, int[] order, int[] starts, int[] ends,
+								  double[] scores, int[] axes, int box) {
+			scores[box] = 0;
+			if (ends[box] - starts[box] < 2) {
+				return;
+			}
+			for (int axis = 0; axis < 3; axis++) {
+				double score = variance(channels[axis], weight, order, starts[box], ends[box]);
+				if (score > scores[box]) {
+					scores[box] = score;
+					axes[box] = axis;
+				}
+			}
+		}
+
+		/**
+		 * @return Somme des carrés des écarts pondérés d'une composante sur une boîte
+		 */
+		private static double variance(int[] channel, int[] weight, int[] order, int start, int end) {
+			double w = 0;
+			double sum = 0;
+			double squares = 0;
+			for (int i = start; i < end; i++) {
+				int cell = order[i];
+				double value = channel[cell];
+				w += weight[cell];
+				sum += value * weight[cell];
+				squares += value * value * weight[cell];
+			}
+			return squares - sum * sum / w;
+		}
+	}
+
+	/**
+	 * Recherche du centre le plus proche d'une couleur.
+	 * <p>
+	 * Les centres sont triés par composante verte : la recherche part du vert de la couleur
+	 * et s'arrête dès que l'écart de vert seul dépasse la meilleure distance trouvée.
+	 * La distance est pondérée selon la sensibilité approximative de l'œil.
+	 */
+	private static final class ColorSearch {
+		private final int[] red;
+		private final int[] green;
+		private final int[] blue;
+		private final int[] indices;
+
+		ColorSearch(int[] centroids, int k) {
+			long[] keys = new long[k];
+			for (int c = 0; c < k; c++) {
+				keys[c] = (long) centroids[c * 3 + 1] << 32 | c;
+			}
+			Arrays.sort(keys);
+			red = new int[k];
+			green = new int[k];
+			blue = new int[k];
+			indices = new int[k];
+			for (int i = 0; i < k; i++) {
+				int c = (int) keys[i];
+				indices[i] = c;
+				red[i] = centroids[c * 3];
+				green[i] = centroids[c * 3 + 1];
+				blue[i] = centroids[c * 3 + 2];
+			}
+		}
+
+		int nearest(int r, int g, int b) {
+			int k = green.length;
+			int start = Arrays.binarySearch(green, g);
+			if (start < 0) {
+				start = Math.min(k - 1, -start - 1);
+			}
+			int best = start;
+			int bestDistance = Integer.MAX_VALUE;
+			boolean up = true;
+			boolean down = true;
+			for (int offset = 0; up || down; offset++) {
+				if (up) {
+					int i = start + offset;
+					int dg = i < k ? green[i] - g : Integer.MAX_VALUE;
+					if (i >= k || 4 * dg * dg >= bestDistance) {
+						up = false;
+					} else {
+						int dr = red[i] - r;
+						int db = blue[i] - b;
+						int distance = 2 * dr * dr + 4 * dg * dg + 3 * db * db;
+						if (distance < bestDistance) {
+							bestDistance = distance;
+							best = i;
+						}
+					}
+				}
+				if (down && offset > 0) {
+					int i = start - offset;
+					int dg = i >= 0 ? green[i] - g : Integer.MAX_VALUE;
+					if (i < 0 || 4 * dg * dg >= bestDistance) {
+						down = false;
+					} else {
+						int dr = red[i] - r;
+						int db = blue[i] - b;
+						int distance = 2 * dr * dr + 4 * dg * dg + 3 * db * db;
+						if (distance < bestDistance) {
+							bestDistance = distance;
+							best = i;
+						}
+					}
+				}
+			}
+			return indices[best];
+		}
+	}
+
+	/**
+	 * Recherche de la couleur de palette la plus proche, mise en cache par case de 5 bits.
+	 * Utilisable depuis plusieurs threads : une case calculée deux fois donne le même résultat.
+	 */
+	private static final class Mapper {
+		private final ColorSearch search;
+		private final short[] cache = new short[HISTOGRAM_SIZE];
+
+		Mapper(int[] palette) {
+			int k = palette.length;
+			int[] centroids = new int[k * 3];
+			for (int i = 0; i < k; i++) {
+				centroids[i * 3] = (palette[i] >>> 16) & 0xFF;
+				centroids[i * 3 + 1] = (palette[i] >>> 8) & 0xFF;
+				centroids[i * 3 + 2] = palette[i] & 0xFF;
+			}
+			search = new ColorSearch(centroids, k);
+			Arrays.fill(cache, (short) -1);
+		}
+
+		int index(int r, int g, int b) {
+			int cell = (r >> 3) << 10 | (g >> 3) << 5 | (b >> 3);
+			int index = cache[cell];
+			if (index < 0) {
+				// Centre de la case
+				index = search.nearest((r & ~7) | 4, (g & ~7) | 4, (b & ~7) | 4);
+				cache[cell] = (short) index;
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Tramage appliqué lors de la réduction.
+	 */
+	public enum Dithering {
+		/**
+		 * Couleur la plus proche : aplats nets, dégradés en bandes.
+		 */
+		NONE,
+		/**
+		 * Tramage ordonné (matrice de Bayer) : motif régulier, stable d'une image à l'autre
+		 * (adapté aux animations), parallélisable.
+		 */
+		ORDERED,
+		/**
+		 * Diffusion d'erreur de Floyd-Steinberg : meilleur rendu des dégradés et photos.
+		 */
+		FLOYD_STEINBERG
+	}
+}
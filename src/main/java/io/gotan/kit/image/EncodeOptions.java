@@ -0,0 +1,304 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ColorQuantizer.Dithering;
+
+import java.time.Duration;
+import java.util.zip.Deflater;
+
+/**
+ * Paramètres d'encodage transmis aux <code>ImageWriter</code>.
+ * <p>
+ * Les valeurs non renseignées laissent le comportement par défaut de
+ * l'encodeur (identique à <code>ImageIO.write</code>).
+ * <p>
+ * Usage :
+ * <pre>
+ * byte[] data = ImageFormatConverter.convertImage(image, ImageFormat.JPEG,
+ *         EncodeOptions.small().setJpegQuality(0.6f));
+ * </pre>
+ */
+public class EncodeOptions {
+
+	/**
+	 * Valeur indiquant un paramètre laissé au choix de l'encodeur.
+	 */
+	public static final int UNSET = -1;
+
+	/**
+	 * Qualité JPEG entre 0 et 1, {@link #UNSET} pour la valeur de l'encodeur (0.75).
+	 */
+	private float jpegQuality = UNSET;
+
+	/**
+	 * Encodage JPEG progressif.
+	 */
+	private boolean progressive;
+
+	/**
+	 * Tables de Huffman JPEG optimisées pour l'image (un peu plus lent, un peu plus petit).
+	 */
+	private boolean optimizeHuffmanTables;
+
+	/**
+	 * Niveau de compression deflate PNG entre 0 et 9, {@link #UNSET} pour la valeur de l'encodeur.
+	 */
+	private int pngCompressionLevel = UNSET;
+
+	/**
+	 * Stratégie deflate PNG (<code>Deflater.DEFAULT_STRATEGY</code>, <code>FILTERED</code>, <code>HUFFMAN_ONLY</code>).
+	 */
+	private int pngDeflateStrategy = Deflater.DEFAULT_STRATEGY;
+
+	/**
+	 * Filtre de lignes PNG.
+	 */
+	private PngFilter pngFilter = PngFilter.ADAPTIVE;
+
+	/**
+	 * Budget de recherche du plus petit PNG ({@link PngOptimizer}), <code>null</code> pour ne pas optimiser.
+	 */
+	private Duration pngOptimizationBudget;
+
+	/**
+	 * Nombre maximum de couleurs de la palette : PNG-8 si renseigné, 256 par défaut pour le GIF.
+	 */
+	private int paletteColors = UNSET;
+
+	/**
+	 * Tramage de la réduction de couleurs (GIF, PNG-8).
+	 */
+	private Dithering dithering = Dithering.FLOYD_STEINBERG;
+
+	/**
+	 * Image transmise telle quelle à l'encodeur ImageIO, sans paramètres d'écriture.
+	 */
+	private boolean plainImageIO;
+
+	/**
+	 * Paramètres par défaut des encodeurs.
+	 */
+	public static EncodeOptions defaults() {
+		return new EncodeOptions();
+	}
+
+	/**
+	 * Paramètres des méthodes de conversion historiques de {@link ImageFormatConverter} :
+	 * à défaut de codec enregistré, l'image est écrite telle quelle par l'encodeur ImageIO
+	 * du format (palette GIF du JDK, transparence conservée en TIFF).
+	 */
+	static EncodeOptions legacy() {
+		EncodeOptions options = new EncodeOptions();
+		options.plainImageIO = true;
+		return options;
+	}
+
+	/**
+	 * Privilégie le temps CPU : deflate niveau 1 et filtre SUB pour le PNG.
+	 */
+	public static EncodeOptions fast() {
+		return new EncodeOptions()
+				.setPngCompressionLevel(1)
+				.setPngFilter(PngFilter.SUB);
+	}
+
+	/**
+	 * Privilégie la taille : deflate niveau 9 pour le PNG, JPEG progressif
+	 * avec tables de Huffman optimisées.
+	 */
+	public static EncodeOptions small() {
+		return new EncodeOptions()
+				.setPngCompressionLevel(Deflater.BEST_COMPRESSION)
+				.setProgressive(true)
+				.setOptimizeHuffmanTables(true);
+	}
+
+	public float getJpegQuality() {
+		return jpegQuality;
+	}
+
+	/**
+	 * @param jpegQuality Qualité entre 0 et 1
+	 */
+	public EncodeOptions setJpegQuality(float jpegQuality) {
+		if (jpegQuality != UNSET && (jpegQuality < 0 || jpegQuality > 1)) {
+			throw new IllegalArgumentException("JPEG quality must be between 0 and 1");
+		}
+		this.jpegQuality = jpegQuality;
+		return this;
+	}
+
+	public boolean isProgressive() {
+		return progressive;
+	}
+
+	public EncodeOptions setProgressive(boolean progressive) {
+		this.progressive = progressive;
+		return this;
+	}
+
+	public boolean isOptimizeHuffmanTables() {
+		return optimizeHuffmanTables;
+	}
+
+	public EncodeOptions setOptimizeHuffmanTables(boolean optimizeHuffmanTables) {
+		this.optimizeHuffmanTables = optimizeHuffmanTables;
+		return this;
+	}
+
+	public int getPngCompressionLevel() {
+		return pngCompressionLevel;
+	}
+
+	/**
+	 * @param pngCompressionLevel Niveau deflate entre 0 (aucune compression) et 9
+	 */
+	public EncodeOptions setPngCompressionLevel(int pngCompressionLevel) {
+		if (pngCompressionLevel != UNSET && (pngCompressionLevel < 0 || pngCompressionLevel > 9)) {
+			throw new IllegalArgumentException("PNG compression level must be between 0 and 9");
+		}
+		this.pngCompressionLevel = pngCompressionLevel;
+		return this;
+	}
+
+	public int getPngDeflateStrategy() {
+		return pngDeflateStrategy;
+	}
+
+	/**
+	 * @param pngDeflateStrategy Une des constantes <code>Deflater.*_STRATEGY</code> / <code>HUFFMAN_ONLY</code>
+	 */
+	public EncodeOptions setPngDeflateStrategy(int pngDeflateStrategy) {
+		this.pngDeflateStrategy = pngDeflateStrategy;
+		return this;
+	}
+
+	public PngFilter getPngFilter() {
+		return pngFilter;
+	}
+
+	public EncodeOptions setPngFilter(PngFilter pngFilter) {
+		this.pngFilter = pngFilter;
+		return this;
+	}
+
+	public Duration getPngOptimizationBudget() {
+		return pngOptimizationBudget;
+	}
+
+	/**
+	 * Active l'optimisation PNG : réduction sans perte du type de l'image et essai de tous
+	 * les filtres et de plusieurs réglages deflate en parallèle. Remplace le filtre, le niveau
+	 * et la stratégie deflate demandés.
+	 *
+	 * @param pngOptimizationBudget Temps maximum de recherche, <code>null</code> pour désactiver
+	 */
+	public EncodeOptions setPngOptimizationBudget(Duration pngOptimizationBudget) {
+		if (pngOptimizationBudget != null && pngOptimizationBudget.isNegative()) {
+			throw new IllegalArgumentException("PNG optimization budget must be positive");
+		}
+		this.pngOptimizationBudget = pngOptimizationBudget;
+		return this;
+	}
+
+	public int getPaletteColors() {
+		return paletteColors;
+	}
+
+	/**
+	 * Réduit l'image à une palette avant l'encodage (PNG-8 pour le PNG).
+	 *
+	 * @param paletteColors Nombre maximum de couleurs entre 2 et 256, {@link #UNSET} pour la valeur du format
+	 * @see ColorQuantizer
+	 */
+	public EncodeOptions setPaletteColors(int paletteColors) {
+		if (paletteColors != UNSET && (paletteColors < 2 || paletteColors > ColorQuantizer.MAX_COLORS)) {
+			throw new IllegalArgumentException("Palette size must be between 2 and " + ColorQuantizer.MAX_COLORS);
+		}
+		this.paletteColors = paletteColors;
+		return this;
+	}
+
+	public Dithering getDithering() {
+		return dithering;
+	}
+
+	public EncodeOptions setDithering(Dithering dithering) {
+		this.dithering = dithering;
+		return this;
+	}
+
+	/**
+	 * @return Copie indépendante de ces paramètres
+	 */
+	EncodeOptions copy() {
+		EncodeOptions copy = new EncodeOptions();
+		copy.jpegQuality = jpegQuality;
+		copy.progressive = progressive;
+		copy.optimizeHuffmanTables = optimizeHuffmanTables;
+		copy.pngCompressionLevel = pngCompressionLevel;
+		copy.pngDeflateStrategy = pngDeflateStrategy;
+		copy.pngFilter = pngFilter;
+		copy.pngOptimizationBudget = pngOptimizationBudget;
+		copy.paletteColors = paletteColors;
+		copy.dithering = dithering;
+		copy.plainImageIO = plainImageIO;
+		return copy;
+	}
+
+	/**
+	 * @return true si l'image doit être écrite telle quelle par l'encodeur ImageIO
+	 * @see #legacy()
+	 */
+	boolean isPlainImageIO() {
+		return plainImageIO;
+	}
+
+	/**
+	 * Est ce que l'encodeur PNG du JDK suffit pour ces paramètres.
+	 * <p>
+	 * L'encodeur du JDK filtre toujours en adaptatif et n'expose pas la stratégie deflate.
+	 */
+	boolean isJdkPngCompatible() {
+		return pngFilter == PngFilter.ADAPTIVE && pngDeflateStrategy == Deflater.DEFAULT_STRATEGY;
+	}
+
+	@Override
+	public String toString() {
+		return "EncodeOptions{" +
+				"jpegQuality=" + jpegQuality +
+				", progressive=" + progressive +
+				", optimizeHuffmanTables=" + optimizeHuffmanTables +
+				", pngCompressionLevel=" + pngCompressionLevel +
+				", pngDeflateStrategy=" + pngDeflateStrategy +
+				", pngFilter=" + pngFilter +
+				", pngOptimizationBudget=" + pngOptimizationBudget +
+				", paletteColors=" + paletteColors +
+				", dithering=" + dithering +
+				", plainImageIO=" + plainImageIO +
+				'}';
+	}
+
+	/**
+	 * Filtres de lignes PNG (RFC 2083, section 6).
+	 */
+	public enum PngFilter {
+		NONE(0), SUB(1), UP(2), AVERAGE(3), PAETH(4),
+		/**
+		 * Choix du filtre ligne par ligne (somme minimale des différences).
+		 */
+		ADAPTIVE(-1);
+
+		private final int type;
+
+		PngFilter(int type) {
+			this.type = type;
+		}
+
+		/**
+		 * @return Octet de type de filtre PNG, -1 pour le mode adaptatif
+		 */
+		public int getType() {
+			return type;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * Codec d'image enregistrable dans {@link ImageCodecRegistry}.
+ * <p>
+ * Un codec déclare les formats qu'il gère, ses capacités et sa priorité : pour chaque
+ * opération, le registre retient le codec de plus forte priorité qui gère le format et
+ * les capacités nécessaires, puis se replie sur ImageIO. Un codec peut ainsi remplacer
+ * l'encodeur JPEG du JDK par un encodeur plus rapide, sans modifier les appelants.
+ * <p>
+ * Les codecs sont partagés entre threads : ils doivent être sans état, ou synchronisés.
+ * Ils sont enregistrés par {@link ImageCodecRegistry#register(ImageCodec)} ou découverts
+ * par <code>ServiceLoader</code> (fichier <code>META-INF/services/io.gotan.kit.image.ImageCodec</code>).
+ */
+public interface ImageCodec {
+
+	/**
+	 * Priorité par défaut d'un codec enregistré.
+	 */
+	int DEFAULT_PRIORITY = 0;
+
+	/**
+	 * Priorité des codecs fournis par la bibliothèque : tout codec enregistré sans priorité passe avant.
+	 */
+	int BUILTIN_PRIORITY = -100;
+
+	/**
+	 * @return Formats gérés
+	 */
+	Set<ImageFormat> getFormats();
+
+	/**
+	 * @return Capacités du codec, pour tous ses formats
+	 */
+	Set<Capability> getCapabilities();
+
+	/**
+	 * @return Priorité, la plus forte l'emporte
+	 */
+	default int getPriority() {
+		return DEFAULT_PRIORITY;
+	}
+
+	/**
+	 * Décode la première image d'un flux. Appelé seulement si le codec a la capacité
+	 * {@link Capability#DECODE}, et {@link Capability#SUBSAMPLING} ou {@link Capability#REGION}
+	 * si les paramètres de lecture les demandent.
+	 *
+	 * @param stream Flux positionné au début de l'image (non fermé)
+	 * @param format Format détecté en tête de flux
+	 * @param param  Paramètres de lecture, éventuellement <code>null</code>
+	 * @param token  Jeton d'annulation ou d'échéance
+	 * @return Image
+	 * @throws IOException                          Erreur de décodage
+	 * @throws CancellationToken.CancelledException Décodage annulé ou hors délai
+	 */
+	default BufferedImage decode(ImageInputStream stream, ImageFormat format, ImageReadParam param,
+								 CancellationToken token) throws IOException {
+		throw new UnsupportedOperationException(getClass().getName() + " does not decode");
+	}
+
+	/**
+	 * Encode une image. Appelé seulement si le codec a la capacité {@link Capability#ENCODE}.
+	 * <p>
+	 * Un codec qui ne gère pas ce type d'image ou ces paramètres rend <code>false</code>
+	 * <strong>avant</strong> d'écrire dans le flux : le registre passe alors au codec suivant.
+	 *
+	 * @param image   Image à encoder
+	 * @param format  Format de sortie
+	 * @param options Paramètres d'encodage
+	 * @param token   Jeton d'annulation ou d'échéance
+	 * @param output  Flux de sortie (non fermé)
+	 * @return false si le codec ne gère pas cette image, rien n'a alors été écrit
+	 * @throws IOException                          Erreur d'encodage
+	 * @throws BadImageFormatException              Image impossible à encoder dans ce format
+	 * @throws CancellationToken.CancelledException Encodage annulé ou hors délai
+	 */
+	default boolean encode(BufferedImage image, ImageFormat format, EncodeOptions options, CancellationToken token,
+						   OutputStream output) throws IOException, BadImageFormatException {
+		throw new UnsupportedOperationException(getClass().getName() + " does not encode");
+	}
+
+	/**
+	 * Capacités d'un codec.
+	 */
+	enum Capability {
+		/**
+		 * Décodage.
+		 */
+		DECODE,
+		/**
+		 * Encodage.
+		 */
+		ENCODE,
+		/**
+		 * Décodage sous-échantillonné (<code>ImageReadParam.setSourceSubsampling</code>),
+		 * sans allouer l'image pleine taille.
+		 */
+		SUBSAMPLING,
+		/**
+		 * Décodage d'une région (<code>ImageReadParam.setSourceRegion</code>).
+		 */
+		REGION,
+		/**
+		 * Écriture progressive dans le flux de sortie, sans tampon de la taille de l'image encodée.
+		 */
+		STREAMING,
+		/**
+		 * Images multiples (pages TIFF, GIF animés).
+		 */
+		MULTI_FRAME
+	}
+}
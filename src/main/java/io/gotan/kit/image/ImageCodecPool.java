@@ -0,0 +1,560 @@
+package io.gotan.kit.image;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.FileCacheImageInputStream;
+import javax.imageio.stream.FileCacheImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.Function;
+
+/**
+ * Pool d'<code>ImageReader</code> / <code>ImageWriter</code> réutilisables, par format.
+ * <p>
+ * Évite la recherche des fournisseurs SPI et l'allocation d'un codec à chaque
+ * lecture ou écriture. Les codecs sont remis à zéro par <code>reset()</code>
+ * avant d'être rendus au pool ; un codec ayant échoué est libéré.
+ * <p>
+ * Usage au démarrage de l'application :
+ * <pre>
+ * ImageCodecPool.setStreamCache(ImageCodecPool.StreamCache.MEMORY);
+ * ImageCodecPool.warmUp();
+ * </pre>
+ */
+public final class ImageCodecPool {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(ImageCodecPool.class);
+
+	/**
+	 * Nombre maximum de codecs inactifs conservés par format.
+	 */
+	private static final int MAX_IDLE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static final Map<String, ConcurrentLinkedDeque<ImageReader>> readers = new ConcurrentHashMap<>();
+
+	private static final Map<String, ConcurrentLinkedDeque<ImageWriter>> writers = new ConcurrentHashMap<>();
+
+	/**
+	 * Cache utilisé par les flux créés par le pool.
+	 */
+	private static volatile StreamCache streamCache = StreamCache.MEMORY;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private ImageCodecPool() {
+	}
+
+	/**
+	 * Charge les plugins ImageIO et pré-remplit le pool pour chaque {@link ImageFormatConverter.ImageFormat}
+	 * disponible, en encodant et décodant une image d'un pixel pour charger les bibliothèques natives.
+	 */
+	public static void warmUp() {
+		long start = System.nanoTime();
+		ImageIO.scanForPlugins();
+		BufferedImage pixel = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		for (ImageFormatConverter.ImageFormat format : ImageFormatConverter.ImageFormat.values()) {
+			String formatName = formatName(format.getExtension());
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				if (write(pixel, formatName, writer -> null, out)) {
+					read(out.toByteArray());
+				}
+			} catch (IOException | RuntimeException e) {
+				logger.debug("Unable to warm up {} codecs: {}", formatName, e.getMessage());
+			}
+		}
+		logger.debug("Image codecs warmed up in {} ms", (System.nanoTime() - start) / 1_000_000);
+	}
+
+	public static StreamCache getStreamCache() {
+		return streamCache;
+	}
+
+	/**
+	 * Choisit le cache des flux créés par le pool.
+	 *
+	 * @param streamCache MEMORY (par défaut) ou DISK pour les très grosses images
+	 */
+	public static void setStreamCache(StreamCache streamCache) {
+		ImageCodecPool.streamCache = streamCache;
+	}
+
+	/**
+	 * Crée un flux d'entrée ImageIO selon le cache configuré.
+	 */
+	public static ImageInputStream createInputStream(InputStream input) throws IOException {
+		if (streamCache == StreamCache.DISK) {
+			return new FileCacheImageInputStream(input, ImageIO.getCacheDirectory());
+		}
+		return new MemoryCacheImageInputStream(input);
+	}
+
+	/**
+	 * Crée un flux de sortie ImageIO selon le cache configuré.
+	 */
+	public static ImageOutputStream createOutputStream(OutputStream output) throws IOException {
+		if (streamCache == StreamCache.DISK) {
+			return new FileCacheImageOutputStream(output, ImageIO.getCacheDirectory());
+		}
+		return new MemoryCacheImageOutputStream(output);
+	}
+
+	/**
+	 * Décode une image, équivalent de <code>ImageIO.read</code>.
+	 *
+	 * @param data Données binaires
+	 * @return Image, <code>null</code> si aucun décodeur ne reconnaît le format
+	 */
+	public static BufferedImage read(byte[] data) throws IOException {
+		// Les données sont déjà en mémoire : pas de cache disque
+		try (ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+			return read(stream, null);
+		}
+	}
+
+	/**
+	 * Décode la première image d'un flux.
+	 *
+	 * @param stream Flux positionné au début de l'image (non fermé)
+	 * @param param  Paramètres de lecture (région, sous-échantillonnage), éventuellement <code>null</code>
+	 * @return Image, <code>null</code> si aucun décodeur ne reconnaît le format
+	 */
+	public static BufferedImage read(ImageInputStream stream, ImageReadParam param) throws IOException {
+		return read(stream, param, CancellationToken.NONE);
+	}
+
+	/**
+	 * Décode une image en pouvant l'interrompre.
+	 *
+	 * @param data  Données binaires
+	 * @param token Jeton d'annulation ou d'échéance
+	 * @return Image, <code>null</code> si aucun décodeur ne reconnaît le format
+	 * @throws CancellationToken.CancelledException Décodage annulé ou hors délai
+	 */
+	public static BufferedImage read(byte[] data, CancellationToken token) throws IOException {
+		try (ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+			return read(stream, null, token);
+		}
+	}
+
+	/**
+	 * Décode la première image d'un flux en pouvant l'interrompre.
+	 * <p>
+	 * Le décodeur est interrompu à la première notification de progression suivant
+	 * l'annulation ou l'échéance ; il est alors libéré, ainsi que l'image partielle.
+	 *
+	 * @param stream Flux positionné au début de l'image (non fermé)
+	 * @param param  Paramètres de lecture (région, sous-échantillonnage), éventuellement <code>null</code>
+	 * @param token  Jeton d'annulation ou d'échéance
+	 * @return Image, <code>null</code> si aucun décodeur ne reconnaît le format
+	 * @throws CancellationToken.CancelledException Décodage annulé ou hors délai
+	 */
+	public static BufferedImage read(ImageInputStream stream, ImageReadParam param, CancellationToken token)
+			throws IOException {
+		token.throwIfCancelled();
+		ImageReader reader = borrowReader(stream);
+		if (reader == null) {
+			return null;
+		}
+		boolean healthy = false;
+		try {
+			reader.setInput(stream, true, true);
+			watch(reader, token);
+			BufferedImage image = reader.read(0, param);
+			token.throwIfCancelled();
+			healthy = true;
+			return image;
+		} catch (IOException e) {
+			token.throwIfCancelled();
+			throw e;
+		} finally {
+			release(reader, healthy);
+		}
+	}
+
+	/**
+	 * Encode une image, équivalent de <code>ImageIO.write</code> avec des paramètres d'écriture.
+	 *
+	 * @param image      Image à écrire
+	 * @param formatName Nom du format ImageIO (ex: "jpg", "png")
+	 * @param params     Paramètres pour l'encodeur retenu, <code>null</code> pour ses valeurs par défaut
+	 * @param output     Flux de sortie (non fermé)
+	 * @return false si aucun encodeur ne gère ce format pour ce type d'image
+	 */
+	public static boolean write(RenderedImage image, String formatName, Function<ImageWriter, ImageWriteParam> params,
+								OutputStream output) throws IOException {
+		return write(image, formatName, params, output, CancellationToken.NONE);
+	}
+
+	/**
+	 * Encode une image en pouvant l'interrompre.
+	 * <p>
+	 * Une fois l'encodage interrompu, le flux de sortie contient des données partielles.
+	 *
+	 * @param image      Image à écrire
+	 * @param formatName Nom du format ImageIO (ex: "jpg", "png")
+	 * @param params     Paramètres pour l'encodeur retenu, <code>null</code> pour ses valeurs par défaut
+	 * @param output     Flux de sortie (non fermé)
+	 * @param token      Jeton d'annulation ou d'échéance
+	 * @return false si aucun encodeur ne gère ce format pour ce type d'image
+	 * @throws CancellationToken.CancelledException Encodage annulé ou hors délai
+	 */
+	public static boolean write(RenderedImage image, String formatName, Function<ImageWriter, ImageWriteParam> params,
+								OutputStream output, CancellationToken token) throws IOException {
+		token.throwIfCancelled();
+		ImageWriter writer = borrowWriter(formatName, ImageTypeSpecifier.createFromRenderedImage(image));
+		if (writer == null) {
+			return false;
+		}
+		boolean healthy = false;
+		try (ImageOutputStream stream = createOutputStream(output)) {
+			writer.setOutput(stream);
+			if (token != CancellationToken.NONE) {
+				writer.addIIOWriteProgressListener(new WriteCancellation(token));
+			}
+			writer.write(null, new IIOImage(image, null, null), params.apply(writer));
+			token.throwIfCancelled();
+			healthy = true;
+			return true;
+		} catch (IOException e) {
+			// Les encodeurs enveloppent les erreurs du flux de sortie : l'annulation prime
+			token.throwIfCancelled();
+			throw e;
+		} finally {
+			release(writer, healthy);
+		}
+	}
+
+	/**
+	 * Interrompt les lectures du décodeur dès que le jeton est annulé,
+	 * jusqu'à ce qu'il soit rendu au pool.
+	 */
+	static void watch(ImageReader reader, CancellationToken token) {
+		if (token != CancellationToken.NONE) {
+			reader.addIIOReadProgressListener(new ReadCancellation(token));
+		}
+	}
+
+	/**
+	 * Emprunte un décodeur pour le format détecté en tête de flux.
+	 *
+	 * @param stream Flux, sa position est conservée
+	 * @return décodeur, <code>null</code> si le format n'est pas reconnu
+	 */
+	public static ImageReader borrowReader(ImageInputStream stream) throws IOException {
+		String formatName = detectFormat(stream);
+		if (formatName != null) {
+			ImageReader reader = borrowReader(formatName);
+			if (reader != null) {
+				return reader;
+			}
+		}
+		// Format inconnu du pool : recherche SPI classique
+		Iterator<ImageReader> it = ImageIO.getImageReaders(stream);
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Emprunte un décodeur pour un format.
+	 *
+	 * @param formatName Nom du format ImageIO
+	 * @return décodeur, <code>null</code> si aucun n'est disponible
+	 */
+	public static ImageReader borrowReader(String formatName) {
+		String key = formatName(formatName);
+		ImageReader reader = readers.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>()).pollFirst();
+		if (reader == null) {
+			Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName(key);
+			reader = it.hasNext() ? it.next() : null;
+		}
+		return reader;
+	}
+
+	/**
+	 * Emprunte un encodeur capable d'écrire ce type d'image.
+	 *
+	 * @param formatName Nom du format ImageIO
+	 * @param type       Type de l'image à écrire
+	 * @return encodeur, <code>null</code> si aucun n'est disponible
+	 */
+	public static ImageWriter borrowWriter(String formatName, ImageTypeSpecifier type) {
+		String key = formatName(formatName);
+		ImageWriter writer = writers.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>()).pollFirst();
+		if (writer != null && (type == null || writer.getOriginatingProvider().canEncodeImage(type))) {
+			return writer;
+		}
+		if (writer != null) {
+			release(writer, true);
+		}
+		Iterator<ImageWriter> it = type != null
+				? ImageIO.getImageWriters(type, key)
+				: ImageIO.getImageWritersByFormatName(key);
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Rend un décodeur au pool.
+	 *
+	 * @param reader  Décodeur emprunté
+	 * @param healthy false si le décodage a échoué : le décodeur est alors libéré
+	 */
+	public static void release(ImageReader reader, boolean healthy) {
+		if (healthy) {
+			reader.reset();
+			String key = formatName(reader.getOriginatingProvider().getFormatNames()[0]);
+			ConcurrentLinkedDeque<ImageReader> idle = readers.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+			if (idle.size() < MAX_IDLE) {
+				idle.offerFirst(reader);
+				return;
+			}
+		}
+		reader.dispose();
+	}
+
+	/**
+	 * Rend un encodeur au pool.
+	 *
+	 * @param writer  Encodeur emprunté
+	 * @param healthy false si l'encodage a échoué : l'encodeur est alors libéré
+	 */
+	public static void release(ImageWriter writer, boolean healthy) {
+		if (healthy) {
+			writer.reset();
+			String key = formatName(writer.getOriginatingProvider().getFormatNames()[0]);
+			ConcurrentLinkedDeque<ImageWriter> idle = writers.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+			if (idle.size() < MAX_IDLE) {
+				idle.offerFirst(writer);
+				return;
+			}
+		}
+		writer.dispose();
+	}
+
+	/**
+	 * Libère tous les codecs inactifs.
+	 */
+	public static void clear() {
+		readers.values().forEach(idle -> {
+			ImageReader reader;
+			while ((reader = idle.pollFirst()) != null) {
+				reader.dispose();
+			}
+		});
+		writers.values().forEach(idle -> {
+			ImageWriter writer;
+			while ((writer = idle.pollFirst()) != null) {
+				writer.dispose();
+			}
+		});
+	}
+
+	/**
+	 * Détecte le format d'une image à partir de ses premiers octets.
+	 *
+	 * @param stream Flux, sa position est conservée
+	 * @return Nom du format ImageIO, <code>null</code> si inconnu
+	 */
+	public static String detectFormat(ImageInputStream stream) throws IOException {
+		byte[] header = new byte[12];
+		stream.mark();
+		int length;
+		try {
+			length = stream.read(header);
+		} finally {
+			stream.reset();
+		}
+		return detectFormat(header, Math.max(length, 0));
+	}
+
+	/**
+	 * Détecte le format d'une image à partir de ses premiers octets.
+	 *
+	 * @param header Premiers octets de l'image (12 suffisent)
+	 * @param length Nombre d'octets valides
+	 * @return Nom du format ImageIO, <code>null</code> si inconnu
+	 */
+	public static String detectFormat(byte[] header, int length) {
+		if (length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+			return "png";
+		}
+		if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+			return "jpeg";
+		}
+		if (length >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8') {
+			return "gif";
+		}
+		if (length >= 4 && ((header[0] == 'I' && header[1] == 'I' && header[2] == 42 && header[3] == 0)
+				|| (header[0] == 'M' && header[1] == 'M' && header[2] == 0 && header[3] == 42))) {
+			return "tiff";
+		}
+		if (length >= 2 && header[0] == 'B' && header[1] == 'M') {
+			return "bmp";
+		}
+		if (length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+				&& header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+			return "webp";
+		}
+		return null;
+	}
+
+	/**
+	 * Normalise un nom de format (les extensions "jpg" / "tif" désignent le même codec).
+	 */
+	static String formatName(String name) {
+		String lower = name.toLowerCase(Locale.ROOT);
+		return switch (lower) {
+			case "jpg" -> "jpeg";
+			case "tif" -> "tiff";
+			default -> lower;
+		};
+	}
+
+	/**
+	 * Cache des flux ImageIO.
+	 */
+	public enum StreamCache {
+		/**
+		 * Cache en mémoire : le plus rapide.
+		 */
+		MEMORY,
+		/**
+		 * Cache dans un fichier temporaire (<code>ImageIO.getCacheDirectory()</code>) : mémoire constante.
+		 */
+		DISK
+	}
+
+	/**
+	 * Interrompt un décodeur dès que son jeton est annulé.
+	 */
+	private static final class ReadCancellation implements IIOReadProgressListener {
+		private final CancellationToken token;
+
+		ReadCancellation(CancellationToken token) {
+			this.token = token;
+		}
+
+		private void check(ImageReader source) {
+			if (token.isCancelled()) {
+				source.abort();
+			}
+		}
+
+		@Override
+		public void sequenceStarted(ImageReader source, int minIndex) {
+			check(source);
+		}
+
+		@Override
+		public void sequenceComplete(ImageReader source) {
+		}
+
+		@Override
+		public void imageStarted(ImageReader source, int imageIndex) {
+			check(source);
+		}
+
+		@Override
+		public void imageProgress(ImageReader source, float percentageDone) {
+			check(source);
+		}
+
+		@Override
+		public void imageComplete(ImageReader source) {
+		}
+
+		@Override
+		public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+			check(source);
+		}
+
+		@Override
+		public void thumbnailProgress(ImageReader source, float percentageDone) {
+			check(source);
+		}
+
+		@Override
+		public void thumbnailComplete(ImageReader source) {
+		}
+
+		@Override
+		public void readAborted(ImageReader source) {
+		}
+	}
+
+	/**
+	 * Interrompt un encodeur dès que son jeton est annulé.
+	 */
+	private static final class WriteCancellation implements IIOWriteProgressListener {
+		private final CancellationToken token;
+
+		WriteCancellation(CancellationToken token) {
+			this.token = token;
+		}
+
+		private void check(ImageWriter source) {
+			if (token.isCancelled()) {
+				source.abort();
+			}
+		}
+
+		@Override
+		public void imageStarted(ImageWriter source, int imageIndex) {
+			check(source);
+		}
+
+		@Override
+		public void imageProgress(ImageWriter source, float percentageDone) {
+			check(source);
+		}
+
+		@Override
+		public void imageComplete(ImageWriter source) {
+		}
+
+		@Override
+		public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+			check(source);
+		}
+
+		@Override
+		public void thumbnailProgress(ImageWriter source, float percentageDone) {
+			check(source);
+		}
+
+		@Override
+		public void thumbnailComplete(ImageWriter source) {
+		}
+
+		@Override
+		public void writeAborted(ImageWriter source) {
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageCodec.Capability;
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Registre des codecs d'image : chaque décodage et encodage est confié au codec
+ * de plus forte priorité qui gère le format et les capacités nécessaires, ImageIO
+ * (via {@link ImageCodecPool}) servant de repli.
+ * <p>
+ * Le registre contient au départ l'encodeur PNG de la bibliothèque et les codecs
+ * déclarés par <code>ServiceLoader</code>. À l'encodage, un codec qui refuse une image
+ * (voir {@link ImageCodec#encode}) laisse la main au suivant. Les formats absents de
+ * {@link ImageFormat} (BMP, ...) sont toujours décodés par ImageIO.
+ * <p>
+ * Usage au démarrage de l'application :
+ * <pre>
+ * ImageCodecRegistry.register(new TurboJpegCodec());
+ * </pre>
+ */
+public final class ImageCodecRegistry {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(ImageCodecRegistry.class);
+
+	private static final Comparator<ImageCodec> BY_PRIORITY =
+			Comparator.comparingInt(ImageCodec::getPriority).reversed();
+
+	/**
+	 * Codecs enregistrés, par priorité décroissante (copie remplacée à chaque modification).
+	 */
+	private static volatile List<ImageCodec> codecs;
+
+	static {
+		List<ImageCodec> initial = new ArrayList<>();
+		initial.add(new PngCodec());
+		Iterator<ImageCodec> it = ServiceLoader.load(ImageCodec.class).iterator();
+		while (true) {
+			try {
+				if (!it.hasNext()) {
+					break;
+				}
+				initial.add(it.next());
+			} catch (ServiceConfigurationError e) {
+				logger.warn("Unable to load image codec: {}", e.getMessage());
+			}
+		}
+		initial.sort(BY_PRIORITY);
+		codecs = List.copyOf(initial);
+		logger.debug("Image codecs: {}", codecs);
+	}
+
+	/**
+	 * Avoid instantiation
+	 */
+	private ImageCodecRegistry() {
+	}
+
+	/**
+	 * Enregistre un codec. À priorité égale, les codecs déjà enregistrés passent avant.
+	 *
+	 * @param codec Codec
+	 */
+	public static synchronized void register(ImageCodec codec) {
+		List<ImageCodec> updated = new ArrayList<>(codecs);
+		updated.add(codec);
+		updated.sort(BY_PRIORITY);
+		codecs = List.copyOf(updated);
+		logger.debug("Image codec registered: {} {} {} (priority {})", codec.getClass().getName(),
+				codec.getFormats(), codec.getCapabilities(), codec.getPriority());
+	}
+
+	/**
+	 * Retire un codec du registre.
+	 *
+	 * @param codec Codec enregistré
+	 * @return false si le codec n'était pas enregistré
+	 */
+	public static synchronized boolean unregister(ImageCodec codec) {
+		List<ImageCodec> updated = new ArrayList<>(codecs);
+		boolean removed = updated.remove(codec);
+		codecs = List.copyOf(updated);
+		return removed;
+	}
+
+	/**
+	 * @return Codecs enregistrés, par priorité décroissante (sans le repli ImageIO)
+	 */
+	public static List<ImageCodec> getCodecs() {
+		return codecs;
+	}
+
+	/**
+	 * Codec retenu pour décoder un format.
+	 *
+	 * @param format       Format
+	 * @param capabilities Capacités nécessaires, en plus du décodage
+	 * @return Meilleur codec enregistré, ou le repli ImageIO
+	 */
+	public static ImageCodec decoder(ImageFormat format, Capability... capabilities) {
+		return candidates(format, required(Capability.DECODE, capabilities)).stream()
+				.findFirst().orElse(ImageIOCodec.INSTANCE);
+	}
+
+	/**
+	 * Codec retenu pour encoder un format.
+	 *
+	 * @param format       Format
+	 * @param capabilities Capacités nécessaires, en plus de l'encodage
+	 * @return Meilleur codec enregistré, ou le repli ImageIO (un codec peut encore
+	 * refuser une image particulière, voir {@link #encode})
+	 */
+	public static ImageCodec encoder(ImageFormat format, Capability... capabilities) {
+		return candidates(format, required(Capability.ENCODE, capabilities)).stream()
+				.findFirst().orElse(ImageIOCodec.INSTANCE);
+	}
+
+	/**
+	 * Est ce qu'une image de ce type MIME peut être décodée. Seuls les formats de
+	 * {@link ImageFormat} sont acceptés.
+	 *
+	 * @param mimeType Type MIME (ex: "image/png")
+	 * @return true si un codec enregistré ou un décodeur ImageIO gère ce format
+	 */
+	public static boolean canDecode(String mimeType) {
+		for (ImageFormat format : ImageFormat.values()) {
+			if (format.getMimeType().equals(mimeType)) {
+				return !candidates(format, EnumSet.of(Capability.DECODE)).isEmpty()
+						|| ImageIO.getImageReadersByMIMEType(mimeType).hasNext();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Décode une image avec le meilleur codec pour son format.
+	 *
+	 * @param data  Données binaires
+	 * @param token Jeton d'annulation ou d'échéance
+	 * @return Image, <code>null</code> si aucun décodeur ne reconnaît le format
+	 * @throws CancellationToken.CancelledException Décodage annulé ou hors délai
+	 */
+	public static BufferedImage decode(byte[] data, CancellationToken token) throws IOException {
+		// Les données sont déjà en mémoire : pas de cache disque
+		try (ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+			return decode(stream, null, token);
+		}
+	}
+
+	/**
+	 * Décode la première image d'un flux avec le meilleur codec pour son format.
+	 * <p>
+	 * Les capacités nécessaires sont déduites des paramètres de lecture : sous-échantillonnage
+	 * et région.
+	 *
+	 * @param stream Flux positionné au début de l'image (non fermé)
+	 * @param param  Paramètres de lecture, éventuellement <code>null</code>
+	 * @param token  Jeton d'annulation ou d'échéance
+	 * @return Image, <code>null</code> si aucun décodeur ne reconnaît le format
+	 * @throws CancellationToken.CancelledException Décodage annulé ou hors délai
+	 */
+	public static BufferedImage decode(ImageInputStream stream, ImageReadParam param, CancellationToken token)
+			throws IOException {
+		token.throwIfCancelled();
+		ImageFormat format = toImageFormat(ImageCodecPool.detectFormat(stream));
+		if (format == null) {
+			return ImageCodecPool.read(stream, param, token);
+		}
+		Set<Capability> required = EnumSet.of(Capability.DECODE);
+		if (param != null && (param.getSourceXSubsampling() > 1 || param.getSourceYSubsampling() > 1)) {
+			required.add(Capability.SUBSAMPLING);
+		}
+		if (param != null && param.getSourceRegion() != null) {
+			required.add(Capability.REGION);
+		}
+		List<ImageCodec> candidates = candidates(format, required);
+		ImageCodec codec = candidates.isEmpty() ? ImageIOCodec.INSTANCE : candidates.get(0);
+		return codec.decode(stream, format, param, token);
+	}
+
+	/**
+	 * Encode une image avec le meilleur codec qui l'accepte, ImageIO en dernier recours.
+	 *
+	 * @param image        Image à encoder
+	 * @param format       Format de sortie
+	 * @param options      Paramètres d'encodage
+	 * @param token        Jeton d'annulation ou d'échéance
+	 * @param output       Flux de sortie (non fermé)
+	 * @param capabilities Capacités nécessaires, en plus de l'encodage (ImageIO ne les garantit pas)
+	 * @return false si aucun codec, ImageIO compris, ne gère ce format pour ce type d'image
+	 * @throws CancellationToken.CancelledException Encodage annulé ou hors délai
+	 */
+	public static boolean encode(BufferedImage image, ImageFormat format, EncodeOptions options,
+								 CancellationToken token, OutputStream output, Capability... capabilities)
+			throws IOException, BadImageFormatException {
+		for (ImageCodec codec : candidates(format, required(Capability.ENCODE, capabilities))) {
+			if (codec.encode(image, format, options, token, output)) {
+				return true;
+			}
+			logger.debug("Image codec {} declined {} encoding", codec.getClass().getName(), format);
+		}
+		return ImageIOCodec.INSTANCE.encode(image, format, options, token, output);
+	}
+
+	private static Set<Capability> required(Capability operation, Capability... capabilities) {
+		return EnumSet.of(operation, capabilities);
+	}
+
+	private static List<ImageCodec> candidates(ImageFormat format, Set<Capability> required) {
+		List<ImageCodec> candidates = new ArrayList<>(2);
+		for (ImageCodec codec : codecs) {
+			if (codec.getFormats().contains(format) && codec.getCapabilities().containsAll(required)) {
+				candidates.add(codec);
+			}
+		}
+		return candidates;
+	}
+
+	private static ImageFormat toImageFormat(String formatName) {
+		if (formatName == null) {
+			return null;
+		}
+		for (ImageFormat format : ImageFormat.values()) {
+			if (ImageCodecPool.formatName(format.getExtension()).equals(formatName)) {
+				return format;
+			}
+		}
+		return null;
+	}
+}
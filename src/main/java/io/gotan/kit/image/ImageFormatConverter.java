@@ -1,17 +1,22 @@
 package io.gotan.kit.image;
 
 import io.gotan.kit.file.Base64Utils;
-import io.gotan.kit.file.FileUtils;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 
-import javax.imageio.ImageIO;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 
 public class ImageFormatConverter {
 
@@ -40,11 +45,6 @@ public class ImageFormatConverter {
 	 */
 	public static final String MIMETYPE_WEBP = "image/webp";
 
-	/**
-	 * Private Log4J Logger.
-	 */
-	private static Logger logger = LogManager.getLogger(ImageFormatConverter.class);
-
 	/**
 	 * Transforme une image d'entrée (peut importe le format vers un PNG)
 	 *
@@ -56,13 +56,19 @@ public class ImageFormatConverter {
 	 * @throws IOException Erreur à la lecture ou l'écriture du fichier
 	 */
 	public static File convertImage(File inputFile, Color backgroundColor, ImageFormat outputFormat) throws IOException {
-		BufferedImage imageToConvert = ImageIO.read(inputFile);
-		BufferedImage newBufferedImage = new BufferedImage(imageToConvert.getWidth(), imageToConvert.getHeight(),
-				BufferedImage.TYPE_INT_RGB);
-		newBufferedImage.createGraphics().drawImage(imageToConvert, 0, 0, backgroundColor, null);
+		BufferedImage imageToConvert;
+		try (ImageInputStream stream = new FileImageInputStream(inputFile)) {
+			imageToConvert = ImageCodecRegistry.decode(stream, null, CancellationToken.NONE);
+		}
+		BufferedImage newBufferedImage = removeAlphaChannel(imageToConvert, backgroundColor);
 		File outputFile = File.createTempFile("temp", outputFormat.getExtension());
 		outputFile.deleteOnExit();
-		ImageIO.write(newBufferedImage, outputFormat.getExtension(), outputFile);
+		try (OutputStream output = new FileOutputStream(outputFile)) {
+			ImageCodecRegistry.encode(newBufferedImage, outputFormat, EncodeOptions.legacy(), CancellationToken.NONE,
+					output);
+		} catch (BadImageFormatException e) {
+			throw new IOException(e.getMessage(), e);
+		}
 		return outputFile;
 	}
 
@@ -76,13 +82,44 @@ public class ImageFormatConverter {
 	 */
 	public static byte[] convertImage(byte[] byteData, ImageFormat outputFormat) throws IOException {
 
-		BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(byteData));
+		BufferedImage bufferedImage = ImageCodecRegistry.decode(byteData, CancellationToken.NONE);
 		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		ImageIO.write(bufferedImage, outputFormat.getExtension(), byteArrayOutputStream);
+		try {
+			ImageCodecRegistry.encode(bufferedImage, outputFormat, EncodeOptions.legacy(), CancellationToken.NONE,
+					byteArrayOutputStream);
+		} catch (BadImageFormatException e) {
+			throw new IOException(e.getMessage(), e);
+		}
 		return byteArrayOutputStream.toByteArray();
 	}
 
+	/**
+	 * Supprime le canal alpha d'une image, les zones transparentes deviennent blanches.
+	 *
+	 * @param image Image source
+	 * @return Image opaque
+	 */
 	public static BufferedImage removeAlphaChannel(BufferedImage image) {
+		return removeAlphaChannel(image, Color.WHITE);
+	}
+
+	/**
+	 * Supprime le canal alpha d'une image en la mélangeant avec une couleur de fond.
+	 *
+	 * @param image           Image source
+	 * @param backgroundColor Couleur d'arrière plan
+	 * @return Image opaque en <code>TYPE_INT_RGB</code>, ou l'image elle-même si elle est déjà opaque
+	 * dans un format de travail
+	 * @see AlphaFlattener
+	 * @see PixelFormats#isWorkingFormat(BufferedImage)
+	 */
+	public static BufferedImage removeAlphaChannel(BufferedImage image, Color backgroundColor) {
+		if (image.getColorModel().hasAlpha()) {
+			return AlphaFlattener.flatten(image, backgroundColor, false);
+		}
+		if (PixelFormats.isWorkingFormat(image)) {
+			return image;
+		}
 		BufferedImage newImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
 		Graphics2D g2d = newImage.createGraphics();
 		g2d.drawImage(image, 0, 0, null);
@@ -91,35 +128,104 @@ public class ImageFormatConverter {
 	}
 
 	public static byte[] convertImage(BufferedImage bufferedImage, ImageFormat outputFormat) throws IOException, BadImageFormatException {
+		return convertImage(bufferedImage, outputFormat, EncodeOptions.defaults());
+	}
+
+	/**
+	 * Encode une image dans le format demandé avec des paramètres d'encodage.
+	 *
+	 * @param bufferedImage Image à encoder
+	 * @param outputFormat  Format de sortie attendu
+	 * @param options       Paramètres d'encodage (qualité JPEG, niveau deflate PNG, ...)
+	 * @return La nouvelle image en binaire
+	 * @throws IOException             Erreur d'encodage
+	 * @throws BadImageFormatException Aucun encodeur disponible pour ce format
+	 */
+	public static byte[] convertImage(BufferedImage bufferedImage, ImageFormat outputFormat, EncodeOptions options)
+			throws IOException, BadImageFormatException {
+		return convertImage(bufferedImage, outputFormat, options, CancellationToken.NONE);
+	}
+
+	/**
+	 * Encode une image en pouvant interrompre l'encodage.
+	 * <p>
+	 * Les encodeurs sont interrompus en cours d'écriture ; la quantification et
+	 * l'optimisation PNG ne sont contrôlées qu'entre deux étapes.
+	 *
+	 * @param bufferedImage Image à encoder
+	 * @param outputFormat  Format de sortie attendu
+	 * @param options       Paramètres d'encodage
+	 * @param token         Jeton d'annulation ou d'échéance
+	 * @return La nouvelle image en binaire
+	 * @throws IOException                          Erreur d'encodage
+	 * @throws CancellationToken.CancelledException Encodage annulé ou hors délai
+	 * @throws BadImageFormatException              Aucun encodeur disponible pour ce format
+	 */
+	public static byte[] convertImage(BufferedImage bufferedImage, ImageFormat outputFormat, EncodeOptions options,
+									  CancellationToken token) throws IOException, BadImageFormatException {
 		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-		boolean result = false;
-		switch (outputFormat) {
-			case JPEG:
-				bufferedImage = removeAlphaChannel(bufferedImage);
-				result = ImageIO.write(bufferedImage, "jpg", byteArrayOutputStream);
-				break;
-			case PNG:
-				result = ImageIO.write(bufferedImage, "png", byteArrayOutputStream);
-				break;
-			case GIF:
-				result = ImageIO.write(bufferedImage, "gif", byteArrayOutputStream);
-				break;
-			case WEBP:
-				result = ImageIO.write(bufferedImage, "webp", byteArrayOutputStream);
-				break;
-			case TIFF:
-				bufferedImage = removeAlphaChannel(bufferedImage);
-				result = ImageIO.write(bufferedImage, "tiff", byteArrayOutputStream);
-				break;
-		}
+		convertImage(bufferedImage, outputFormat, options, token, byteArrayOutputStream);
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	/**
+	 * Encode une image directement dans un flux, en pouvant interrompre l'encodage.
+	 * <p>
+	 * L'encodage est confié au meilleur codec enregistré pour ce format, ImageIO en dernier recours.
+	 *
+	 * @param bufferedImage Image à encoder
+	 * @param outputFormat  Format de sortie attendu
+	 * @param options       Paramètres d'encodage
+	 * @param token         Jeton d'annulation ou d'échéance
+	 * @param output        Flux de sortie (non fermé), partiellement écrit en cas d'erreur
+	 * @throws IOException                          Erreur d'encodage
+	 * @throws CancellationToken.CancelledException Encodage annulé ou hors délai
+	 * @throws BadImageFormatException              Aucun encodeur disponible pour ce format
+	 * @see ImageCodecRegistry
+	 */
+	public static void convertImage(BufferedImage bufferedImage, ImageFormat outputFormat, EncodeOptions options,
+									CancellationToken token, OutputStream output) throws IOException, BadImageFormatException {
+		boolean result = ImageCodecRegistry.encode(bufferedImage, outputFormat, options, token, output);
 
 		if (!result) {
 			throw new BadImageFormatException("Unable to change format to %s".formatted(outputFormat.getExtension()));
 		}
-
-		return byteArrayOutputStream.toByteArray();
 	}
 
+	/**
+	 * Encode une image hors tas.
+	 * <p>
+	 * PNG et TIFF sont écrits par lignes ou par régions, sans copier l'image dans le tas
+	 * (les options de palette et d'optimisation PNG imposent en revanche cette copie).
+	 * Les autres formats passent par {@link #convertImage(BufferedImage, ImageFormat, EncodeOptions)}
+	 * et sont donc limités à la taille d'une <code>BufferedImage</code>.
+	 *
+	 * @param raster       Image à encoder
+	 * @param outputFormat Format de sortie attendu
+	 * @param options      Paramètres d'encodage
+	 * @param output       Flux de sortie (non fermé)
+	 * @throws IOException             Erreur d'encodage
+	 * @throws BadImageFormatException Aucun encodeur disponible pour ce format, ou image trop grande pour lui
+	 */
+	public static void convertImage(OffHeapRaster raster, ImageFormat outputFormat, EncodeOptions options,
+									OutputStream output) throws IOException, BadImageFormatException {
+		boolean fitsInHeap = (long) raster.getWidth() * raster.getHeight() <= Integer.MAX_VALUE - 8;
+		if (outputFormat == ImageFormat.PNG && options.getPaletteColors() == EncodeOptions.UNSET
+				&& options.getPngOptimizationBudget() == null) {
+			PngEncoder.encode(raster.getWidth(), raster.getHeight(), raster.hasAlpha(), raster.rowReader(),
+					options.getPngFilter(), options.getPngCompressionLevel(), options.getPngDeflateStrategy(), output,
+					CancellationToken.NONE);
+		} else if (outputFormat == ImageFormat.TIFF) {
+			if (!ImageCodecPool.write(raster.asRenderedImage(Color.WHITE), "tiff", writer -> null, output)) {
+				throw new BadImageFormatException("Unable to change format to %s".formatted(outputFormat.getExtension()));
+			}
+		} else if (fitsInHeap) {
+			output.write(convertImage(raster.toImage(), outputFormat, options));
+		} else {
+			throw new BadImageFormatException("Image too large for %s: %dx%d"
+					.formatted(outputFormat.getExtension(), raster.getWidth(), raster.getHeight()));
+		}
+	}
 
 	/**
 	 * Convertit une image en base64 vers un autre format.
@@ -129,32 +235,70 @@ public class ImageFormatConverter {
 	 * @param outputFormat        Format de sortie attendu
 	 * @param withBase64URLHeader Est ce que la chaîne BASE64 contient un header
 	 * @return La nouvelle image en base64
-	 * @throws IOException             Problème de sérialisation sur les fichiers temporaires
+	 * @throws IOException             Erreur de décodage ou d'encodage de l'image
 	 * @throws BadImageFormatException
+	 * @see #convertBase64Image(InputStream, Color, ImageFormat, OutputStream)
 	 */
 	public static String convertImage(String base64Input, Color backgroundColor, ImageFormat outputFormat,
 									  boolean withBase64URLHeader) throws IOException, BadImageFormatException {
-		try {
-			String shrinkBase64 = withBase64URLHeader ? Base64Utils.trimBase64Header(base64Input) : base64Input;
-
-			switch (Base64Utils.getMimeTypeFromHeader(base64Input)) {
-				case ImageFormatConverter.MIMETYPE_JPEG:
-				case ImageFormatConverter.MIMETYPE_GIF:
-				case ImageFormatConverter.MIMETYPE_WEBP:
-				case ImageFormatConverter.MIMETYPE_TIFF:
-				case ImageFormatConverter.MIMETYPE_PNG:
-					return FileUtils
-							.encodeToBase64(convertImage(FileUtils.decodeBase64(shrinkBase64, (String) null), backgroundColor, outputFormat));
-				default:
-					throw new BadImageFormatException();
+		String shrinkBase64 = withBase64URLHeader ? Base64Utils.trimBase64Header(base64Input) : base64Input;
+		if (base64Input.startsWith(Base64Utils.BASE64_URL_PREFIX)) {
+			if (!ImageCodecRegistry.canDecode(Base64Utils.getMimeTypeFromHeader(base64Input))) {
+				throw new BadImageFormatException();
 			}
-
-		} catch (IOException e) {
-			logger.fatal("Unable to read/write to temporary disk");
-			throw e;
 		}
+
+		ByteArrayOutputStream base64Output = new ByteArrayOutputStream(shrinkBase64.length());
+		convertBase64Image(new ByteArrayInputStream(shrinkBase64.getBytes(StandardCharsets.ISO_8859_1)),
+				backgroundColor, outputFormat, base64Output);
+		return base64Output.toString(StandardCharsets.ISO_8859_1);
 	}
 
+	/**
+	 * Convertit une image en base64 (sans header) vers un autre format, entièrement en mémoire.
+	 * <p>
+	 * Le flux base64 est décodé à la volée vers le décodeur d'image, et l'image
+	 * convertie est encodée en base64 à la volée vers le flux de sortie : aucun
+	 * fichier temporaire n'est utilisé.
+	 *
+	 * @param base64Input     Flux base64 sans header
+	 * @param backgroundColor Couleur d'arrière plan
+	 * @param outputFormat    Format de sortie attendu
+	 * @param base64Output    Flux de sortie, reçoit la nouvelle image en base64 (non fermé)
+	 * @throws IOException             Erreur de lecture ou d'écriture
+	 * @throws BadImageFormatException Image illisible ou format de sortie non géré
+	 */
+	public static void convertBase64Image(InputStream base64Input, Color backgroundColor, ImageFormat outputFormat,
+										  OutputStream base64Output) throws IOException, BadImageFormatException {
+		BufferedImage image;
+		try (ImageInputStream stream = new MemoryCacheImageInputStream(Base64.getDecoder().wrap(base64Input))) {
+			image = ImageCodecRegistry.decode(stream, null, CancellationToken.NONE);
+		}
+		if (image == null) {
+			throw new BadImageFormatException();
+		}
+
+		// Le flux d'encodage base64 doit être fermé pour écrire le padding, pas le flux de sortie
+		OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(base64Output) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		});
+		boolean result;
+		try (encoder) {
+			result = ImageCodecRegistry.encode(removeAlphaChannel(image, backgroundColor), outputFormat,
+					EncodeOptions.legacy(), CancellationToken.NONE, encoder);
+		}
+		if (!result) {
+			throw new BadImageFormatException("Unable to change format to %s".formatted(outputFormat.getExtension()));
+		}
+	}
 
 	/**
 	 * Convertit une image en BASE64 vers un autre format sans header.
@@ -212,17 +356,25 @@ public class ImageFormatConverter {
 	}
 
 	public enum ImageFormat {
-		JPEG("jpg"), GIF("gif"), PNG("png"), WEBP("webp"), TIFF("tiff");
+		JPEG("jpg", MIMETYPE_JPEG), GIF("gif", MIMETYPE_GIF), PNG("png", MIMETYPE_PNG), WEBP("webp", MIMETYPE_WEBP),
+		TIFF("tiff", MIMETYPE_TIFF);
 
 		private String extension;
 
-		ImageFormat(String extension) {
+		private String mimeType;
+
+		ImageFormat(String extension, String mimeType) {
 			this.extension = extension;
+			this.mimeType = mimeType;
 		}
 
 		public String getExtension() {
 			return this.extension;
 		}
+
+		public String getMimeType() {
+			return this.mimeType;
+		}
 	}
 
 	public static class BadImageFormatException extends Exception {
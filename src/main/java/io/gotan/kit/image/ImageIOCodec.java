@@ -0,0 +1,123 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Codec de repli du registre : décodeurs et encodeurs ImageIO, empruntés à {@link ImageCodecPool}.
+ * <p>
+ * L'image est préparée pour l'encodeur ImageIO du format : suppression de la transparence
+ * pour JPEG et TIFF, palette pour GIF (et PNG si elle est demandée), format de pixels
+ * direct pour PNG et WebP. Avec {@link EncodeOptions#legacy()}, l'image est écrite telle quelle.
+ */
+final class ImageIOCodec implements ImageCodec {
+
+	static final ImageIOCodec INSTANCE = new ImageIOCodec();
+
+	private static final Set<ImageFormat> FORMATS = EnumSet.allOf(ImageFormat.class);
+
+	private static final Set<Capability> CAPABILITIES = EnumSet.of(Capability.DECODE, Capability.ENCODE,
+			Capability.SUBSAMPLING, Capability.REGION, Capability.MULTI_FRAME);
+
+	private ImageIOCodec() {
+	}
+
+	@Override
+	public Set<ImageFormat> getFormats() {
+		return FORMATS;
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		return CAPABILITIES;
+	}
+
+	@Override
+	public int getPriority() {
+		return Integer.MIN_VALUE;
+	}
+
+	@Override
+	public BufferedImage decode(ImageInputStream stream, ImageFormat format, ImageReadParam param,
+								CancellationToken token) throws IOException {
+		return ImageCodecPool.read(stream, param, token);
+	}
+
+	@Override
+	public boolean encode(BufferedImage image, ImageFormat format, EncodeOptions options, CancellationToken token,
+						  OutputStream output) throws IOException {
+		if (options.isPlainImageIO()) {
+			return ImageCodecPool.write(image, format.getExtension(), writer -> null, output, token);
+		}
+		switch (format) {
+			case JPEG:
+				return ImageCodecPool.write(ImageFormatConverter.removeAlphaChannel(image), "jpg",
+						writer -> jpegWriteParam(writer, options), output, token);
+			case PNG:
+				if (options.getPaletteColors() != EncodeOptions.UNSET && !isIndexed(image)) {
+					image = ColorQuantizer.quantize(image, options.getPaletteColors(), options.getDithering());
+					token.throwIfCancelled();
+				}
+				return ImageCodecPool.write(PixelFormats.forEncoder(image), "png",
+						writer -> pngWriteParam(writer, options), output, token);
+			case GIF:
+				if (!isIndexed(image)) {
+					image = ColorQuantizer.quantize(image, options.getPaletteColors() == EncodeOptions.UNSET
+							? ColorQuantizer.MAX_COLORS : options.getPaletteColors(), options.getDithering());
+					token.throwIfCancelled();
+				}
+				return ImageCodecPool.write(image, "gif", writer -> null, output, token);
+			case WEBP:
+				return ImageCodecPool.write(PixelFormats.forEncoder(image), "webp", writer -> null, output, token);
+			case TIFF:
+				return ImageCodecPool.write(ImageFormatConverter.removeAlphaChannel(image), "tiff", writer -> null,
+						output, token);
+			default:
+				return false;
+		}
+	}
+
+	static boolean isIndexed(BufferedImage image) {
+		return image.getColorModel() instanceof IndexColorModel;
+	}
+
+	private static ImageWriteParam jpegWriteParam(ImageWriter writer, EncodeOptions options) {
+		if (options.getJpegQuality() == EncodeOptions.UNSET && !options.isProgressive() && !options.isOptimizeHuffmanTables()) {
+			return null;
+		}
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (options.getJpegQuality() != EncodeOptions.UNSET) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(options.getJpegQuality());
+		}
+		if (options.isProgressive()) {
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+		}
+		if (options.isOptimizeHuffmanTables() && param instanceof JPEGImageWriteParam jpegParam) {
+			jpegParam.setOptimizeHuffmanTables(true);
+		}
+		return param;
+	}
+
+	private static ImageWriteParam pngWriteParam(ImageWriter writer, EncodeOptions options) {
+		if (options.getPngCompressionLevel() == EncodeOptions.UNSET) {
+			return null;
+		}
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		// L'encodeur du JDK calcule le niveau deflate par 9 - round(9 * qualité)
+		param.setCompressionQuality((9 - options.getPngCompressionLevel()) / 9f);
+		return param;
+	}
+}
@@ -0,0 +1,315 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Chaîne de traitements d'image planifiée avant exécution :
+ * décodage → recadrage → redimensionnement → aplatissement → encodage.
+ * <p>
+ * Le plan est calculé à partir des dimensions lues dans l'en-tête : le
+ * recadrage et un sous-échantillonnage entier sont délégués au décodeur
+ * (<code>ImageReadParam</code>), puis le redimensionnement, la conversion du
+ * format de pixels et l'aplatissement de la transparence sont faits dans une
+ * seule passe du {@link Resampler}. Chaque exécution fait donc un décodage,
+ * un passage sur les pixels et un encodage, sans image intermédiaire pleine taille.
+ * <p>
+ * Usage :
+ * <pre>
+ * byte[] thumbnail = ImagePipeline.from(data)
+ *         .crop(new Rectangle(100, 50, 800, 600))
+ *         .resize(200, 200)
+ *         .flatten(Color.WHITE)
+ *         .encode(ImageFormat.JPEG, EncodeOptions.small());
+ * </pre>
+ */
+public class ImagePipeline {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(ImagePipeline.class);
+
+	/**
+	 * Le décodeur sous-échantillonne au plus jusqu'à ce facteur de la taille cible,
+	 * le filtre fait le reste pour garder un résultat net.
+	 */
+	private static final int OVERSAMPLING = 2;
+
+	private final Source source;
+
+	private Rectangle crop;
+
+	private int maxWidth;
+
+	private int maxHeight;
+
+	private ResizeMode mode = ResizeMode.CONTAIN;
+
+	private Color background;
+
+	private Resampler.Filter filter = Resampler.Filter.LANCZOS3;
+
+	private boolean parallel;
+
+	private CancellationToken token = CancellationToken.NONE;
+
+	private ImagePipeline(Source source) {
+		this.source = source;
+	}
+
+	/**
+	 * @param data Image encodée
+	 */
+	public static ImagePipeline from(byte[] data) {
+		return new ImagePipeline(() -> new MemoryCacheImageInputStream(new ByteArrayInputStream(data)));
+	}
+
+	/**
+	 * @param file Fichier image
+	 */
+	public static ImagePipeline from(File file) {
+		return new ImagePipeline(() -> new FileImageInputStream(file));
+	}
+
+	/**
+	 * @param input Flux de l'image encodée, lu une seule fois (non fermé)
+	 */
+	public static ImagePipeline from(InputStream input) {
+		return new ImagePipeline(() -> ImageCodecPool.createInputStream(input));
+	}
+
+	/**
+	 * Recadre l'image source. Le rectangle est borné aux dimensions de l'image.
+	 *
+	 * @param region Zone à conserver, en pixels de l'image source
+	 */
+	public ImagePipeline crop(Rectangle region) {
+		this.crop = new Rectangle(region);
+		return this;
+	}
+
+	/**
+	 * Redimensionne en respectant les proportions, sans agrandir.
+	 *
+	 * @param maxWidth  Largeur maximum. 0 ou négatif pour ne pas utiliser de maximum.
+	 * @param maxHeight Hauteur maximum. 0 ou négatif pour ne pas utiliser de maximum.
+	 * @see Dimension#scale(int, int)
+	 */
+	public ImagePipeline resize(int maxWidth, int maxHeight) {
+		return resize(maxWidth, maxHeight, ResizeMode.CONTAIN);
+	}
+
+	/**
+	 * Redimensionne pour faire entrer l'image dans un cadre.
+	 * <p>
+	 * Les pixels rognés par {@link ResizeMode#COVER} et {@link ResizeMode#SMART_CROP}
+	 * ne sont pas décodés.
+	 *
+	 * @param width  Largeur du cadre
+	 * @param height Hauteur du cadre
+	 * @param mode   Façon de remplir le cadre
+	 */
+	public ImagePipeline resize(int width, int height, ResizeMode mode) {
+		this.maxWidth = width;
+		this.maxHeight = height;
+		this.mode = mode;
+		return this;
+	}
+
+	/**
+	 * Remplace la transparence par une couleur de fond.
+	 *
+	 * @param background Couleur d'arrière plan
+	 */
+	public ImagePipeline flatten(Color background) {
+		this.background = background;
+		return this;
+	}
+
+	/**
+	 * @param filter Noyau du redimensionnement (Lanczos3 par défaut)
+	 */
+	public ImagePipeline filter(Resampler.Filter filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * @param parallel Répartit la passe de redimensionnement sur plusieurs cœurs
+	 */
+	public ImagePipeline parallel(boolean parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	/**
+	 * @param token Jeton interrompant le décodage et l'encodage (annulation ou échéance)
+	 */
+	public ImagePipeline cancellation(CancellationToken token) {
+		this.token = token;
+		return this;
+	}
+
+	/**
+	 * Exécute la chaîne et encode le résultat.
+	 *
+	 * @param format  Format de sortie
+	 * @param options Paramètres d'encodage
+	 * @return Image encodée
+	 */
+	public byte[] encode(ImageFormat format, EncodeOptions options) throws IOException, BadImageFormatException {
+		return ImageFormatConverter.convertImage(toImage(), format, options, token);
+	}
+
+	/**
+	 * Exécute la chaîne et encode le résultat dans un flux.
+	 *
+	 * @param format  Format de sortie
+	 * @param options Paramètres d'encodage
+	 * @param output  Flux de sortie (non fermé)
+	 */
+	public void encode(ImageFormat format, EncodeOptions options, OutputStream output)
+			throws IOException, BadImageFormatException {
+		ImageFormatConverter.convertImage(toImage(), format, options, token, output);
+	}
+
+	/**
+	 * Exécute la chaîne sans encoder.
+	 *
+	 * @return Image résultat
+	 * @throws BadImageFormatException Image source illisible
+	 */
+	public BufferedImage toImage() throws IOException, BadImageFormatException {
+		token.throwIfCancelled();
+		try (ImageInputStream stream = source.open()) {
+			ImageReader reader = ImageCodecPool.borrowReader(stream);
+			if (reader == null) {
+				throw new BadImageFormatException();
+			}
+			boolean healthy = false;
+			try {
+				// L'aperçu du recadrage intelligent impose de relire l'image
+				reader.setInput(stream, !mode.needsPreview(), true);
+				ImageCodecPool.watch(reader, token);
+				Plan plan = plan(reader.getWidth(0), reader.getHeight(0));
+				if (mode.needsPreview()) {
+					plan = plan.refine(reader);
+				}
+				BufferedImage decoded = reader.read(0, plan.readParam(reader));
+				token.throwIfCancelled();
+				healthy = true;
+				return plan.process(decoded);
+			} catch (IOException e) {
+				// Les décodeurs enveloppent les erreurs du flux d'entrée : l'annulation prime
+				token.throwIfCancelled();
+				throw e;
+			} finally {
+				ImageCodecPool.release(reader, healthy);
+			}
+		}
+	}
+
+	/**
+	 * Calcule le plan d'exécution à partir des dimensions de l'image source.
+	 */
+	Plan plan(int sourceWidth, int sourceHeight) {
+		Rectangle bounds = new Rectangle(0, 0, sourceWidth, sourceHeight);
+		if (crop != null) {
+			bounds = bounds.intersection(crop);
+			if (bounds.isEmpty()) {
+				throw new IllegalArgumentException("Crop region %s is outside of the image".formatted(crop));
+			}
+		}
+		Plan plan = new Plan(bounds, mode.sourceRegion(bounds, maxWidth, maxHeight));
+		logger.debug("Image pipeline plan: {}", plan);
+		return plan;
+	}
+
+	/**
+	 * Plan d'exécution : ce que fait le décodeur, puis la passe de pixels.
+	 */
+	final class Plan {
+		/**
+		 * Zone disponible : l'image entière ou le recadrage demandé.
+		 */
+		final Rectangle bounds;
+		/**
+		 * Zone effectivement décodée.
+		 */
+		final Rectangle region;
+		final int subsampling;
+		final Dimension target;
+
+		Plan(Rectangle bounds, Rectangle region) {
+			this.bounds = bounds;
+			this.region = region;
+			this.target = mode.targetSize(region, maxWidth, maxHeight);
+			// FILL peut réduire un seul axe : le sous-échantillonnage suit le moins réduit
+			this.subsampling = Math.max(1, Math.min(region.width / target.getWidth(),
+					region.height / target.getHeight()) / OVERSAMPLING);
+		}
+
+		/**
+		 * Place la zone décodée à partir d'un aperçu sous-échantillonné de <code>bounds</code>.
+		 */
+		Plan refine(ImageReader reader) throws IOException {
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(bounds);
+			int previewSubsampling = SmartCrop.previewSubsampling(bounds);
+			param.setSourceSubsampling(previewSubsampling, previewSubsampling, 0, 0);
+			BufferedImage preview = reader.read(0, param);
+			Plan plan = new Plan(bounds, SmartCrop.locate(preview, bounds, region));
+			logger.debug("Image pipeline plan refined: {}", plan);
+			return plan;
+		}
+
+		ImageReadParam readParam(ImageReader reader) {
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(region);
+			if (subsampling > 1) {
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			}
+			return param;
+		}
+
+		BufferedImage process(BufferedImage decoded) {
+			if (decoded.getWidth() == target.getWidth() && decoded.getHeight() == target.getHeight()) {
+				// Pas de redimensionnement : seules la transparence et le format de pixels restent à traiter
+				if (background != null) {
+					return AlphaFlattener.flatten(decoded, background, true);
+				}
+				return PixelFormats.normalize(decoded);
+			}
+			return Resampler.resize(decoded, target.getWidth(), target.getHeight(), filter, parallel, background);
+		}
+
+		@Override
+		public String toString() {
+			return "Plan{region=" + region + ", subsampling=" + subsampling + ", target=" + target + '}';
+		}
+	}
+
+	/**
+	 * Ouverture du flux source.
+	 */
+	@FunctionalInterface
+	private interface Source {
+		ImageInputStream open() throws IOException;
+	}
+}
@@ -70,23 +70,96 @@ public class ImageResizer {
 											double deformationTolerance)
 			throws IllegalArgumentException, BadDimensionException {
 
+		if (!needsResize(originalImage, newSize, deformationTolerance)) {
+			return originalImage;
+		}
+		return ImageUtils.toBufferedImage(
+				originalImage.getScaledInstance((int) newSize.getWidth(), (int) newSize.getHeight(), Image.SCALE_DEFAULT));
+
+	}
+
+	/**
+	 * Resize image from original image with a new size, using the separable resampler
+	 * <p>
+	 * In parallel mode, both passes are split into row strips on the common ForkJoinPool
+	 * once the image is larger than {@link Resampler#PARALLEL_THRESHOLD} pixels. The
+	 * output is identical to the sequential path.
+	 *
+	 * @param originalImage        Original Image
+	 * @param newSize              Dimension containing new width & height
+	 * @param deformationTolerance Rate above where we throw an exception
+	 * @param parallel             Split the work across cores
+	 * @return new Image
+	 */
+	public static BufferedImage resizeImage(BufferedImage originalImage,
+											Dimension newSize,
+											double deformationTolerance,
+											boolean parallel)
+			throws IllegalArgumentException, BadDimensionException {
+
+		if (!needsResize(originalImage, newSize, deformationTolerance)) {
+			return originalImage;
+		}
+		return Resampler.resize(originalImage, newSize.width, newSize.height, Resampler.Filter.LANCZOS3, parallel);
+	}
+
+	/**
+	 * Resize image to fit a box, using the separable resampler
+	 * <p>
+	 * Unlike the other methods, aspect ratio changes are handled by the mode instead
+	 * of being rejected: {@link ResizeMode#COVER} and {@link ResizeMode#SMART_CROP} crop
+	 * the source before resampling, {@link ResizeMode#FILL} stretches it.
+	 * When the image is still encoded, {@link ImagePipeline} avoids decoding the
+	 * cropped pixels at all.
+	 *
+	 * @param originalImage Original Image
+	 * @param box           Target box
+	 * @param mode          How the image fills the box
+	 * @param parallel      Split the work across cores
+	 * @return new Image
+	 */
+	public static BufferedImage resizeImage(BufferedImage originalImage, Dimension box, ResizeMode mode,
+											boolean parallel) {
+		Rectangle bounds = new Rectangle(0, 0, originalImage.getWidth(), originalImage.getHeight());
+		Rectangle region = mode.sourceRegion(bounds, box.width, box.height);
+		if (mode.needsPreview()) {
+			io.gotan.kit.image.Dimension previewSize = new io.gotan.kit.image.Dimension(bounds)
+					.scale(SmartCrop.PREVIEW_SIZE, SmartCrop.PREVIEW_SIZE);
+			BufferedImage preview = Resampler.resize(originalImage, Math.max(1, previewSize.getWidth()),
+					Math.max(1, previewSize.getHeight()), Resampler.Filter.BILINEAR, parallel);
+			region = SmartCrop.locate(preview, bounds, region);
+		}
+		io.gotan.kit.image.Dimension target = mode.targetSize(region, box.width, box.height);
+		BufferedImage source = region.equals(bounds) ? originalImage
+				: originalImage.getSubimage(region.x, region.y, region.width, region.height);
+		if (source.getWidth() == target.getWidth() && source.getHeight() == target.getHeight()) {
+			return source;
+		}
+		return Resampler.resize(source, target.getWidth(), target.getHeight(), Resampler.Filter.LANCZOS3, parallel);
+	}
+
+	/**
+	 * Check the requested size
+	 *
+	 * @return false when the image already has the right size
+	 */
+	private static boolean needsResize(BufferedImage originalImage, Dimension newSize, double deformationTolerance)
+			throws IllegalArgumentException, BadDimensionException {
 		if (newSize.getWidth() < 0 || newSize.getHeight() < 0) {
 			throw new IllegalArgumentException();
 		}
 		if (originalImage.getWidth(null) == newSize.getWidth() && originalImage.getHeight(null) == newSize.getHeight()) {
 			logger.debug("Already in right size");
-			return originalImage;
+			return false;
 		}
 
-		double ratio1 = originalImage.getWidth(null) / originalImage.getHeight(null);
+		double ratio1 = (double) originalImage.getWidth(null) / originalImage.getHeight(null);
 		double ratio2 = newSize.getWidth() / newSize.getHeight();
 
-		if ((ratio1 - ratio2) / ratio1 > deformationTolerance) {
+		if (Math.abs(ratio1 - ratio2) / ratio1 > deformationTolerance) {
 			throw new BadDimensionException();
 		}
-		return ImageUtils.toBufferedImage(
-				originalImage.getScaledInstance((int) newSize.getWidth(), (int) newSize.getHeight(), Image.SCALE_DEFAULT));
-
+		return true;
 	}
 
 	public static class BadDimensionException extends RuntimeException {
@@ -0,0 +1,503 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ordonnanceur des traitements d'image, par files de priorité.
+ * <p>
+ * Les traitements interactifs (vignettes demandées par un utilisateur) et les
+ * traitements de masse (régénération d'un catalogue) partagent un nombre fixe
+ * de threads, un par cœur par défaut. Chaque file ({@link Lane}) a :
+ * <ul>
+ *     <li>un poids : les cœurs sont partagés entre les files en attente au prorata
+ *     de leur poids, en temps CPU consommé par les threads de l'ordonnanceur (file équitable
+ *     pondérée) : l'attente d'entrées-sorties n'est pas facturée (temps écoulé si la JVM ne
+ *     mesure pas le temps CPU des threads) ;</li>
+ *     <li>une limite de traitements simultanés ;</li>
+ *     <li>un ordre de service par échéance (la plus proche d'abord, puis l'ordre d'arrivée).</li>
+ * </ul>
+ * Un traitement dont l'échéance passe pendant l'attente n'est pas exécuté : son
+ * résultat est une {@link CancellationToken.DeadlineExceededException}. En cours
+ * d'exécution, l'échéance et l'annulation du <code>CompletableFuture</code> sont
+ * transmises aux codecs par le {@link CancellationToken} du traitement.
+ * <p>
+ * Les traitements s'exécutent dans les threads de l'ordonnanceur : les
+ * redimensionnements sont donc séquentiels, le parallélisme vient du nombre de
+ * traitements simultanés.
+ * <p>
+ * Usage :
+ * <pre>
+ * ImageScheduler scheduler = new ImageScheduler();
+ * ImageScheduler.Lane interactive = scheduler.addLane("interactive", 8, Integer.MAX_VALUE);
+ * ImageScheduler.Lane batch = scheduler.addLane("batch", 1, 2);
+ * byte[] thumbnail = scheduler.submit(interactive, Duration.ofMillis(500),
+ *         token -> ImageUtils.getData(ImageUtils.resize(ImageUtils.getImage(data, token), 200, 200, false),
+ *                 ImageFormat.JPEG, EncodeOptions.defaults(), token)).join();
+ * </pre>
+ */
+public class ImageScheduler implements AutoCloseable {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(ImageScheduler.class);
+
+	/**
+	 * Poids d'une nouvelle mesure dans les moyennes glissantes (durée des traitements, attente).
+	 */
+	private static final double SMOOTHING = 0.2;
+
+	/**
+	 * Durée supposée d'un traitement avant la première mesure d'une file.
+	 */
+	private static final long INITIAL_COST_NANOS = 10_000_000L;
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Mesure du temps CPU des threads disponible : sinon, les files sont facturées en temps écoulé.
+	 */
+	private static final boolean CPU_TIME = threads.isCurrentThreadCpuTimeSupported()
+			&& threads.isThreadCpuTimeEnabled();
+
+	private static final AtomicInteger schedulerCount = new AtomicInteger();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition ready = lock.newCondition();
+
+	private final List<Lane> lanes = new ArrayList<>();
+
+	private final Thread[] workers;
+
+	/**
+	 * Temps virtuel de la dernière file servie : point de départ d'une file qui redevient active.
+	 */
+	private double virtualClock;
+
+	private long sequence;
+
+	private boolean closed;
+
+	/**
+	 * Ordonnanceur avec un thread par cœur.
+	 */
+	public ImageScheduler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param threads Nombre de traitements simultanés, toutes files confondues
+	 */
+	public ImageScheduler(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Thread count must be positive: " + threads);
+		}
+		int id = schedulerCount.incrementAndGet();
+		this.workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(this::work, "image-scheduler-%d-%d".formatted(id, i));
+			worker.setDaemon(true);
+			workers[i] = worker;
+			worker.start();
+		}
+	}
+
+	/**
+	 * Déclare une file.
+	 *
+	 * @param name           Nom, pour les traces et les métriques
+	 * @param weight         Part relative des cœurs quand plusieurs files sont en attente
+	 * @param maxConcurrency Nombre maximum de traitements simultanés de la file
+	 * @return File, à passer aux soumissions
+	 */
+	public Lane addLane(String name, int weight, int maxConcurrency) {
+		if (weight <= 0 || maxConcurrency <= 0) {
+			throw new IllegalArgumentException("Lane weight and concurrency must be positive");
+		}
+		Lane lane = new Lane(name, weight, maxConcurrency);
+		lock.lock();
+		try {
+			lanes.add(lane);
+		} finally {
+			lock.unlock();
+		}
+		return lane;
+	}
+
+	/**
+	 * @return Files déclarées
+	 */
+	public List<Lane> getLanes() {
+		lock.lock();
+		try {
+			return List.copyOf(lanes);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Soumet un traitement sans échéance.
+	 *
+	 * @param lane File
+	 * @param task Traitement
+	 * @return Résultat ; son annulation annule le jeton du traitement
+	 */
+	public <T> CompletableFuture<T> submit(Lane lane, Callable<T> task) {
+		return submit(lane, null, token -> task.call());
+	}
+
+	/**
+	 * Soumet un traitement.
+	 *
+	 * @param lane    File
+	 * @param timeout Délai maximum depuis la soumission, attente comprise ; <code>null</code> pour aucun
+	 * @param task    Traitement, qui reçoit le jeton portant l'échéance
+	 * @return Résultat ; son annulation annule le jeton du traitement
+	 */
+	public <T> CompletableFuture<T> submit(Lane lane, Duration timeout, Task<T> task) {
+		CancellationToken token = timeout == null ? CancellationToken.create() : CancellationToken.withTimeout(timeout);
+		Job<T> job = new Job<>(lane, task, token);
+		boolean rejected;
+		lock.lock();
+		try {
+			rejected = closed;
+			if (!rejected) {
+				if (!lanes.contains(lane)) {
+					throw new IllegalArgumentException("Unknown lane: " + lane.name);
+				}
+				job.sequence = sequence++;
+				if (lane.queue.isEmpty() && lane.running == 0) {
+					// Une file inactive ne rattrape pas le temps passé sans demande
+					lane.virtualTime = Math.max(lane.virtualTime, virtualClock);
+				}
+				lane.queue.add(job);
+				lane.queueDepth = lane.queue.size();
+				ready.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (rejected) {
+			// Hors verrou : les étapes dépendantes s'exécutent dans ce thread
+			job.future.completeExceptionally(new RejectedExecutionException("Scheduler closed"));
+		}
+		return job.future;
+	}
+
+	/**
+	 * Décode une image.
+	 *
+	 * @see ImageUtils#getImage(byte[], CancellationToken)
+	 */
+	public CompletableFuture<BufferedImage> decode(Lane lane, byte[] data, Duration timeout) {
+		return submit(lane, timeout, token -> ImageUtils.getImage(data, token));
+	}
+
+	/**
+	 * Redimensionne une image en respectant ses proportions.
+	 *
+	 * @see ImageUtils#resize(BufferedImage, int, int, boolean)
+	 */
+	public CompletableFuture<BufferedImage> resize(Lane lane, BufferedImage image, int maxWidth, int maxHeight) {
+		return submit(lane, null, token -> ImageUtils.resize(image, maxWidth, maxHeight, false));
+	}
+
+	/**
+	 * Encode une image.
+	 *
+	 * @see ImageFormatConverter#convertImage(BufferedImage, ImageFormat, EncodeOptions, CancellationToken)
+	 */
+	public CompletableFuture<byte[]> convert(Lane lane, BufferedImage image, ImageFormat format, EncodeOptions options,
+											 Duration timeout) {
+		return submit(lane, timeout, token -> ImageFormatConverter.convertImage(image, format, options, token));
+	}
+
+	/**
+	 * Refuse les nouveaux traitements, termine ceux en attente puis arrête les threads.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			ready.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void work() {
+		List<Job<?>> expired = new ArrayList<>();
+		while (true) {
+			Job<?> job;
+			lock.lock();
+			try {
+				while ((job = next(expired)) == null && expired.isEmpty()) {
+					if (closed && lanes.stream().allMatch(lane -> lane.queue.isEmpty())) {
+						return;
+					}
+					ready.awaitUninterruptibly();
+				}
+			} finally {
+				lock.unlock();
+			}
+			// Hors verrou : les étapes dépendantes des futures s'exécutent dans ce thread
+			for (Job<?> late : expired) {
+				late.expire();
+			}
+			expired.clear();
+			if (job == null) {
+				continue;
+			}
+
+			long start = cpuTime();
+			job.run();
+			long elapsed = cpuTime() - start;
+
+			lock.lock();
+			try {
+				Lane lane = job.lane;
+				lane.running--;
+				lane.completed++;
+				// Correction du coût supposé à la distribution par le temps CPU mesuré
+				lane.virtualTime += (double) (elapsed - job.charged) / lane.weight;
+				lane.averageCost += (long) (SMOOTHING * (elapsed - lane.averageCost));
+				ready.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return Temps CPU du thread courant, ou à défaut temps écoulé, en nanosecondes
+	 */
+	private static long cpuTime() {
+		return CPU_TIME ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	/**
+	 * Choisit le prochain traitement : file servable au plus petit temps virtuel, échéance la plus proche.
+	 *
+	 * @param expired Reçoit les traitements retirés hors délai, à terminer une fois le verrou rendu
+	 */
+	private Job<?> next(List<Job<?>> expired) {
+		while (true) {
+			Lane best = null;
+			for (Lane lane : lanes) {
+				if (!lane.queue.isEmpty() && lane.running < lane.maxConcurrency
+						&& (best == null || lane.virtualTime < best.virtualTime)) {
+					best = lane;
+				}
+			}
+			if (best == null) {
+				return null;
+			}
+			Job<?> job = best.queue.poll();
+			best.queueDepth = best.queue.size();
+			long wait = System.nanoTime() - job.submitted;
+			best.dispatched++;
+			best.totalWaitNanos += wait;
+			best.maxWaitNanos = Math.max(best.maxWaitNanos, wait);
+			best.recentWaitNanos += (long) (SMOOTHING * (wait - best.recentWaitNanos));
+			if (job.future.isDone()) {
+				// Annulé pendant l'attente
+				best.completed++;
+				continue;
+			}
+			if (job.token.isExpired()) {
+				best.expired++;
+				best.completed++;
+				expired.add(job);
+				logger.debug("Image task expired in lane {} after {} ms of wait", best.name, wait / 1_000_000);
+				continue;
+			}
+			best.running++;
+			job.charged = best.averageCost;
+			best.virtualTime += (double) job.charged / best.weight;
+			virtualClock = best.virtualTime;
+			return job;
+		}
+	}
+
+	/**
+	 * Traitement ordonnancé.
+	 */
+	@FunctionalInterface
+	public interface Task<T> {
+		/**
+		 * @param token Jeton d'annulation à transmettre aux décodages et encodages
+		 * @return Résultat
+		 */
+		T run(CancellationToken token) throws Exception;
+	}
+
+	/**
+	 * File de traitements, avec ses métriques.
+	 */
+	public static final class Lane {
+		private final String name;
+		private final int weight;
+		private final int maxConcurrency;
+		private final PriorityQueue<Job<?>> queue = new PriorityQueue<>(
+				Comparator.<Job<?>>comparingLong(job -> job.token.deadline()).thenComparingLong(job -> job.sequence));
+
+		/**
+		 * Temps CPU consommé divisé par le poids, en nanosecondes.
+		 */
+		private double virtualTime;
+		private long averageCost = INITIAL_COST_NANOS;
+
+		private volatile int queueDepth;
+		private volatile int running;
+		private volatile long completed;
+		private volatile long expired;
+		private volatile long dispatched;
+		private volatile long totalWaitNanos;
+		private volatile long maxWaitNanos;
+		private volatile long recentWaitNanos;
+
+		private Lane(String name, int weight, int maxConcurrency) {
+			this.name = name;
+			this.weight = weight;
+			this.maxConcurrency = maxConcurrency;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		public int getMaxConcurrency() {
+			return maxConcurrency;
+		}
+
+		/**
+		 * @return Nombre de traitements en attente
+		 */
+		public int getQueueDepth() {
+			return queueDepth;
+		}
+
+		/**
+		 * @return Nombre de traitements en cours
+		 */
+		public int getRunning() {
+			return running;
+		}
+
+		/**
+		 * @return Nombre de traitements terminés, y compris annulés et expirés
+		 */
+		public long getCompleted() {
+			return completed;
+		}
+
+		/**
+		 * @return Nombre de traitements dont l'échéance est passée pendant l'attente
+		 */
+		public long getExpired() {
+			return expired;
+		}
+
+		/**
+		 * @return Attente moyenne depuis la création de la file
+		 */
+		public Duration getAverageWait() {
+			long count = dispatched;
+			return Duration.ofNanos(count == 0 ? 0 : totalWaitNanos / count);
+		}
+
+		/**
+		 * @return Attente moyenne glissante, dominée par les derniers traitements
+		 */
+		public Duration getRecentWait() {
+			return Duration.ofNanos(recentWaitNanos);
+		}
+
+		/**
+		 * @return Attente la plus longue
+		 */
+		public Duration getMaxWait() {
+			return Duration.ofNanos(maxWaitNanos);
+		}
+
+		@Override
+		public String toString() {
+			return "%s[weight=%d, queued=%d, running=%d, recentWait=%dms]"
+					.formatted(name, weight, queueDepth, running, recentWaitNanos / 1_000_000);
+		}
+	}
+
+	private static final class Job<T> {
+		private final Lane lane;
+		private final Task<T> task;
+		private final CancellationToken token;
+		private final CompletableFuture<T> future;
+		private final long submitted = System.nanoTime();
+		private long sequence;
+		/**
+		 * Durée supposée, imputée à la file à la distribution.
+		 */
+		private long charged;
+
+		Job(Lane lane, Task<T> task, CancellationToken token) {
+			this.lane = lane;
+			this.task = task;
+			this.token = token;
+			this.future = new CompletableFuture<>() {
+				@Override
+				public boolean cancel(boolean mayInterruptIfRunning) {
+					token.cancel();
+					return super.cancel(mayInterruptIfRunning);
+				}
+			};
+		}
+
+		void run() {
+			try {
+				future.complete(task.run(token));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		void expire() {
+			try {
+				token.throwIfCancelled();
+			} catch (CancellationToken.CancelledException e) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+}
@@ -1,11 +1,7 @@
 package io.gotan.kit.image;
 
-import javax.imageio.ImageIO;
-import javax.imageio.stream.MemoryCacheImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -45,23 +41,19 @@ public class ImageUtils {
      * @see Color
      */
     public static BufferedImage normalizeImageTransparency(final BufferedImage image, final Color color) {
+        return AlphaFlattener.flatten(image, color, false);
+    }
 
-        if (image.getColorModel().hasAlpha()) {
-            BufferedImage transparencyImg = new BufferedImage(
-                    image.getWidth(),
-                    image.getHeight(),
-                    BufferedImage.TYPE_INT_RGB);
-
-            Graphics2D g2d = transparencyImg.createGraphics();
-            g2d.setColor(color);
-            g2d.fillRect(0, 0, transparencyImg.getWidth(), transparencyImg.getHeight());
-            g2d.drawImage(image, 0, 0, null);
-            g2d.dispose();
-
-            return transparencyImg;
-        } else {
-            return image;
-        }
+    /**
+     * Supprime le fond transparent d'une image hors tas, sur place.
+     *
+     * @param raster Image hors tas
+     * @param color  Couleur d'arrière plan
+     * @return L'image elle-même, désormais opaque
+     */
+    public static OffHeapRaster normalizeImageTransparency(final OffHeapRaster raster, final Color color) {
+        raster.flatten(color);
+        return raster;
     }
 
     /**
@@ -75,14 +67,56 @@ public class ImageUtils {
     public static BufferedImage resize(final BufferedImage image, int maxWidth, int maxHeight) {
         // Redimensionne l'image
         Dimension dim = new Dimension(image.getWidth(), image.getHeight()).scale(maxWidth, maxHeight);
-        BufferedImage resizedImage = new BufferedImage(dim.getWidth(), dim.getHeight(), image.getType());
+        BufferedImage source = image;
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_CUSTOM || type == BufferedImage.TYPE_BYTE_INDEXED
+                || type == BufferedImage.TYPE_BYTE_BINARY) {
+            // Pas de boucle Java2D rapide (ni de constructeur) pour ces types : format de travail
+            source = PixelFormats.normalize(image);
+            type = source.getType();
+        }
+        BufferedImage resizedImage = new BufferedImage(dim.getWidth(), dim.getHeight(), type);
         Graphics2D graphics2D = resizedImage.createGraphics();
-        graphics2D.drawImage(image, 0, 0, dim.getWidth(), dim.getHeight(), null);
+        graphics2D.drawImage(source, 0, 0, dim.getWidth(), dim.getHeight(), null);
         graphics2D.dispose();
         return resizedImage;
     }
 
 
+    /**
+     * Redimensionne une image en respectant ses proportions, par convolution Lanczos.
+     * <p>
+     * En mode parallèle, les grandes images sont traitées par bandes sur plusieurs
+     * cœurs ; le résultat est identique au mode séquentiel.
+     *
+     * @param image     Image originale à redimensionner
+     * @param maxWidth  Largeur maximum
+     * @param maxHeight Hauteur maximum
+     * @param parallel  Active le traitement parallèle au delà de {@link Resampler#PARALLEL_THRESHOLD} pixels
+     * @return Image redimensionnée
+     * @see Resampler
+     */
+    public static BufferedImage resize(final BufferedImage image, int maxWidth, int maxHeight, boolean parallel) {
+        Dimension dim = new Dimension(image.getWidth(), image.getHeight()).scale(maxWidth, maxHeight);
+        return Resampler.resize(image, dim.getWidth(), dim.getHeight(), Resampler.Filter.LANCZOS3, parallel);
+    }
+
+
+    /**
+     * Redimensionne une image hors tas en respectant ses proportions, par convolution Lanczos.
+     *
+     * @param raster    Image originale à redimensionner
+     * @param maxWidth  Largeur maximum
+     * @param maxHeight Hauteur maximum
+     * @return Nouvelle image hors tas, à fermer après usage
+     * @see OffHeapRaster
+     */
+    public static OffHeapRaster resize(final OffHeapRaster raster, int maxWidth, int maxHeight) {
+        Dimension dim = new Dimension(raster.getWidth(), raster.getHeight()).scale(maxWidth, maxHeight);
+        return Resampler.resize(raster, dim.getWidth(), dim.getHeight(), Resampler.Filter.LANCZOS3, true, null);
+    }
+
+
     /**
      * Redimensionne une image en respectant
      *
@@ -119,10 +153,42 @@ public class ImageUtils {
      * @param format Format de sortie
      */
     public static byte[] getData(BufferedImage image, ImageFormatConverter.ImageFormat format) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", baos);
-        return baos.toByteArray();
+        return getData(image, format, EncodeOptions.defaults());
+    }
+
+    /**
+     * Get image byte array data from BufferedImage with encoder parameters
+     *
+     * @param image   BufferedImage
+     * @param format  Format de sortie
+     * @param options Paramètres d'encodage
+     */
+    public static byte[] getData(BufferedImage image, ImageFormatConverter.ImageFormat format, EncodeOptions options)
+            throws IOException {
+        try {
+            return ImageFormatConverter.convertImage(image, format, options);
+        } catch (ImageFormatConverter.BadImageFormatException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+    /**
+     * Get image byte array data from BufferedImage, within a deadline or until cancelled
+     *
+     * @param image   BufferedImage
+     * @param format  Format de sortie
+     * @param options Paramètres d'encodage
+     * @param token   Jeton d'annulation ou d'échéance
+     * @throws CancellationToken.CancelledException Encodage annulé ou hors délai
+     */
+    public static byte[] getData(BufferedImage image, ImageFormatConverter.ImageFormat format, EncodeOptions options,
+                                 CancellationToken token) throws IOException {
+        try {
+            return ImageFormatConverter.convertImage(image, format, options, token);
+        } catch (ImageFormatConverter.BadImageFormatException e) {
+            throw new IOException(e.getMessage(), e);
+        }
     }
+
     /**
      * Get PNG image byte array data from BufferedImage
      *
@@ -141,7 +207,32 @@ public class ImageUtils {
     }
 
 
+    /**
+     * Décode une image.
+     * <p>
+     * Pour un GIF animé, seule la première image est rendue : voir {@link AnimatedGifResizer}
+     * pour traiter toute l'animation.
+     * Le décodage est confié au meilleur codec enregistré pour le format : voir {@link ImageCodecRegistry}.
+     *
+     * @param data Image au format binaire
+     */
     public static BufferedImage getImage(byte[] data) throws IOException {
-        return ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(data)));
+        return ImageCodecRegistry.decode(data, CancellationToken.NONE);
+    }
+
+    /**
+     * Décode une image dans un délai ou jusqu'à annulation.
+     * <p>
+     * Le décodeur est interrompu dès l'annulation du jeton ou son échéance, puis libéré
+     * avec l'image partielle.
+     *
+     * @param data  Image au format binaire
+     * @param token Jeton d'annulation ou d'échéance, voir {@link CancellationToken#withTimeout}
+     * @return Image, <code>null</code> si le format n'est pas reconnu
+     * @throws CancellationToken.CancelledException        Décodage annulé
+     * @throws CancellationToken.DeadlineExceededException Échéance dépassée
+     */
+    public static BufferedImage getImage(byte[] data, CancellationToken token) throws IOException {
+        return ImageCodecRegistry.decode(data, token);
     }
 }
@@ -0,0 +1,127 @@
+package io.gotan.kit.image;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Placement de rectangles dans une surface fixe, algorithme MaxRects
+ * (J. Jylänki, « A Thousand Ways to Pack the Bin »).
+ * <p>
+ * L'espace libre est décrit par la liste des rectangles libres maximaux (qui peuvent
+ * se chevaucher). Chaque rectangle est placé dans le rectangle libre où il laisse le
+ * plus petit reste sur son côté le plus court (« best short side fit ») ; les rectangles
+ * libres qu'il recouvre sont ensuite découpés, et ceux contenus dans un autre supprimés.
+ */
+final class MaxRectsPacker {
+
+	private final int width;
+
+	private final int height;
+
+	private final List<Rectangle> free = new ArrayList<>();
+
+	private long usedArea;
+
+	MaxRectsPacker(int width, int height) {
+		this.width = width;
+		this.height = height;
+		free.add(new Rectangle(0, 0, width, height));
+	}
+
+	/**
+	 * Place un rectangle.
+	 *
+	 * @return Position du coin supérieur gauche, <code>null</code> s'il ne reste pas de place
+	 */
+	Point insert(int w, int h) {
+		Rectangle best = null;
+		int bestShortSide = Integer.MAX_VALUE;
+		int bestLongSide = Integer.MAX_VALUE;
+		for (Rectangle rect : free) {
+			if (rect.width < w || rect.height < h) {
+				continue;
+			}
+			int leftoverX = rect.width - w;
+			int leftoverY = rect.height - h;
+			int shortSide = Math.min(leftoverX, leftoverY);
+			int longSide = Math.max(leftoverX, leftoverY);
+			if (shortSide < bestShortSide || (shortSide == bestShortSide && longSide < bestLongSide)) {
+				best = rect;
+				bestShortSide = shortSide;
+				bestLongSide = longSide;
+			}
+		}
+		if (best == null) {
+			return null;
+		}
+		Rectangle placed = new Rectangle(best.x, best.y, w, h);
+		split(placed);
+		usedArea += (long) w * h;
+		return placed.getLocation();
+	}
+
+	/**
+	 * Découpe les rectangles libres recouverts par <code>placed</code> en leurs parties
+	 * restantes (jusqu'à quatre), puis élimine les rectangles libres non maximaux.
+	 */
+	private void split(Rectangle placed) {
+		List<Rectangle> created = new ArrayList<>();
+		for (int i = free.size() - 1; i >= 0; i--) {
+			Rectangle rect = free.get(i);
+			if (!rect.intersects(placed)) {
+				continue;
+			}
+			free.remove(i);
+			if (placed.x > rect.x) {
+				created.add(new Rectangle(rect.x, rect.y, placed.x - rect.x, rect.height));
+			}
+			if (placed.x + placed.width < rect.x + rect.width) {
+				created.add(new Rectangle(placed.x + placed.width, rect.y,
+						rect.x + rect.width - placed.x - placed.width, rect.height));
+			}
+			if (placed.y > rect.y) {
+				created.add(new Rectangle(rect.x, rect.y, rect.width, placed.y - rect.y));
+			}
+			if (placed.y + placed.height < rect.y + rect.height) {
+				created.add(new Rectangle(rect.x, placed.y + placed.height,
+						rect.width, rect.y + rect.height - placed.y - placed.height));
+			}
+		}
+		// Seuls les nouveaux rectangles peuvent contenir ou être contenus par un autre
+		for (int i = created.size() - 1; i >= 0; i--) {
+			Rectangle rect = created.get(i);
+			boolean contained = false;
+			for (Rectangle other : free) {
+				if (other.contains(rect)) {
+					contained = true;
+					break;
+				}
+			}
+			for (int j = 0; j < created.size() && !contained; j++) {
+				Rectangle other = created.get(j);
+				// À égalité, seul le premier des deux est conservé
+				contained = j != i && other.contains(rect) && (!rect.contains(other) || j < i);
+			}
+			if (contained) {
+				created.remove(i);
+			}
+		}
+		free.removeIf(rect -> {
+			for (Rectangle other : created) {
+				if (other.contains(rect)) {
+					return true;
+				}
+			}
+			return false;
+		});
+		free.addAll(created);
+	}
+
+	/**
+	 * @return Part de la surface occupée, entre 0 et 1
+	 */
+	double occupancy() {
+		return (double) usedArea / ((long) width * height);
+	}
+}
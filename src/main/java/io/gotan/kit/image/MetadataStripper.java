@@ -0,0 +1,430 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Suppression des métadonnées d'une image sans la décoder.
+ * <p>
+ * Le fichier est recopié segment par segment (marqueurs APPn / COM du JPEG, chunks
+ * ancillaires du PNG, chunks RIFF du WebP) : seuls les blocs de métadonnées non
+ * conservés sont retirés, les données d'image sont recopiées à l'identique.
+ * Les blocs nécessaires au décodage (JFIF, Adobe, transparence, animation...) sont
+ * toujours conservés.
+ * <p>
+ * Attention : supprimer l'EXIF supprime aussi l'orientation de la photo.
+ */
+public final class MetadataStripper {
+
+	/**
+	 * Métadonnées conservées par défaut : le profil couleur, qui modifie le rendu de l'image.
+	 */
+	public static final Set<Metadata> DEFAULT_KEEP = Collections.unmodifiableSet(EnumSet.of(Metadata.ICC_PROFILE));
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final byte[] PNG_SIGNATURE = PngEncoder.SIGNATURE;
+
+	/**
+	 * Identifiants des segments APPn JPEG (préfixe du contenu).
+	 */
+	private static final byte[] JPEG_EXIF = ascii("Exif\0");
+	private static final byte[] JPEG_XMP = ascii("http://ns.adobe.com/xap/1.0/\0");
+	private static final byte[] JPEG_XMP_EXTENSION = ascii("http://ns.adobe.com/xmp/extension/\0");
+	private static final byte[] JPEG_ICC = ascii("ICC_PROFILE\0");
+	private static final byte[] JPEG_JFIF = ascii("JFIF\0");
+	private static final byte[] JPEG_JFXX = ascii("JFXX\0");
+	private static final byte[] JPEG_ADOBE = ascii("Adobe");
+	private static final byte[] JPEG_MPF = ascii("MPF\0");
+
+	/**
+	 * Mots-clés des chunks texte PNG contenant d'autres métadonnées.
+	 */
+	private static final byte[] PNG_XMP_KEYWORD = ascii("XML:com.adobe.xmp\0");
+	private static final byte[] PNG_RAW_EXIF_KEYWORD = ascii("Raw profile type exif\0");
+
+	/**
+	 * Drapeaux du chunk WebP VP8X.
+	 */
+	private static final int VP8X_ICC = 0x20;
+	private static final int VP8X_EXIF = 0x08;
+	private static final int VP8X_XMP = 0x04;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private MetadataStripper() {
+	}
+
+	/**
+	 * Supprime les métadonnées d'une image, en conservant le profil couleur.
+	 *
+	 * @param data Image JPEG, PNG ou WebP
+	 * @return Image sans métadonnées
+	 * @throws IOException             Fichier tronqué ou invalide
+	 * @throws BadImageFormatException Format non supporté
+	 */
+	public static byte[] strip(byte[] data) throws IOException, BadImageFormatException {
+		return strip(data, DEFAULT_KEEP);
+	}
+
+	/**
+	 * Supprime les métadonnées d'une image.
+	 *
+	 * @param data Image JPEG, PNG ou WebP
+	 * @param keep Métadonnées à conserver
+	 * @return Image sans métadonnées
+	 * @throws IOException             Fichier tronqué ou invalide
+	 * @throws BadImageFormatException Format non supporté
+	 */
+	public static byte[] strip(byte[] data, Set<Metadata> keep) throws IOException, BadImageFormatException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+		strip(new ByteArrayInputStream(data), out, keep);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Recopie une image en supprimant ses métadonnées.
+	 * <p>
+	 * JPEG et PNG sont traités en flux ; un WebP est chargé en mémoire, la taille du
+	 * conteneur RIFF devant être réécrite en tête de fichier.
+	 *
+	 * @param in   Image JPEG, PNG ou WebP (non fermé)
+	 * @param out  Flux de sortie (non fermé)
+	 * @param keep Métadonnées à conserver
+	 * @return Nombre d'octets supprimés
+	 * @throws IOException             Erreur de lecture / écriture, fichier tronqué
+	 * @throws BadImageFormatException Format non supporté
+	 */
+	public static long strip(InputStream in, OutputStream out, Set<Metadata> keep)
+			throws IOException, BadImageFormatException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		byte[] header = new byte[12];
+		input.mark(header.length);
+		int length = input.readNBytes(header, 0, header.length);
+		input.reset();
+		String format = ImageCodecPool.detectFormat(header, length);
+		if (format == null) {
+			throw new BadImageFormatException("Unknown image format");
+		}
+		return switch (format) {
+			case "jpeg" -> stripJpeg(input, out, keep);
+			case "png" -> stripPng(input, out, keep);
+			case "webp" -> stripWebP(input, out, keep);
+			default -> throw new BadImageFormatException("Metadata stripping not supported for " + format);
+		};
+	}
+
+	/**
+	 * JPEG : les segments APPn et COM sont filtrés jusqu'au premier SOS, la suite
+	 * (données compressées, scans suivants, données après EOI) est recopiée telle quelle.
+	 */
+	private static long stripJpeg(DataInputStream in, OutputStream out, Set<Metadata> keep) throws IOException {
+		byte[] segment = new byte[4 + 0xFFFF];
+		long removed = 0;
+		in.readFully(segment, 0, 2);
+		out.write(segment, 0, 2);
+		while (true) {
+			int marker = in.read();
+			if (marker < 0) {
+				return removed;
+			}
+			if (marker != 0xFF) {
+				throw new IOException("Invalid JPEG marker");
+			}
+			while (marker == 0xFF) {
+				marker = in.readUnsignedByte();
+			}
+			segment[0] = (byte) 0xFF;
+			segment[1] = (byte) marker;
+			if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+				out.write(segment, 0, 2);
+				continue;
+			}
+			if (marker == 0xD9) {
+				out.write(segment, 0, 2);
+				in.transferTo(out);
+				return removed;
+			}
+			int length = in.readUnsignedShort();
+			if (length < 2) {
+				throw new IOException("Invalid JPEG segment length");
+			}
+			segment[2] = (byte) (length >> 8);
+			segment[3] = (byte) length;
+			in.readFully(segment, 4, length - 2);
+			Metadata kind = jpegMetadata(marker, segment, 4, length - 2);
+			if (kind != null && !keep.contains(kind)) {
+				removed += 2 + length;
+				continue;
+			}
+			out.write(segment, 0, 2 + length);
+			if (marker == 0xDA) {
+				in.transferTo(out);
+				return removed;
+			}
+		}
+	}
+
+	/**
+	 * @return Type de métadonnée d'un segment JPEG, <code>null</code> pour un segment à conserver
+	 */
+	private static Metadata jpegMetadata(int marker, byte[] data, int offset, int length) {
+		if (marker == 0xFE) {
+			return Metadata.COMMENT;
+		}
+		if (marker < 0xE0 || marker > 0xEF) {
+			return null;
+		}
+		if (marker == 0xE0 && (startsWith(data, offset, length, JPEG_JFIF)
+				|| startsWith(data, offset, length, JPEG_JFXX))) {
+			return null;
+		}
+		if (marker == 0xEE && startsWith(data, offset, length, JPEG_ADOBE)) {
+			// Transformation de couleurs (YCCK / CMYK) : indispensable au décodage
+			return null;
+		}
+		if (marker == 0xE1 && startsWith(data, offset, length, JPEG_EXIF)) {
+			return Metadata.EXIF;
+		}
+		if (marker == 0xE1 && (startsWith(data, offset, length, JPEG_XMP)
+				|| startsWith(data, offset, length, JPEG_XMP_EXTENSION))) {
+			return Metadata.XMP;
+		}
+		if (marker == 0xE2 && startsWith(data, offset, length, JPEG_ICC)) {
+			return Metadata.ICC_PROFILE;
+		}
+		if (marker == 0xE2 && startsWith(data, offset, length, JPEG_MPF)) {
+			// Index des images secondaires stockées après EOI
+			return null;
+		}
+		return Metadata.OTHER;
+	}
+
+	/**
+	 * PNG : les chunks critiques sont recopiés tels quels (CRC compris), les chunks
+	 * ancillaires sont filtrés. Rien n'est recopié après IEND.
+	 */
+	private static long stripPng(DataInputStream in, OutputStream out, Set<Metadata> keep) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long removed = 0;
+		in.readFully(buffer, 0, PNG_SIGNATURE.length);
+		out.write(buffer, 0, PNG_SIGNATURE.length);
+		while (true) {
+			int length = in.readInt();
+			if (length < 0) {
+				throw new IOException("Invalid PNG chunk length");
+			}
+			byte[] type = new byte[4];
+			in.readFully(type);
+			String name = new String(type, StandardCharsets.ISO_8859_1);
+
+			// Début du contenu, pour identifier les chunks texte
+			int head = Math.min(length, PNG_RAW_EXIF_KEYWORD.length);
+			in.readFully(buffer, 8, head);
+			Metadata kind = pngMetadata(name, buffer, 8, head);
+			long remaining = (long) length - head + 4;
+			if (kind != null && !keep.contains(kind)) {
+				skipFully(in, remaining);
+				removed += 12L + length;
+			} else {
+				writeInt(buffer, 0, length);
+				System.arraycopy(type, 0, buffer, 4, 4);
+				out.write(buffer, 0, 8 + head);
+				copy(in, out, remaining, buffer);
+			}
+			if (name.equals("IEND")) {
+				return removed;
+			}
+		}
+	}
+
+	/**
+	 * @return Type de métadonnée d'un chunk PNG, <code>null</code> pour un chunk à conserver
+	 */
+	private static Metadata pngMetadata(String name, byte[] data, int offset, int length) {
+		if ((name.charAt(0) & 0x20) == 0) {
+			return null;
+		}
+		return switch (name) {
+			// Transparence et animation (APNG) : données d'image
+			case "tRNS", "acTL", "fcTL", "fdAT" -> null;
+			case "eXIf" -> Metadata.EXIF;
+			case "iCCP", "sRGB", "gAMA", "cHRM", "cICP", "mDCV", "cLLI" -> Metadata.ICC_PROFILE;
+			case "tEXt", "zTXt", "iTXt" -> {
+				if (startsWith(data, offset, length, PNG_XMP_KEYWORD)) {
+					yield Metadata.XMP;
+				}
+				if (startsWith(data, offset, length, PNG_RAW_EXIF_KEYWORD)) {
+					yield Metadata.EXIF;
+				}
+				yield Metadata.COMMENT;
+			}
+			default -> Metadata.OTHER;
+		};
+	}
+
+	/**
+	 * WebP : le fichier est filtré en mémoire, puis la taille RIFF et les drapeaux
+	 * du chunk VP8X sont mis à jour.
+	 */
+	private static long stripWebP(DataInputStream in, OutputStream out, Set<Metadata> keep) throws IOException {
+		byte[] data = in.readAllBytes();
+		if (data.length < 12) {
+			throw new EOFException("Truncated WebP file");
+		}
+		int end = (int) Math.min(data.length, (readIntLE(data, 4) & 0xFFFFFFFFL) + 8);
+		ByteArrayOutputStream chunks = new ByteArrayOutputStream(end);
+		int vp8x = -1;
+		int flags = 0;
+		int position = 12;
+		while (position + 8 <= end) {
+			String name = new String(data, position, 4, StandardCharsets.ISO_8859_1);
+			long size = readIntLE(data, position + 4) & 0xFFFFFFFFL;
+			long next = position + 8 + size + (size & 1);
+			if (position + 8 + size > end) {
+				throw new EOFException("Truncated WebP chunk " + name);
+			}
+			int length = (int) (Math.min(next, end) - position);
+			Metadata kind = webpMetadata(name);
+			if (kind == null || keep.contains(kind)) {
+				if (name.equals("VP8X")) {
+					vp8x = chunks.size() + 8;
+				}
+				chunks.write(data, position, length);
+				if (length < next - position) {
+					// Octet de bourrage manquant en fin de fichier
+					chunks.write(0);
+				}
+			} else {
+				flags |= switch (kind) {
+					case ICC_PROFILE -> VP8X_ICC;
+					case EXIF -> VP8X_EXIF;
+					case XMP -> VP8X_XMP;
+					default -> 0;
+				};
+			}
+			position = (int) next;
+		}
+		byte[] body = chunks.toByteArray();
+		if (vp8x >= 0 && vp8x < body.length) {
+			body[vp8x] &= (byte) ~flags;
+		}
+		byte[] header = new byte[12];
+		System.arraycopy(data, 0, header, 0, 12);
+		writeIntLE(header, 4, 4 + body.length);
+		out.write(header);
+		out.write(body);
+		return data.length - (12L + body.length);
+	}
+
+	/**
+	 * @return Type de métadonnée d'un chunk WebP, <code>null</code> pour un chunk à conserver
+	 */
+	private static Metadata webpMetadata(String name) {
+		return switch (name) {
+			case "VP8X", "VP8 ", "VP8L", "ALPH", "ANIM", "ANMF" -> null;
+			case "ICCP" -> Metadata.ICC_PROFILE;
+			case "EXIF" -> Metadata.EXIF;
+			case "XMP " -> Metadata.XMP;
+			default -> Metadata.OTHER;
+		};
+	}
+
+	private static void copy(InputStream in, OutputStream out, long length, byte[] buffer) throws IOException {
+		while (length > 0) {
+			int n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+			if (n < 0) {
+				throw new EOFException();
+			}
+			out.write(buffer, 0, n);
+			length -= n;
+		}
+	}
+
+	private static void skipFully(InputStream in, long length) throws IOException {
+		while (length > 0) {
+			long n = in.skip(length);
+			if (n <= 0) {
+				if (in.read() < 0) {
+					throw new EOFException();
+				}
+				n = 1;
+			}
+			length -= n;
+		}
+	}
+
+	private static boolean startsWith(byte[] data, int offset, int length, byte[] prefix) {
+		if (length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] ascii(String value) {
+		return value.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private static int readIntLE(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8 | (buffer[offset + 2] & 0xFF) << 16
+				| (buffer[offset + 3] & 0xFF) << 24;
+	}
+
+	private static void writeIntLE(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >>> 8);
+		buffer[offset + 2] = (byte) (value >>> 16);
+		buffer[offset + 3] = (byte) (value >>> 24);
+	}
+
+	/**
+	 * Catégories de métadonnées.
+	 */
+	public enum Metadata {
+		/**
+		 * EXIF : appareil, date, géolocalisation, orientation, miniature.
+		 */
+		EXIF,
+		/**
+		 * XMP (Adobe).
+		 */
+		XMP,
+		/**
+		 * Profil ICC et informations colorimétriques (gamma, sRGB...).
+		 */
+		ICC_PROFILE,
+		/**
+		 * Commentaires et textes libres.
+		 */
+		COMMENT,
+		/**
+		 * Autres blocs ancillaires (IPTC, résolution, date de modification, données propriétaires...).
+		 */
+		OTHER
+	}
+}
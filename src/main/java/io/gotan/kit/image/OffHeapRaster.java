@@ -0,0 +1,618 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Image ARGB 8 bits stockée hors du tas Java, par tuiles de {@link #TILE_SIZE} pixels de côté.
+ * <p>
+ * Une <code>BufferedImage</code> repose sur un unique tableau Java : elle est limitée
+ * à 2<sup>31</sup> échantillons et pèse sur le ramasse-miettes. Ici chaque tuile est
+ * un <code>ByteBuffer</code> direct de 1 Mo, alloué à la première écriture (une tuile
+ * jamais écrite est transparente, ou noire pour une image opaque). Les pixels sont
+ * en ARGB non prémultiplié.
+ * <p>
+ * Les tuiles sont rendues à la fermeture ({@link #close()}) : elles alimentent un pool
+ * borné réutilisé par les images suivantes, le surplus est libéré par le ramasse-miettes.
+ * L'image est inutilisable une fois fermée. Les lectures et écritures de zones distinctes
+ * peuvent être concurrentes.
+ * <p>
+ * Usage :
+ * <pre>
+ * try (OffHeapRaster source = OffHeapRaster.read(file);
+ *      OffHeapRaster thumbnail = ImageUtils.resize(source, 4096, 4096)) {
+ *     ImageFormatConverter.convertImage(thumbnail, ImageFormat.PNG, EncodeOptions.defaults(), output);
+ * }
+ * </pre>
+ * @see Resampler#resize(OffHeapRaster, int, int, Resampler.Filter, boolean, Color)
+ */
+public final class OffHeapRaster implements AutoCloseable {
+
+	/**
+	 * Côté d'une tuile, en pixels.
+	 */
+	public static final int TILE_SIZE = 512;
+
+	private static final int TILE_SHIFT = 9;
+
+	private static final int TILE_MASK = TILE_SIZE - 1;
+
+	private static final int TILE_PIXELS = TILE_SIZE * TILE_SIZE;
+
+	/**
+	 * Nombre maximum de tuiles conservées pour réutilisation (64 Mo).
+	 */
+	private static final int MAX_POOLED_TILES = 64;
+
+	/**
+	 * Nombre de pixels décodés à la fois par {@link #read(File)}.
+	 */
+	private static final int BAND_PIXELS = 1 << 24;
+
+	private static final int[] RGB_MASKS = {0xFF0000, 0xFF00, 0xFF};
+
+	private static final int[] ARGB_MASKS = {0xFF0000, 0xFF00, 0xFF, 0xFF000000};
+
+	private static final int[] ZERO_ROW = new int[TILE_SIZE];
+
+	private static final BlockingQueue<IntBuffer> pool = new ArrayBlockingQueue<>(MAX_POOLED_TILES);
+
+	private final int width;
+
+	private final int height;
+
+	private final int tilesX;
+
+	private final int tilesY;
+
+	private final AtomicReferenceArray<IntBuffer> tiles;
+
+	private volatile boolean alpha;
+
+	private volatile boolean closed;
+
+	private OffHeapRaster(int width, int height, boolean alpha) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Raster size must be positive: %dx%d".formatted(width, height));
+		}
+		this.width = width;
+		this.height = height;
+		this.alpha = alpha;
+		this.tilesX = (int) ((width + (long) TILE_MASK) >> TILE_SHIFT);
+		this.tilesY = (int) ((height + (long) TILE_MASK) >> TILE_SHIFT);
+		long count = (long) tilesX * tilesY;
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Raster too large: %dx%d".formatted(width, height));
+		}
+		this.tiles = new AtomicReferenceArray<>((int) count);
+	}
+
+	/**
+	 * Crée une image vide (transparente, ou noire si opaque).
+	 *
+	 * @param width  Largeur
+	 * @param height Hauteur
+	 * @param alpha  true pour conserver un canal alpha
+	 * @return Image, à fermer après usage
+	 */
+	public static OffHeapRaster allocate(int width, int height, boolean alpha) {
+		return new OffHeapRaster(width, height, alpha);
+	}
+
+	/**
+	 * Copie une image du tas.
+	 *
+	 * @param image Image source, quel que soit son format
+	 * @return Image, à fermer après usage
+	 */
+	public static OffHeapRaster from(BufferedImage image) {
+		OffHeapRaster raster = allocate(image.getWidth(), image.getHeight(), image.getColorModel().hasAlpha());
+		raster.write(image, 0, 0);
+		return raster;
+	}
+
+	/**
+	 * Décode un fichier image par bandes, sans jamais le charger entièrement dans le tas.
+	 * <p>
+	 * Chaque bande est lue avec une région source : les décodeurs à accès direct (TIFF en
+	 * bandes ou en tuiles) ne lisent que les données utiles, les décodeurs séquentiels
+	 * (JPEG, PNG) redécodent le début de l'image à chaque bande.
+	 *
+	 * @param file Fichier image
+	 * @return Image, à fermer après usage
+	 * @throws BadImageFormatException Format non reconnu
+	 */
+	public static OffHeapRaster read(File file) throws IOException, BadImageFormatException {
+		try (ImageInputStream stream = new FileImageInputStream(file)) {
+			ImageReader reader = ImageCodecPool.borrowReader(stream);
+			if (reader == null) {
+				throw new BadImageFormatException("Unsupported image format: %s".formatted(file.getName()));
+			}
+			boolean healthy = false;
+			OffHeapRaster raster = null;
+			try {
+				reader.setInput(stream, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				int bandHeight = Math.max(1, Math.min(height, BAND_PIXELS / width));
+				if (reader.isImageTiled(0)) {
+					int tileHeight = reader.getTileHeight(0);
+					bandHeight = Math.max(tileHeight, bandHeight / tileHeight * tileHeight);
+				}
+				ImageReadParam param = reader.getDefaultReadParam();
+				for (int y = 0; y < height; y += bandHeight) {
+					param.setSourceRegion(new Rectangle(0, y, width, Math.min(bandHeight, height - y)));
+					BufferedImage band = reader.read(0, param);
+					if (raster == null) {
+						raster = allocate(width, height, band.getColorModel().hasAlpha());
+					}
+					raster.write(band, 0, y);
+				}
+				healthy = true;
+				return raster;
+			} catch (IOException | RuntimeException e) {
+				if (raster != null) {
+					raster.close();
+				}
+				throw e;
+			} finally {
+				ImageCodecPool.release(reader, healthy);
+			}
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return true si l'image a un canal alpha
+	 */
+	public boolean hasAlpha() {
+		return alpha;
+	}
+
+	/**
+	 * @return Nombre de colonnes de tuiles
+	 */
+	public int getTilesX() {
+		return tilesX;
+	}
+
+	/**
+	 * @return Nombre de lignes de tuiles
+	 */
+	public int getTilesY() {
+		return tilesY;
+	}
+
+	/**
+	 * Accès direct à une tuile, allouée si nécessaire.
+	 * <p>
+	 * Le pixel (x, y) de la tuile est à l'indice <code>y * TILE_SIZE + x</code> ; les tuiles
+	 * de bord ont la taille pleine, leurs pixels hors de l'image sont ignorés. La vue
+	 * n'est plus valide après {@link #close()}.
+	 *
+	 * @param tileX Colonne de la tuile
+	 * @param tileY Ligne de la tuile
+	 * @return Pixels ARGB de la tuile
+	 */
+	public IntBuffer tile(int tileX, int tileY) {
+		if (tileX < 0 || tileX >= tilesX || tileY < 0 || tileY >= tilesY) {
+			throw new IndexOutOfBoundsException("Tile %d,%d out of %dx%d".formatted(tileX, tileY, tilesX, tilesY));
+		}
+		checkOpen();
+		return tileForWrite(tileY * tilesX + tileX).duplicate();
+	}
+
+	public int getRGB(int x, int y) {
+		int[] pixel = new int[1];
+		readRow(x, y, 1, pixel, 0);
+		return pixel[0];
+	}
+
+	public void setRGB(int x, int y, int argb) {
+		writeRow(x, y, 1, new int[]{argb}, 0);
+	}
+
+	/**
+	 * Lit une portion de ligne.
+	 *
+	 * @param x      Abscisse du premier pixel
+	 * @param y      Ligne
+	 * @param length Nombre de pixels
+	 * @param row    Destination, en ARGB non prémultiplié
+	 * @param offset Position dans la destination
+	 */
+	public void readRow(int x, int y, int length, int[] row, int offset) {
+		checkRow(x, y, length);
+		int opaque = alpha ? 0 : 0xFF000000;
+		int base = (y >> TILE_SHIFT) * tilesX;
+		int inTile = (y & TILE_MASK) << TILE_SHIFT;
+		while (length > 0) {
+			int inX = x & TILE_MASK;
+			int n = Math.min(length, TILE_SIZE - inX);
+			IntBuffer tile = tiles.get(base + (x >> TILE_SHIFT));
+			if (tile == null) {
+				Arrays.fill(row, offset, offset + n, opaque);
+			} else {
+				tile.get(inTile + inX, row, offset, n);
+				if (opaque != 0) {
+					for (int i = offset, end = offset + n; i < end; i++) {
+						row[i] |= opaque;
+					}
+				}
+			}
+			x += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Écrit une portion de ligne.
+	 *
+	 * @param x      Abscisse du premier pixel
+	 * @param y      Ligne
+	 * @param length Nombre de pixels
+	 * @param row    Source, en ARGB non prémultiplié
+	 * @param offset Position dans la source
+	 */
+	public void writeRow(int x, int y, int length, int[] row, int offset) {
+		checkRow(x, y, length);
+		int base = (y >> TILE_SHIFT) * tilesX;
+		int inTile = (y & TILE_MASK) << TILE_SHIFT;
+		while (length > 0) {
+			int inX = x & TILE_MASK;
+			int n = Math.min(length, TILE_SIZE - inX);
+			tileForWrite(base + (x >> TILE_SHIFT)).put(inTile + inX, row, offset, n);
+			x += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Copie une image du tas dans cette image.
+	 *
+	 * @param image Image source, quel que soit son format
+	 * @param x     Abscisse de destination
+	 * @param y     Ordonnée de destination
+	 */
+	public void write(BufferedImage image, int x, int y) {
+		int w = image.getWidth();
+		if ((long) x + w > width || (long) y + image.getHeight() > height) {
+			throw new IndexOutOfBoundsException("Image %dx%d at %d,%d exceeds %dx%d"
+					.formatted(w, image.getHeight(), x, y, width, height));
+		}
+		PixelFormats.RowReader reader = PixelFormats.rowReader(image);
+		boolean premultiplied = reader.isPremultiplied();
+		ParallelRows.run(image.getHeight(), w, true, (y0, y1) -> {
+			int[] row = new int[w];
+			for (int j = y0; j < y1; j++) {
+				reader.read(j, row);
+				if (premultiplied) {
+					for (int i = 0; i < w; i++) {
+						row[i] = PixelFormats.unpremultiply(row[i]);
+					}
+				}
+				writeRow(x, y + j, w, row, 0);
+			}
+		});
+	}
+
+	/**
+	 * Copie toute l'image dans le tas.
+	 *
+	 * @return Image en <code>TYPE_INT_ARGB</code>, ou <code>TYPE_INT_RGB</code> si opaque
+	 */
+	public BufferedImage toImage() {
+		return toImage(0, 0, width, height);
+	}
+
+	/**
+	 * Copie une région de l'image dans le tas.
+	 *
+	 * @return Image en <code>TYPE_INT_ARGB</code>, ou <code>TYPE_INT_RGB</code> si opaque
+	 */
+	public BufferedImage toImage(int x, int y, int w, int h) {
+		if ((long) w * h > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Region too large for a BufferedImage: %dx%d".formatted(w, h));
+		}
+		BufferedImage result = new BufferedImage(w, h, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		int[] dst = AlphaFlattener.pixels(result);
+		ParallelRows.run(h, w, true, (y0, y1) -> {
+			for (int j = y0; j < y1; j++) {
+				readRow(x, y + j, w, dst, j * w);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Remplace la transparence par une couleur de fond, sur place.
+	 *
+	 * @param background Couleur d'arrière plan (son canal alpha est ignoré)
+	 */
+	public void flatten(Color background) {
+		if (!alpha) {
+			return;
+		}
+		int bg = background.getRGB() & 0xFFFFFF;
+		ParallelRows.run(height, width, true, (y0, y1) -> {
+			int[] row = new int[width];
+			for (int y = y0; y < y1; y++) {
+				readRow(0, y, width, row, 0);
+				flattenRow(row, 0, width, bg);
+				writeRow(0, y, width, row, 0);
+			}
+		});
+		alpha = false;
+	}
+
+	/**
+	 * Vue <code>RenderedImage</code> en tuiles, pour les encodeurs qui lisent l'image par
+	 * régions (PNG, TIFF du JDK) : seules les régions demandées sont copiées dans le tas.
+	 *
+	 * @param background Couleur d'arrière plan, <code>null</code> pour conserver la transparence
+	 * @return Vue, valide tant que l'image n'est pas fermée
+	 */
+	public RenderedImage asRenderedImage(Color background) {
+		return new TiledView(background);
+	}
+
+	/**
+	 * Lecteur de lignes complètes, pour les encodeurs du paquet.
+	 */
+	PixelFormats.RowReader rowReader() {
+		return new PixelFormats.RowReader(false) {
+			@Override
+			void read(int y, int[] row) {
+				readRow(0, y, width, row, 0);
+			}
+		};
+	}
+
+	/**
+	 * Rend les tuiles au pool : l'image n'est plus utilisable.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (int i = 0, n = tiles.length(); i < n; i++) {
+			IntBuffer tile = tiles.getAndSet(i, null);
+			if (tile != null) {
+				pool.offer(tile);
+			}
+		}
+	}
+
+	private IntBuffer tileForWrite(int index) {
+		IntBuffer tile = tiles.get(index);
+		if (tile != null) {
+			return tile;
+		}
+		IntBuffer fresh = allocateTile();
+		if (tiles.compareAndSet(index, null, fresh)) {
+			return fresh;
+		}
+		pool.offer(fresh);
+		return tiles.get(index);
+	}
+
+	private IntBuffer allocateTile() {
+		IntBuffer tile = pool.poll();
+		if (tile == null) {
+			return ByteBuffer.allocateDirect(TILE_PIXELS * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		for (int i = 0; i < TILE_PIXELS; i += TILE_SIZE) {
+			tile.put(i, ZERO_ROW);
+		}
+		return tile;
+	}
+
+	private void checkRow(int x, int y, int length) {
+		if (x < 0 || y < 0 || y >= height || length < 0 || (long) x + length > width) {
+			throw new IndexOutOfBoundsException("Row %d,%d+%d out of %dx%d".formatted(x, y, length, width, height));
+		}
+		checkOpen();
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Raster closed");
+		}
+	}
+
+	/**
+	 * Compose une portion de ligne ARGB non prémultiplié sur la couleur de fond.
+	 */
+	static void flattenRow(int[] row, int offset, int length, int bg) {
+		int bgR = bg >>> 16;
+		int bgG = (bg >>> 8) & 0xFF;
+		int bgB = bg & 0xFF;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			int p = row[i];
+			if (p >>> 24 != 0xFF) {
+				row[i] = AlphaFlattener.blend((p >>> 16) & 0xFF, (p >>> 8) & 0xFF, p & 0xFF, p >>> 24,
+						bgR, bgG, bgB, false);
+			}
+		}
+	}
+
+	/**
+	 * Vue en tuiles de l'image, en entiers packés RGB ou ARGB.
+	 */
+	private final class TiledView implements RenderedImage {
+		private final int bg;
+		private final boolean viewAlpha;
+		private final ColorModel colorModel;
+
+		TiledView(Color background) {
+			this.viewAlpha = alpha && background == null;
+			this.bg = background == null ? 0 : background.getRGB() & 0xFFFFFF;
+			this.colorModel = viewAlpha
+					? new DirectColorModel(32, ARGB_MASKS[0], ARGB_MASKS[1], ARGB_MASKS[2], ARGB_MASKS[3])
+					: new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+		}
+
+		@Override
+		public Vector<RenderedImage> getSources() {
+			return null;
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return Image.UndefinedProperty;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return colorModel;
+		}
+
+		@Override
+		public SampleModel getSampleModel() {
+			return colorModel.createCompatibleSampleModel(TILE_SIZE, TILE_SIZE);
+		}
+
+		@Override
+		public int getWidth() {
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+
+		@Override
+		public int getNumXTiles() {
+			return tilesX;
+		}
+
+		@Override
+		public int getNumYTiles() {
+			return tilesY;
+		}
+
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+
+		@Override
+		public int getTileWidth() {
+			return TILE_SIZE;
+		}
+
+		@Override
+		public int getTileHeight() {
+			return TILE_SIZE;
+		}
+
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+
+		@Override
+		public Raster getTile(int tileX, int tileY) {
+			return getData(new Rectangle(tileX * TILE_SIZE, tileY * TILE_SIZE, TILE_SIZE, TILE_SIZE));
+		}
+
+		@Override
+		public Raster getData() {
+			return getData(new Rectangle(0, 0, width, height));
+		}
+
+		@Override
+		public Raster getData(Rectangle rect) {
+			Rectangle region = rect.intersection(new Rectangle(0, 0, width, height));
+			WritableRaster raster = colorModel.createCompatibleWritableRaster(region.width, region.height)
+					.createWritableTranslatedChild(region.x, region.y);
+			copyData(raster);
+			return raster;
+		}
+
+		@Override
+		public WritableRaster copyData(WritableRaster raster) {
+			if (raster == null) {
+				return (WritableRaster) getData();
+			}
+			Rectangle region = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+			int[] row = new int[region.width];
+			boolean packed = raster.getDataBuffer() instanceof DataBufferInt
+					&& raster.getSampleModel().getNumDataElements() == 1;
+			for (int y = region.y; y < region.y + region.height; y++) {
+				readRow(region.x, y, region.width, row, 0);
+				if (!viewAlpha && alpha) {
+					flattenRow(row, 0, region.width, bg);
+				}
+				if (packed) {
+					raster.setDataElements(region.x, y, region.width, 1, row);
+				} else {
+					for (int x = 0; x < region.width; x++) {
+						raster.setDataElements(region.x + x, y, colorModel.getDataElements(row[x], null));
+					}
+				}
+			}
+			return raster;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package io.gotan.kit.image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Découpage d'un traitement d'image en bandes de lignes sur le <code>ForkJoinPool</code> commun.
+ * <p>
+ * Chaque bande est traitée indépendamment : le résultat ne dépend pas du
+ * découpage, il est identique en séquentiel et en parallèle.
+ */
+final class ParallelRows {
+
+	/**
+	 * Nombre minimum de pixels traités par une tâche.
+	 */
+	static final int MIN_PIXELS_PER_TASK = 1 << 16;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private ParallelRows() {
+	}
+
+	/**
+	 * Exécute une opération par bandes de lignes.
+	 *
+	 * @param rows     Nombre de lignes
+	 * @param width    Nombre de pixels par ligne, pour dimensionner les bandes
+	 * @param parallel false pour tout traiter dans le thread appelant
+	 * @param task     Traitement d'une bande
+	 */
+	static void run(int rows, int width, boolean parallel, RowTask task) {
+		int rowsPerTask = Math.max(1, MIN_PIXELS_PER_TASK / Math.max(1, width));
+		if (!parallel || rows <= rowsPerTask) {
+			task.apply(0, rows);
+		} else {
+			ForkJoinPool.commonPool().invoke(new RowAction(task, 0, rows, rowsPerTask));
+		}
+	}
+
+	/**
+	 * Traitement d'une bande de lignes [y0, y1[.
+	 */
+	@FunctionalInterface
+	interface RowTask {
+		void apply(int y0, int y1);
+	}
+
+	private static final class RowAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final transient RowTask task;
+		private final int y0;
+		private final int y1;
+		private final int rowsPerTask;
+
+		RowAction(RowTask task, int y0, int y1, int rowsPerTask) {
+			this.task = task;
+			this.y0 = y0;
+			this.y1 = y1;
+			this.rowsPerTask = rowsPerTask;
+		}
+
+		@Override
+		protected void compute() {
+			if (y1 - y0 <= rowsPerTask) {
+				task.apply(y0, y1);
+				return;
+			}
+			int middle = (y0 + y1) >>> 1;
+			invokeAll(new RowAction(task, y0, middle, rowsPerTask), new RowAction(task, middle, y1, rowsPerTask));
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package io.gotan.kit.image;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Normalisation des images décodées vers un format de travail rapide.
+ * <p>
+ * Les décodeurs produisent souvent des images <code>TYPE_CUSTOM</code> (PNG RGB,
+ * PNG 16 bits...) ou <code>TYPE_BYTE_INDEXED</code> (GIF, PNG palette) pour
+ * lesquelles Java2D passe par ses boucles génériques, très lentes. Les
+ * traitements travaillent donc sur l'un des trois formats suivants :
+ * <ul>
+ *     <li><code>TYPE_INT_RGB</code> pour les images opaques ;</li>
+ *     <li><code>TYPE_INT_ARGB_PRE</code> pour les images transparentes ;</li>
+ *     <li><code>TYPE_3BYTE_BGR</code>, conservé tel quel (sortie du décodeur JPEG).</li>
+ * </ul>
+ * La conversion inverse n'est faite qu'au moment de l'encodage, et seulement si
+ * l'encodeur ne sait pas écrire le format de travail ({@link #forEncoder}).
+ */
+public final class PixelFormats {
+
+	/**
+	 * Avoid instantiation
+	 */
+	private PixelFormats() {
+	}
+
+	/**
+	 * Est ce que l'image est déjà dans un format de travail.
+	 */
+	public static boolean isWorkingFormat(BufferedImage image) {
+		int type = image.getType();
+		return type == BufferedImage.TYPE_INT_RGB
+				|| type == BufferedImage.TYPE_INT_ARGB_PRE
+				|| type == BufferedImage.TYPE_3BYTE_BGR;
+	}
+
+	/**
+	 * Convertit une image dans le format de travail le moins coûteux.
+	 *
+	 * @param image Image décodée, quel que soit son format
+	 * @return L'image elle-même si elle est déjà dans un format de travail, sinon une copie
+	 * en <code>TYPE_INT_RGB</code> ou <code>TYPE_INT_ARGB_PRE</code>
+	 */
+	public static BufferedImage normalize(BufferedImage image) {
+		if (isWorkingFormat(image)) {
+			return image;
+		}
+		boolean alpha = image.getColorModel().hasAlpha();
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage result = new BufferedImage(width, height,
+				alpha ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB);
+		int[] dst = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+		RowReader reader = rowReader(image);
+		boolean premultiply = alpha && !reader.isPremultiplied();
+		ParallelRows.run(height, width, true, (y0, y1) -> {
+			int[] row = new int[width];
+			for (int y = y0; y < y1; y++) {
+				reader.read(y, row);
+				if (premultiply) {
+					premultiply(row, width);
+				}
+				System.arraycopy(row, 0, dst, y * width, width);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Prépare une image pour un encodeur.
+	 * <p>
+	 * Les encodeurs ImageIO écrivent les échantillons bruts : une image
+	 * prémultipliée est donc repassée en <code>TYPE_INT_ARGB</code>. Les autres
+	 * images sont rendues telles quelles.
+	 *
+	 * @param image Image à encoder
+	 * @return Image directement encodable
+	 */
+	public static BufferedImage forEncoder(BufferedImage image) {
+		if (!image.isAlphaPremultiplied()) {
+			return image;
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] dst = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+		RowReader reader = rowReader(image);
+		ParallelRows.run(height, width, true, (y0, y1) -> {
+			int[] row = new int[width];
+			for (int y = y0; y < y1; y++) {
+				reader.read(y, row);
+				if (reader.isPremultiplied()) {
+					for (int x = 0; x < width; x++) {
+						row[x] = unpremultiply(row[x]);
+					}
+				}
+				System.arraycopy(row, 0, dst, y * width, width);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Prémultiplie les <code>width</code> premiers pixels d'une ligne ARGB.
+	 */
+	static void premultiply(int[] row, int width) {
+		for (int x = 0; x < width; x++) {
+			int p = row[x];
+			int a = p >>> 24;
+			if (a == 0) {
+				row[x] = 0;
+			} else if (a != 0xFF) {
+				row[x] = (a << 24)
+						| (AlphaFlattener.div255(((p >>> 16) & 0xFF) * a) << 16)
+						| (AlphaFlattener.div255(((p >>> 8) & 0xFF) * a) << 8)
+						| AlphaFlattener.div255((p & 0xFF) * a);
+			}
+		}
+	}
+
+	/**
+	 * Repasse un pixel ARGB prémultiplié en alpha direct.
+	 */
+	static int unpremultiply(int p) {
+		int a = p >>> 24;
+		if (a == 0xFF) {
+			return p;
+		}
+		if (a == 0) {
+			return 0;
+		}
+		int half = a >> 1;
+		return (a << 24)
+				| (Math.min(255, (((p >>> 16) & 0xFF) * 255 + half) / a) << 16)
+				| (Math.min(255, (((p >>> 8) & 0xFF) * 255 + half) / a) << 8)
+				| Math.min(255, ((p & 0xFF) * 255 + half) / a);
+	}
+
+	/**
+	 * Lecteur de lignes ARGB adapté à la disposition mémoire de l'image.
+	 * <p>
+	 * Boucles spécialisées pour les sorties courantes des décodeurs : entiers
+	 * packés, octets entrelacés RGB(A) / BGR(A), niveaux de gris 8 bits et
+	 * palette 8 bits. Les autres formats passent par <code>getRGB</code>.
+	 *
+	 * @param image Image source
+	 * @return lecteur, utilisable depuis plusieurs threads
+	 */
+	static RowReader rowReader(BufferedImage image) {
+		Raster raster = image.getRaster();
+		int width = image.getWidth();
+
+		if (raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+				&& raster.getDataBuffer() instanceof DataBufferInt buffer
+				&& image.getColorModel() instanceof DirectColorModel
+				&& isRgbMasks(sm.getBitMasks())) {
+			int[] data = buffer.getData();
+			int stride = sm.getScanlineStride();
+			int base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+			int opaque = sm.getBitMasks().length == 3 ? 0xFF000000 : 0;
+			return new RowReader(image.isAlphaPremultiplied()) {
+				@Override
+				void read(int y, int[] row) {
+					System.arraycopy(data, base + y * stride, row, 0, width);
+					if (opaque != 0) {
+						for (int x = 0; x < width; x++) {
+							row[x] |= opaque;
+						}
+					}
+				}
+			};
+		}
+
+		if (raster.getSampleModel() instanceof ComponentSampleModel sm
+				&& raster.getDataBuffer() instanceof DataBufferByte buffer
+				&& buffer.getNumBanks() == 1
+				&& sm.getSampleSize(0) == 8) {
+			byte[] data = buffer.getData();
+			int stride = sm.getScanlineStride();
+			int pixelStride = sm.getPixelStride();
+			int base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride
+					- raster.getSampleModelTranslateX() * pixelStride;
+			int[] offsets = sm.getBandOffsets();
+
+			if (image.getColorModel() instanceof ComponentColorModel cm && isSrgb(cm) && sm.getNumBands() >= 3) {
+				int oR = offsets[0];
+				int oG = offsets[1];
+				int oB = offsets[2];
+				int oA = sm.getNumBands() > 3 && cm.hasAlpha() ? offsets[3] : -1;
+				return new RowReader(cm.isAlphaPremultiplied()) {
+					@Override
+					void read(int y, int[] row) {
+						int s = base + y * stride;
+						for (int x = 0; x < width; x++, s += pixelStride) {
+							int a = oA < 0 ? 0xFF : data[s + oA] & 0xFF;
+							row[x] = (a << 24) | ((data[s + oR] & 0xFF) << 16) | ((data[s + oG] & 0xFF) << 8)
+									| (data[s + oB] & 0xFF);
+						}
+					}
+				};
+			}
+
+			if (image.getColorModel() instanceof ComponentColorModel cm
+					&& cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY && sm.getNumBands() == 1) {
+				// Les valeurs de gris des décodeurs sont déjà encodées gamma : pas de conversion linéaire
+				return new RowReader(false) {
+					@Override
+					void read(int y, int[] row) {
+						int s = base + y * stride;
+						for (int x = 0; x < width; x++, s += pixelStride) {
+							row[x] = 0xFF000000 | ((data[s] & 0xFF) * 0x010101);
+						}
+					}
+				};
+			}
+
+			if (image.getColorModel() instanceof IndexColorModel cm && sm.getNumBands() == 1) {
+				int[] palette = new int[256];
+				cm.getRGBs(palette);
+				for (int i = cm.getMapSize(); i < palette.length; i++) {
+					palette[i] = palette[cm.getMapSize() - 1];
+				}
+				return new RowReader(false) {
+					@Override
+					void read(int y, int[] row) {
+						int s = base + y * stride;
+						for (int x = 0; x < width; x++, s += pixelStride) {
+							row[x] = palette[data[s] & 0xFF];
+						}
+					}
+				};
+			}
+		}
+
+		return new RowReader(false) {
+			@Override
+			void read(int y, int[] row) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+			}
+		};
+	}
+
+	private static boolean isRgbMasks(int[] masks) {
+		return masks.length >= 3 && masks[0] == 0xFF0000 && masks[1] == 0xFF00 && masks[2] == 0xFF
+				&& (masks.length == 3 || masks[3] == 0xFF000000);
+	}
+
+	private static boolean isSrgb(ComponentColorModel cm) {
+		return cm.getColorSpace().isCS_sRGB();
+	}
+
+	/**
+	 * Lecture d'une ligne de pixels en ARGB 8 bits.
+	 */
+	abstract static class RowReader {
+		private final boolean premultiplied;
+
+		RowReader(boolean premultiplied) {
+			this.premultiplied = premultiplied;
+		}
+
+		/**
+		 * @return true si les lignes lues sont en alpha prémultiplié
+		 */
+		boolean isPremultiplied() {
+			return premultiplied;
+		}
+
+		/**
+		 * Lit la ligne <code>y</code> ; <code>row</code> a la largeur de l'image.
+		 */
+		abstract void read(int y, int[] row);
+	}
+}
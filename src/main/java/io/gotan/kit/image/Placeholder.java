@@ -0,0 +1,293 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.file.Base64Utils;
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+
+/**
+ * Aperçus basse qualité (« LQIP ») affichés pendant le chargement d'une image :
+ * une chaîne <a href="https://blurha.sh">BlurHash</a> d'une trentaine de caractères
+ * et une vignette d'environ 20 pixels en URL <code>data:</code>.
+ * <p>
+ * L'image source n'est jamais décodée en taille réelle : le décodeur la sous-échantillonne
+ * directement vers une vignette de {@link #SAMPLE_SIZE} pixels (voir {@link ImagePipeline}),
+ * dont sont tirés les deux aperçus, sans allouer l'image pleine taille. Les composantes
+ * BlurHash sont calculées avec des tables de cosinus et de conversion sRGB → linéaire
+ * précalculées : les aperçus coûtent moins d'une milliseconde, le reste est la lecture
+ * du fichier par le décodeur (pour un JPEG, le décodage entropique reste complet,
+ * de l'ordre de 10 ms par mégapixel). La transparence est composée sur du blanc.
+ * <p>
+ * Usage :
+ * <pre>
+ * Placeholder placeholder = Placeholder.generate(data);
+ * String blurHash = placeholder.getBlurHash();
+ * String dataUrl = placeholder.getDataUrl();
+ * </pre>
+ */
+public final class Placeholder {
+
+	/**
+	 * Plus grand côté de la vignette décodée.
+	 */
+	public static final int SAMPLE_SIZE = 32;
+
+	/**
+	 * Plus grand côté de la vignette en URL <code>data:</code>.
+	 */
+	public static final int DATA_URL_SIZE = 20;
+
+	/**
+	 * Nombre de composantes BlurHash sur le plus grand côté (3 sur l'autre).
+	 */
+	private static final int COMPONENTS = 4;
+
+	private static final float DATA_URL_QUALITY = 0.6f;
+
+	private static final char[] BASE83 =
+			"0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~".toCharArray();
+
+	/**
+	 * Conversion sRGB 8 bits → intensité linéaire.
+	 */
+	private static final double[] SRGB_TO_LINEAR = new double[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			double v = i / 255.0;
+			SRGB_TO_LINEAR[i] = v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+		}
+	}
+
+	private final String blurHash;
+
+	private final String dataUrl;
+
+	private Placeholder(String blurHash, String dataUrl) {
+		this.blurHash = blurHash;
+		this.dataUrl = dataUrl;
+	}
+
+	/**
+	 * Génère les aperçus d'une image encodée.
+	 *
+	 * @param data Image encodée
+	 * @return Aperçus
+	 * @throws BadImageFormatException Image illisible
+	 */
+	public static Placeholder generate(byte[] data) throws IOException, BadImageFormatException {
+		return generate(ImagePipeline.from(data));
+	}
+
+	/**
+	 * Génère les aperçus d'un fichier image.
+	 *
+	 * @param file Fichier image
+	 * @return Aperçus
+	 * @throws BadImageFormatException Image illisible
+	 */
+	public static Placeholder generate(File file) throws IOException, BadImageFormatException {
+		return generate(ImagePipeline.from(file));
+	}
+
+	/**
+	 * Génère les aperçus d'une image lue dans un flux.
+	 *
+	 * @param input Flux de l'image encodée (non fermé)
+	 * @return Aperçus
+	 * @throws BadImageFormatException Image illisible
+	 */
+	public static Placeholder generate(InputStream input) throws IOException, BadImageFormatException {
+		return generate(ImagePipeline.from(input));
+	}
+
+	/**
+	 * Génère les aperçus d'une image décodée.
+	 *
+	 * @param image Image
+	 * @return Aperçus
+	 */
+	public static Placeholder generate(BufferedImage image) throws IOException, BadImageFormatException {
+		Dimension size = new Dimension(image.getWidth(), image.getHeight()).scale(SAMPLE_SIZE, SAMPLE_SIZE);
+		BufferedImage sample = Resampler.resize(image, Math.max(1, size.getWidth()), Math.max(1, size.getHeight()),
+				Resampler.Filter.BILINEAR, false, Color.WHITE);
+		return of(sample);
+	}
+
+	/**
+	 * Calcule seulement la chaîne BlurHash d'une image encodée, sans vignette.
+	 *
+	 * @param data Image encodée
+	 * @return Chaîne BlurHash (4 x 3 composantes, 3 x 4 pour une image en hauteur)
+	 * @throws BadImageFormatException Image illisible
+	 */
+	public static String blurHash(byte[] data) throws IOException, BadImageFormatException {
+		return blurHash(sample(ImagePipeline.from(data)));
+	}
+
+	private static Placeholder generate(ImagePipeline pipeline) throws IOException, BadImageFormatException {
+		return of(sample(pipeline));
+	}
+
+	private static BufferedImage sample(ImagePipeline pipeline) throws IOException, BadImageFormatException {
+		return pipeline
+				.resize(SAMPLE_SIZE, SAMPLE_SIZE)
+				.filter(Resampler.Filter.BILINEAR)
+				.flatten(Color.WHITE)
+				.toImage();
+	}
+
+	private static String blurHash(BufferedImage sample) {
+		boolean landscape = sample.getWidth() >= sample.getHeight();
+		return blurHash(sample, landscape ? COMPONENTS : 3, landscape ? 3 : COMPONENTS);
+	}
+
+	private static Placeholder of(BufferedImage sample) throws IOException, BadImageFormatException {
+		String blurHash = blurHash(sample);
+
+		Dimension size = new Dimension(sample.getWidth(), sample.getHeight()).scale(DATA_URL_SIZE, DATA_URL_SIZE);
+		BufferedImage thumbnail = Resampler.resize(sample, Math.max(1, size.getWidth()), Math.max(1, size.getHeight()),
+				Resampler.Filter.BILINEAR, false, Color.WHITE);
+		byte[] jpeg = ImageFormatConverter.convertImage(thumbnail, ImageFormat.JPEG,
+				EncodeOptions.defaults().setJpegQuality(DATA_URL_QUALITY).setOptimizeHuffmanTables(true));
+		String dataUrl = Base64Utils.getFullBase64Prefix(ImageFormatConverter.MIMETYPE_JPEG)
+				+ Base64.getEncoder().encodeToString(jpeg);
+		return new Placeholder(blurHash, dataUrl);
+	}
+
+	/**
+	 * Calcule la chaîne BlurHash d'une image. L'image devrait être petite (quelques dizaines
+	 * de pixels de côté) : le calcul parcourt tous ses pixels pour chaque composante.
+	 *
+	 * @param image       Image, la transparence est ignorée
+	 * @param componentsX Nombre de composantes horizontales (1 à 9)
+	 * @param componentsY Nombre de composantes verticales (1 à 9)
+	 * @return Chaîne BlurHash
+	 */
+	public static String blurHash(BufferedImage image, int componentsX, int componentsY) {
+		if (componentsX < 1 || componentsX > 9 || componentsY < 1 || componentsY > 9) {
+			throw new IllegalArgumentException("BlurHash components must be between 1 and 9");
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+		// Bases cos(π i x / largeur) et cos(π j y / hauteur), une fois pour toutes les composantes
+		double[] cosX = new double[componentsX * width];
+		for (int i = 0; i < componentsX; i++) {
+			for (int x = 0; x < width; x++) {
+				cosX[i * width + x] = Math.cos(Math.PI * i * x / width);
+			}
+		}
+		double[] cosY = new double[componentsY * height];
+		for (int j = 0; j < componentsY; j++) {
+			for (int y = 0; y < height; y++) {
+				cosY[j * height + y] = Math.cos(Math.PI * j * y / height);
+			}
+		}
+
+		// Pixels en intensité linéaire, puis projection ligne par ligne sur les bases horizontales
+		double[] rows = new double[height * componentsX * 3];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int p = argb[y * width + x];
+				double r = SRGB_TO_LINEAR[(p >>> 16) & 0xFF];
+				double g = SRGB_TO_LINEAR[(p >>> 8) & 0xFF];
+				double b = SRGB_TO_LINEAR[p & 0xFF];
+				for (int i = 0; i < componentsX; i++) {
+					double basis = cosX[i * width + x];
+					int k = (y * componentsX + i) * 3;
+					rows[k] += basis * r;
+					rows[k + 1] += basis * g;
+					rows[k + 2] += basis * b;
+				}
+			}
+		}
+		double[] factors = new double[componentsX * componentsY * 3];
+		for (int j = 0; j < componentsY; j++) {
+			for (int i = 0; i < componentsX; i++) {
+				double scale = (i == 0 && j == 0 ? 1.0 : 2.0) / (width * height);
+				int f = (j * componentsX + i) * 3;
+				for (int y = 0; y < height; y++) {
+					double basis = cosY[j * height + y] * scale;
+					int k = (y * componentsX + i) * 3;
+					factors[f] += basis * rows[k];
+					factors[f + 1] += basis * rows[k + 1];
+					factors[f + 2] += basis * rows[k + 2];
+				}
+			}
+		}
+
+		StringBuilder hash = new StringBuilder(4 + 2 * componentsX * componentsY);
+		encode83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+		double maximumValue = 1;
+		if (factors.length > 3) {
+			double actualMaximum = 0;
+			for (int k = 3; k < factors.length; k++) {
+				actualMaximum = Math.max(actualMaximum, Math.abs(factors[k]));
+			}
+			int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+			maximumValue = (quantisedMaximum + 1) / 166.0;
+			encode83(hash, quantisedMaximum, 1);
+		} else {
+			encode83(hash, 0, 1);
+		}
+		encode83(hash, (linearToSrgb(factors[0]) << 16) | (linearToSrgb(factors[1]) << 8) | linearToSrgb(factors[2]), 4);
+		for (int k = 3; k < factors.length; k += 3) {
+			int value = quantizeAc(factors[k], maximumValue) * 19 * 19
+					+ quantizeAc(factors[k + 1], maximumValue) * 19
+					+ quantizeAc(factors[k + 2], maximumValue);
+			encode83(hash, value, 2);
+		}
+		return hash.toString();
+	}
+
+	private static int quantizeAc(double value, double maximumValue) {
+		double v = value / maximumValue;
+		double signedRoot = Math.copySign(Math.sqrt(Math.abs(v)), v);
+		return (int) Math.max(0, Math.min(18, Math.floor(signedRoot * 9 + 9.5)));
+	}
+
+	private static int linearToSrgb(double value) {
+		double v = Math.max(0, Math.min(1, value));
+		if (v <= 0.0031308) {
+			return (int) (v * 12.92 * 255 + 0.5);
+		}
+		return (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+	}
+
+	private static void encode83(StringBuilder hash, int value, int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			int divisor = 1;
+			for (int k = 0; k < i; k++) {
+				divisor *= 83;
+			}
+			hash.append(BASE83[(value / divisor) % 83]);
+		}
+	}
+
+	/**
+	 * @return Chaîne BlurHash (4 x 3 composantes, 3 x 4 pour une image en hauteur)
+	 */
+	public String getBlurHash() {
+		return blurHash;
+	}
+
+	/**
+	 * @return Vignette JPEG d'environ {@link #DATA_URL_SIZE} pixels, en URL <code>data:</code>
+	 */
+	public String getDataUrl() {
+		return dataUrl;
+	}
+
+	@Override
+	public String toString() {
+		return "Placeholder{blurHash=" + blurHash + ", dataUrl=" + dataUrl.length() + " chars}";
+	}
+}
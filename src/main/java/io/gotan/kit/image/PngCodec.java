@@ -0,0 +1,63 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Encodeur PNG de la bibliothèque : {@link PngEncoder} (filtres et deflate configurables,
+ * écriture ligne par ligne) ou {@link PngOptimizer} si un budget d'optimisation est donné.
+ * <p>
+ * Les images en palette, demandées en palette sans optimisation, ou en mode compatible JDK
+ * sont laissées à l'encodeur ImageIO, seul à écrire les palettes, comme les conversions
+ * historiques ({@link EncodeOptions#legacy()}).
+ */
+final class PngCodec implements ImageCodec {
+
+	private static final Set<ImageFormat> FORMATS = EnumSet.of(ImageFormat.PNG);
+
+	private static final Set<Capability> CAPABILITIES = EnumSet.of(Capability.ENCODE, Capability.STREAMING);
+
+	@Override
+	public Set<ImageFormat> getFormats() {
+		return FORMATS;
+	}
+
+	@Override
+	public Set<Capability> getCapabilities() {
+		return CAPABILITIES;
+	}
+
+	@Override
+	public int getPriority() {
+		return BUILTIN_PRIORITY;
+	}
+
+	@Override
+	public boolean encode(BufferedImage image, ImageFormat format, EncodeOptions options, CancellationToken token,
+						  OutputStream output) throws IOException {
+		if (options.isPlainImageIO()) {
+			return false;
+		}
+		if (options.getPngOptimizationBudget() != null) {
+			if (options.getPaletteColors() != EncodeOptions.UNSET && !ImageIOCodec.isIndexed(image)) {
+				image = ColorQuantizer.quantize(image, options.getPaletteColors(), options.getDithering());
+				token.throwIfCancelled();
+			}
+			PngOptimizer.optimize(image, options.getPngOptimizationBudget(), output);
+			token.throwIfCancelled();
+			return true;
+		}
+		if (options.isJdkPngCompatible() || options.getPaletteColors() != EncodeOptions.UNSET
+				|| ImageIOCodec.isIndexed(image)) {
+			return false;
+		}
+		PngEncoder.encode(image, options.getPngFilter(), options.getPngCompressionLevel(),
+				options.getPngDeflateStrategy(), output, token);
+		return true;
+	}
+}
@@ -0,0 +1,290 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.EncodeOptions.PngFilter;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodeur PNG 8 bits (RGB / RGBA) avec contrôle du filtre et du deflate.
+ * <p>
+ * Utilisé quand l'encodeur PNG du JDK ne permet pas d'appliquer les
+ * paramètres demandés (filtre fixe, stratégie deflate).
+ */
+public final class PngEncoder {
+
+	static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+	/**
+	 * Taille maximum d'un chunk IDAT.
+	 */
+	private static final int IDAT_SIZE = 1 << 16;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private PngEncoder() {
+	}
+
+	/**
+	 * Encode une image en PNG.
+	 *
+	 * @param image    Image à encoder
+	 * @param filter   Filtre de lignes
+	 * @param level    Niveau deflate (0-9), {@link EncodeOptions#UNSET} pour le niveau par défaut
+	 * @param strategy Stratégie deflate
+	 * @param out      Flux de sortie (non fermé)
+	 * @throws IOException Erreur d'écriture
+	 */
+	public static void encode(BufferedImage image, PngFilter filter, int level, int strategy, OutputStream out)
+			throws IOException {
+		encode(image, filter, level, strategy, out, CancellationToken.NONE);
+	}
+
+	/**
+	 * Encode une image en PNG en pouvant l'interrompre.
+	 *
+	 * @param token Jeton d'annulation, consulté toutes les 64 lignes
+	 * @see #encode(BufferedImage, PngFilter, int, int, OutputStream)
+	 */
+	static void encode(BufferedImage image, PngFilter filter, int level, int strategy, OutputStream out,
+					   CancellationToken token) throws IOException {
+		int width = image.getWidth();
+		encode(width, image.getHeight(), image.getColorModel().hasAlpha(), new PixelFormats.RowReader(false) {
+			@Override
+			void read(int y, int[] row) {
+				image.getRGB(0, y, width, 1, row, 0, width);
+			}
+		}, filter, level, strategy, out, token);
+	}
+
+	/**
+	 * Encode en PNG des lignes lues à la demande (image hors tas par exemple).
+	 *
+	 * @param width    Largeur
+	 * @param height   Hauteur
+	 * @param alpha    true pour écrire le canal alpha
+	 * @param rows     Lignes en ARGB non prémultiplié
+	 * @param filter   Filtre de lignes
+	 * @param level    Niveau deflate (0-9), {@link EncodeOptions#UNSET} pour le niveau par défaut
+	 * @param strategy Stratégie deflate
+	 * @param out      Flux de sortie (non fermé)
+	 * @param token    Jeton d'annulation, consulté toutes les 64 lignes
+	 * @throws IOException Erreur d'écriture
+	 */
+	static void encode(int width, int height, boolean alpha, PixelFormats.RowReader rows, PngFilter filter, int level,
+					   int strategy, OutputStream out, CancellationToken token) throws IOException {
+		int bpp = alpha ? 4 : 3;
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.write(SIGNATURE);
+		byte[] ihdr = new byte[13];
+		writeInt(ihdr, 0, width);
+		writeInt(ihdr, 4, height);
+		ihdr[8] = 8;
+		ihdr[9] = (byte) (alpha ? 6 : 2);
+		writeChunk(data, "IHDR", ihdr, ihdr.length);
+
+		Deflater deflater = new Deflater(level == EncodeOptions.UNSET ? Deflater.DEFAULT_COMPRESSION : level);
+		deflater.setStrategy(strategy);
+		try (DeflaterOutputStream idat = new DeflaterOutputStream(new IdatOutputStream(data), deflater, IDAT_SIZE)) {
+			int[] argb = new int[width];
+			byte[] previous = new byte[width * bpp];
+			byte[] current = new byte[width * bpp];
+			RowFilter rowFilter = new RowFilter(width * bpp, bpp);
+			for (int y = 0; y < height; y++) {
+				if ((y & 63) == 0) {
+					token.throwIfCancelled();
+				}
+				rows.read(y, argb);
+				unpack(argb, current, alpha);
+				rowFilter.write(filter, current, previous, idat);
+				byte[] swap = previous;
+				previous = current;
+				current = swap;
+			}
+		} finally {
+			deflater.end();
+		}
+		writeChunk(data, "IEND", new byte[0], 0);
+		data.flush();
+	}
+
+	/**
+	 * Convertit une ligne ARGB en octets RGB(A).
+	 */
+	private static void unpack(int[] argb, byte[] row, boolean alpha) {
+		int j = 0;
+		for (int pixel : argb) {
+			row[j++] = (byte) (pixel >>> 16);
+			row[j++] = (byte) (pixel >>> 8);
+			row[j++] = (byte) pixel;
+			if (alpha) {
+				row[j++] = (byte) (pixel >>> 24);
+			}
+		}
+	}
+
+	static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	static void writeChunk(DataOutputStream out, String type, byte[] content, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(content, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(content, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Applique un filtre PNG à une ligne et l'écrit précédée de son octet de type.
+	 */
+	static final class RowFilter {
+		private final int bpp;
+		private final byte[][] candidates = new byte[5][];
+
+		RowFilter(int rowBytes, int bpp) {
+			this.bpp = bpp;
+			for (int i = 0; i < candidates.length; i++) {
+				candidates[i] = new byte[rowBytes];
+			}
+		}
+
+		void write(PngFilter filter, byte[] row, byte[] previous, OutputStream out) throws IOException {
+			int type = filter.getType();
+			if (type < 0) {
+				type = adaptive(row, previous);
+			} else {
+				apply(type, row, previous, candidates[type]);
+			}
+			out.write(type);
+			out.write(candidates[type]);
+		}
+
+		/**
+		 * Heuristique de la spécification : filtre minimisant la somme des différences signées.
+		 */
+		private int adaptive(byte[] row, byte[] previous) {
+			int best = 0;
+			long bestSum = Long.MAX_VALUE;
+			for (int type = 0; type < 5; type++) {
+				byte[] filtered = candidates[type];
+				apply(type, row, previous, filtered);
+				long sum = 0;
+				for (byte b : filtered) {
+					sum += Math.abs(b);
+				}
+				if (sum < bestSum) {
+					bestSum = sum;
+					best = type;
+				}
+			}
+			return best;
+		}
+
+		private void apply(int type, byte[] row, byte[] previous, byte[] out) {
+			int length = row.length;
+			switch (type) {
+				case 0:
+					System.arraycopy(row, 0, out, 0, length);
+					break;
+				case 1:
+					for (int i = 0; i < length; i++) {
+						int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+						out[i] = (byte) (row[i] - left);
+					}
+					break;
+				case 2:
+					for (int i = 0; i < length; i++) {
+						out[i] = (byte) (row[i] - previous[i]);
+					}
+					break;
+				case 3:
+					for (int i = 0; i < length; i++) {
+						int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+						out[i] = (byte) (row[i] - ((left + (previous[i] & 0xFF)) >>> 1));
+					}
+					break;
+				default:
+					for (int i = 0; i < length; i++) {
+						int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+						int upperLeft = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+						out[i] = (byte) (row[i] - paeth(left, previous[i] & 0xFF, upperLeft));
+					}
+					break;
+			}
+		}
+
+		private static int paeth(int a, int b, int c) {
+			int p = a + b - c;
+			int pa = Math.abs(p - a);
+			int pb = Math.abs(p - b);
+			int pc = Math.abs(p - c);
+			if (pa <= pb && pa <= pc) {
+				return a;
+			}
+			return pb <= pc ? b : c;
+		}
+	}
+
+	/**
+	 * Découpe le flux compressé en chunks IDAT.
+	 */
+	private static final class IdatOutputStream extends OutputStream {
+		private final DataOutputStream out;
+		private final byte[] buffer = new byte[IDAT_SIZE];
+		private int count;
+
+		IdatOutputStream(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length) {
+				flushChunk();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == buffer.length) {
+					flushChunk();
+				}
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void flushChunk() throws IOException {
+			if (count > 0) {
+				writeChunk(out, "IDAT", buffer, count);
+				count = 0;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Le flux sous-jacent reste ouvert pour le chunk IEND
+			flushChunk();
+		}
+	}
+}
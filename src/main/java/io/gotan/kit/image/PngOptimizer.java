@@ -0,0 +1,453 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.EncodeOptions.PngFilter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+/**
+ * Optimiseur de sortie PNG.
+ * <p>
+ * L'image est d'abord réduite au type PNG le plus compact sans perte (palette sur
+ * 1, 2, 4 ou 8 bits si elle compte au plus 256 couleurs, niveaux de gris, suppression
+ * d'un canal alpha inutilisé), puis chaque filtre de lignes est combiné à plusieurs
+ * réglages deflate en parallèle sur le <code>ForkJoinPool</code> commun : le plus petit
+ * résultat est conservé. Les filtres sont répartis en files, une par thread du pool : une
+ * seule version filtrée de l'image par file est en mémoire à un instant donné.
+ * <p>
+ * Le budget de temps borne la recherche : à son expiration, les essais en cours sont
+ * abandonnés et le meilleur résultat obtenu est renvoyé. Un premier essai (filtre
+ * adaptatif, deflate niveau 6) est toujours mené à terme, quel que soit le budget.
+ * Les essais dont la sortie dépasse déjà le meilleur résultat sont abandonnés.
+ * <p>
+ * Les images 16 bits sont ramenées à 8 bits par canal, comme dans {@link PngEncoder}.
+ */
+public final class PngOptimizer {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(PngOptimizer.class);
+
+	/**
+	 * Réglages deflate essayés : niveau, stratégie. Le premier, combiné au premier filtre,
+	 * est l'essai obligatoire.
+	 */
+	private static final int[][] DEFLATE_SETTINGS = {
+			{6, Deflater.DEFAULT_STRATEGY},
+			{9, Deflater.DEFAULT_STRATEGY},
+			{9, Deflater.FILTERED},
+			{9, Deflater.HUFFMAN_ONLY},
+	};
+
+	/**
+	 * Filtres essayés, du plus souvent gagnant au moins souvent gagnant : en cas
+	 * de budget serré, les premiers ont plus de chances d'aboutir.
+	 */
+	private static final PngFilter[] FILTERS = {
+			PngFilter.ADAPTIVE, PngFilter.NONE, PngFilter.PAETH, PngFilter.SUB, PngFilter.UP, PngFilter.AVERAGE
+	};
+
+	/**
+	 * Taille des blocs produits par le deflater entre deux vérifications du budget.
+	 */
+	private static final int DEFLATE_BLOCK = 1 << 15;
+
+	private static final int COLOR_GRAY = 0;
+	private static final int COLOR_RGB = 2;
+	private static final int COLOR_PALETTE = 3;
+	private static final int COLOR_GRAY_ALPHA = 4;
+	private static final int COLOR_RGBA = 6;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private PngOptimizer() {
+	}
+
+	/**
+	 * Encode une image dans le plus petit PNG trouvé dans le budget.
+	 *
+	 * @param image  Image à encoder
+	 * @param budget Temps maximum de recherche
+	 * @return PNG optimisé
+	 * @throws IOException Erreur d'encodage
+	 */
+	public static byte[] optimize(BufferedImage image, Duration budget) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		optimize(image, budget, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Encode une image dans le plus petit PNG trouvé dans le budget.
+	 *
+	 * @param image  Image à encoder
+	 * @param budget Temps maximum de recherche
+	 * @param out    Flux de sortie (non fermé)
+	 * @throws IOException Erreur d'encodage
+	 */
+	public static void optimize(BufferedImage image, Duration budget, OutputStream out) throws IOException {
+		long start = System.nanoTime();
+		long deadline = start + budget.toNanos();
+		Scanlines scanlines = Scanlines.of(image);
+
+		Search search = new Search(deadline);
+		// Chaque file filtre les lignes puis attend la fin de ses essais avant le filtre suivant :
+		// au plus une version filtrée de l'image par file est en mémoire
+		int laneCount = Math.min(FILTERS.length, ForkJoinPool.getCommonPoolParallelism());
+		List<CompletableFuture<Void>> lanes = new ArrayList<>(laneCount);
+		CompletableFuture<CompletableFuture<Void>> baseline = null;
+		for (int lane = 0; lane < laneCount; lane++) {
+			CompletableFuture<Void> chain = null;
+			for (int f = lane; f < FILTERS.length; f += laneCount) {
+				PngFilter filter = FILTERS[f];
+				boolean mandatory = f == 0;
+				if (chain == null) {
+					CompletableFuture<CompletableFuture<Void>> first = CompletableFuture.supplyAsync(
+							() -> trials(scanlines, filter, search, mandatory), ForkJoinPool.commonPool());
+					if (mandatory) {
+						baseline = first;
+					}
+					chain = first.thenCompose(pending -> pending);
+				} else {
+					chain = chain.thenComposeAsync(ignored -> trials(scanlines, filter, search, false),
+							ForkJoinPool.commonPool());
+				}
+			}
+			lanes.add(chain);
+		}
+
+		try {
+			CompletableFuture.allOf(lanes.toArray(new CompletableFuture<?>[0]))
+					.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			search.expire();
+			try {
+				baseline.get();
+			} catch (ExecutionException e1) {
+				throw new IOException("PNG compression failed", e1.getCause());
+			} catch (InterruptedException e1) {
+				Thread.currentThread().interrupt();
+				throw new IOException("PNG optimization interrupted", e1);
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("PNG compression failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			search.expire();
+			throw new IOException("PNG optimization interrupted", e);
+		}
+
+		byte[] idat = search.best.get();
+		scanlines.write(idat, out);
+		logger.debug("PNG optimized: color type {}, {} bits, {} bytes in {} ms", scanlines.colorType,
+				scanlines.bitDepth, idat.length, (System.nanoTime() - start) / 1_000_000);
+	}
+
+	/**
+	 * Filtre les lignes et lance un essai par réglage deflate. L'essai obligatoire est mené
+	 * dans le thread courant, avant le retour : la tâche qui l'exécute marque sa fin.
+	 *
+	 * @return Fin des autres essais, qui seuls retiennent ensuite les lignes filtrées
+	 */
+	private static CompletableFuture<Void> trials(Scanlines scanlines, PngFilter filter, Search search,
+												  boolean mandatory) {
+		if (!mandatory && search.outOfTime()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		byte[] data = scanlines.filter(filter);
+		CompletableFuture<?>[] trials = new CompletableFuture<?>[DEFLATE_SETTINGS.length];
+		for (int i = 0; i < DEFLATE_SETTINGS.length; i++) {
+			int[] setting = DEFLATE_SETTINGS[i];
+			trials[i] = mandatory && i == 0
+					? CompletableFuture.completedFuture(null)
+					: CompletableFuture.runAsync(() -> search.deflate(data, setting[0], setting[1], false),
+					ForkJoinPool.commonPool());
+		}
+		if (mandatory) {
+			search.deflate(data, DEFLATE_SETTINGS[0][0], DEFLATE_SETTINGS[0][1], true);
+		}
+		return CompletableFuture.allOf(trials);
+	}
+
+	/**
+	 * Meilleur flux compressé trouvé, partagé par les essais.
+	 */
+	private static final class Search {
+		private final AtomicReference<byte[]> best = new AtomicReference<>();
+		private final long deadline;
+		private volatile boolean expired;
+
+		Search(long deadline) {
+			this.deadline = deadline;
+		}
+
+		void expire() {
+			expired = true;
+		}
+
+		private boolean outOfTime() {
+			return expired || System.nanoTime() - deadline > 0;
+		}
+
+		/**
+		 * Compresse des lignes filtrées ; abandonne dès que la sortie dépasse le meilleur
+		 * résultat ou, sauf pour l'essai obligatoire, quand le budget est écoulé.
+		 */
+		void deflate(byte[] data, int level, int strategy, boolean mandatory) {
+			if (!mandatory && outOfTime()) {
+				return;
+			}
+			Deflater deflater = new Deflater(level);
+			try {
+				deflater.setStrategy(strategy);
+				deflater.setInput(data);
+				deflater.finish();
+				ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+				byte[] block = new byte[DEFLATE_BLOCK];
+				while (!deflater.finished()) {
+					int n = deflater.deflate(block);
+					out.write(block, 0, n);
+					byte[] current = best.get();
+					if ((current != null && out.size() >= current.length) || (!mandatory && outOfTime())) {
+						return;
+					}
+				}
+				byte[] result = out.toByteArray();
+				best.accumulateAndGet(result, (a, b) -> a == null || b.length < a.length ? b : a);
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Lignes de l'image dans le type PNG le plus compact, non filtrées.
+	 */
+	private static final class Scanlines {
+		private final int width;
+		private final int height;
+		private final int colorType;
+		private final int bitDepth;
+		private final int rowBytes;
+		private final byte[][] rows;
+		private int[] palette;
+
+		private Scanlines(int width, int height, int colorType, int bitDepth) {
+			this.width = width;
+			this.height = height;
+			this.colorType = colorType;
+			this.bitDepth = bitDepth;
+			this.rowBytes = (width * channels(colorType) * bitDepth + 7) / 8;
+			this.rows = new byte[height][rowBytes];
+		}
+
+		private static int channels(int colorType) {
+			return switch (colorType) {
+				case COLOR_GRAY, COLOR_PALETTE -> 1;
+				case COLOR_GRAY_ALPHA -> 2;
+				case COLOR_RGB -> 3;
+				default -> 4;
+			};
+		}
+
+		/**
+		 * Analyse les pixels et choisit le type PNG : palette si au plus 16 couleurs
+		 * (profondeur réduite), sinon gris si l'image est grise, sinon palette si au plus
+		 * 256 couleurs, sinon RGB(A).
+		 */
+		static Scanlines of(BufferedImage image) {
+			int width = image.getWidth();
+			int height = image.getHeight();
+			int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+			boolean alpha = false;
+			boolean gray = true;
+			for (int pixel : argb) {
+				alpha |= pixel >>> 24 != 0xFF;
+				int r = (pixel >>> 16) & 0xFF;
+				gray &= r == ((pixel >>> 8) & 0xFF) && r == (pixel & 0xFF);
+			}
+			int[] palette = palette(argb);
+
+			Scanlines scanlines;
+			if (palette != null && (palette.length <= 16 || !gray)) {
+				int depth = palette.length <= 2 ? 1 : palette.length <= 4 ? 2 : palette.length <= 16 ? 4 : 8;
+				scanlines = new Scanlines(width, height, COLOR_PALETTE, depth);
+				scanlines.palette = palette;
+				scanlines.packIndexed(argb);
+			} else if (gray) {
+				scanlines = new Scanlines(width, height, alpha ? COLOR_GRAY_ALPHA : COLOR_GRAY, 8);
+				scanlines.pack(argb, alpha);
+			} else {
+				scanlines = new Scanlines(width, height, alpha ? COLOR_RGBA : COLOR_RGB, 8);
+				scanlines.pack(argb, alpha);
+			}
+			return scanlines;
+		}
+
+		/**
+		 * @return Couleurs distinctes, les couleurs non opaques en premier (pour tronquer tRNS),
+		 * <code>null</code> s'il y en a plus de 256
+		 */
+		private static int[] palette(int[] argb) {
+			int[] slots = new int[1024];
+			boolean[] used = new boolean[slots.length];
+			int count = 0;
+			int previous = 0;
+			boolean first = true;
+			for (int pixel : argb) {
+				if (pixel == previous && !first) {
+					continue;
+				}
+				first = false;
+				previous = pixel;
+				int slot = (pixel * 0x9E3779B1) >>> 22;
+				while (used[slot] && slots[slot] != pixel) {
+					slot = (slot + 1) & (slots.length - 1);
+				}
+				if (!used[slot]) {
+					if (++count > 256) {
+						return null;
+					}
+					used[slot] = true;
+					slots[slot] = pixel;
+				}
+			}
+			int[] palette = new int[count];
+			int n = 0;
+			for (int i = 0; i < slots.length; i++) {
+				if (used[i]) {
+					palette[n++] = slots[i];
+				}
+			}
+			// Tri par alpha croissant puis par couleur : palette stable, non opaques en tête
+			long[] keys = new long[count];
+			for (int i = 0; i < count; i++) {
+				keys[i] = paletteKey(palette[i]);
+			}
+			Arrays.sort(keys);
+			for (int i = 0; i < count; i++) {
+				palette[i] = (int) (keys[i] >>> 32) << 24 | (int) (keys[i] & 0xFFFFFF);
+			}
+			return palette;
+		}
+
+		private static long paletteKey(int pixel) {
+			return (long) (pixel >>> 24) << 32 | (pixel & 0xFFFFFFL);
+		}
+
+		private void packIndexed(int[] argb) {
+			int pixelsPerByte = 8 / bitDepth;
+			int lastPixel = 0;
+			int lastIndex = 0;
+			long[] keys = new long[palette.length];
+			for (int i = 0; i < palette.length; i++) {
+				keys[i] = paletteKey(palette[i]);
+			}
+			for (int y = 0; y < height; y++) {
+				byte[] row = rows[y];
+				for (int x = 0; x < width; x++) {
+					int pixel = argb[y * width + x];
+					if (pixel != lastPixel || (x == 0 && y == 0)) {
+						lastIndex = Arrays.binarySearch(keys, paletteKey(pixel));
+						lastPixel = pixel;
+					}
+					int shift = (pixelsPerByte - 1 - x % pixelsPerByte) * bitDepth;
+					row[x / pixelsPerByte] |= (byte) (lastIndex << shift);
+				}
+			}
+		}
+
+		private void pack(int[] argb, boolean alpha) {
+			boolean gray = colorType == COLOR_GRAY || colorType == COLOR_GRAY_ALPHA;
+			for (int y = 0; y < height; y++) {
+				byte[] row = rows[y];
+				int j = 0;
+				for (int x = 0; x < width; x++) {
+					int pixel = argb[y * width + x];
+					if (gray) {
+						row[j++] = (byte) pixel;
+					} else {
+						row[j++] = (byte) (pixel >>> 16);
+						row[j++] = (byte) (pixel >>> 8);
+						row[j++] = (byte) pixel;
+					}
+					if (alpha) {
+						row[j++] = (byte) (pixel >>> 24);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return Flux non compressé : octet de filtre puis ligne filtrée, pour chaque ligne
+		 */
+		byte[] filter(PngFilter filter) {
+			int bpp = Math.max(1, channels(colorType) * bitDepth / 8);
+			ByteArrayOutputStream out = new ByteArrayOutputStream((rowBytes + 1) * height);
+			PngEncoder.RowFilter rowFilter = new PngEncoder.RowFilter(rowBytes, bpp);
+			byte[] previous = new byte[rowBytes];
+			try {
+				for (byte[] row : rows) {
+					rowFilter.write(filter, row, previous, out);
+					previous = row;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return out.toByteArray();
+		}
+
+		void write(byte[] idat, OutputStream out) throws IOException {
+			DataOutputStream data = new DataOutputStream(out);
+			data.write(PngEncoder.SIGNATURE);
+			byte[] ihdr = new byte[13];
+			PngEncoder.writeInt(ihdr, 0, width);
+			PngEncoder.writeInt(ihdr, 4, height);
+			ihdr[8] = (byte) bitDepth;
+			ihdr[9] = (byte) colorType;
+			PngEncoder.writeChunk(data, "IHDR", ihdr, ihdr.length);
+			if (palette != null) {
+				byte[] plte = new byte[palette.length * 3];
+				int transparent = 0;
+				for (int i = 0; i < palette.length; i++) {
+					plte[3 * i] = (byte) (palette[i] >>> 16);
+					plte[3 * i + 1] = (byte) (palette[i] >>> 8);
+					plte[3 * i + 2] = (byte) palette[i];
+					if (palette[i] >>> 24 != 0xFF) {
+						transparent = i + 1;
+					}
+				}
+				PngEncoder.writeChunk(data, "PLTE", plte, plte.length);
+				if (transparent > 0) {
+					byte[] trns = new byte[transparent];
+					for (int i = 0; i < transparent; i++) {
+						trns[i] = (byte) (palette[i] >>> 24);
+					}
+					PngEncoder.writeChunk(data, "tRNS", trns, trns.length);
+				}
+			}
+			PngEncoder.writeChunk(data, "IDAT", idat, idat.length);
+			PngEncoder.writeChunk(data, "IEND", new byte[0], 0);
+			data.flush();
+		}
+	}
+}
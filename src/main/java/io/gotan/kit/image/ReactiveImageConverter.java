@@ -0,0 +1,639 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Conversion d'images en flux réactifs (<code>java.util.concurrent.Flow</code>),
+ * pour les serveurs non bloquants.
+ * <p>
+ * L'image encodée arrive sous forme de <code>Publisher&lt;ByteBuffer&gt;</code> (corps de
+ * requête HTTP, objet de stockage…) et le résultat est publié par blocs de 64 Ko.
+ * Les blocs reçus sont mis en tampon au fil de l'eau, sans occuper de thread ; la conversion
+ * n'est confiée à l'{@link Executor} fourni (par défaut un pool fixe, un thread par cœur)
+ * qu'une fois l'image reçue en entier. Les codecs ImageIO restant bloquants, elle y occupe
+ * un thread jusqu'à sa fin : les threads d'entrée/sortie de l'appelant ne sont jamais bloqués,
+ * le nombre de conversions simultanées reste borné, et une source lente ne retient aucun
+ * thread du pool au détriment des autres conversions.
+ * <p>
+ * La contre-pression est respectée dans les deux sens :
+ * <ul>
+ *     <li>en entrée, au plus {@link #PREFETCH} blocs sont demandés d'avance, puis un par
+ *     bloc mis en tampon ;</li>
+ *     <li>en sortie, l'encodeur est suspendu tant que l'abonné n'a pas demandé de bloc.</li>
+ * </ul>
+ * Le tampon d'entrée suit le cache de flux d'{@link ImageCodecPool} : avec
+ * {@link ImageCodecPool.StreamCache#DISK}, l'image source est écrite dans un fichier temporaire
+ * et n'est jamais entièrement en mémoire.
+ * <p>
+ * Le <code>Publisher</code> résultat est à froid et n'accepte qu'un abonné : la réception
+ * démarre à l'abonnement. Une annulation de l'abonné annule l'abonnement en entrée et
+ * interrompt les codecs ({@link CancellationToken}) ; l'échéance éventuelle, réception comprise,
+ * est signalée par une {@link CancellationToken.DeadlineExceededException}.
+ * <p>
+ * Usage :
+ * <pre>
+ * ReactiveImageConverter converter = new ReactiveImageConverter();
+ * Flow.Publisher&lt;ByteBuffer&gt; thumbnail = converter.resize(requestBody, 200, 200,
+ *         ImageFormat.JPEG, EncodeOptions.small());
+ * </pre>
+ */
+public class ReactiveImageConverter {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(ReactiveImageConverter.class);
+
+	/**
+	 * Nombre de blocs d'entrée demandés d'avance.
+	 */
+	public static final int PREFETCH = 4;
+
+	/**
+	 * Taille des blocs publiés.
+	 */
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Exécuteur des conversions, <code>null</code> si elles passent par l'ordonnanceur.
+	 */
+	private final Executor executor;
+
+	private final ImageScheduler scheduler;
+
+	private final ImageScheduler.Lane lane;
+
+	private final Duration timeout;
+
+	/**
+	 * Convertisseur sur le pool partagé, sans échéance.
+	 */
+	public ReactiveImageConverter() {
+		this(DefaultPool.INSTANCE, null);
+	}
+
+	/**
+	 * @param executor Exécuteur des conversions (chacune y occupe un thread, de la fin de la réception à sa fin)
+	 * @param timeout  Durée maximum d'une conversion à partir de l'abonnement, <code>null</code> si aucune
+	 */
+	public ReactiveImageConverter(Executor executor, Duration timeout) {
+		this(Objects.requireNonNull(executor), null, null, timeout);
+	}
+
+	private ReactiveImageConverter(Executor executor, ImageScheduler scheduler, ImageScheduler.Lane lane,
+								   Duration timeout) {
+		this.executor = executor;
+		this.scheduler = scheduler;
+		this.lane = lane;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Convertisseur exécuté dans une file de l'ordonnanceur.
+	 *
+	 * @param scheduler Ordonnanceur
+	 * @param lane      File des conversions
+	 * @param timeout   Durée maximum d'une conversion à partir de l'abonnement, <code>null</code> si aucune
+	 * @return Convertisseur
+	 */
+	public static ReactiveImageConverter on(ImageScheduler scheduler, ImageScheduler.Lane lane, Duration timeout) {
+		if (!scheduler.getLanes().contains(lane)) {
+			throw new IllegalArgumentException("Unknown lane: " + lane.getName());
+		}
+		return new ReactiveImageConverter(null, scheduler, lane, timeout);
+	}
+
+	/**
+	 * Change le format d'une image.
+	 *
+	 * @param input   Image encodée
+	 * @param format  Format de sortie
+	 * @param options Paramètres d'encodage
+	 * @return Image convertie, publiée à l'abonnement
+	 */
+	public Flow.Publisher<ByteBuffer> convert(Flow.Publisher<ByteBuffer> input, ImageFormat format,
+											  EncodeOptions options) {
+		return process(input, UnaryOperator.identity(), format, options);
+	}
+
+	/**
+	 * Redimensionne une image, proportions conservées.
+	 *
+	 * @param input     Image encodée
+	 * @param maxWidth  Largeur maximum
+	 * @param maxHeight Hauteur maximum
+	 * @param format    Format de sortie
+	 * @param options   Paramètres d'encodage
+	 * @return Image redimensionnée, publiée à l'abonnement
+	 */
+	public Flow.Publisher<ByteBuffer> resize(Flow.Publisher<ByteBuffer> input, int maxWidth, int maxHeight,
+											 ImageFormat format, EncodeOptions options) {
+		return process(input, pipeline -> pipeline.resize(maxWidth, maxHeight), format, options);
+	}
+
+	/**
+	 * Applique une chaîne de traitements.
+	 *
+	 * @param input   Image encodée
+	 * @param plan    Configuration de la chaîne (recadrage, redimensionnement…)
+	 * @param format  Format de sortie
+	 * @param options Paramètres d'encodage
+	 * @return Image produite, publiée à l'abonnement
+	 * @see ImagePipeline
+	 */
+	public Flow.Publisher<ByteBuffer> process(Flow.Publisher<ByteBuffer> input, UnaryOperator<ImagePipeline> plan,
+											  ImageFormat format, EncodeOptions options) {
+		Objects.requireNonNull(input);
+		AtomicBoolean subscribed = new AtomicBoolean();
+		return subscriber -> {
+			if (!subscribed.compareAndSet(false, true)) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public void cancel() {
+					}
+				});
+				subscriber.onError(new IllegalStateException("Image conversion publisher allows a single subscriber"));
+				return;
+			}
+			CancellationToken token = timeout == null ? CancellationToken.create() : CancellationToken.withTimeout(timeout);
+			Emitter emitter = new Emitter(subscriber, token);
+			Job job = new Job(emitter, plan, format, options, this::dispatch);
+			emitter.job = job;
+			subscriber.onSubscribe(emitter);
+			if (emitter.cancelled) {
+				return;
+			}
+			if (timeout != null) {
+				job.deadline = Deadlines.INSTANCE.schedule(job::expire, token.remaining().toNanos(),
+						TimeUnit.NANOSECONDS);
+			}
+			input.subscribe(job);
+		};
+	}
+
+	/**
+	 * Confie une conversion, son image reçue, à l'exécuteur ou à la file de l'ordonnanceur.
+	 */
+	private void dispatch(Job job) {
+		if (scheduler != null) {
+			scheduler.submit(lane, null, token -> {
+				job.run();
+				return null;
+			}).exceptionally(e -> {
+				// Ordonnanceur fermé : la conversion ne démarrera pas
+				job.reject(e);
+				return null;
+			});
+			return;
+		}
+		try {
+			executor.execute(job);
+		} catch (RejectedExecutionException e) {
+			job.reject(e);
+		}
+	}
+
+	/**
+	 * Conversion : réception du flux d'entrée dans le tampon, puis décodage, traitements
+	 * et encodage vers l'abonné.
+	 */
+	private static final class Job implements Runnable, Flow.Subscriber<ByteBuffer> {
+		private final Emitter emitter;
+		private final UnaryOperator<ImagePipeline> plan;
+		private final ImageFormat format;
+		private final EncodeOptions options;
+		private final Consumer<Job> launcher;
+		private final Spool spool = new Spool();
+		private final AtomicBoolean started = new AtomicBoolean();
+		private Flow.Subscription subscription;
+		/**
+		 * Réception terminée, en erreur ou abandonnée.
+		 */
+		private boolean received;
+		private volatile ScheduledFuture<?> deadline;
+
+		Job(Emitter emitter, UnaryOperator<ImagePipeline> plan, ImageFormat format, EncodeOptions options,
+			Consumer<Job> launcher) {
+			this.emitter = emitter;
+			this.plan = plan;
+			this.format = format;
+			this.options = options;
+			this.launcher = launcher;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			boolean accepted;
+			synchronized (this) {
+				accepted = this.subscription == null && !received;
+				if (accepted) {
+					this.subscription = subscription;
+				}
+			}
+			if (accepted) {
+				subscription.request(PREFETCH);
+			} else {
+				subscription.cancel();
+			}
+		}
+
+		@Override
+		public void onNext(ByteBuffer item) {
+			IOException failure;
+			synchronized (this) {
+				if (received) {
+					return;
+				}
+				try {
+					spool.write(item);
+					failure = null;
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			if (failure == null) {
+				subscription.request(1);
+			} else {
+				abandon();
+				reject(failure);
+			}
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			synchronized (this) {
+				if (received) {
+					return;
+				}
+				received = true;
+			}
+			reject(new IOException("Image source failed", throwable));
+		}
+
+		@Override
+		public void onComplete() {
+			synchronized (this) {
+				if (received) {
+					return;
+				}
+				received = true;
+			}
+			launcher.accept(this);
+		}
+
+		@Override
+		public void run() {
+			if (!started.compareAndSet(false, true)) {
+				return;
+			}
+			try {
+				if (emitter.cancelled) {
+					return;
+				}
+				plan.apply(spool.source())
+						.cancellation(emitter.token)
+						.encode(format, options, emitter);
+				emitter.complete();
+			} catch (Throwable e) {
+				logger.debug("Image conversion failed: {}", e.toString());
+				emitter.fail(e);
+			} finally {
+				release();
+			}
+		}
+
+		/**
+		 * L'abonné a annulé.
+		 */
+		void cancel() {
+			abandon();
+			reject(new CancellationToken.CancelledException("Image operation cancelled"));
+		}
+
+		/**
+		 * Échéance atteinte : sans effet si la conversion a démarré, son jeton l'interrompt.
+		 */
+		void expire() {
+			abandon();
+			reject(new CancellationToken.DeadlineExceededException());
+		}
+
+		/**
+		 * La conversion ne démarrera pas : la réception a échoué, ou l'exécuteur l'a refusée.
+		 */
+		void reject(Throwable e) {
+			if (started.compareAndSet(false, true)) {
+				release();
+				emitter.fail(e);
+			}
+		}
+
+		/**
+		 * Annule l'abonnement en entrée si la réception est en cours.
+		 */
+		private void abandon() {
+			Flow.Subscription toCancel;
+			synchronized (this) {
+				if (received) {
+					return;
+				}
+				received = true;
+				toCancel = subscription;
+			}
+			if (toCancel != null) {
+				toCancel.cancel();
+			}
+		}
+
+		private void release() {
+			synchronized (this) {
+				spool.close();
+			}
+			ScheduledFuture<?> timer = deadline;
+			if (timer != null) {
+				timer.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Tampon de l'image reçue : blocs en mémoire, ou fichier temporaire avec
+	 * {@link ImageCodecPool.StreamCache#DISK}. Non synchronisé.
+	 */
+	private static final class Spool {
+		private final boolean disk = ImageCodecPool.getStreamCache() == ImageCodecPool.StreamCache.DISK;
+		private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+		private Path file;
+		private FileChannel channel;
+
+		void write(ByteBuffer item) throws IOException {
+			if (!disk) {
+				// Copie : l'éditeur peut réutiliser son tampon après onNext
+				chunks.add(ByteBuffer.allocate(item.remaining()).put(item).flip());
+				return;
+			}
+			if (channel == null) {
+				File directory = ImageIO.getCacheDirectory();
+				file = directory == null ? Files.createTempFile("imageio", ".tmp")
+						: Files.createTempFile(directory.toPath(), "imageio", ".tmp");
+				channel = FileChannel.open(file, StandardOpenOption.WRITE);
+			}
+			while (item.hasRemaining()) {
+				channel.write(item);
+			}
+		}
+
+		/**
+		 * @return Chaîne de traitements sur l'image reçue, lue une seule fois
+		 */
+		ImagePipeline source() throws IOException {
+			if (channel != null) {
+				channel.close();
+				return ImagePipeline.from(file.toFile());
+			}
+			// Les blocs sont libérés au fil de la lecture
+			return ImagePipeline.from(new InputStream() {
+				@Override
+				public int read() {
+					byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					Objects.checkFromIndexSize(off, len, b.length);
+					if (len == 0) {
+						return 0;
+					}
+					ByteBuffer head;
+					while ((head = chunks.peek()) != null && !head.hasRemaining()) {
+						chunks.poll();
+					}
+					if (head == null) {
+						return -1;
+					}
+					int read = Math.min(len, head.remaining());
+					head.get(b, off, read);
+					return read;
+				}
+			});
+		}
+
+		void close() {
+			chunks.clear();
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+				if (file != null) {
+					Files.deleteIfExists(file);
+				}
+			} catch (IOException e) {
+				logger.warn("Unable to delete image buffer {}: {}", file, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Abonnement en sortie et flux de l'encodeur : les écritures sont découpées en blocs,
+	 * chaque bloc attend une demande de l'abonné. Un seul thread signale l'abonné : celui
+	 * de la conversion, ou celui qui la rejette avant son démarrage.
+	 */
+	private static final class Emitter extends OutputStream implements Flow.Subscription {
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		private final CancellationToken token;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition demanded = lock.newCondition();
+		private long demand;
+		private volatile boolean cancelled;
+		/**
+		 * Demande invalide de l'abonné, signalée à la place de la conversion.
+		 */
+		private Throwable violation;
+		private volatile Job job;
+		private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+		Emitter(Flow.Subscriber<? super ByteBuffer> subscriber, CancellationToken token) {
+			this.subscriber = subscriber;
+			this.token = token;
+		}
+
+		@Override
+		public void request(long n) {
+			lock.lock();
+			try {
+				if (n <= 0) {
+					violation = new IllegalArgumentException("Non-positive subscription request: " + n);
+				} else {
+					demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+					demanded.signalAll();
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+			cancel();
+		}
+
+		@Override
+		public void cancel() {
+			lock.lock();
+			try {
+				cancelled = true;
+				demanded.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			token.cancel();
+			Job conversion = job;
+			if (conversion != null) {
+				conversion.cancel();
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!chunk.hasRemaining()) {
+				emit();
+			}
+			chunk.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			Objects.checkFromIndexSize(off, len, b.length);
+			while (len > 0) {
+				if (!chunk.hasRemaining()) {
+					emit();
+				}
+				int n = Math.min(len, chunk.remaining());
+				chunk.put(b, off, n);
+				off += n;
+				len -= n;
+			}
+		}
+
+		/**
+		 * Publie le dernier bloc et termine le flux.
+		 */
+		void complete() throws IOException {
+			if (chunk.position() > 0) {
+				emit();
+			}
+			if (!cancelled) {
+				subscriber.onComplete();
+			}
+		}
+
+		/**
+		 * Termine le flux en erreur, sauf si l'abonné a annulé.
+		 */
+		void fail(Throwable e) {
+			Throwable error;
+			lock.lock();
+			try {
+				if (cancelled && violation == null) {
+					return;
+				}
+				error = violation != null ? violation : e;
+			} finally {
+				lock.unlock();
+			}
+			subscriber.onError(error);
+		}
+
+		private void emit() throws IOException {
+			awaitDemand();
+			chunk.flip();
+			subscriber.onNext(chunk);
+			chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		}
+
+		private void awaitDemand() throws IOException {
+			lock.lock();
+			try {
+				while (demand == 0 && !cancelled) {
+					Duration remaining = token.remaining();
+					if (remaining == null) {
+						demanded.await();
+					} else if (remaining.isZero()) {
+						break;
+					} else {
+						demanded.awaitNanos(remaining.toNanos());
+					}
+				}
+				token.throwIfCancelled();
+				demand--;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for subscriber demand");
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Pool par défaut, créé au premier usage.
+	 */
+	private static final class DefaultPool {
+		private static final AtomicInteger threadCount = new AtomicInteger();
+
+		static final ExecutorService INSTANCE = Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(), task -> {
+					Thread thread = new Thread(task, "image-flow-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Minuterie des échéances, créée au premier usage.
+	 */
+	private static final class Deadlines {
+		static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, task -> {
+			Thread thread = new Thread(task, "image-flow-deadline");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		static {
+			INSTANCE.setRemoveOnCancelPolicy(true);
+		}
+	}
+}
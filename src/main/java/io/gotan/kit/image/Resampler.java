@@ -0,0 +1,406 @@
+package io.gotan.kit.image;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Redimensionnement par convolution séparable (passe horizontale puis verticale).
+ * <p>
+ * Les poids sont précalculés en virgule fixe et chaque pixel de sortie ne
+ * dépend que de ses pixels sources : le mode parallèle, qui répartit les
+ * lignes des deux passes sur le <code>ForkJoinPool</code> commun, produit
+ * exactement la même image que le mode séquentiel. Les images de moins de
+ * {@link #PARALLEL_THRESHOLD} pixels restent séquentielles.
+ * <p>
+ * La transparence est traitée en alpha prémultiplié pour éviter les halos
+ * sombres autour des zones transparentes.
+ */
+public final class Resampler {
+
+	/**
+	 * Nombre de pixels source en dessous duquel le mode parallèle reste séquentiel.
+	 */
+	public static final long PARALLEL_THRESHOLD = 1L << 20;
+
+	/**
+	 * Précision des poids en virgule fixe.
+	 */
+	private static final int PRECISION = 14;
+
+	private static final int ONE = 1 << PRECISION;
+
+	private static final int HALF = ONE >> 1;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private Resampler() {
+	}
+
+	/**
+	 * Redimensionne une image.
+	 *
+	 * @param image    Image source
+	 * @param width    Largeur cible
+	 * @param height   Hauteur cible
+	 * @param filter   Noyau de convolution
+	 * @param parallel Répartit le travail sur plusieurs cœurs (si l'image dépasse {@link #PARALLEL_THRESHOLD})
+	 * @return Image en <code>TYPE_INT_RGB</code>, ou <code>TYPE_INT_ARGB</code> si la source a un canal alpha
+	 */
+	public static BufferedImage resize(BufferedImage image, int width, int height, Filter filter, boolean parallel) {
+		return resize(image, width, height, filter, parallel, null);
+	}
+
+	/**
+	 * Redimensionne une image en remplaçant sa transparence par une couleur de fond,
+	 * dans la même passe.
+	 *
+	 * @param image      Image source
+	 * @param width      Largeur cible
+	 * @param height     Hauteur cible
+	 * @param filter     Noyau de convolution
+	 * @param parallel   Répartit le travail sur plusieurs cœurs (si l'image dépasse {@link #PARALLEL_THRESHOLD})
+	 * @param background Couleur d'arrière plan, <code>null</code> pour conserver la transparence
+	 * @return Image en <code>TYPE_INT_RGB</code>, ou <code>TYPE_INT_ARGB</code> si la source a un canal
+	 * alpha conservé
+	 */
+	public static BufferedImage resize(BufferedImage image, int width, int height, Filter filter, boolean parallel,
+									   Color background) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Target size must be positive: %dx%d".formatted(width, height));
+		}
+		int srcWidth = image.getWidth();
+		int srcHeight = image.getHeight();
+		boolean alpha = image.getColorModel().hasAlpha();
+		boolean split = parallel && (long) srcWidth * srcHeight >= PARALLEL_THRESHOLD;
+		boolean flatten = alpha && background != null;
+		int bg = background != null ? background.getRGB() & 0xFFFFFF : 0;
+
+		PixelFormats.RowReader src = PixelFormats.rowReader(image);
+		boolean premultiply = alpha && !src.isPremultiplied();
+		Weights horizontal = new Weights(srcWidth, width, filter);
+		Weights vertical = new Weights(srcHeight, height, filter);
+
+		// Passe horizontale : srcWidth x srcHeight -> width x srcHeight, en ARGB prémultiplié
+		int[] tmp = ScratchBuffers.take(ScratchBuffers.INTERMEDIATE, width * srcHeight);
+		ParallelRows.run(srcHeight, srcWidth, split, (y0, y1) -> {
+			int[] row = ScratchBuffers.take(ScratchBuffers.ROW, srcWidth);
+			for (int y = y0; y < y1; y++) {
+				src.read(y, row);
+				if (premultiply) {
+					PixelFormats.premultiply(row, srcWidth);
+				}
+				horizontal.convolveRow(row, tmp, y * width, alpha);
+			}
+			ScratchBuffers.give(ScratchBuffers.ROW, row);
+		});
+
+		// Passe verticale : width x srcHeight -> width x height
+		BufferedImage result = new BufferedImage(width, height,
+				alpha && !flatten ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		int[] dst = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+		ParallelRows.run(height, width, split, (y0, y1) -> {
+			int[] acc = ScratchBuffers.take(ScratchBuffers.ACCUMULATOR, width * 4);
+			for (int y = y0; y < y1; y++) {
+				vertical.convolveColumn(y, tmp, width, srcHeight, acc, dst, y * width, alpha);
+				if (flatten) {
+					flatten(dst, y * width, width, bg);
+				} else if (alpha) {
+					for (int x = y * width, end = x + width; x < end; x++) {
+						dst[x] = PixelFormats.unpremultiply(dst[x]);
+					}
+				}
+			}
+			ScratchBuffers.give(ScratchBuffers.ACCUMULATOR, acc);
+		});
+		ScratchBuffers.give(ScratchBuffers.INTERMEDIATE, tmp);
+		return result;
+	}
+
+	/**
+	 * Redimensionne une image hors tas, sans la copier dans le tas.
+	 * <p>
+	 * Les lignes sont produites dans l'ordre ; seules les lignes sources utiles à la ligne
+	 * cible courante sont conservées, déjà réduites à la largeur cible, dans un tampon
+	 * circulaire. En mode parallèle, chaque bande de lignes cibles a son propre tampon.
+	 *
+	 * @param image      Image source
+	 * @param width      Largeur cible
+	 * @param height     Hauteur cible
+	 * @param filter     Noyau de convolution
+	 * @param parallel   Répartit le travail sur plusieurs cœurs (si l'image dépasse {@link #PARALLEL_THRESHOLD})
+	 * @param background Couleur d'arrière plan, <code>null</code> pour conserver la transparence
+	 * @return Nouvelle image hors tas, à fermer après usage
+	 */
+	public static OffHeapRaster resize(OffHeapRaster image, int width, int height, Filter filter, boolean parallel,
+									   Color background) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Target size must be positive: %dx%d".formatted(width, height));
+		}
+		int srcWidth = image.getWidth();
+		int srcHeight = image.getHeight();
+		boolean alpha = image.hasAlpha();
+		boolean split = parallel && (long) srcWidth * srcHeight >= PARALLEL_THRESHOLD;
+		boolean flatten = alpha && background != null;
+		int bg = background != null ? background.getRGB() & 0xFFFFFF : 0;
+		Weights horizontal = new Weights(srcWidth, width, filter);
+		Weights vertical = new Weights(srcHeight, height, filter);
+		int window = vertical.taps;
+
+		// Peu de bandes : chaque bande relit les lignes sources qu'elle partage avec sa voisine
+		int bands = ForkJoinPool.getCommonPoolParallelism() * 4;
+		int rowsPerBand = (height + bands - 1) / bands;
+		OffHeapRaster result = OffHeapRaster.allocate(width, height, alpha && !flatten);
+		try {
+			ParallelRows.run(height, Math.max(1, ParallelRows.MIN_PIXELS_PER_TASK / rowsPerBand), split, (y0, y1) -> {
+				int[] ring = new int[window * width];
+				int[] ringRows = new int[window];
+				Arrays.fill(ringRows, -1);
+				int[] row = ScratchBuffers.take(ScratchBuffers.ROW, srcWidth);
+				int[] acc = ScratchBuffers.take(ScratchBuffers.ACCUMULATOR, width * 4);
+				int[] out = new int[width];
+				for (int y = y0; y < y1; y++) {
+					for (int j = vertical.start[y], end = j + vertical.count[y]; j < end; j++) {
+						int slot = j % window;
+						if (ringRows[slot] != j) {
+							image.readRow(0, j, srcWidth, row, 0);
+							if (alpha) {
+								PixelFormats.premultiply(row, srcWidth);
+							}
+							horizontal.convolveRow(row, ring, slot * width, alpha);
+							ringRows[slot] = j;
+						}
+					}
+					vertical.convolveColumn(y, ring, width, window, acc, out, 0, alpha);
+					if (flatten) {
+						flatten(out, 0, width, bg);
+					} else if (alpha) {
+						for (int x = 0; x < width; x++) {
+							out[x] = PixelFormats.unpremultiply(out[x]);
+						}
+					}
+					result.writeRow(0, y, width, out, 0);
+				}
+				ScratchBuffers.give(ScratchBuffers.ROW, row);
+				ScratchBuffers.give(ScratchBuffers.ACCUMULATOR, acc);
+			});
+		} catch (RuntimeException e) {
+			result.close();
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Compose une ligne prémultipliée sur la couleur de fond.
+	 */
+	private static void flatten(int[] pixels, int offset, int width, int bg) {
+		int bgR = bg >>> 16;
+		int bgG = (bg >>> 8) & 0xFF;
+		int bgB = bg & 0xFF;
+		for (int x = offset, end = offset + width; x < end; x++) {
+			int p = pixels[x];
+			int inverse = 255 - (p >>> 24);
+			if (inverse != 0) {
+				p = 0xFF000000
+						| (((p >>> 16) & 0xFF) + AlphaFlattener.div255(bgR * inverse)) << 16
+						| (((p >>> 8) & 0xFF) + AlphaFlattener.div255(bgG * inverse)) << 8
+						| ((p & 0xFF) + AlphaFlattener.div255(bgB * inverse));
+			}
+			pixels[x] = p;
+		}
+	}
+
+	/**
+	 * Poids de convolution précalculés pour un axe.
+	 */
+	private static final class Weights {
+		/**
+		 * Premier pixel source de chaque pixel cible.
+		 */
+		private final int[] start;
+		/**
+		 * Nombre de pixels sources de chaque pixel cible.
+		 */
+		private final int[] count;
+		/**
+		 * Poids en virgule fixe, <code>taps</code> par pixel cible.
+		 */
+		private final int[] weights;
+		private final int taps;
+
+		Weights(int srcSize, int dstSize, Filter filter) {
+			double scale = (double) dstSize / srcSize;
+			double factor = Math.min(scale, 1);
+			double support = filter.radius / factor;
+			this.taps = Math.min(srcSize, (int) Math.ceil(support) * 2 + 2);
+			this.start = new int[dstSize];
+			this.count = new int[dstSize];
+			this.weights = new int[dstSize * taps];
+			double[] values = new double[taps];
+
+			for (int i = 0; i < dstSize; i++) {
+				double center = (i + 0.5) / scale;
+				int left = Math.max(0, (int) Math.floor(center - support));
+				int right = Math.min(srcSize, (int) Math.ceil(center + support));
+				if (right - left > taps) {
+					right = left + taps;
+				}
+				double sum = 0;
+				for (int j = left; j < right; j++) {
+					double w = filter.apply((j + 0.5 - center) * factor);
+					values[j - left] = w;
+					sum += w;
+				}
+				if (sum == 0) {
+					// Réduction extrême : le plus proche voisin
+					left = Math.min(srcSize - 1, (int) center);
+					right = left + 1;
+					values[0] = 1;
+					sum = 1;
+				}
+				int n = right - left;
+				int total = 0;
+				int biggest = 0;
+				for (int k = 0; k < n; k++) {
+					int w = (int) Math.round(values[k] / sum * ONE);
+					weights[i * taps + k] = w;
+					total += w;
+					if (Math.abs(w) > Math.abs(weights[i * taps + biggest])) {
+						biggest = k;
+					}
+				}
+				// L'arrondi doit conserver une somme exacte, sinon les aplats dérivent
+				weights[i * taps + biggest] += ONE - total;
+				start[i] = left;
+				count[i] = n;
+			}
+		}
+
+		/**
+		 * Convolution horizontale d'une ligne prémultipliée.
+		 */
+		void convolveRow(int[] row, int[] out, int offset, boolean alpha) {
+			int dstSize = start.length;
+			for (int i = 0; i < dstSize; i++) {
+				int s = start[i];
+				int w0 = i * taps;
+				int n = count[i];
+				int a = 0;
+				int r = 0;
+				int g = 0;
+				int b = 0;
+				for (int k = 0; k < n; k++) {
+					int p = row[s + k];
+					int w = weights[w0 + k];
+					a += (p >>> 24) * w;
+					r += ((p >>> 16) & 0xFF) * w;
+					g += ((p >>> 8) & 0xFF) * w;
+					b += (p & 0xFF) * w;
+				}
+				out[offset + i] = pack(a, r, g, b, alpha);
+			}
+		}
+
+		/**
+		 * Convolution verticale produisant une ligne cible, en ARGB prémultiplié.
+		 * La ligne source <code>j</code> est lue dans <code>tmp</code> à la ligne <code>j % rows</code>.
+		 */
+		void convolveColumn(int y, int[] tmp, int width, int rows, int[] acc, int[] out, int offset, boolean alpha) {
+			// Accumulateurs entrelacés A, R, G, B par colonne
+			Arrays.fill(acc, 0, width * 4, 0);
+			int s = start[y];
+			int w0 = y * taps;
+			int n = count[y];
+			for (int k = 0; k < n; k++) {
+				int w = weights[w0 + k];
+				int rowOffset = (s + k) % rows * width;
+				for (int x = 0, i = 0; x < width; x++, i += 4) {
+					int p = tmp[rowOffset + x];
+					acc[i] += (p >>> 24) * w;
+					acc[i + 1] += ((p >>> 16) & 0xFF) * w;
+					acc[i + 2] += ((p >>> 8) & 0xFF) * w;
+					acc[i + 3] += (p & 0xFF) * w;
+				}
+			}
+			for (int x = 0, i = 0; x < width; x++, i += 4) {
+				out[offset + x] = pack(acc[i], acc[i + 1], acc[i + 2], acc[i + 3], alpha);
+			}
+		}
+
+		private static int pack(int a, int r, int g, int b, boolean alpha) {
+			int alphaValue = alpha ? clamp((a + HALF) >> PRECISION, 255) : 255;
+			return (alphaValue << 24)
+					| (clamp((r + HALF) >> PRECISION, alphaValue) << 16)
+					| (clamp((g + HALF) >> PRECISION, alphaValue) << 8)
+					| clamp((b + HALF) >> PRECISION, alphaValue);
+		}
+
+		/**
+		 * Borne une composante prémultipliée par son alpha (les noyaux à lobes négatifs peuvent déborder).
+		 */
+		private static int clamp(int value, int max) {
+			return value < 0 ? 0 : Math.min(value, max);
+		}
+	}
+
+	/**
+	 * Noyaux de convolution.
+	 */
+	public enum Filter {
+		/**
+		 * Triangle : rapide, un peu flou.
+		 */
+		BILINEAR(1) {
+			@Override
+			double apply(double x) {
+				x = Math.abs(x);
+				return x < 1 ? 1 - x : 0;
+			}
+		},
+		/**
+		 * Catmull-Rom : bon compromis netteté / coût.
+		 */
+		BICUBIC(2) {
+			@Override
+			double apply(double x) {
+				x = Math.abs(x);
+				if (x < 1) {
+					return (1.5 * x - 2.5) * x * x + 1;
+				}
+				if (x < 2) {
+					return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+				}
+				return 0;
+			}
+		},
+		/**
+		 * Lanczos à 3 lobes : le plus net, le plus coûteux.
+		 */
+		LANCZOS3(3) {
+			@Override
+			double apply(double x) {
+				x = Math.abs(x);
+				if (x < 1e-8) {
+					return 1;
+				}
+				if (x >= 3) {
+					return 0;
+				}
+				double pix = Math.PI * x;
+				return 3 * Math.sin(pix) * Math.sin(pix / 3) / (pix * pix);
+			}
+		};
+
+		private final double radius;
+
+		Filter(double radius) {
+			this.radius = radius;
+		}
+
+		abstract double apply(double x);
+	}
+}
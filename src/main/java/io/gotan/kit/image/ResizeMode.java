@@ -0,0 +1,99 @@
+package io.gotan.kit.image;
+
+import java.awt.*;
+
+/**
+ * Façon de faire entrer une image dans un cadre cible.
+ * <p>
+ * La zone source utile est calculée à partir des seules dimensions de l'image
+ * (lues dans l'en-tête), avant tout décodage : elle peut ainsi être passée au
+ * décodeur (<code>ImageReadParam.setSourceRegion</code>) pour ne décoder que les
+ * pixels nécessaires.
+ * @see ImagePipeline#resize(int, int, ResizeMode)
+ */
+public enum ResizeMode {
+	/**
+	 * L'image entière tient dans le cadre, proportions conservées, sans agrandissement
+	 * (équivalent de {@link Dimension#scale(int, int)}).
+	 * Une des dimensions du cadre peut être nulle.
+	 */
+	CONTAIN,
+	/**
+	 * L'image remplit exactement le cadre, proportions conservées : le surplus est
+	 * rogné, centré.
+	 */
+	COVER,
+	/**
+	 * L'image entière est étirée aux dimensions exactes du cadre (déformation possible).
+	 */
+	FILL,
+	/**
+	 * Comme {@link #COVER}, mais la zone conservée est déplacée vers la partie la plus
+	 * détaillée de l'image (contours, couleurs saturées). Nécessite un aperçu basse
+	 * résolution de l'image.
+	 *
+	 * @see SmartCrop
+	 */
+	SMART_CROP;
+
+	/**
+	 * Calcule la zone source à décoder.
+	 *
+	 * @param bounds Zone disponible dans l'image source (image entière ou recadrage)
+	 * @param width  Largeur du cadre
+	 * @param height Hauteur du cadre
+	 * @return Zone source, incluse dans <code>bounds</code>. Pour {@link #SMART_CROP},
+	 * la zone centrée, à affiner avec {@link SmartCrop#locate}
+	 */
+	public Rectangle sourceRegion(Rectangle bounds, int width, int height) {
+		if (this == CONTAIN || this == FILL) {
+			return new Rectangle(bounds);
+		}
+		checkBox(width, height);
+		int regionWidth = bounds.width;
+		int regionHeight = bounds.height;
+		if ((long) bounds.width * height > (long) width * bounds.height) {
+			// Source plus large que le cadre : on rogne à gauche et à droite
+			regionWidth = (int) Math.max(1, Math.round((double) bounds.height * width / height));
+		} else {
+			regionHeight = (int) Math.max(1, Math.round((double) bounds.width * height / width));
+		}
+		return new Rectangle(bounds.x + (bounds.width - regionWidth) / 2, bounds.y + (bounds.height - regionHeight) / 2,
+				regionWidth, regionHeight);
+	}
+
+	/**
+	 * Calcule les dimensions de l'image produite.
+	 *
+	 * @param region Zone source retenue par {@link #sourceRegion}
+	 * @param width  Largeur du cadre
+	 * @param height Hauteur du cadre
+	 * @return Dimensions finales
+	 */
+	public Dimension targetSize(Rectangle region, int width, int height) {
+		if (this == CONTAIN) {
+			Dimension target = new Dimension(region.width, region.height);
+			if (width > 0 || height > 0) {
+				target.scale(width, height);
+			}
+			target.setWidth(Math.max(1, target.getWidth()));
+			target.setHeight(Math.max(1, target.getHeight()));
+			return target;
+		}
+		checkBox(width, height);
+		return new Dimension(width, height);
+	}
+
+	/**
+	 * @return true si la zone source dépend du contenu de l'image
+	 */
+	public boolean needsPreview() {
+		return this == SMART_CROP;
+	}
+
+	private void checkBox(int width, int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("%s requires a positive box: %dx%d".formatted(this, width, height));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package io.gotan.kit.image;
+
+/**
+ * Tampons de travail réutilisés d'un traitement à l'autre, par thread.
+ * <p>
+ * Un tampon est retiré de son emplacement pendant son utilisation : un appel
+ * imbriqué sur le même thread (tâche volée par un worker du ForkJoinPool)
+ * obtient un nouveau tableau au lieu de partager celui en cours. Les tampons
+ * peuvent être plus grands que la taille demandée.
+ */
+final class ScratchBuffers {
+
+	/**
+	 * Ligne source.
+	 */
+	static final int ROW = 0;
+
+	/**
+	 * Accumulateurs de la passe verticale.
+	 */
+	static final int ACCUMULATOR = 1;
+
+	/**
+	 * Image intermédiaire entre les deux passes.
+	 */
+	static final int INTERMEDIATE = 2;
+
+	private static final int SLOTS = 3;
+
+	/**
+	 * Taille maximum d'un tampon conservé (en entiers), pour ne pas garder de très grosses images en mémoire.
+	 */
+	private static final int MAX_RETAINED = 1 << 22;
+
+	private static final ThreadLocal<int[][]> buffers = ThreadLocal.withInitial(() -> new int[SLOTS][]);
+
+	/**
+	 * Avoid instantiation
+	 */
+	private ScratchBuffers() {
+	}
+
+	/**
+	 * Emprunte un tampon d'au moins <code>size</code> entiers (contenu non initialisé).
+	 */
+	static int[] take(int slot, int size) {
+		int[][] slots = buffers.get();
+		int[] buffer = slots[slot];
+		if (buffer != null && buffer.length >= size) {
+			slots[slot] = null;
+			return buffer;
+		}
+		return new int[size];
+	}
+
+	/**
+	 * Rend un tampon pour les traitements suivants du thread.
+	 */
+	static void give(int slot, int[] buffer) {
+		if (buffer.length <= MAX_RETAINED) {
+			int[][] slots = buffers.get();
+			if (slots[slot] == null || slots[slot].length < buffer.length) {
+				slots[slot] = buffer;
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package io.gotan.kit.image;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Placement d'une zone de recadrage sur la partie la plus détaillée d'une image.
+ * <p>
+ * Travaille sur un aperçu basse résolution (typiquement décodé avec un fort
+ * sous-échantillonnage) : chaque pixel reçoit une énergie (gradient de
+ * luminance + saturation, nulle sur les pixels transparents), puis la fenêtre
+ * est glissée le long du seul axe libre pour maximiser l'énergie qu'elle contient.
+ * À énergie égale, la position la plus proche du centre l'emporte.
+ */
+public final class SmartCrop {
+
+	/**
+	 * Plus grand côté visé pour l'aperçu.
+	 */
+	public static final int PREVIEW_SIZE = 256;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private SmartCrop() {
+	}
+
+	/**
+	 * Facteur de sous-échantillonnage pour décoder un aperçu d'environ {@link #PREVIEW_SIZE} pixels.
+	 *
+	 * @param bounds Zone source
+	 */
+	public static int previewSubsampling(Rectangle bounds) {
+		return Math.max(1, Math.max(bounds.width, bounds.height) / PREVIEW_SIZE);
+	}
+
+	/**
+	 * Déplace une zone de recadrage vers la partie la plus détaillée.
+	 *
+	 * @param preview  Aperçu de la zone <code>bounds</code>, à n'importe quelle échelle
+	 * @param bounds   Zone disponible dans l'image source
+	 * @param centered Zone de recadrage centrée, incluse dans <code>bounds</code>
+	 * @return Zone de même taille que <code>centered</code>, incluse dans <code>bounds</code>
+	 */
+	public static Rectangle locate(BufferedImage preview, Rectangle bounds, Rectangle centered) {
+		boolean horizontal = centered.width < bounds.width;
+		boolean vertical = centered.height < bounds.height;
+		if (!horizontal && !vertical) {
+			return new Rectangle(centered);
+		}
+		int width = preview.getWidth();
+		int height = preview.getHeight();
+		double scaleX = (double) bounds.width / width;
+		double scaleY = (double) bounds.height / height;
+
+		long[] profile = horizontal ? new long[width] : new long[height];
+		int[] luma = new int[width];
+		int[] previous = new int[width];
+		int[] row = new int[width];
+		PixelFormats.RowReader reader = PixelFormats.rowReader(preview);
+		for (int y = 0; y < height; y++) {
+			reader.read(y, row);
+			for (int x = 0; x < width; x++) {
+				int p = row[x];
+				int r = (p >>> 16) & 0xFF;
+				int g = (p >>> 8) & 0xFF;
+				int b = p & 0xFF;
+				luma[x] = (r * 77 + g * 150 + b * 29) >> 8;
+			}
+			for (int x = 0; x < width; x++) {
+				int p = row[x];
+				int a = p >>> 24;
+				if (a == 0) {
+					continue;
+				}
+				int r = (p >>> 16) & 0xFF;
+				int g = (p >>> 8) & 0xFF;
+				int b = p & 0xFF;
+				int saturation = Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b));
+				int gradient = Math.abs(luma[x] - luma[Math.min(x + 1, width - 1)])
+						+ (y > 0 ? Math.abs(luma[x] - previous[x]) : 0);
+				long energy = (long) (gradient * 2 + saturation / 2) * a;
+				profile[horizontal ? x : y] += energy;
+			}
+			int[] swap = previous;
+			previous = luma;
+			luma = swap;
+		}
+
+		int size = horizontal ? width : height;
+		double scale = horizontal ? scaleX : scaleY;
+		int window = (int) Math.max(1, Math.min(size, Math.round((horizontal ? centered.width : centered.height) / scale)));
+		long[] prefix = new long[size + 1];
+		for (int i = 0; i < size; i++) {
+			prefix[i + 1] = prefix[i] + profile[i];
+		}
+		int center = (size - window) / 2;
+		int best = center;
+		long bestEnergy = -1;
+		for (int offset = 0; offset + window <= size; offset++) {
+			long energy = prefix[offset + window] - prefix[offset];
+			if (energy > bestEnergy
+					|| (energy == bestEnergy && Math.abs(offset - center) < Math.abs(best - center))) {
+				best = offset;
+				bestEnergy = energy;
+			}
+		}
+
+		Rectangle result = new Rectangle(centered);
+		if (horizontal) {
+			result.x = bounds.x + (int) Math.min(bounds.width - centered.width, Math.round(best * scale));
+		} else {
+			result.y = bounds.y + (int) Math.min(bounds.height - centered.height, Math.round(best * scale));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,409 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import io.gotan.kit.image.PixelFormats.RowReader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Planches de sprites : regroupe de nombreuses petites images (vignettes d'une galerie)
+ * dans une ou plusieurs images, servies en une seule requête HTTP.
+ * <p>
+ * Les images sont placées par l'algorithme MaxRects, de la plus grande à la plus petite,
+ * dans des planches de taille maximum fixée ; une nouvelle planche est ouverte quand
+ * aucune ne peut plus accueillir l'image. Les pixels sont recopiés ligne par ligne
+ * directement dans le tableau de la planche, puis chaque planche est réduite à la zone
+ * utilisée et encodée. Le manifeste JSON ({@link Result#getManifest()}) donne la position
+ * de chaque image.
+ * <p>
+ * Sans couleur de fond, la transparence est conservée (sauf en JPEG, où elle est composée
+ * sur du blanc).
+ * <p>
+ * Usage :
+ * <pre>
+ * SpriteAtlas.Result atlas = new SpriteAtlas(2048, 2048)
+ *         .padding(2)
+ *         .add("photo-1", data1, 160, 160)
+ *         .add("photo-2", data2, 160, 160)
+ *         .build(ImageFormat.JPEG, EncodeOptions.defaults());
+ * byte[] sheet = atlas.getSheets().get(0).getData();
+ * String manifest = atlas.getManifest();
+ * </pre>
+ */
+public class SpriteAtlas {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(SpriteAtlas.class);
+
+	private final int maxSheetWidth;
+
+	private final int maxSheetHeight;
+
+	private int padding;
+
+	private Color background;
+
+	private final Map<String, BufferedImage> images = new LinkedHashMap<>();
+
+	/**
+	 * @param maxSheetWidth  Largeur maximum d'une planche
+	 * @param maxSheetHeight Hauteur maximum d'une planche
+	 */
+	public SpriteAtlas(int maxSheetWidth, int maxSheetHeight) {
+		if (maxSheetWidth <= 0 || maxSheetHeight <= 0) {
+			throw new IllegalArgumentException("Sheet size must be positive: %dx%d".formatted(maxSheetWidth, maxSheetHeight));
+		}
+		this.maxSheetWidth = maxSheetWidth;
+		this.maxSheetHeight = maxSheetHeight;
+	}
+
+	/**
+	 * @param padding Espace entre deux images, en pixels (évite le débordement d'une image
+	 *                sur sa voisine lors d'une mise à l'échelle par le navigateur)
+	 */
+	public SpriteAtlas padding(int padding) {
+		if (padding < 0) {
+			throw new IllegalArgumentException("Negative padding: " + padding);
+		}
+		this.padding = padding;
+		return this;
+	}
+
+	/**
+	 * @param background Couleur de fond des planches, <code>null</code> pour un fond transparent
+	 */
+	public SpriteAtlas background(Color background) {
+		this.background = background;
+		return this;
+	}
+
+	/**
+	 * Ajoute une image décodée, telle quelle.
+	 *
+	 * @param id    Identifiant de l'image dans le manifeste
+	 * @param image Image
+	 */
+	public SpriteAtlas add(String id, BufferedImage image) {
+		if (image.getWidth() > maxSheetWidth || image.getHeight() > maxSheetHeight) {
+			throw new IllegalArgumentException("Image %s (%dx%d) is larger than a sheet (%dx%d)".formatted(id,
+					image.getWidth(), image.getHeight(), maxSheetWidth, maxSheetHeight));
+		}
+		if (images.putIfAbsent(id, image) != null) {
+			throw new IllegalArgumentException("Duplicate sprite id: " + id);
+		}
+		return this;
+	}
+
+	/**
+	 * Ajoute une image encodée, redimensionnée en conservant ses proportions.
+	 *
+	 * @param id        Identifiant de l'image dans le manifeste
+	 * @param data      Image encodée
+	 * @param maxWidth  Largeur maximum
+	 * @param maxHeight Hauteur maximum
+	 * @throws BadImageFormatException Image illisible
+	 * @see ImagePipeline
+	 */
+	public SpriteAtlas add(String id, byte[] data, int maxWidth, int maxHeight)
+			throws IOException, BadImageFormatException {
+		return add(id, ImagePipeline.from(data).resize(maxWidth, maxHeight).toImage());
+	}
+
+	/**
+	 * Place les images, remplit et encode les planches.
+	 *
+	 * @param format  Format des planches
+	 * @param options Paramètres d'encodage
+	 * @return Planches encodées et positions des images
+	 */
+	public Result build(ImageFormat format, EncodeOptions options) throws IOException, BadImageFormatException {
+		long start = System.nanoTime();
+		List<String> order = new ArrayList<>(images.keySet());
+		// Les grandes images d'abord : les petites comblent ensuite les vides
+		order.sort(Comparator.comparingInt((String id) -> Math.max(images.get(id).getWidth(), images.get(id).getHeight()))
+				.thenComparingInt(id -> Math.min(images.get(id).getWidth(), images.get(id).getHeight()))
+				.reversed());
+
+		List<MaxRectsPacker> packers = new ArrayList<>();
+		List<List<Sprite>> placements = new ArrayList<>();
+		for (String id : order) {
+			BufferedImage image = images.get(id);
+			// Le bord droit et le bord bas de la planche n'ont pas besoin de marge
+			int w = image.getWidth() + padding;
+			int h = image.getHeight() + padding;
+			Sprite sprite = null;
+			for (int sheet = 0; sheet < packers.size() && sprite == null; sheet++) {
+				Point position = packers.get(sheet).insert(w, h);
+				if (position != null) {
+					sprite = new Sprite(id, sheet, position.x, position.y, image.getWidth(), image.getHeight());
+				}
+			}
+			if (sprite == null) {
+				MaxRectsPacker packer = new MaxRectsPacker(maxSheetWidth + padding, maxSheetHeight + padding);
+				Point position = packer.insert(w, h);
+				packers.add(packer);
+				placements.add(new ArrayList<>());
+				sprite = new Sprite(id, packers.size() - 1, position.x, position.y, image.getWidth(), image.getHeight());
+			}
+			placements.get(sprite.sheet).add(sprite);
+		}
+
+		boolean alpha = background == null && format != ImageFormat.JPEG
+				&& images.values().stream().anyMatch(image -> image.getColorModel().hasAlpha());
+		Color fill = background != null ? background : Color.WHITE;
+		List<Sheet> sheets = new ArrayList<>();
+		for (int index = 0; index < placements.size(); index++) {
+			List<Sprite> sprites = placements.get(index);
+			BufferedImage canvas = render(sprites, alpha, fill);
+			byte[] data = ImageFormatConverter.convertImage(canvas, format, options);
+			sheets.add(new Sheet(index, canvas.getWidth(), canvas.getHeight(), data, sprites));
+			logger.debug("Sprite sheet {}: {} sprites, {}x{}, {}% used, {} bytes", index, sprites.size(),
+					canvas.getWidth(), canvas.getHeight(), Math.round(packers.get(index).occupancy() * 100), data.length);
+		}
+		logger.debug("Sprite atlas of {} images built in {} ms", images.size(), (System.nanoTime() - start) / 1_000_000);
+		return new Result(format, sheets);
+	}
+
+	/**
+	 * Copie les images dans une planche à la taille de la zone utilisée.
+	 */
+	private BufferedImage render(List<Sprite> sprites, boolean alpha, Color fill) {
+		int width = 1;
+		int height = 1;
+		for (Sprite sprite : sprites) {
+			width = Math.max(width, sprite.x + sprite.width);
+			height = Math.max(height, sprite.y + sprite.height);
+		}
+		BufferedImage canvas = new BufferedImage(width, height,
+				alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		int[] dst = AlphaFlattener.pixels(canvas);
+		int bg = fill.getRGB();
+		if (!alpha) {
+			Arrays.fill(dst, bg);
+		}
+		int bgR = (bg >>> 16) & 0xFF;
+		int bgG = (bg >>> 8) & 0xFF;
+		int bgB = bg & 0xFF;
+		for (Sprite sprite : sprites) {
+			BufferedImage image = images.get(sprite.id);
+			RowReader reader = PixelFormats.rowReader(image);
+			boolean premultiplied = reader.isPremultiplied();
+			boolean blend = !alpha && image.getColorModel().hasAlpha();
+			int[] row = new int[sprite.width];
+			for (int y = 0; y < sprite.height; y++) {
+				reader.read(y, row);
+				if (blend) {
+					for (int x = 0; x < row.length; x++) {
+						int p = row[x];
+						row[x] = AlphaFlattener.blend((p >>> 16) & 0xFF, (p >>> 8) & 0xFF, p & 0xFF, p >>> 24,
+								bgR, bgG, bgB, premultiplied);
+					}
+				} else if (alpha && premultiplied) {
+					for (int x = 0; x < row.length; x++) {
+						row[x] = PixelFormats.unpremultiply(row[x]);
+					}
+				}
+				System.arraycopy(row, 0, dst, (sprite.y + y) * width + sprite.x, sprite.width);
+			}
+		}
+		return canvas;
+	}
+
+	/**
+	 * Position d'une image dans les planches.
+	 */
+	public static final class Sprite {
+		private final String id;
+		private final int sheet;
+		private final int x;
+		private final int y;
+		private final int width;
+		private final int height;
+
+		Sprite(String id, int sheet, int x, int y, int width, int height) {
+			this.id = id;
+			this.sheet = sheet;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return Numéro de la planche
+		 */
+		public int getSheet() {
+			return sheet;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public String toString() {
+			return "Sprite{" + id + " sheet=" + sheet + " " + width + "x" + height + "+" + x + "+" + y + '}';
+		}
+	}
+
+	/**
+	 * Planche encodée.
+	 */
+	public static final class Sheet {
+		private final int index;
+		private final int width;
+		private final int height;
+		private final byte[] data;
+		private final List<Sprite> sprites;
+
+		Sheet(int index, int width, int height, byte[] data, List<Sprite> sprites) {
+			this.index = index;
+			this.width = width;
+			this.height = height;
+			this.data = data;
+			this.sprites = Collections.unmodifiableList(sprites);
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * @return Planche encodée
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return Images de la planche, de la plus grande à la plus petite
+		 */
+		public List<Sprite> getSprites() {
+			return sprites;
+		}
+	}
+
+	/**
+	 * Planches encodées et manifeste.
+	 */
+	public static final class Result {
+		private final ImageFormat format;
+		private final List<Sheet> sheets;
+
+		Result(ImageFormat format, List<Sheet> sheets) {
+			this.format = format;
+			this.sheets = Collections.unmodifiableList(sheets);
+		}
+
+		public List<Sheet> getSheets() {
+			return sheets;
+		}
+
+		/**
+		 * @param id Identifiant de l'image
+		 * @return Position de l'image, <code>null</code> si elle n'a pas été ajoutée
+		 */
+		public Sprite getSprite(String id) {
+			for (Sheet sheet : sheets) {
+				for (Sprite sprite : sheet.sprites) {
+					if (sprite.id.equals(id)) {
+						return sprite;
+					}
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Manifeste JSON :
+		 * <pre>
+		 * {"format":"jpg","sheets":[{"width":2048,"height":1530}],
+		 *  "sprites":{"photo-1":{"sheet":0,"x":0,"y":0,"width":160,"height":120}, ...}}
+		 * </pre>
+		 *
+		 * @return Manifeste
+		 */
+		public String getManifest() {
+			StringBuilder json = new StringBuilder(64 + 64 * sheets.size() + 80 * sheets.stream()
+					.mapToInt(sheet -> sheet.sprites.size()).sum());
+			json.append("{\"format\":\"").append(format.getExtension()).append("\",\"sheets\":[");
+			for (Sheet sheet : sheets) {
+				if (sheet.index > 0) {
+					json.append(',');
+				}
+				json.append("{\"width\":").append(sheet.width).append(",\"height\":").append(sheet.height).append('}');
+			}
+			json.append("],\"sprites\":{");
+			boolean first = true;
+			for (Sheet sheet : sheets) {
+				for (Sprite sprite : sheet.sprites) {
+					if (!first) {
+						json.append(',');
+					}
+					first = false;
+					appendString(json, sprite.id);
+					json.append(":{\"sheet\":").append(sprite.sheet)
+							.append(",\"x\":").append(sprite.x)
+							.append(",\"y\":").append(sprite.y)
+							.append(",\"width\":").append(sprite.width)
+							.append(",\"height\":").append(sprite.height)
+							.append('}');
+				}
+			}
+			return json.append("}}").toString();
+		}
+
+		private static void appendString(StringBuilder json, String value) {
+			json.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					json.append('\\').append(c);
+				} else if (c < 0x20) {
+					json.append("\\u%04x".formatted((int) c));
+				} else {
+					json.append(c);
+				}
+			}
+			json.append('"');
+		}
+	}
+}
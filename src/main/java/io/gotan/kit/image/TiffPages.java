@@ -0,0 +1,327 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lecture des TIFF multi-pages (documents numérisés...).
+ * <p>
+ * Deux usages :
+ * <ul>
+ *     <li>{@link #open(File)} : itérateur paresseux, une page décodée à la fois ;</li>
+ *     <li>{@link #convertPages(Path, ImageFormat, EncodeOptions, PageConsumer)} : conversion
+ *     parallèle. Le fichier est mappé en mémoire une seule fois et chaque tâche a son propre
+ *     décodeur sur ce mapping : les pages sont décodées et encodées en parallèle, puis
+ *     livrées dans l'ordre. Les tâches ne prennent jamais plus de {@link #WINDOW_PER_WORKER}
+ *     pages par tâche d'avance sur le consommateur.</li>
+ * </ul>
+ * Fonctionne avec tout format multi-images lisible par ImageIO.
+ */
+public final class TiffPages {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(TiffPages.class);
+
+	/**
+	 * Nombre de pages converties en attente de livraison, par tâche.
+	 */
+	public static final int WINDOW_PER_WORKER = 2;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private TiffPages() {
+	}
+
+	/**
+	 * Ouvre un itérateur paresseux sur les pages d'un fichier.
+	 *
+	 * @param file Fichier TIFF
+	 * @return Itérateur à fermer après usage
+	 * @throws BadImageFormatException Aucun décodeur pour ce fichier
+	 */
+	public static PageIterator open(File file) throws IOException, BadImageFormatException {
+		return open(new FileImageInputStream(file));
+	}
+
+	/**
+	 * Ouvre un itérateur paresseux sur les pages d'un flux.
+	 *
+	 * @param stream Flux positionné au début de l'image, fermé avec l'itérateur
+	 * @return Itérateur à fermer après usage
+	 * @throws BadImageFormatException Aucun décodeur pour ce flux
+	 */
+	public static PageIterator open(ImageInputStream stream) throws IOException, BadImageFormatException {
+		ImageReader reader = ImageCodecPool.borrowReader(stream);
+		if (reader == null) {
+			stream.close();
+			throw new BadImageFormatException();
+		}
+		reader.setInput(stream, false, true);
+		return new PageIterator(reader, stream);
+	}
+
+	/**
+	 * Convertit toutes les pages d'un fichier en parallèle, sur le <code>ForkJoinPool</code> commun.
+	 *
+	 * @see #convertPages(ByteBuffer, ImageFormat, EncodeOptions, PageConsumer, int, Executor)
+	 */
+	public static int convertPages(Path file, ImageFormat format, EncodeOptions options, PageConsumer consumer)
+			throws IOException, BadImageFormatException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File too large to be mapped: " + file);
+			}
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return convertPages(mapped, format, options, consumer, Runtime.getRuntime().availableProcessors(),
+					ForkJoinPool.commonPool());
+		}
+	}
+
+	/**
+	 * Convertit toutes les pages d'une image en parallèle.
+	 * <p>
+	 * Le consommateur est appelé depuis le thread appelant, dans l'ordre des pages.
+	 * Si une conversion ou le consommateur échoue, les tâches s'arrêtent et l'erreur est propagée.
+	 *
+	 * @param source   Image source, partagée en lecture seule entre les tâches
+	 * @param format   Format de sortie des pages
+	 * @param options  Paramètres d'encodage
+	 * @param consumer Reçoit chaque page encodée
+	 * @param workers  Nombre de décodeurs simultanés
+	 * @param executor Exécuteur des tâches
+	 * @return Nombre de pages converties
+	 * @throws BadImageFormatException Aucun décodeur pour cette source, ou page impossible à encoder
+	 */
+	public static int convertPages(ByteBuffer source, ImageFormat format, EncodeOptions options,
+								   PageConsumer consumer, int workers, Executor executor)
+			throws IOException, BadImageFormatException {
+		int pages;
+		try (PageIterator iterator = open(new ByteBufferImageInputStream(source))) {
+			pages = iterator.getPageCount();
+		}
+		int tasks = Math.max(1, Math.min(workers, pages));
+		AtomicReferenceArray<CompletableFuture<byte[]>> results = new AtomicReferenceArray<>(pages);
+		for (int i = 0; i < pages; i++) {
+			results.set(i, new CompletableFuture<>());
+		}
+		AtomicInteger next = new AtomicInteger();
+		AtomicBoolean aborted = new AtomicBoolean();
+		// Une page n'est prise que s'il reste de la place dans la fenêtre : la page attendue
+		// par le consommateur est toujours déjà prise, il n'y a pas d'interblocage.
+		Semaphore window = new Semaphore(tasks * WINDOW_PER_WORKER);
+		for (int t = 0; t < tasks; t++) {
+			CompletableFuture.runAsync(() -> convertWorker(source, format, options, results, next, aborted, window),
+					executor);
+		}
+
+		try {
+			for (int page = 0; page < pages; page++) {
+				byte[] data = await(results.get(page));
+				results.set(page, null);
+				consumer.accept(page, data);
+				window.release();
+			}
+		} finally {
+			// Fin normale ou erreur : libère les tâches en attente de place dans la fenêtre
+			aborted.set(true);
+			window.release(tasks * WINDOW_PER_WORKER);
+		}
+		logger.debug("Converted {} pages with {} workers", pages, tasks);
+		return pages;
+	}
+
+	private static void convertWorker(ByteBuffer source, ImageFormat format, EncodeOptions options,
+									  AtomicReferenceArray<CompletableFuture<byte[]>> results, AtomicInteger next,
+									  AtomicBoolean aborted, Semaphore window) {
+		try (PageIterator pages = open(new ByteBufferImageInputStream(source))) {
+			while (true) {
+				if (!acquire(window)) {
+					throw new InterruptedIOException("Page conversion interrupted");
+				}
+				// Vérifié avant de prendre une page : une page prise est toujours complétée
+				if (aborted.get()) {
+					break;
+				}
+				int page = next.getAndIncrement();
+				if (page >= results.length()) {
+					break;
+				}
+				CompletableFuture<byte[]> result = results.get(page);
+				try {
+					result.complete(ImageFormatConverter.convertImage(pages.read(page), format, options));
+				} catch (Throwable e) {
+					// Erreurs comprises (OutOfMemoryError sur une grande page) : le consommateur attend cette page
+					aborted.set(true);
+					result.completeExceptionally(e);
+				}
+			}
+		} catch (Throwable e) {
+			aborted.set(true);
+			for (int i = 0; i < results.length(); i++) {
+				CompletableFuture<byte[]> result = results.get(i);
+				if (result != null) {
+					result.completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prend une place dans la fenêtre. Dans un <code>ForkJoinPool</code> (pool commun par défaut),
+	 * l'attente est signalée au pool qui peut démarrer un thread de compensation.
+	 *
+	 * @return false si le thread a été interrompu pendant l'attente
+	 */
+	private static boolean acquire(Semaphore window) {
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					window.acquire();
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return window.tryAcquire();
+				}
+			});
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static byte[] await(CompletableFuture<byte[]> future) throws IOException, BadImageFormatException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException io) {
+				throw io;
+			}
+			if (cause instanceof BadImageFormatException bad) {
+				throw bad;
+			}
+			if (cause instanceof RuntimeException runtime) {
+				throw runtime;
+			}
+			if (cause instanceof Error error) {
+				throw error;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Reçoit les pages converties, dans l'ordre.
+	 */
+	@FunctionalInterface
+	public interface PageConsumer {
+		void accept(int page, byte[] data) throws IOException;
+	}
+
+	/**
+	 * Itérateur paresseux sur les pages : chaque appel à <code>next()</code> décode une page.
+	 * Le nombre de pages n'est lu (parcours des en-têtes uniquement) qu'à la demande.
+	 */
+	public static final class PageIterator implements Iterator<BufferedImage>, Closeable {
+		private final ImageReader reader;
+		private final ImageInputStream stream;
+		private int index;
+		private boolean healthy = true;
+		private boolean closed;
+
+		private PageIterator(ImageReader reader, ImageInputStream stream) {
+			this.reader = reader;
+			this.stream = stream;
+		}
+
+		/**
+		 * @return Nombre de pages, en parcourant les en-têtes de pages
+		 */
+		public int getPageCount() throws IOException {
+			return reader.getNumImages(true);
+		}
+
+		/**
+		 * Décode une page quelconque, sans modifier la position de l'itérateur.
+		 *
+		 * @param page Indice de la page, à partir de 0
+		 */
+		public BufferedImage read(int page) throws IOException {
+			try {
+				return reader.read(page);
+			} catch (IOException | RuntimeException e) {
+				healthy = false;
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				// Lit seulement l'en-tête de la page
+				reader.getWidth(index);
+				return true;
+			} catch (IndexOutOfBoundsException e) {
+				return false;
+			} catch (IOException e) {
+				healthy = false;
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public BufferedImage next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			try {
+				return read(index++);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			ImageCodecPool.release(reader, healthy);
+			stream.close();
+		}
+	}
+}
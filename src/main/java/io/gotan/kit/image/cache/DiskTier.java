@@ -0,0 +1,194 @@
+package io.gotan.kit.image.cache;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Niveau disque du cache : un fichier par déclinaison, indexé en mémoire.
+ * <p>
+ * L'index (clé → taille) est reconstruit au démarrage à partir du contenu du
+ * répertoire, trié par date de dernière modification. Cette date est mise à
+ * jour à chaque lecture, l'ordre LRU survit donc à un redémarrage.
+ */
+class DiskTier {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(DiskTier.class);
+
+	private static final String SUFFIX = ".bin";
+
+	private final Path directory;
+
+	private final long maxBytes;
+
+	/**
+	 * Index en ordre d'accès : identifiant → taille du fichier.
+	 */
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(256, 0.75f, true);
+
+	private long currentBytes;
+
+	DiskTier(Path directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(directory);
+		loadIndex();
+	}
+
+	private void loadIndex() throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (Stream<Path> stream = Files.list(directory)) {
+			stream.forEach(path -> {
+				String name = path.getFileName().toString();
+				if (name.endsWith(SUFFIX)) {
+					files.add(path);
+				} else if (name.endsWith(".tmp")) {
+					// Écriture interrompue lors d'une exécution précédente
+					deleteQuietly(path);
+				}
+			});
+		}
+		files.sort(Comparator.comparing(DiskTier::lastModified));
+		synchronized (this) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				long size = size(file);
+				index.put(name.substring(0, name.length() - SUFFIX.length()), size);
+				currentBytes += size;
+			}
+			evict();
+		}
+		logger.debug("Disk cache {} loaded with {} entries ({} bytes)", directory, index.size(), currentBytes);
+	}
+
+	byte[] get(RenditionKey key) {
+		synchronized (this) {
+			if (index.get(key.getId()) == null) {
+				return null;
+			}
+		}
+		Path file = fileOf(key.getId());
+		try {
+			byte[] data = Files.readAllBytes(file);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return data;
+		} catch (NoSuchFileException e) {
+			// Évincé entre la consultation de l'index et la lecture
+			return null;
+		} catch (IOException e) {
+			logger.warn("Unable to read cache entry {}: {}", file, e.getMessage());
+			invalidate(key);
+			return null;
+		}
+	}
+
+	void put(RenditionKey key, byte[] data) {
+		if (data.length > maxBytes) {
+			return;
+		}
+		Path file = fileOf(key.getId());
+		Path tmp;
+		try {
+			tmp = Files.createTempFile(directory, key.getId(), ".tmp");
+			Files.write(tmp, data);
+		} catch (IOException e) {
+			logger.warn("Unable to write cache entry {}: {}", file, e.getMessage());
+			return;
+		}
+		// Le renommage et l'index sont mis à jour ensemble : une éviction concurrente
+		// ne peut pas supprimer le fichier d'une entrée encore comptée
+		synchronized (this) {
+			try {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				logger.warn("Unable to write cache entry {}: {}", file, e.getMessage());
+				deleteQuietly(tmp);
+				return;
+			}
+			Long previous = index.put(key.getId(), (long) data.length);
+			if (previous != null) {
+				currentBytes -= previous;
+			}
+			currentBytes += data.length;
+			evict();
+		}
+	}
+
+	synchronized void invalidate(RenditionKey key) {
+		Long previous = index.remove(key.getId());
+		if (previous != null) {
+			currentBytes -= previous;
+			deleteQuietly(fileOf(key.getId()));
+		}
+	}
+
+	synchronized void clear() {
+		for (String id : index.keySet()) {
+			deleteQuietly(fileOf(id));
+		}
+		index.clear();
+		currentBytes = 0;
+	}
+
+	synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+
+	synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Supprime les entrées les moins récemment utilisées jusqu'à repasser sous la limite.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while (currentBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			currentBytes -= eldest.getValue();
+			it.remove();
+			deleteQuietly(fileOf(eldest.getKey()));
+		}
+	}
+
+	private Path fileOf(String id) {
+		return directory.resolve(id + SUFFIX);
+	}
+
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static FileTime lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.warn("Unable to delete cache file {}: {}", file, e.getMessage());
+		}
+	}
+}
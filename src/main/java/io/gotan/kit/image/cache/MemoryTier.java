@@ -0,0 +1,67 @@
+package io.gotan.kit.image.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Niveau mémoire du cache : LRU borné en octets.
+ * <p>
+ * Les entrées sont des images déjà encodées. Une entrée plus grande que la
+ * capacité totale n'est jamais retenue.
+ */
+class MemoryTier {
+
+	private final long maxBytes;
+
+	/**
+	 * LinkedHashMap en ordre d'accès : le premier élément est le moins récemment utilisé.
+	 */
+	private final LinkedHashMap<RenditionKey, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+	private long currentBytes;
+
+	MemoryTier(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	synchronized byte[] get(RenditionKey key) {
+		return entries.get(key);
+	}
+
+	synchronized void put(RenditionKey key, byte[] data) {
+		if (data.length > maxBytes) {
+			return;
+		}
+		byte[] previous = entries.put(key, data);
+		if (previous != null) {
+			currentBytes -= previous.length;
+		}
+		currentBytes += data.length;
+		Iterator<Map.Entry<RenditionKey, byte[]>> it = entries.entrySet().iterator();
+		while (currentBytes > maxBytes && it.hasNext()) {
+			currentBytes -= it.next().getValue().length;
+			it.remove();
+		}
+	}
+
+	synchronized void invalidate(RenditionKey key) {
+		byte[] previous = entries.remove(key);
+		if (previous != null) {
+			currentBytes -= previous.length;
+		}
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		currentBytes = 0;
+	}
+
+	synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+}
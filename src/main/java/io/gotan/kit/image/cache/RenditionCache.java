@@ -0,0 +1,196 @@
+package io.gotan.kit.image.cache;
+
+import io.gotan.kit.image.Dimension;
+import io.gotan.kit.image.ImageFormatConverter;
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import io.gotan.kit.image.ImageUtils;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Cache de déclinaisons d'images (conversions et redimensionnements).
+ * <p>
+ * Deux niveaux : un LRU mémoire borné en octets, puis un répertoire disque
+ * optionnel avec son propre index et sa propre limite. Les requêtes
+ * identiques simultanées sont fusionnées : un seul appelant calcule, les
+ * autres attendent son résultat.
+ * <p>
+ * Usage :
+ * <pre>
+ * RenditionCache cache = new RenditionCache(64 &lt;&lt; 20, Path.of("/var/cache/images"), 2L &lt;&lt; 30);
+ * byte[] thumbnail = cache.resize(data, 200, 200, ImageFormat.JPEG);
+ * </pre>
+ */
+public class RenditionCache {
+
+	private final MemoryTier memory;
+
+	/**
+	 * Niveau disque, <code>null</code> si le cache est uniquement en mémoire.
+	 */
+	private final DiskTier disk;
+
+	/**
+	 * Calculs en cours, pour fusionner les requêtes identiques.
+	 */
+	private final SingleFlight<RenditionKey, byte[]> inFlight = new SingleFlight<>();
+
+	/**
+	 * Cache uniquement en mémoire.
+	 *
+	 * @param memoryMaxBytes Taille maximum du niveau mémoire, en octets
+	 */
+	public RenditionCache(long memoryMaxBytes) {
+		this.memory = new MemoryTier(memoryMaxBytes);
+		this.disk = null;
+	}
+
+	/**
+	 * Cache mémoire et disque.
+	 *
+	 * @param memoryMaxBytes Taille maximum du niveau mémoire, en octets
+	 * @param diskDirectory  Répertoire du niveau disque (créé si besoin)
+	 * @param diskMaxBytes   Taille maximum du niveau disque, en octets
+	 * @throws IOException Répertoire inaccessible
+	 */
+	public RenditionCache(long memoryMaxBytes, Path diskDirectory, long diskMaxBytes) throws IOException {
+		this.memory = new MemoryTier(memoryMaxBytes);
+		this.disk = new DiskTier(diskDirectory, diskMaxBytes);
+	}
+
+	/**
+	 * Convertit une image vers un autre format, via le cache.
+	 *
+	 * @param source       Données binaires
+	 * @param outputFormat Format de sortie attendu
+	 * @return La nouvelle image en binaire
+	 * @see ImageFormatConverter#convertImage(byte[], ImageFormat)
+	 */
+	public byte[] convertImage(byte[] source, ImageFormat outputFormat) throws IOException, BadImageFormatException {
+		return getOrCompute(RenditionKey.forConversion(source, outputFormat, null),
+				() -> ImageFormatConverter.convertImage(source, outputFormat));
+	}
+
+	/**
+	 * Convertit une image vers un autre format en remplaçant la transparence, via le cache.
+	 *
+	 * @param source          Données binaires
+	 * @param backgroundColor Couleur d'arrière plan
+	 * @param outputFormat    Format de sortie attendu
+	 * @return La nouvelle image en binaire
+	 */
+	public byte[] convertImage(byte[] source, Color backgroundColor, ImageFormat outputFormat)
+			throws IOException, BadImageFormatException {
+		return getOrCompute(RenditionKey.forConversion(source, outputFormat, backgroundColor), () -> {
+			BufferedImage image = ImageUtils.normalizeImageTransparency(ImageUtils.getImage(source), backgroundColor);
+			return ImageFormatConverter.convertImage(image, outputFormat);
+		});
+	}
+
+	/**
+	 * Redimensionne une image via le cache.
+	 *
+	 * @param source       Données binaires
+	 * @param maxWidth     Largeur maximum
+	 * @param maxHeight    Hauteur maximum
+	 * @param outputFormat Format de sortie attendu
+	 * @return Image redimensionnée, encodée
+	 * @see ImageUtils#resize(byte[], int, int)
+	 */
+	public byte[] resize(byte[] source, int maxWidth, int maxHeight, ImageFormat outputFormat)
+			throws IOException, BadImageFormatException {
+		return getOrCompute(RenditionKey.forResize(source, new Dimension(maxWidth, maxHeight), outputFormat, null),
+				() -> ImageFormatConverter.convertImage(ImageUtils.resize(source, maxWidth, maxHeight), outputFormat));
+	}
+
+	/**
+	 * Récupère une déclinaison, ou la calcule si elle est absente des deux niveaux.
+	 * <p>
+	 * Si le même calcul est déjà en cours dans un autre thread, attend son résultat
+	 * au lieu de le relancer.
+	 * <p>
+	 * Chaque appelant reçoit sa propre copie : la modifier n'altère pas la déclinaison en cache.
+	 *
+	 * @param key      Clé de la déclinaison
+	 * @param renderer Calcul de la déclinaison encodée
+	 * @return Copie de l'image encodée
+	 */
+	public byte[] getOrCompute(RenditionKey key, Renderer renderer) throws IOException, BadImageFormatException {
+		byte[] cached = lookup(key);
+		if (cached != null) {
+			return cached.clone();
+		}
+
+		// Le résultat est partagé entre les threads en attente : chacun en reçoit une copie
+		return inFlight.execute(key, () -> {
+			// Un autre thread a pu terminer entre la recherche et l'enregistrement
+			byte[] data = lookup(key);
+			if (data == null) {
+				data = renderer.render();
+				store(key, data);
+			}
+			return data;
+		}).clone();
+	}
+
+	/**
+	 * Supprime une déclinaison des deux niveaux.
+	 *
+	 * @param key Clé de la déclinaison
+	 */
+	public void invalidate(RenditionKey key) {
+		memory.invalidate(key);
+		if (disk != null) {
+			disk.invalidate(key);
+		}
+	}
+
+	/**
+	 * Vide les deux niveaux.
+	 */
+	public void clear() {
+		memory.clear();
+		if (disk != null) {
+			disk.clear();
+		}
+	}
+
+	public long getMemoryBytes() {
+		return memory.getCurrentBytes();
+	}
+
+	public long getDiskBytes() {
+		return disk != null ? disk.getCurrentBytes() : 0;
+	}
+
+	private byte[] lookup(RenditionKey key) {
+		byte[] data = memory.get(key);
+		if (data == null && disk != null) {
+			data = disk.get(key);
+			if (data != null) {
+				// Promotion vers le niveau mémoire
+				memory.put(key, data);
+			}
+		}
+		return data;
+	}
+
+	private void store(RenditionKey key, byte[] data) {
+		memory.put(key, data);
+		if (disk != null) {
+			disk.put(key, data);
+		}
+	}
+
+	/**
+	 * Calcul d'une déclinaison encodée.
+	 */
+	@FunctionalInterface
+	public interface Renderer {
+		byte[] render() throws IOException, BadImageFormatException;
+	}
+}
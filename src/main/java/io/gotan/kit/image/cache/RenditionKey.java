@@ -0,0 +1,110 @@
+package io.gotan.kit.image.cache;
+
+import io.gotan.kit.image.Dimension;
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+
+import java.awt.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Clé adressée par contenu d'une déclinaison d'image.
+ * <p>
+ * La clé est le SHA-256 des octets source suivis des paramètres de l'opération
+ * (dimension cible, format de sortie, couleur de fond). Deux requêtes portant
+ * sur le même contenu et les mêmes paramètres partagent donc la même entrée,
+ * quel que soit le nom du fichier d'origine.
+ */
+public final class RenditionKey {
+
+	/**
+	 * Empreinte hexadécimale, utilisée aussi comme nom de fichier sur disque.
+	 */
+	private final String id;
+
+	private RenditionKey(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * Clé pour une conversion de format.
+	 *
+	 * @param source          Données binaires de l'image source
+	 * @param outputFormat    Format de sortie
+	 * @param backgroundColor Couleur d'arrière plan, <code>null</code> pour conserver la transparence
+	 * @return clé
+	 */
+	public static RenditionKey forConversion(byte[] source, ImageFormat outputFormat, Color backgroundColor) {
+		return of(source, "convert", null, outputFormat, backgroundColor);
+	}
+
+	/**
+	 * Clé pour un redimensionnement.
+	 *
+	 * @param source          Données binaires de l'image source
+	 * @param maxSize         Dimension maximum demandée
+	 * @param outputFormat    Format de sortie
+	 * @param backgroundColor Couleur d'arrière plan, <code>null</code> pour conserver la transparence
+	 * @return clé
+	 */
+	public static RenditionKey forResize(byte[] source, Dimension maxSize, ImageFormat outputFormat, Color backgroundColor) {
+		return of(source, "resize", maxSize, outputFormat, backgroundColor);
+	}
+
+	/**
+	 * Clé générique.
+	 *
+	 * @param source          Données binaires de l'image source
+	 * @param operation       Nom de l'opération (ex: "resize")
+	 * @param size            Dimension cible, éventuellement <code>null</code>
+	 * @param outputFormat    Format de sortie
+	 * @param backgroundColor Couleur d'arrière plan, éventuellement <code>null</code>
+	 * @return clé
+	 */
+	public static RenditionKey of(byte[] source, String operation, Dimension size, ImageFormat outputFormat,
+								  Color backgroundColor) {
+		MessageDigest digest = sha256();
+		digest.update(source);
+		StringBuilder params = new StringBuilder();
+		params.append('|').append(operation);
+		if (size != null) {
+			params.append('|').append(size.getWidth()).append('x').append(size.getHeight());
+		}
+		params.append('|').append(outputFormat.name());
+		if (backgroundColor != null) {
+			params.append('|').append(Integer.toHexString(backgroundColor.getRGB()));
+		}
+		digest.update(params.toString().getBytes(StandardCharsets.UTF_8));
+		return new RenditionKey(HexFormat.of().formatHex(digest.digest()));
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Algorithme obligatoire sur toute JVM
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof RenditionKey other && id.equals(other.id);
+	}
+
+	@Override
+	public int hashCode() {
+		return id.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "RenditionKey{" + id + '}';
+	}
+}
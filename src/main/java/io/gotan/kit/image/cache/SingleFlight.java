@@ -0,0 +1,214 @@
+package io.gotan.kit.image.cache;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fusion des calculs identiques simultanés (« single flight »).
+ * <p>
+ * Le premier appelant d'une clé exécute le calcul ; les appelants suivants,
+ * tant qu'il est en cours, attendent son résultat au lieu de le relancer. Pendant
+ * un pic de trafic, N requêtes identiques coûtent donc un seul décodage et un
+ * seul encodage. Une erreur est transmise à tous les appelants en attente.
+ * <p>
+ * Avec une durée de rétention, un résultat réussi reste partagé pendant cette
+ * durée après la fin du calcul : les requêtes qui arrivent juste après en
+ * profitent aussi. La rétention est pensée pour être courte (quelques secondes),
+ * sans limite de taille : pour un cache durable, voir {@link RenditionCache}.
+ * <p>
+ * Usage :
+ * <pre>
+ * SingleFlight&lt;RenditionKey, byte[]&gt; flights = new SingleFlight&lt;&gt;(Duration.ofSeconds(2));
+ * byte[] thumbnail = flights.execute(RenditionKey.forResize(data, new Dimension(200, 200), ImageFormat.JPEG, null),
+ *         () -&gt; ImageFormatConverter.convertImage(ImageUtils.resize(data, 200, 200), ImageFormat.JPEG));
+ * </pre>
+ *
+ * @param <K> Clé du calcul : identité de la source et paramètres de l'opération
+ * @param <V> Résultat
+ */
+public class SingleFlight<K, V> {
+
+	/**
+	 * Private Log4J Logger.
+	 */
+	private static final Logger logger = LogManager.getLogger(SingleFlight.class);
+
+	private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+	/**
+	 * Durée de rétention des résultats, en nanosecondes (0 : aucune).
+	 */
+	private final long ttl;
+
+	/**
+	 * Prochaine purge des résultats expirés, en <code>System.nanoTime()</code>.
+	 */
+	private volatile long nextPurge;
+
+	private final LongAdder computations = new LongAdder();
+
+	private final LongAdder shared = new LongAdder();
+
+	/**
+	 * Fusion des seuls calculs en cours, sans rétention.
+	 */
+	public SingleFlight() {
+		this(Duration.ZERO);
+	}
+
+	/**
+	 * @param ttl Durée de rétention d'un résultat réussi après la fin de son calcul
+	 */
+	public SingleFlight(Duration ttl) {
+		if (ttl.isNegative()) {
+			throw new IllegalArgumentException("Negative ttl: " + ttl);
+		}
+		this.ttl = ttl.toNanos();
+		this.nextPurge = System.nanoTime() + this.ttl;
+	}
+
+	/**
+	 * Exécute le calcul, ou attend le résultat du même calcul en cours ou retenu.
+	 *
+	 * @param key  Clé du calcul
+	 * @param call Calcul, exécuté dans le thread appelant s'il n'est pas déjà en cours
+	 * @return Résultat
+	 */
+	public V execute(K key, Call<V> call) throws IOException, BadImageFormatException {
+		while (true) {
+			Flight<V> flight = flights.get(key);
+			if (flight != null) {
+				if (flight.isExpired(System.nanoTime())) {
+					flights.remove(key, flight);
+					continue;
+				}
+				shared.increment();
+				return await(flight.future);
+			}
+			Flight<V> ours = new Flight<>();
+			if (flights.putIfAbsent(key, ours) == null) {
+				return compute(key, ours, call);
+			}
+		}
+	}
+
+	private V compute(K key, Flight<V> ours, Call<V> call) throws IOException, BadImageFormatException {
+		computations.increment();
+		purgeExpired();
+		boolean retained = false;
+		try {
+			V result = call.call();
+			if (ttl > 0) {
+				ours.expiresAt = System.nanoTime() + ttl;
+				retained = true;
+			}
+			ours.future.complete(result);
+			return result;
+		} catch (IOException | BadImageFormatException | RuntimeException | Error e) {
+			ours.future.completeExceptionally(e);
+			throw e;
+		} finally {
+			if (!retained) {
+				flights.remove(key, ours);
+			}
+		}
+	}
+
+	/**
+	 * Supprime les résultats retenus expirés, au plus une fois par durée de rétention.
+	 */
+	private void purgeExpired() {
+		long now = System.nanoTime();
+		if (ttl == 0 || now - nextPurge < 0) {
+			return;
+		}
+		nextPurge = now + ttl;
+		flights.values().removeIf(flight -> flight.isExpired(now));
+	}
+
+	/**
+	 * Oublie le calcul retenu pour une clé (un calcul en cours n'est pas interrompu).
+	 *
+	 * @param key Clé du calcul
+	 */
+	public void invalidate(K key) {
+		Flight<V> flight = flights.get(key);
+		if (flight != null && flight.future.isDone()) {
+			flights.remove(key, flight);
+		}
+	}
+
+	/**
+	 * @return Nombre de calculs en cours ou retenus
+	 */
+	public int size() {
+		return flights.size();
+	}
+
+	/**
+	 * @return Nombre de calculs effectivement exécutés
+	 */
+	public long getComputations() {
+		return computations.sum();
+	}
+
+	/**
+	 * @return Nombre d'appels servis par un calcul en cours ou retenu
+	 */
+	public long getShared() {
+		return shared.sum();
+	}
+
+	private static <V> V await(CompletableFuture<V> future) throws IOException, BadImageFormatException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException ioException) {
+				throw ioException;
+			}
+			if (cause instanceof BadImageFormatException badFormat) {
+				throw badFormat;
+			}
+			if (cause instanceof RuntimeException runtime) {
+				throw runtime;
+			}
+			if (cause instanceof Error error) {
+				throw error;
+			}
+			logger.warn("Unexpected shared computation failure: {}", String.valueOf(cause));
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Calcul partagé.
+	 */
+	@FunctionalInterface
+	public interface Call<V> {
+		V call() throws IOException, BadImageFormatException;
+	}
+
+	/**
+	 * Calcul en cours ou terminé.
+	 */
+	private static final class Flight<V> {
+		private final CompletableFuture<V> future = new CompletableFuture<>();
+		/**
+		 * Fin de rétention, renseignée avant la fin du calcul s'il est retenu.
+		 */
+		private volatile long expiresAt;
+
+		boolean isExpired(long now) {
+			return future.isDone() && now - expiresAt >= 0;
+		}
+	}
+}
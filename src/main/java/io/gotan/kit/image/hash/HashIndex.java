@@ -0,0 +1,253 @@
+package io.gotan.kit.image.hash;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index d'empreintes 64 bits pour la recherche par distance de Hamming.
+ * <p>
+ * Indexation multiple (« multi-index hashing ») : l'empreinte est découpée en
+ * 4 blocs de 16 bits, chacun indexé dans sa propre table. Deux empreintes à
+ * distance <code>d</code> ont forcément un bloc à distance au plus <code>d / 4</code>
+ * (principe des tiroirs) : une recherche n'examine que les entrées des blocs voisins
+ * de ceux de l'empreinte cherchée, au lieu de parcourir tout l'index. À partir de
+ * 12 bits de distance, l'index est parcouru séquentiellement (plus rapide que
+ * la visite d'un grand nombre de blocs voisins).
+ * <p>
+ * Les empreintes sont stockées dans un <code>long[]</code> ; une entrée est désignée
+ * par sa position d'ajout. Coût mémoire : 24 octets par empreinte.
+ * Les recherches peuvent être concurrentes, les ajouts sont exclusifs.
+ * @see PerceptualHash
+ */
+public class HashIndex {
+
+	private static final int CHUNKS = 4;
+
+	private static final int CHUNK_BITS = 16;
+
+	private static final int BUCKETS = 1 << CHUNK_BITS;
+
+	/**
+	 * Parcours séquentiel dès que la recherche visite plus de 1/32 des entrées
+	 * (une entrée visitée via l'index coûte bien plus cher qu'une comparaison directe).
+	 */
+	private static final int SCAN_RATIO = 32;
+
+	/**
+	 * Nombre de voisins d'un bloc à distance au plus r : somme des C(16, k), k ≤ r.
+	 */
+	private static final int[] NEIGHBOURS = new int[CHUNK_BITS + 1];
+
+	static {
+		int binomial = 1;
+		int total = 0;
+		for (int k = 0; k <= CHUNK_BITS; k++) {
+			total += binomial;
+			NEIGHBOURS[k] = total;
+			binomial = binomial * (CHUNK_BITS - k) / (k + 1);
+		}
+	}
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private long[] hashes;
+
+	private int size;
+
+	/**
+	 * Positions des empreintes, par bloc puis par valeur du bloc.
+	 */
+	private final int[][] postings = new int[CHUNKS * BUCKETS][];
+
+	private final int[] postingSizes = new int[CHUNKS * BUCKETS];
+
+	public HashIndex() {
+		this.hashes = new long[1024];
+	}
+
+	/**
+	 * Index pré-rempli.
+	 *
+	 * @param hashes Empreintes, indexées selon leur position dans le tableau
+	 */
+	public HashIndex(long[] hashes) {
+		this.hashes = new long[Math.max(1024, hashes.length)];
+		for (long hash : hashes) {
+			addInternal(hash);
+		}
+	}
+
+	/**
+	 * Ajoute une empreinte.
+	 *
+	 * @param hash Empreinte
+	 * @return Position de l'empreinte dans l'index
+	 */
+	public int add(long hash) {
+		lock.writeLock().lock();
+		try {
+			return addInternal(hash);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Ajoute une empreinte, sous verrou d'écriture ou avant publication de l'index.
+	 */
+	private int addInternal(long hash) {
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+		int id = size++;
+		hashes[id] = hash;
+		for (int chunk = 0; chunk < CHUNKS; chunk++) {
+			int bucket = chunk * BUCKETS + chunk(hash, chunk);
+			int[] list = postings[bucket];
+			int count = postingSizes[bucket];
+			if (list == null) {
+				list = postings[bucket] = new int[2];
+			} else if (count == list.length) {
+				list = postings[bucket] = Arrays.copyOf(list, count * 2);
+			}
+			list[count] = id;
+			postingSizes[bucket] = count + 1;
+		}
+		return id;
+	}
+
+	/**
+	 * @param id Position d'une empreinte
+	 * @return Empreinte
+	 */
+	public long get(int id) {
+		lock.readLock().lock();
+		try {
+			if (id < 0 || id >= size) {
+				throw new IndexOutOfBoundsException(id);
+			}
+			return hashes[id];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Recherche les empreintes proches.
+	 *
+	 * @param hash        Empreinte cherchée
+	 * @param maxDistance Distance de Hamming maximum (incluse)
+	 * @return Positions des empreintes trouvées, de la plus proche à la plus lointaine
+	 */
+	public int[] search(long hash, int maxDistance) {
+		if (maxDistance < 0) {
+			return new int[0];
+		}
+		lock.readLock().lock();
+		try {
+			Matches matches = new Matches();
+			int radius = Math.min(maxDistance / CHUNKS, CHUNK_BITS);
+			if ((long) NEIGHBOURS[radius] * CHUNKS * SCAN_RATIO >= BUCKETS || size < BUCKETS / SCAN_RATIO) {
+				for (int id = 0; id < size; id++) {
+					matches.offer(id, Long.bitCount(hashes[id] ^ hash), maxDistance);
+				}
+			} else {
+				for (int chunk = 0; chunk < CHUNKS; chunk++) {
+					probe(hash, chunk, chunk(hash, chunk), 0, radius, radius, maxDistance, matches);
+				}
+			}
+			return matches.sorted();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Recherche l'empreinte la plus proche.
+	 *
+	 * @param hash        Empreinte cherchée
+	 * @param maxDistance Distance de Hamming maximum (incluse)
+	 * @return Position de l'empreinte la plus proche, -1 si aucune n'est assez proche
+	 */
+	public int nearest(long hash, int maxDistance) {
+		int[] found = search(hash, maxDistance);
+		return found.length == 0 ? -1 : found[0];
+	}
+
+	/**
+	 * Parcourt les valeurs de bloc à distance au plus <code>remaining</code> de <code>value</code>,
+	 * en inversant les bits de rang supérieur ou égal à <code>fromBit</code>.
+	 */
+	private void probe(long hash, int chunk, int value, int fromBit, int remaining, int radius, int maxDistance,
+					   Matches matches) {
+		int bucket = chunk * BUCKETS + value;
+		int[] list = postings[bucket];
+		for (int i = 0, count = postingSizes[bucket]; i < count; i++) {
+			int id = list[i];
+			long candidate = hashes[id];
+			if (foundInEarlierChunk(candidate, hash, chunk, radius)) {
+				continue;
+			}
+			matches.offer(id, Long.bitCount(candidate ^ hash), maxDistance);
+		}
+		if (remaining == 0) {
+			return;
+		}
+		for (int bit = fromBit; bit < CHUNK_BITS; bit++) {
+			probe(hash, chunk, value ^ (1 << bit), bit + 1, remaining - 1, radius, maxDistance, matches);
+		}
+	}
+
+	/**
+	 * Une entrée proche sur plusieurs blocs n'est retenue qu'au premier d'entre eux.
+	 */
+	private static boolean foundInEarlierChunk(long candidate, long hash, int chunk, int radius) {
+		for (int previous = 0; previous < chunk; previous++) {
+			if (Integer.bitCount(chunk(candidate, previous) ^ chunk(hash, previous)) <= radius) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int chunk(long hash, int chunk) {
+		return (int) (hash >>> (chunk * CHUNK_BITS)) & (BUCKETS - 1);
+	}
+
+	/**
+	 * Résultats d'une recherche : (distance, position) codés dans un <code>long</code> pour le tri.
+	 */
+	private static final class Matches {
+		private long[] keys = new long[16];
+		private int count;
+
+		void offer(int id, int distance, int maxDistance) {
+			if (distance > maxDistance) {
+				return;
+			}
+			if (count == keys.length) {
+				keys = Arrays.copyOf(keys, count * 2);
+			}
+			keys[count++] = (long) distance << 32 | id;
+		}
+
+		int[] sorted() {
+			Arrays.sort(keys, 0, count);
+			int[] ids = new int[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = (int) keys[i];
+			}
+			return ids;
+		}
+	}
+}
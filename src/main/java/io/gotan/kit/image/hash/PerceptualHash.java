@@ -0,0 +1,257 @@
+package io.gotan.kit.image.hash;
+
+import io.gotan.kit.image.ImageFormatConverter.BadImageFormatException;
+import io.gotan.kit.image.ImagePipeline;
+import io.gotan.kit.image.Resampler;
+import io.gotan.kit.image.ResizeMode;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Empreintes perceptuelles 64 bits, pour détecter les images quasi identiques
+ * (même image réencodée, redimensionnée, légèrement retouchée).
+ * <p>
+ * Deux images proches ont des empreintes à faible distance de Hamming
+ * ({@link #distance(long, long)}) : en pratique moins de 10 bits pour un doublon.
+ * Les images encodées sont décodées directement à basse résolution
+ * (sous-échantillonnage du décodeur, voir {@link ImagePipeline}) ; la transparence
+ * est composée sur du blanc.
+ * <p>
+ * Usage :
+ * <pre>
+ * long hash = PerceptualHash.hash(data, PerceptualHash.Algorithm.PERCEPTUAL);
+ * int[] duplicates = index.search(hash, 8);
+ * </pre>
+ * @see HashIndex
+ */
+public final class PerceptualHash {
+
+	/**
+	 * Côté de l'image réduite pour le pHash.
+	 */
+	private static final int DCT_SIZE = 32;
+
+	/**
+	 * Côté du bloc de basses fréquences conservé.
+	 */
+	private static final int HASH_SIZE = 8;
+
+	/**
+	 * Table de la DCT-II : <code>DCT[u * DCT_SIZE + x] = cos((2x + 1) u π / 2N)</code>,
+	 * pour les seules fréquences conservées.
+	 */
+	private static final double[] DCT = new double[HASH_SIZE * DCT_SIZE];
+
+	static {
+		for (int u = 0; u < HASH_SIZE; u++) {
+			for (int x = 0; x < DCT_SIZE; x++) {
+				DCT[u * DCT_SIZE + x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * DCT_SIZE));
+			}
+		}
+	}
+
+	/**
+	 * Avoid instantiation
+	 */
+	private PerceptualHash() {
+	}
+
+	/**
+	 * Calcule l'empreinte d'une image décodée.
+	 *
+	 * @param image     Image
+	 * @param algorithm Algorithme
+	 * @return Empreinte 64 bits
+	 */
+	public static long hash(BufferedImage image, Algorithm algorithm) {
+		BufferedImage reduced = Resampler.resize(image, algorithm.width, algorithm.height,
+				Resampler.Filter.BILINEAR, false, Color.WHITE);
+		return algorithm.compute(luma(reduced));
+	}
+
+	/**
+	 * Calcule l'empreinte d'une image encodée.
+	 *
+	 * @param data      Image encodée
+	 * @param algorithm Algorithme
+	 * @return Empreinte 64 bits
+	 * @throws BadImageFormatException Image illisible
+	 */
+	public static long hash(byte[] data, Algorithm algorithm) throws IOException, BadImageFormatException {
+		return hash(ImagePipeline.from(data), algorithm);
+	}
+
+	/**
+	 * Calcule l'empreinte d'un fichier image.
+	 *
+	 * @param file      Fichier image
+	 * @param algorithm Algorithme
+	 * @return Empreinte 64 bits
+	 * @throws BadImageFormatException Image illisible
+	 */
+	public static long hash(File file, Algorithm algorithm) throws IOException, BadImageFormatException {
+		return hash(ImagePipeline.from(file), algorithm);
+	}
+
+	/**
+	 * Calcule l'empreinte d'une image lue dans un flux.
+	 *
+	 * @param input     Flux de l'image encodée (non fermé)
+	 * @param algorithm Algorithme
+	 * @return Empreinte 64 bits
+	 * @throws BadImageFormatException Image illisible
+	 */
+	public static long hash(InputStream input, Algorithm algorithm) throws IOException, BadImageFormatException {
+		return hash(ImagePipeline.from(input), algorithm);
+	}
+
+	private static long hash(ImagePipeline pipeline, Algorithm algorithm) throws IOException, BadImageFormatException {
+		BufferedImage reduced = pipeline
+				.resize(algorithm.width, algorithm.height, ResizeMode.FILL)
+				.filter(Resampler.Filter.BILINEAR)
+				.flatten(Color.WHITE)
+				.toImage();
+		return algorithm.compute(luma(reduced));
+	}
+
+	/**
+	 * Distance de Hamming entre deux empreintes.
+	 *
+	 * @return Nombre de bits différents (0 à 64)
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/**
+	 * Luminance (Rec. 601) de chaque pixel, ligne par ligne.
+	 */
+	private static int[] luma(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+		for (int i = 0; i < argb.length; i++) {
+			int p = argb[i];
+			argb[i] = (((p >>> 16) & 0xFF) * 299 + ((p >>> 8) & 0xFF) * 587 + (p & 0xFF) * 114 + 500) / 1000;
+		}
+		return argb;
+	}
+
+	/**
+	 * aHash : un bit par pixel d'une vignette 8x8, à 1 si plus clair que la moyenne.
+	 */
+	private static long averageHash(int[] luma) {
+		int sum = 0;
+		for (int value : luma) {
+			sum += value;
+		}
+		long hash = 0;
+		for (int value : luma) {
+			hash = hash << 1 | (value * luma.length > sum ? 1 : 0);
+		}
+		return hash;
+	}
+
+	/**
+	 * dHash : vignette 9x8, un bit par paire de pixels voisins, à 1 si la luminance croît.
+	 */
+	private static long differenceHash(int[] luma) {
+		long hash = 0;
+		for (int y = 0; y < HASH_SIZE; y++) {
+			for (int x = 0; x < HASH_SIZE; x++) {
+				int i = y * (HASH_SIZE + 1) + x;
+				hash = hash << 1 | (luma[i] < luma[i + 1] ? 1 : 0);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * pHash : DCT de la vignette 32x32, bloc 8x8 des basses fréquences comparé à sa médiane
+	 * (composante continue exclue du calcul de la médiane).
+	 */
+	private static long perceptualHash(int[] luma) {
+		// DCT séparable, limitée aux 8 premières fréquences : lignes puis colonnes
+		double[] rows = new double[DCT_SIZE * HASH_SIZE];
+		for (int y = 0; y < DCT_SIZE; y++) {
+			for (int u = 0; u < HASH_SIZE; u++) {
+				double sum = 0;
+				for (int x = 0; x < DCT_SIZE; x++) {
+					sum += luma[y * DCT_SIZE + x] * DCT[u * DCT_SIZE + x];
+				}
+				rows[y * HASH_SIZE + u] = sum;
+			}
+		}
+		double[] coefficients = new double[HASH_SIZE * HASH_SIZE];
+		for (int v = 0; v < HASH_SIZE; v++) {
+			for (int u = 0; u < HASH_SIZE; u++) {
+				double sum = 0;
+				for (int y = 0; y < DCT_SIZE; y++) {
+					sum += rows[y * HASH_SIZE + u] * DCT[v * DCT_SIZE + y];
+				}
+				coefficients[v * HASH_SIZE + u] = sum;
+			}
+		}
+
+		double[] sorted = new double[coefficients.length - 1];
+		System.arraycopy(coefficients, 1, sorted, 0, sorted.length);
+		Arrays.sort(sorted);
+		double median = (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+		long hash = 0;
+		for (double coefficient : coefficients) {
+			hash = hash << 1 | (coefficient > median ? 1 : 0);
+		}
+		return hash;
+	}
+
+	/**
+	 * Algorithmes d'empreinte.
+	 */
+	public enum Algorithm {
+		/**
+		 * Moyenne : le plus rapide, sensible aux changements de contraste et de gamma.
+		 */
+		AVERAGE(HASH_SIZE, HASH_SIZE) {
+			@Override
+			long compute(int[] luma) {
+				return averageHash(luma);
+			}
+		},
+		/**
+		 * Gradient horizontal : rapide, robuste aux variations de luminosité.
+		 */
+		DIFFERENCE(HASH_SIZE + 1, HASH_SIZE) {
+			@Override
+			long compute(int[] luma) {
+				return differenceHash(luma);
+			}
+		},
+		/**
+		 * Basses fréquences de la DCT : le plus robuste (compression, retouches légères).
+		 */
+		PERCEPTUAL(DCT_SIZE, DCT_SIZE) {
+			@Override
+			long compute(int[] luma) {
+				return perceptualHash(luma);
+			}
+		};
+
+		/**
+		 * Dimensions de la vignette analysée.
+		 */
+		private final int width;
+		private final int height;
+
+		Algorithm(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+
+		abstract long compute(int[] luma);
+	}
+}
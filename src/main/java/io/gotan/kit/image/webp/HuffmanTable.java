@@ -0,0 +1,164 @@
+package io.gotan.kit.image.webp;
+
+import java.util.Arrays;
+
+/**
+ * Construction des tables de décodage de Huffman canoniques VP8L.
+ * <p>
+ * Table racine de {@link #ROOT_BITS} bits, suivie de sous-tables pour les codes plus
+ * longs. Chaque entrée est un <code>int</code> : longueur sur les 16 bits de poids fort,
+ * symbole (ou décalage de la sous-table, pour la racine) sur les 16 bits de poids faible.
+ * Les codes sont lus poids faibles en premier : les clés sont donc construites
+ * bit-inversées.
+ */
+final class HuffmanTable {
+
+	static final int ROOT_BITS = 8;
+
+	static final int ROOT_MASK = (1 << ROOT_BITS) - 1;
+
+	/**
+	 * Longueur maximum d'un code VP8L.
+	 */
+	static final int MAX_LENGTH = 15;
+
+	/**
+	 * Taille suffisante pour toute table construite (alphabet de 2328 symboles au plus).
+	 */
+	static final int SCRATCH_SIZE = 1 << 16;
+
+	/**
+	 * Avoid instantiation
+	 */
+	private HuffmanTable() {
+	}
+
+	/**
+	 * Construit une table de décodage.
+	 *
+	 * @param lengths Longueur du code de chaque symbole, 0 pour un symbole absent
+	 * @param size    Taille de l'alphabet
+	 * @param scratch Tableau de travail de {@link #SCRATCH_SIZE} entrées
+	 * @return Table, ou <code>null</code> si les longueurs ne forment pas un code complet
+	 */
+	static int[] build(int[] lengths, int size, int[] scratch) {
+		int[] count = new int[MAX_LENGTH + 1];
+		for (int i = 0; i < size; i++) {
+			if (lengths[i] > MAX_LENGTH) {
+				return null;
+			}
+			count[lengths[i]]++;
+		}
+		int[] offset = new int[MAX_LENGTH + 2];
+		offset[1] = 0;
+		for (int len = 1; len <= MAX_LENGTH; len++) {
+			offset[len + 1] = offset[len] + count[len];
+		}
+		int used = offset[MAX_LENGTH + 1];
+		int[] sorted = new int[Math.max(1, used)];
+		for (int symbol = 0; symbol < size; symbol++) {
+			int len = lengths[symbol];
+			if (len > 0) {
+				sorted[offset[len]++] = symbol;
+			}
+		}
+		int rootSize = 1 << ROOT_BITS;
+
+		if (used <= 1) {
+			// Un seul symbole : il est décodé sans lire de bit
+			int[] table = new int[rootSize];
+			Arrays.fill(table, used == 1 ? sorted[0] : 0);
+			return used == 1 ? table : null;
+		}
+
+		int key = 0;
+		int numNodes = 1;
+		int numOpen = 1;
+		int symbol = 0;
+		int step = 2;
+		for (int len = 1; len <= ROOT_BITS; len++, step <<= 1) {
+			numOpen <<= 1;
+			numNodes += numOpen;
+			numOpen -= count[len];
+			if (numOpen < 0) {
+				return null;
+			}
+			for (; count[len] > 0; count[len]--) {
+				replicate(scratch, key, step, rootSize, (len << 16) | sorted[symbol++]);
+				key = nextKey(key, len);
+			}
+		}
+
+		int tableStart = 0;
+		int tableSize = rootSize;
+		int totalSize = rootSize;
+		int mask = rootSize - 1;
+		int low = -1;
+		step = 2;
+		for (int len = ROOT_BITS + 1; len <= MAX_LENGTH; len++, step <<= 1) {
+			numOpen <<= 1;
+			numNodes += numOpen;
+			numOpen -= count[len];
+			if (numOpen < 0) {
+				return null;
+			}
+			for (; count[len] > 0; count[len]--) {
+				if ((key & mask) != low) {
+					tableStart += tableSize;
+					int tableBits = nextTableBits(count, len);
+					tableSize = 1 << tableBits;
+					totalSize += tableSize;
+					if (totalSize > scratch.length) {
+						return null;
+					}
+					low = key & mask;
+					scratch[low] = ((tableBits + ROOT_BITS) << 16) | (tableStart - low);
+				}
+				replicate(scratch, tableStart + (key >>> ROOT_BITS), step, tableSize,
+						((len - ROOT_BITS) << 16) | sorted[symbol++]);
+				key = nextKey(key, len);
+			}
+		}
+		if (numNodes != 2 * used - 1) {
+			return null;
+		}
+		return Arrays.copyOf(scratch, totalSize);
+	}
+
+	/**
+	 * Remplit les entrées <code>key</code>, <code>key + step</code>... d'une table de taille <code>end</code>.
+	 */
+	private static void replicate(int[] table, int key, int step, int end, int entry) {
+		do {
+			end -= step;
+			table[key + end] = entry;
+		} while (end > 0);
+	}
+
+	/**
+	 * Clé suivante en ordre bit-inversé, pour un code de <code>len</code> bits.
+	 */
+	private static int nextKey(int key, int len) {
+		int step = 1 << (len - 1);
+		while ((key & step) != 0) {
+			step >>= 1;
+		}
+		return step != 0 ? (key & (step - 1)) + step : key;
+	}
+
+	/**
+	 * Taille de la sous-table nécessaire pour les codes restants à partir de <code>len</code>.
+	 */
+	private static int nextTableBits(int[] count, int len) {
+		int left = 1 << (len - ROOT_BITS);
+		while (len < MAX_LENGTH) {
+			left -= count[len];
+			if (left <= 0) {
+				break;
+			}
+			len++;
+			left <<= 1;
+		}
+		return len - ROOT_BITS;
+	}
+}
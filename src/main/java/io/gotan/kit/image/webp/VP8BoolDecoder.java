@@ -0,0 +1,86 @@
+package io.gotan.kit.image.webp;
+
+/**
+ * Décodeur arithmétique booléen VP8 (RFC 6386, section 7).
+ * <p>
+ * L'intervalle est conservé moins un (comme libwebp) et les octets sont chargés
+ * par paquets de 6 dans un accumulateur 64 bits. Au-delà de la fin de la partition,
+ * le flux est complété par des zéros.
+ */
+final class VP8BoolDecoder {
+
+	private final byte[] data;
+	private final int end;
+	private int position;
+	private long value;
+	/**
+	 * Nombre de bits disponibles sous la fenêtre de 8 bits en cours, négatif s'il faut recharger.
+	 */
+	private int bits = -8;
+	private int range = 255 - 1;
+
+	VP8BoolDecoder(byte[] data, int offset, int length) {
+		this.data = data;
+		this.position = offset;
+		this.end = Math.min(data.length, offset + length);
+	}
+
+	private void load() {
+		for (int i = 0; i < 6; i++) {
+			value = (value << 8) | (position < end ? data[position++] & 0xFF : 0);
+			bits += 8;
+		}
+	}
+
+	/**
+	 * Lit un bit valant 0 avec la probabilité <code>prob / 256</code>.
+	 */
+	int readBit(int prob) {
+		int r = range;
+		if (bits < 0) {
+			load();
+		}
+		int pos = bits;
+		int split = (r * prob) >>> 8;
+		int bit;
+		if ((int) (value >>> pos) > split) {
+			r -= split;
+			value -= (long) (split + 1) << pos;
+			bit = 1;
+		} else {
+			r = split + 1;
+			bit = 0;
+		}
+		int shift = 7 ^ (31 - Integer.numberOfLeadingZeros(r));
+		r <<= shift;
+		bits -= shift;
+		range = r - 1;
+		return bit;
+	}
+
+	/**
+	 * Lit un entier non signé de <code>n</code> bits, poids forts en premier.
+	 */
+	int readValue(int n) {
+		int v = 0;
+		while (n-- > 0) {
+			v |= readBit(0x80) << n;
+		}
+		return v;
+	}
+
+	/**
+	 * Lit un entier de <code>n</code> bits suivi de son signe.
+	 */
+	int readSignedValue(int n) {
+		int v = readValue(n);
+		return readBit(0x80) == 1 ? -v : v;
+	}
+
+	/**
+	 * Lit un drapeau (bit de probabilité 1/2).
+	 */
+	boolean readFlag() {
+		return readBit(0x80) == 1;
+	}
+}
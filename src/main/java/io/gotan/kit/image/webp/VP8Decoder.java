@@ -0,0 +1,1344 @@
+package io.gotan.kit.image.webp;
+
+import javax.imageio.IIOException;
+import java.util.Arrays;
+
+/**
+ * Décodeur WebP avec perte (images clés VP8, RFC 6386).
+ * <p>
+ * Les macroblocs sont reconstruits dans un tampon de travail bordé (prédiction
+ * intra), puis copiés dans des plans Y, U, V alignés sur 16 pixels. Chaque ligne de
+ * macroblocs est filtrée dès qu'elle est reconstruite : la prédiction utilise les
+ * échantillons non filtrés, conservés à part. La conversion en ARGB utilise le
+ * suréchantillonnage « fancy » de la chrominance de libwebp : les pixels produits
+ * sont identiques à ceux de <code>WebPDecodeRGBA</code>.
+ * <p>
+ * Tous les tableaux sont alloués une fois par image, aucune allocation dans les boucles.
+ */
+final class VP8Decoder {
+
+	/**
+	 * Largeur d'une ligne du tampon de travail.
+	 */
+	private static final int BPS = 32;
+
+	private static final int Y_OFF = BPS + 8;
+
+	private static final int U_OFF = Y_OFF + BPS * 16 + BPS;
+
+	private static final int V_OFF = U_OFF + 16;
+
+	private static final int DC_PRED = 0;
+
+	private static final int TM_PRED = 1;
+
+	private static final int V_PRED = 2;
+
+	private static final int H_PRED = 3;
+
+	private static final int DC_PRED_NOTOP = 10;
+
+	private static final int DC_PRED_NOLEFT = 11;
+
+	private static final int DC_PRED_NOTOPLEFT = 12;
+
+	private static final int NUM_SEGMENTS = 4;
+
+	/**
+	 * Arbre des modes de prédiction 4x4 (feuilles négatives ou nulles).
+	 */
+	private static final int[] YMODES_INTRA4 = {
+			-0, 1,
+			-1, 2,
+			-2, 3,
+			4, 6,
+			-3, 5,
+			-4, -5,
+			-6, 7,
+			-7, 8,
+			-8, -9
+	};
+
+	/**
+	 * Position des blocs 4x4 de luminance dans le tampon de travail.
+	 */
+	private static final int[] SCAN = new int[16];
+
+	private static final int[] CLIP1 = new int[255 + 511 + 1];
+
+	private static final int[] SCLIP1 = new int[1020 + 1020 + 1];
+
+	private static final int[] SCLIP2 = new int[112 + 112 + 1];
+
+	static {
+		for (int n = 0; n < 16; n++) {
+			SCAN[n] = (n & 3) * 4 + (n >> 2) * 4 * BPS;
+		}
+		for (int i = -255; i <= 511; i++) {
+			CLIP1[i + 255] = i < 0 ? 0 : Math.min(i, 255);
+		}
+		for (int i = -1020; i <= 1020; i++) {
+			SCLIP1[i + 1020] = i < -128 ? -128 : Math.min(i, 127);
+		}
+		for (int i = -112; i <= 112; i++) {
+			SCLIP2[i + 112] = i < -16 ? -16 : Math.min(i, 15);
+		}
+	}
+
+	private final byte[] data;
+	private final int offset;
+	private final int length;
+	private final int width;
+	private final int height;
+	private final int firstPartitionSize;
+
+	// En-têtes
+	private boolean useSegment;
+	private boolean updateMap;
+	private boolean absoluteDelta;
+	private final int[] segmentQuantizer = new int[NUM_SEGMENTS];
+	private final int[] segmentFilterStrength = new int[NUM_SEGMENTS];
+	private final int[] segmentProba = {255, 255, 255};
+	private boolean simpleFilter;
+	private int filterLevel;
+	private int sharpness;
+	private boolean useLfDelta;
+	private final int[] refLfDelta = new int[4];
+	private final int[] modeLfDelta = new int[4];
+	private int filterType;
+	private boolean useSkipProba;
+	private int skipProba;
+
+	/**
+	 * Probabilités des coefficients, indexées par [type][position 0..16] → début de [ctx][11] dans <code>proba</code>.
+	 */
+	private final int[] proba = new int[4 * 8 * 3 * 11];
+	private final int[][] bandOffsets = new int[4][17];
+
+	/**
+	 * Pas de quantification par segment : y1 DC, y1 AC, y2 DC, y2 AC, uv DC, uv AC.
+	 */
+	private final int[][] dequant = new int[NUM_SEGMENTS][6];
+
+	/**
+	 * Force du filtre par [segment][i4x4] : niveau intérieur, limite, seuil de variance.
+	 */
+	private final int[][][] filterStrength = new int[NUM_SEGMENTS][2][3];
+
+	private VP8Decoder(byte[] data, int offset, int length, int width, int height, int firstPartitionSize) {
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+		this.width = width;
+		this.height = height;
+		this.firstPartitionSize = firstPartitionSize;
+	}
+
+	/**
+	 * Lit l'en-tête d'une image clé VP8.
+	 */
+	static VP8Decoder open(byte[] data, int offset, int length) throws IIOException {
+		if (length < 10) {
+			throw new IIOException("Truncated VP8 header");
+		}
+		int tag = (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16;
+		boolean keyFrame = (tag & 1) == 0;
+		int profile = (tag >> 1) & 7;
+		boolean show = ((tag >> 4) & 1) == 1;
+		int partitionSize = tag >>> 5;
+		if (!keyFrame || profile > 3 || !show) {
+			throw new IIOException("Unsupported VP8 frame");
+		}
+		if ((data[offset + 3] & 0xFF) != 0x9D || (data[offset + 4] & 0xFF) != 0x01 || (data[offset + 5] & 0xFF) != 0x2A) {
+			throw new IIOException("Invalid VP8 start code");
+		}
+		int width = ((data[offset + 6] & 0xFF) | (data[offset + 7] & 0xFF) << 8) & 0x3FFF;
+		int height = ((data[offset + 8] & 0xFF) | (data[offset + 9] & 0xFF) << 8) & 0x3FFF;
+		if (width == 0 || height == 0 || 10 + partitionSize > length) {
+			throw new IIOException("Invalid VP8 header");
+		}
+		return new VP8Decoder(data, offset, length, width, height, partitionSize);
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Décode l'image.
+	 *
+	 * @param argb Reçoit les pixels opaques, ligne par ligne (<code>width * height</code> entrées)
+	 */
+	void decode(int[] argb) throws IIOException {
+		VP8BoolDecoder br = new VP8BoolDecoder(data, offset + 10, firstPartitionSize);
+		br.readFlag(); // espace de couleurs
+		br.readFlag(); // type de saturation
+		parseSegmentHeader(br);
+		parseFilterHeader(br);
+		VP8BoolDecoder[] partitions = parsePartitions(br);
+		parseQuant(br);
+		br.readFlag(); // mise à jour des probabilités, sans effet sur une image clé
+		parseProba(br);
+		precomputeFilterStrengths();
+
+		int mbW = (width + 15) >> 4;
+		int mbH = (height + 15) >> 4;
+		Frame frame = new Frame(mbW, mbH);
+		for (int mbY = 0; mbY < mbH; mbY++) {
+			VP8BoolDecoder tokens = partitions[mbY & (partitions.length - 1)];
+			frame.startRow();
+			for (int mbX = 0; mbX < mbW; mbX++) {
+				decodeMacroblock(frame, br, tokens, mbX, mbY);
+			}
+			if (filterType > 0) {
+				for (int mbX = 0; mbX < mbW; mbX++) {
+					filterMacroblock(frame, mbX, mbY);
+				}
+			}
+		}
+		frame.toArgb(argb, width, height);
+	}
+
+	private void parseSegmentHeader(VP8BoolDecoder br) {
+		useSegment = br.readFlag();
+		if (useSegment) {
+			updateMap = br.readFlag();
+			if (br.readFlag()) {
+				absoluteDelta = br.readFlag();
+				for (int s = 0; s < NUM_SEGMENTS; s++) {
+					segmentQuantizer[s] = br.readFlag() ? br.readSignedValue(7) : 0;
+				}
+				for (int s = 0; s < NUM_SEGMENTS; s++) {
+					segmentFilterStrength[s] = br.readFlag() ? br.readSignedValue(6) : 0;
+				}
+			}
+			if (updateMap) {
+				for (int s = 0; s < 3; s++) {
+					segmentProba[s] = br.readFlag() ? br.readValue(8) : 255;
+				}
+			}
+		}
+	}
+
+	private void parseFilterHeader(VP8BoolDecoder br) {
+		simpleFilter = br.readFlag();
+		filterLevel = br.readValue(6);
+		sharpness = br.readValue(3);
+		useLfDelta = br.readFlag();
+		if (useLfDelta && br.readFlag()) {
+			for (int i = 0; i < 4; i++) {
+				if (br.readFlag()) {
+					refLfDelta[i] = br.readSignedValue(6);
+				}
+			}
+			for (int i = 0; i < 4; i++) {
+				if (br.readFlag()) {
+					modeLfDelta[i] = br.readSignedValue(6);
+				}
+			}
+		}
+		filterType = filterLevel == 0 ? 0 : simpleFilter ? 1 : 2;
+	}
+
+	private VP8BoolDecoder[] parsePartitions(VP8BoolDecoder br) throws IIOException {
+		int count = 1 << br.readValue(2);
+		int sizes = offset + 10 + firstPartitionSize;
+		int start = sizes + 3 * (count - 1);
+		int end = offset + length;
+		if (start > end) {
+			throw new IIOException("Truncated VP8 partitions");
+		}
+		VP8BoolDecoder[] partitions = new VP8BoolDecoder[count];
+		for (int p = 0; p < count - 1; p++) {
+			int i = sizes + 3 * p;
+			int size = (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF) << 16;
+			size = Math.min(size, end - start);
+			partitions[p] = new VP8BoolDecoder(data, start, size);
+			start += size;
+		}
+		partitions[count - 1] = new VP8BoolDecoder(data, start, end - start);
+		return partitions;
+	}
+
+	private void parseQuant(VP8BoolDecoder br) {
+		int baseQ = br.readValue(7);
+		int dqY1Dc = br.readFlag() ? br.readSignedValue(4) : 0;
+		int dqY2Dc = br.readFlag() ? br.readSignedValue(4) : 0;
+		int dqY2Ac = br.readFlag() ? br.readSignedValue(4) : 0;
+		int dqUvDc = br.readFlag() ? br.readSignedValue(4) : 0;
+		int dqUvAc = br.readFlag() ? br.readSignedValue(4) : 0;
+		for (int s = 0; s < NUM_SEGMENTS; s++) {
+			int q;
+			if (useSegment) {
+				q = segmentQuantizer[s] + (absoluteDelta ? 0 : baseQ);
+			} else if (s > 0) {
+				dequant[s] = dequant[0];
+				continue;
+			} else {
+				q = baseQ;
+			}
+			int[] m = dequant[s];
+			m[0] = VP8Tables.DC_TABLE[clip(q + dqY1Dc, 127)];
+			m[1] = VP8Tables.AC_TABLE[clip(q, 127)];
+			m[2] = VP8Tables.DC_TABLE[clip(q + dqY2Dc, 127)] * 2;
+			m[3] = Math.max(8, (VP8Tables.AC_TABLE[clip(q + dqY2Ac, 127)] * 101581) >> 16);
+			m[4] = VP8Tables.DC_TABLE[clip(q + dqUvDc, 117)];
+			m[5] = VP8Tables.AC_TABLE[clip(q + dqUvAc, 127)];
+		}
+	}
+
+	private void parseProba(VP8BoolDecoder br) {
+		for (int i = 0; i < proba.length; i++) {
+			proba[i] = br.readBit(VP8Tables.COEFFS_UPDATE_PROBA[i] & 0xFF) == 1
+					? br.readValue(8) : VP8Tables.COEFFS_PROBA0[i] & 0xFF;
+		}
+		for (int t = 0; t < 4; t++) {
+			for (int n = 0; n <= 16; n++) {
+				bandOffsets[t][n] = (t * 8 + VP8Tables.BANDS[n]) * 3 * 11;
+			}
+		}
+		useSkipProba = br.readFlag();
+		if (useSkipProba) {
+			skipProba = br.readValue(8);
+		}
+	}
+
+	private void precomputeFilterStrengths() {
+		if (filterType == 0) {
+			return;
+		}
+		for (int s = 0; s < NUM_SEGMENTS; s++) {
+			int baseLevel = filterLevel;
+			if (useSegment) {
+				baseLevel = segmentFilterStrength[s] + (absoluteDelta ? 0 : filterLevel);
+			}
+			for (int i4x4 = 0; i4x4 <= 1; i4x4++) {
+				int level = baseLevel;
+				if (useLfDelta) {
+					level += refLfDelta[0];
+					if (i4x4 == 1) {
+						level += modeLfDelta[0];
+					}
+				}
+				level = clip(level, 63);
+				int[] info = filterStrength[s][i4x4];
+				if (level > 0) {
+					int ilevel = level;
+					if (sharpness > 0) {
+						ilevel >>= sharpness > 4 ? 2 : 1;
+						ilevel = Math.min(ilevel, 9 - sharpness);
+					}
+					ilevel = Math.max(ilevel, 1);
+					info[0] = ilevel;
+					info[1] = 2 * level + ilevel;
+					info[2] = level >= 40 ? 2 : level >= 15 ? 1 : 0;
+				} else {
+					info[1] = 0;
+				}
+			}
+		}
+	}
+
+	private static int clip(int v, int max) {
+		return v < 0 ? 0 : Math.min(v, max);
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	// Analyse des macroblocs
+
+	private void decodeMacroblock(Frame f, VP8BoolDecoder br, VP8BoolDecoder tokens, int mbX, int mbY) {
+		int segment = 0;
+		if (updateMap) {
+			segment = br.readBit(segmentProba[0]) == 0
+					? br.readBit(segmentProba[1]) : br.readBit(segmentProba[2]) + 2;
+		}
+		boolean skip = useSkipProba && br.readBit(skipProba) == 1;
+		boolean i4x4 = br.readBit(145) == 0;
+		int[] modes = f.modes;
+		int top = mbX * 4;
+		if (!i4x4) {
+			int ymode = br.readBit(156) == 1
+					? (br.readBit(128) == 1 ? TM_PRED : H_PRED)
+					: (br.readBit(163) == 1 ? V_PRED : DC_PRED);
+			modes[0] = ymode;
+			Arrays.fill(f.intraTop, top, top + 4, (byte) ymode);
+			Arrays.fill(f.intraLeft, (byte) ymode);
+		} else {
+			for (int y = 0; y < 4; y++) {
+				int ymode = f.intraLeft[y];
+				for (int x = 0; x < 4; x++) {
+					int p = (f.intraTop[top + x] * 10 + ymode) * 9;
+					int i = YMODES_INTRA4[br.readBit(VP8Tables.BMODES_PROBA[p] & 0xFF)];
+					while (i > 0) {
+						i = YMODES_INTRA4[2 * i + br.readBit(VP8Tables.BMODES_PROBA[p + i] & 0xFF)];
+					}
+					ymode = -i;
+					f.intraTop[top + x] = (byte) ymode;
+					modes[y * 4 + x] = ymode;
+				}
+				f.intraLeft[y] = (byte) ymode;
+			}
+		}
+		int uvMode = br.readBit(142) == 0 ? DC_PRED
+				: br.readBit(114) == 0 ? V_PRED
+				: br.readBit(183) == 1 ? TM_PRED : H_PRED;
+
+		boolean hasCoeffs;
+		if (!skip) {
+			hasCoeffs = parseResiduals(f, tokens, mbX, i4x4, dequant[segment]);
+		} else {
+			f.nzLeft = 0;
+			f.nzTop[mbX] = 0;
+			if (!i4x4) {
+				f.nzDcLeft = 0;
+				f.nzDcTop[mbX] = 0;
+			}
+			f.nonZeroY = 0;
+			f.nonZeroUv = 0;
+			hasCoeffs = false;
+		}
+		f.filterInfo[mbX] = (segment << 2) | (i4x4 ? 2 : 0) | (i4x4 || hasCoeffs ? 1 : 0);
+		f.reconstruct(mbX, mbY, i4x4, uvMode);
+	}
+
+	/**
+	 * Lit les coefficients d'un macrobloc.
+	 *
+	 * @return Au moins un coefficient non nul
+	 */
+	private boolean parseResiduals(Frame f, VP8BoolDecoder br, int mbX, boolean i4x4, int[] q) {
+		short[] coeffs = f.coeffs;
+		int first;
+		int[] acBands;
+		int nonZeroY = 0;
+		int nonZeroUv = 0;
+		if (!i4x4) {
+			short[] dc = f.dc;
+			int ctx = f.nzDcTop[mbX] + f.nzDcLeft;
+			int nz = getCoeffs(br, bandOffsets[1], ctx, q[2], q[3], 0, dc, 0);
+			int flag = nz > 0 ? 1 : 0;
+			f.nzDcTop[mbX] = flag;
+			f.nzDcLeft = flag;
+			if (nz > 1) {
+				transformWht(dc, coeffs, f.tmp);
+			} else {
+				int dc0 = (dc[0] + 3) >> 3;
+				for (int i = 0; i < 16 * 16; i += 16) {
+					coeffs[i] = (short) dc0;
+				}
+			}
+			Arrays.fill(dc, (short) 0);
+			first = 1;
+			acBands = bandOffsets[0];
+		} else {
+			first = 0;
+			acBands = bandOffsets[3];
+		}
+
+		int tnz = f.nzTop[mbX] & 0x0F;
+		int lnz = f.nzLeft & 0x0F;
+		for (int y = 0; y < 4; y++) {
+			int l = lnz & 1;
+			for (int x = 0; x < 4; x++) {
+				int n = y * 4 + x;
+				int ctx = l + (tnz & 1);
+				int nz = getCoeffs(br, acBands, ctx, q[0], q[1], first, coeffs, n * 16);
+				l = nz > first ? 1 : 0;
+				tnz = (tnz >> 1) | (l << 7);
+				if (nz > 1 || coeffs[n * 16] != 0) {
+					nonZeroY |= 1 << n;
+				}
+			}
+			tnz >>= 4;
+			lnz = (lnz >> 1) | (l << 7);
+		}
+		int outTop = tnz;
+		int outLeft = lnz >> 4;
+
+		for (int ch = 0; ch < 4; ch += 2) {
+			tnz = f.nzTop[mbX] >> (4 + ch);
+			lnz = f.nzLeft >> (4 + ch);
+			for (int y = 0; y < 2; y++) {
+				int l = lnz & 1;
+				for (int x = 0; x < 2; x++) {
+					int n = 16 + ch * 2 + y * 2 + x;
+					int ctx = l + (tnz & 1);
+					int nz = getCoeffs(br, bandOffsets[2], ctx, q[4], q[5], 0, coeffs, n * 16);
+					l = nz > 0 ? 1 : 0;
+					tnz = (tnz >> 1) | (l << 3);
+					if (nz > 1 || coeffs[n * 16] != 0) {
+						nonZeroUv |= 1 << (n - 16);
+					}
+				}
+				tnz >>= 2;
+				lnz = (lnz >> 1) | (l << 5);
+			}
+			outTop |= (tnz << 4) << ch;
+			outLeft |= (lnz & 0xF0) << ch;
+		}
+		f.nzTop[mbX] = outTop;
+		f.nzLeft = outLeft;
+		f.nonZeroY = nonZeroY;
+		f.nonZeroUv = nonZeroUv;
+		return (nonZeroY | nonZeroUv) != 0;
+	}
+
+	/**
+	 * Lit les coefficients d'un bloc 4x4, déquantifiés, dans l'ordre de balayage.
+	 *
+	 * @return Position suivant le dernier coefficient lu
+	 */
+	private int getCoeffs(VP8BoolDecoder br, int[] bands, int ctx, int dcQuant, int acQuant, int n,
+						  short[] out, int outOffset) {
+		int[] proba = this.proba;
+		int p = bands[n] + ctx * 11;
+		for (; n < 16; n++) {
+			if (br.readBit(proba[p]) == 0) {
+				return n;
+			}
+			while (br.readBit(proba[p + 1]) == 0) {
+				p = bands[++n];
+				if (n == 16) {
+					return 16;
+				}
+			}
+			int next = bands[n + 1];
+			int v;
+			if (br.readBit(proba[p + 2]) == 0) {
+				v = 1;
+				p = next + 11;
+			} else {
+				v = getLargeValue(br, proba, p);
+				p = next + 22;
+			}
+			if (br.readBit(0x80) == 1) {
+				v = -v;
+			}
+			out[outOffset + VP8Tables.ZIGZAG[n]] = (short) (v * (n > 0 ? acQuant : dcQuant));
+		}
+		return 16;
+	}
+
+	private static int getLargeValue(VP8BoolDecoder br, int[] proba, int p) {
+		int v;
+		if (br.readBit(proba[p + 3]) == 0) {
+			if (br.readBit(proba[p + 4]) == 0) {
+				v = 2;
+			} else {
+				v = 3 + br.readBit(proba[p + 5]);
+			}
+		} else if (br.readBit(proba[p + 6]) == 0) {
+			if (br.readBit(proba[p + 7]) == 0) {
+				v = 5 + br.readBit(159);
+			} else {
+				v = 7 + 2 * br.readBit(165);
+				v += br.readBit(145);
+			}
+		} else {
+			int bit1 = br.readBit(proba[p + 8]);
+			int bit0 = br.readBit(proba[p + 9 + bit1]);
+			int cat = 2 * bit1 + bit0;
+			v = 0;
+			for (int prob : VP8Tables.CAT3456[cat]) {
+				v += v + br.readBit(prob);
+			}
+			v += 3 + (8 << cat);
+		}
+		return v;
+	}
+
+	/**
+	 * Transformée de Walsh-Hadamard inverse : répartit les DC de luminance des 16 blocs.
+	 */
+	private static void transformWht(short[] in, short[] out, int[] tmp) {
+		for (int i = 0; i < 4; i++) {
+			int a0 = in[i] + in[12 + i];
+			int a1 = in[4 + i] + in[8 + i];
+			int a2 = in[4 + i] - in[8 + i];
+			int a3 = in[i] - in[12 + i];
+			tmp[i] = a0 + a1;
+			tmp[8 + i] = a0 - a1;
+			tmp[4 + i] = a3 + a2;
+			tmp[12 + i] = a3 - a2;
+		}
+		int o = 0;
+		for (int i = 0; i < 4; i++) {
+			int dc = tmp[i * 4] + 3;
+			int a0 = dc + tmp[3 + i * 4];
+			int a1 = tmp[1 + i * 4] + tmp[2 + i * 4];
+			int a2 = tmp[1 + i * 4] - tmp[2 + i * 4];
+			int a3 = dc - tmp[3 + i * 4];
+			out[o] = (short) ((a0 + a1) >> 3);
+			out[o + 16] = (short) ((a3 + a2) >> 3);
+			out[o + 32] = (short) ((a0 - a1) >> 3);
+			out[o + 48] = (short) ((a3 - a2) >> 3);
+			o += 64;
+		}
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	// Filtre de boucle
+
+	private void filterMacroblock(Frame f, int mbX, int mbY) {
+		int info = f.filterInfo[mbX];
+		int[] strength = filterStrength[info >> 2][(info >> 1) & 1];
+		int limit = strength[1];
+		if (limit == 0) {
+			return;
+		}
+		boolean inner = (info & 1) == 1;
+		int ilevel = strength[0];
+		int hevThresh = strength[2];
+		byte[] y = f.y;
+		int yStride = f.yStride;
+		int yPos = mbY * 16 * yStride + mbX * 16;
+		if (filterType == 1) {
+			if (mbX > 0) {
+				simpleFilter(y, yPos, 1, yStride, limit + 4);
+			}
+			if (inner) {
+				for (int k = 4; k < 16; k += 4) {
+					simpleFilter(y, yPos + k, 1, yStride, limit);
+				}
+			}
+			if (mbY > 0) {
+				simpleFilter(y, yPos, yStride, 1, limit + 4);
+			}
+			if (inner) {
+				for (int k = 4; k < 16; k += 4) {
+					simpleFilter(y, yPos + k * yStride, yStride, 1, limit);
+				}
+			}
+			return;
+		}
+		int uvStride = f.uvStride;
+		int uvPos = mbY * 8 * uvStride + mbX * 8;
+		if (mbX > 0) {
+			filterLoop26(y, yPos, 1, yStride, 16, limit + 4, ilevel, hevThresh);
+			filterLoop26(f.u, uvPos, 1, uvStride, 8, limit + 4, ilevel, hevThresh);
+			filterLoop26(f.v, uvPos, 1, uvStride, 8, limit + 4, ilevel, hevThresh);
+		}
+		if (inner) {
+			for (int k = 4; k < 16; k += 4) {
+				filterLoop24(y, yPos + k, 1, yStride, 16, limit, ilevel, hevThresh);
+			}
+			filterLoop24(f.u, uvPos + 4, 1, uvStride, 8, limit, ilevel, hevThresh);
+			filterLoop24(f.v, uvPos + 4, 1, uvStride, 8, limit, ilevel, hevThresh);
+		}
+		if (mbY > 0) {
+			filterLoop26(y, yPos, yStride, 1, 16, limit + 4, ilevel, hevThresh);
+			filterLoop26(f.u, uvPos, uvStride, 1, 8, limit + 4, ilevel, hevThresh);
+			filterLoop26(f.v, uvPos, uvStride, 1, 8, limit + 4, ilevel, hevThresh);
+		}
+		if (inner) {
+			for (int k = 4; k < 16; k += 4) {
+				filterLoop24(y, yPos + k * yStride, yStride, 1, 16, limit, ilevel, hevThresh);
+			}
+			filterLoop24(f.u, uvPos + 4 * uvStride, uvStride, 1, 8, limit, ilevel, hevThresh);
+			filterLoop24(f.v, uvPos + 4 * uvStride, uvStride, 1, 8, limit, ilevel, hevThresh);
+		}
+	}
+
+	/**
+	 * Filtre simple sur 16 pixels d'un bord.
+	 *
+	 * @param step   Pas perpendiculaire au bord
+	 * @param stride Pas le long du bord
+	 */
+	private static void simpleFilter(byte[] p, int pos, int step, int stride, int thresh) {
+		int thresh2 = 2 * thresh + 1;
+		for (int i = 0; i < 16; i++, pos += stride) {
+			if (needsFilter(p, pos, step, thresh2)) {
+				doFilter2(p, pos, step);
+			}
+		}
+	}
+
+	private static void filterLoop26(byte[] p, int pos, int step, int stride, int size, int thresh, int ithresh,
+									 int hevThresh) {
+		int thresh2 = 2 * thresh + 1;
+		for (int i = 0; i < size; i++, pos += stride) {
+			if (needsFilter2(p, pos, step, thresh2, ithresh)) {
+				if (hev(p, pos, step, hevThresh)) {
+					doFilter2(p, pos, step);
+				} else {
+					doFilter6(p, pos, step);
+				}
+			}
+		}
+	}
+
+	private static void filterLoop24(byte[] p, int pos, int step, int stride, int size, int thresh, int ithresh,
+									 int hevThresh) {
+		int thresh2 = 2 * thresh + 1;
+		for (int i = 0; i < size; i++, pos += stride) {
+			if (needsFilter2(p, pos, step, thresh2, ithresh)) {
+				if (hev(p, pos, step, hevThresh)) {
+					doFilter2(p, pos, step);
+				} else {
+					doFilter4(p, pos, step);
+				}
+			}
+		}
+	}
+
+	private static void doFilter2(byte[] p, int pos, int step) {
+		int p1 = p[pos - 2 * step] & 0xFF;
+		int p0 = p[pos - step] & 0xFF;
+		int q0 = p[pos] & 0xFF;
+		int q1 = p[pos + step] & 0xFF;
+		int a = 3 * (q0 - p0) + SCLIP1[p1 - q1 + 1020];
+		int a1 = SCLIP2[((a + 4) >> 3) + 112];
+		int a2 = SCLIP2[((a + 3) >> 3) + 112];
+		p[pos - step] = (byte) CLIP1[p0 + a2 + 255];
+		p[pos] = (byte) CLIP1[q0 - a1 + 255];
+	}
+
+	private static void doFilter4(byte[] p, int pos, int step) {
+		int p1 = p[pos - 2 * step] & 0xFF;
+		int p0 = p[pos - step] & 0xFF;
+		int q0 = p[pos] & 0xFF;
+		int q1 = p[pos + step] & 0xFF;
+		int a = 3 * (q0 - p0);
+		int a1 = SCLIP2[((a + 4) >> 3) + 112];
+		int a2 = SCLIP2[((a + 3) >> 3) + 112];
+		int a3 = (a1 + 1) >> 1;
+		p[pos - 2 * step] = (byte) CLIP1[p1 + a3 + 255];
+		p[pos - step] = (byte) CLIP1[p0 + a2 + 255];
+		p[pos] = (byte) CLIP1[q0 - a1 + 255];
+		p[pos + step] = (byte) CLIP1[q1 - a3 + 255];
+	}
+
+	private static void doFilter6(byte[] p, int pos, int step) {
+		int p2 = p[pos - 3 * step] & 0xFF;
+		int p1 = p[pos - 2 * step] & 0xFF;
+		int p0 = p[pos - step] & 0xFF;
+		int q0 = p[pos] & 0xFF;
+		int q1 = p[pos + step] & 0xFF;
+		int q2 = p[pos + 2 * step] & 0xFF;
+		int a = SCLIP1[3 * (q0 - p0) + SCLIP1[p1 - q1 + 1020] + 1020];
+		int a1 = (27 * a + 63) >> 7;
+		int a2 = (18 * a + 63) >> 7;
+		int a3 = (9 * a + 63) >> 7;
+		p[pos - 3 * step] = (byte) CLIP1[p2 + a3 + 255];
+		p[pos - 2 * step] = (byte) CLIP1[p1 + a2 + 255];
+		p[pos - step] = (byte) CLIP1[p0 + a1 + 255];
+		p[pos] = (byte) CLIP1[q0 - a1 + 255];
+		p[pos + step] = (byte) CLIP1[q1 - a2 + 255];
+		p[pos + 2 * step] = (byte) CLIP1[q2 - a3 + 255];
+	}
+
+	private static boolean hev(byte[] p, int pos, int step, int thresh) {
+		int p1 = p[pos - 2 * step] & 0xFF;
+		int p0 = p[pos - step] & 0xFF;
+		int q0 = p[pos] & 0xFF;
+		int q1 = p[pos + step] & 0xFF;
+		return Math.abs(p1 - p0) > thresh || Math.abs(q1 - q0) > thresh;
+	}
+
+	private static boolean needsFilter(byte[] p, int pos, int step, int t) {
+		int p1 = p[pos - 2 * step] & 0xFF;
+		int p0 = p[pos - step] & 0xFF;
+		int q0 = p[pos] & 0xFF;
+		int q1 = p[pos + step] & 0xFF;
+		return 4 * Math.abs(p0 - q0) + Math.abs(p1 - q1) <= t;
+	}
+
+	private static boolean needsFilter2(byte[] p, int pos, int step, int t, int it) {
+		int p3 = p[pos - 4 * step] & 0xFF;
+		int p2 = p[pos - 3 * step] & 0xFF;
+		int p1 = p[pos - 2 * step] & 0xFF;
+		int p0 = p[pos - step] & 0xFF;
+		int q0 = p[pos] & 0xFF;
+		int q1 = p[pos + step] & 0xFF;
+		int q2 = p[pos + 2 * step] & 0xFF;
+		int q3 = p[pos + 3 * step] & 0xFF;
+		if (4 * Math.abs(p0 - q0) + Math.abs(p1 - q1) > t) {
+			return false;
+		}
+		return Math.abs(p3 - p2) <= it && Math.abs(p2 - p1) <= it && Math.abs(p1 - p0) <= it
+				&& Math.abs(q3 - q2) <= it && Math.abs(q2 - q1) <= it && Math.abs(q1 - q0) <= it;
+	}
+
+	/**
+	 * État de reconstruction d'une image : plans, contextes et tampon de travail.
+	 */
+	private static final class Frame {
+		final int mbW;
+		final byte[] y;
+		final byte[] u;
+		final byte[] v;
+		final int yStride;
+		final int uvStride;
+
+		/**
+		 * Tampon de travail : bordure haute et gauche, Y 16x16 puis U et V 8x8 côte à côte.
+		 */
+		final byte[] work = new byte[BPS * 17 + BPS * 9];
+		final byte[] topY;
+		final byte[] topU;
+		final byte[] topV;
+
+		final short[] coeffs = new short[384];
+		final short[] dc = new short[16];
+		final int[] tmp = new int[16];
+		final int[] modes = new int[16];
+		final byte[] intraTop;
+		final byte[] intraLeft = new byte[4];
+		final int[] nzTop;
+		final int[] nzDcTop;
+		int nzLeft;
+		int nzDcLeft;
+		int nonZeroY;
+		int nonZeroUv;
+
+		/**
+		 * Filtre de la ligne en cours, par macrobloc : segment &lt;&lt; 2 | i4x4 &lt;&lt; 1 | bords intérieurs.
+		 */
+		final int[] filterInfo;
+		private int row = -1;
+
+		Frame(int mbW, int mbH) {
+			this.mbW = mbW;
+			this.yStride = mbW * 16;
+			this.uvStride = mbW * 8;
+			this.y = new byte[yStride * mbH * 16];
+			this.u = new byte[uvStride * mbH * 8];
+			this.v = new byte[uvStride * mbH * 8];
+			this.topY = new byte[mbW * 16];
+			this.topU = new byte[mbW * 8];
+			this.topV = new byte[mbW * 8];
+			this.intraTop = new byte[mbW * 4];
+			this.nzTop = new int[mbW];
+			this.nzDcTop = new int[mbW];
+			this.filterInfo = new int[mbW];
+		}
+
+		void startRow() {
+			row++;
+			nzLeft = 0;
+			nzDcLeft = 0;
+			Arrays.fill(intraLeft, (byte) DC_PRED);
+			byte[] w = work;
+			for (int j = 0; j < 16; j++) {
+				w[Y_OFF + j * BPS - 1] = (byte) 129;
+			}
+			for (int j = 0; j < 8; j++) {
+				w[U_OFF + j * BPS - 1] = (byte) 129;
+				w[V_OFF + j * BPS - 1] = (byte) 129;
+			}
+			if (row > 0) {
+				w[Y_OFF - BPS - 1] = (byte) 129;
+				w[U_OFF - BPS - 1] = (byte) 129;
+				w[V_OFF - BPS - 1] = (byte) 129;
+			} else {
+				Arrays.fill(w, Y_OFF - BPS - 1, Y_OFF - BPS - 1 + 16 + 4 + 1, (byte) 127);
+				Arrays.fill(w, U_OFF - BPS - 1, U_OFF - BPS - 1 + 8 + 1, (byte) 127);
+				Arrays.fill(w, V_OFF - BPS - 1, V_OFF - BPS - 1 + 8 + 1, (byte) 127);
+			}
+		}
+
+		void reconstruct(int mbX, int mbY, boolean i4x4, int uvMode) {
+			byte[] w = work;
+			if (mbX > 0) {
+				// Les dernières colonnes du macrobloc précédent deviennent la bordure gauche
+				for (int j = -1; j < 16; j++) {
+					System.arraycopy(w, Y_OFF + j * BPS + 12, w, Y_OFF + j * BPS - 4, 4);
+				}
+				for (int j = -1; j < 8; j++) {
+					System.arraycopy(w, U_OFF + j * BPS + 4, w, U_OFF + j * BPS - 4, 4);
+					System.arraycopy(w, V_OFF + j * BPS + 4, w, V_OFF + j * BPS - 4, 4);
+				}
+			}
+			if (mbY > 0) {
+				System.arraycopy(topY, mbX * 16, w, Y_OFF - BPS, 16);
+				System.arraycopy(topU, mbX * 8, w, U_OFF - BPS, 8);
+				System.arraycopy(topV, mbX * 8, w, V_OFF - BPS, 8);
+			}
+			short[] c = coeffs;
+			if (i4x4) {
+				int topRight = Y_OFF - BPS + 16;
+				if (mbY > 0) {
+					if (mbX >= mbW - 1) {
+						Arrays.fill(w, topRight, topRight + 4, topY[mbX * 16 + 15]);
+					} else {
+						System.arraycopy(topY, mbX * 16 + 16, w, topRight, 4);
+					}
+				}
+				for (int r = 4; r < 16; r += 4) {
+					System.arraycopy(w, topRight, w, topRight + r * BPS, 4);
+				}
+				for (int n = 0; n < 16; n++) {
+					int dst = Y_OFF + SCAN[n];
+					predictLuma4(w, dst, modes[n]);
+					if ((nonZeroY & (1 << n)) != 0) {
+						transform(c, n * 16, w, dst, tmp);
+					}
+				}
+			} else {
+				predictLuma16(w, Y_OFF, checkMode(mbX, mbY, modes[0]));
+				if (nonZeroY != 0) {
+					for (int n = 0; n < 16; n++) {
+						if ((nonZeroY & (1 << n)) != 0) {
+							transform(c, n * 16, w, Y_OFF + SCAN[n], tmp);
+						}
+					}
+				}
+			}
+			int uvPred = checkMode(mbX, mbY, uvMode);
+			predictChroma8(w, U_OFF, uvPred);
+			predictChroma8(w, V_OFF, uvPred);
+			if (nonZeroUv != 0) {
+				for (int n = 0; n < 8; n++) {
+					if ((nonZeroUv & (1 << n)) != 0) {
+						int dst = (n < 4 ? U_OFF : V_OFF) + (n & 1) * 4 + ((n >> 1) & 1) * 4 * BPS;
+						transform(c, (16 + n) * 16, w, dst, tmp);
+					}
+				}
+			}
+			if (nonZeroY != 0 || nonZeroUv != 0) {
+				Arrays.fill(c, (short) 0);
+			}
+
+			// Échantillons non filtrés pour la prédiction de la ligne suivante
+			System.arraycopy(w, Y_OFF + 15 * BPS, topY, mbX * 16, 16);
+			System.arraycopy(w, U_OFF + 7 * BPS, topU, mbX * 8, 8);
+			System.arraycopy(w, V_OFF + 7 * BPS, topV, mbX * 8, 8);
+
+			int yDst = mbY * 16 * yStride + mbX * 16;
+			for (int j = 0; j < 16; j++) {
+				System.arraycopy(w, Y_OFF + j * BPS, y, yDst + j * yStride, 16);
+			}
+			int uvDst = mbY * 8 * uvStride + mbX * 8;
+			for (int j = 0; j < 8; j++) {
+				System.arraycopy(w, U_OFF + j * BPS, u, uvDst + j * uvStride, 8);
+				System.arraycopy(w, V_OFF + j * BPS, v, uvDst + j * uvStride, 8);
+			}
+		}
+
+		private static int checkMode(int mbX, int mbY, int mode) {
+			if (mode == DC_PRED) {
+				if (mbX == 0) {
+					return mbY == 0 ? DC_PRED_NOTOPLEFT : DC_PRED_NOLEFT;
+				}
+				return mbY == 0 ? DC_PRED_NOTOP : DC_PRED;
+			}
+			return mode;
+		}
+
+		/**
+		 * Convertit les plans en ARGB, avec suréchantillonnage de la chrominance par paires de lignes.
+		 */
+		void toArgb(int[] argb, int width, int height) {
+			// Première ligne : la chrominance du dessus est celle de la ligne elle-même
+			upsampleLinePair(0, -1, 0, 0, argb, width);
+			for (int line = 1; line + 1 < height; line += 2) {
+				upsampleLinePair(line, line + 1, (line - 1) >> 1, (line + 1) >> 1, argb, width);
+			}
+			if ((height & 1) == 0) {
+				int last = (height - 1) >> 1;
+				upsampleLinePair(height - 1, -1, last, last, argb, width);
+			}
+		}
+
+		/**
+		 * Produit la ligne <code>topLine</code> (chrominance proche : <code>topUv</code>) et la ligne
+		 * <code>bottomLine</code> si elle est positive (chrominance proche : <code>curUv</code>).
+		 */
+		private void upsampleLinePair(int topLine, int bottomLine, int topUv, int curUv, int[] argb, int width) {
+			int topY = topLine * yStride;
+			int bottomY = bottomLine * yStride;
+			int tuv = topUv * uvStride;
+			int cuv = curUv * uvStride;
+			int topDst = topLine * width;
+			int bottomDst = bottomLine * width;
+			int lastPair = (width - 1) >> 1;
+
+			int tlU = u[tuv] & 0xFF;
+			int tlV = v[tuv] & 0xFF;
+			int lU = u[cuv] & 0xFF;
+			int lV = v[cuv] & 0xFF;
+			argb[topDst] = yuvToArgb(y[topY] & 0xFF, (3 * tlU + lU + 2) >> 2, (3 * tlV + lV + 2) >> 2);
+			if (bottomLine >= 0) {
+				argb[bottomDst] = yuvToArgb(y[bottomY] & 0xFF, (3 * lU + tlU + 2) >> 2, (3 * lV + tlV + 2) >> 2);
+			}
+			for (int x = 1; x <= lastPair; x++) {
+				int tU = u[tuv + x] & 0xFF;
+				int tV = v[tuv + x] & 0xFF;
+				int cU = u[cuv + x] & 0xFF;
+				int cV = v[cuv + x] & 0xFF;
+				int avgU = tlU + tU + lU + cU + 8;
+				int avgV = tlV + tV + lV + cV + 8;
+				int diag12U = (avgU + 2 * (tU + lU)) >> 3;
+				int diag12V = (avgV + 2 * (tV + lV)) >> 3;
+				int diag03U = (avgU + 2 * (tlU + cU)) >> 3;
+				int diag03V = (avgV + 2 * (tlV + cV)) >> 3;
+				argb[topDst + 2 * x - 1] = yuvToArgb(y[topY + 2 * x - 1] & 0xFF,
+						(diag12U + tlU) >> 1, (diag12V + tlV) >> 1);
+				argb[topDst + 2 * x] = yuvToArgb(y[topY + 2 * x] & 0xFF,
+						(diag03U + tU) >> 1, (diag03V + tV) >> 1);
+				if (bottomLine >= 0) {
+					argb[bottomDst + 2 * x - 1] = yuvToArgb(y[bottomY + 2 * x - 1] & 0xFF,
+							(diag03U + lU) >> 1, (diag03V + lV) >> 1);
+					argb[bottomDst + 2 * x] = yuvToArgb(y[bottomY + 2 * x] & 0xFF,
+							(diag12U + cU) >> 1, (diag12V + cV) >> 1);
+				}
+				tlU = tU;
+				tlV = tV;
+				lU = cU;
+				lV = cV;
+			}
+			if ((width & 1) == 0) {
+				argb[topDst + width - 1] = yuvToArgb(y[topY + width - 1] & 0xFF,
+						(3 * tlU + lU + 2) >> 2, (3 * tlV + lV + 2) >> 2);
+				if (bottomLine >= 0) {
+					argb[bottomDst + width - 1] = yuvToArgb(y[bottomY + width - 1] & 0xFF,
+							(3 * lU + tlU + 2) >> 2, (3 * lV + tlV + 2) >> 2);
+				}
+			}
+		}
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	// Conversion de couleurs (BT.601, coefficients 14 bits de libwebp)
+
+	private static int yuvToArgb(int y, int u, int v) {
+		int luma = (y * 19077) >> 8;
+		int r = clip8(luma + ((v * 26149) >> 8) - 14234);
+		int g = clip8(luma - ((u * 6419) >> 8) - ((v * 13320) >> 8) + 8708);
+		int b = clip8(luma + ((u * 33050) >> 8) - 17685);
+		return 0xFF000000 | (r << 16) | (g << 8) | b;
+	}
+
+	private static int clip8(int v) {
+		return (v & ~0x3FFF) == 0 ? v >> 6 : v < 0 ? 0 : 255;
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	// Transformée inverse et prédiction intra
+
+	/**
+	 * DCT inverse d'un bloc 4x4, ajoutée à la prédiction.
+	 */
+	private static void transform(short[] in, int inOffset, byte[] dst, int pos, int[] tmp) {
+		for (int i = 0; i < 4; i++) {
+			int i0 = in[inOffset + i];
+			int i4 = in[inOffset + 4 + i];
+			int i8 = in[inOffset + 8 + i];
+			int i12 = in[inOffset + 12 + i];
+			int a = i0 + i8;
+			int b = i0 - i8;
+			int c = mul2(i4) - mul1(i12);
+			int d = mul1(i4) + mul2(i12);
+			tmp[i * 4] = a + d;
+			tmp[i * 4 + 1] = b + c;
+			tmp[i * 4 + 2] = b - c;
+			tmp[i * 4 + 3] = a - d;
+		}
+		for (int i = 0; i < 4; i++, pos += BPS) {
+			int dc = tmp[i] + 4;
+			int a = dc + tmp[8 + i];
+			int b = dc - tmp[8 + i];
+			int c = mul2(tmp[4 + i]) - mul1(tmp[12 + i]);
+			int d = mul1(tmp[4 + i]) + mul2(tmp[12 + i]);
+			store(dst, pos, a + d);
+			store(dst, pos + 1, b + c);
+			store(dst, pos + 2, b - c);
+			store(dst, pos + 3, a - d);
+		}
+	}
+
+	private static int mul1(int a) {
+		return ((a * 20091) >> 16) + a;
+	}
+
+	private static int mul2(int a) {
+		return (a * 35468) >> 16;
+	}
+
+	private static void store(byte[] dst, int pos, int v) {
+		int p = (dst[pos] & 0xFF) + (v >> 3);
+		dst[pos] = (byte) (p < 0 ? 0 : Math.min(p, 255));
+	}
+
+	private static void predictLuma16(byte[] w, int dst, int mode) {
+		switch (mode) {
+			case TM_PRED -> trueMotion(w, dst, 16);
+			case V_PRED -> {
+				for (int j = 0; j < 16; j++) {
+					System.arraycopy(w, dst - BPS, w, dst + j * BPS, 16);
+				}
+			}
+			case H_PRED -> {
+				for (int j = 0; j < 16; j++) {
+					Arrays.fill(w, dst + j * BPS, dst + j * BPS + 16, w[dst + j * BPS - 1]);
+				}
+			}
+			case DC_PRED -> fill(w, dst, 16, (sumTop(w, dst, 16) + sumLeft(w, dst, 16) + 16) >> 5);
+			case DC_PRED_NOTOP -> fill(w, dst, 16, (sumLeft(w, dst, 16) + 8) >> 4);
+			case DC_PRED_NOLEFT -> fill(w, dst, 16, (sumTop(w, dst, 16) + 8) >> 4);
+			default -> fill(w, dst, 16, 0x80);
+		}
+	}
+
+	private static void predictChroma8(byte[] w, int dst, int mode) {
+		switch (mode) {
+			case TM_PRED -> trueMotion(w, dst, 8);
+			case V_PRED -> {
+				for (int j = 0; j < 8; j++) {
+					System.arraycopy(w, dst - BPS, w, dst + j * BPS, 8);
+				}
+			}
+			case H_PRED -> {
+				for (int j = 0; j < 8; j++) {
+					Arrays.fill(w, dst + j * BPS, dst + j * BPS + 8, w[dst + j * BPS - 1]);
+				}
+			}
+			case DC_PRED -> fill(w, dst, 8, (sumTop(w, dst, 8) + sumLeft(w, dst, 8) + 8) >> 4);
+			case DC_PRED_NOTOP -> fill(w, dst, 8, (sumLeft(w, dst, 8) + 4) >> 3);
+			case DC_PRED_NOLEFT -> fill(w, dst, 8, (sumTop(w, dst, 8) + 4) >> 3);
+			default -> fill(w, dst, 8, 0x80);
+		}
+	}
+
+	private static int sumTop(byte[] w, int dst, int size) {
+		int sum = 0;
+		for (int i = 0; i < size; i++) {
+			sum += w[dst - BPS + i] & 0xFF;
+		}
+		return sum;
+	}
+
+	private static int sumLeft(byte[] w, int dst, int size) {
+		int sum = 0;
+		for (int j = 0; j < size; j++) {
+			sum += w[dst + j * BPS - 1] & 0xFF;
+		}
+		return sum;
+	}
+
+	private static void fill(byte[] w, int dst, int size, int value) {
+		for (int j = 0; j < size; j++) {
+			Arrays.fill(w, dst + j * BPS, dst + j * BPS + size, (byte) value);
+		}
+	}
+
+	private static void trueMotion(byte[] w, int dst, int size) {
+		int topLeft = w[dst - BPS - 1] & 0xFF;
+		for (int j = 0; j < size; j++) {
+			int left = (w[dst + j * BPS - 1] & 0xFF) - topLeft;
+			for (int i = 0; i < size; i++) {
+				w[dst + j * BPS + i] = (byte) CLIP1[(w[dst - BPS + i] & 0xFF) + left + 255];
+			}
+		}
+	}
+
+	private static int avg3(int a, int b, int c) {
+		return (a + 2 * b + c + 2) >> 2;
+	}
+
+	private static int avg2(int a, int b) {
+		return (a + b + 1) >> 1;
+	}
+
+	private static void put(byte[] w, int dst, int x, int y, int value) {
+		w[dst + x + y * BPS] = (byte) value;
+	}
+
+	private static void predictLuma4(byte[] w, int dst, int mode) {
+		int top = dst - BPS;
+		int x0 = w[top - 1] & 0xFF;
+		int a = w[top] & 0xFF;
+		int b = w[top + 1] & 0xFF;
+		int c = w[top + 2] & 0xFF;
+		int d = w[top + 3] & 0xFF;
+		int i = w[dst - 1] & 0xFF;
+		int j = w[dst + BPS - 1] & 0xFF;
+		int k = w[dst + 2 * BPS - 1] & 0xFF;
+		int l = w[dst + 3 * BPS - 1] & 0xFF;
+		switch (mode) {
+			case 0 -> { // DC
+				int dc = (a + b + c + d + i + j + k + l + 4) >> 3;
+				for (int y = 0; y < 4; y++) {
+					Arrays.fill(w, dst + y * BPS, dst + y * BPS + 4, (byte) dc);
+				}
+			}
+			case 1 -> trueMotion(w, dst, 4);
+			case 2 -> { // VE
+				int e = w[top + 4] & 0xFF;
+				int v0 = avg3(x0, a, b);
+				int v1 = avg3(a, b, c);
+				int v2 = avg3(b, c, d);
+				int v3 = avg3(c, d, e);
+				for (int y = 0; y < 4; y++) {
+					put(w, dst, 0, y, v0);
+					put(w, dst, 1, y, v1);
+					put(w, dst, 2, y, v2);
+					put(w, dst, 3, y, v3);
+				}
+			}
+			case 3 -> { // HE
+				int r0 = avg3(x0, i, j);
+				int r1 = avg3(i, j, k);
+				int r2 = avg3(j, k, l);
+				int r3 = avg3(k, l, l);
+				Arrays.fill(w, dst, dst + 4, (byte) r0);
+				Arrays.fill(w, dst + BPS, dst + BPS + 4, (byte) r1);
+				Arrays.fill(w, dst + 2 * BPS, dst + 2 * BPS + 4, (byte) r2);
+				Arrays.fill(w, dst + 3 * BPS, dst + 3 * BPS + 4, (byte) r3);
+			}
+			case 4 -> { // RD
+				put(w, dst, 0, 3, avg3(j, k, l));
+				int v = avg3(i, j, k);
+				put(w, dst, 1, 3, v);
+				put(w, dst, 0, 2, v);
+				v = avg3(x0, i, j);
+				put(w, dst, 2, 3, v);
+				put(w, dst, 1, 2, v);
+				put(w, dst, 0, 1, v);
+				v = avg3(a, x0, i);
+				put(w, dst, 3, 3, v);
+				put(w, dst, 2, 2, v);
+				put(w, dst, 1, 1, v);
+				put(w, dst, 0, 0, v);
+				v = avg3(b, a, x0);
+				put(w, dst, 3, 2, v);
+				put(w, dst, 2, 1, v);
+				put(w, dst, 1, 0, v);
+				v = avg3(c, b, a);
+				put(w, dst, 3, 1, v);
+				put(w, dst, 2, 0, v);
+				put(w, dst, 3, 0, avg3(d, c, b));
+			}
+			case 5 -> { // VR
+				int v = avg2(x0, a);
+				put(w, dst, 0, 0, v);
+				put(w, dst, 1, 2, v);
+				v = avg2(a, b);
+				put(w, dst, 1, 0, v);
+				put(w, dst, 2, 2, v);
+				v = avg2(b, c);
+				put(w, dst, 2, 0, v);
+				put(w, dst, 3, 2, v);
+				put(w, dst, 3, 0, avg2(c, d));
+				put(w, dst, 0, 3, avg3(k, j, i));
+				put(w, dst, 0, 2, avg3(j, i, x0));
+				v = avg3(i, x0, a);
+				put(w, dst, 0, 1, v);
+				put(w, dst, 1, 3, v);
+				v = avg3(x0, a, b);
+				put(w, dst, 1, 1, v);
+				put(w, dst, 2, 3, v);
+				v = avg3(a, b, c);
+				put(w, dst, 2, 1, v);
+				put(w, dst, 3, 3, v);
+				put(w, dst, 3, 1, avg3(b, c, d));
+			}
+			case 6 -> { // LD
+				int e = w[top + 4] & 0xFF;
+				int f = w[top + 5] & 0xFF;
+				int g = w[top + 6] & 0xFF;
+				int h = w[top + 7] & 0xFF;
+				put(w, dst, 0, 0, avg3(a, b, c));
+				int v = avg3(b, c, d);
+				put(w, dst, 1, 0, v);
+				put(w, dst, 0, 1, v);
+				v = avg3(c, d, e);
+				put(w, dst, 2, 0, v);
+				put(w, dst, 1, 1, v);
+				put(w, dst, 0, 2, v);
+				v = avg3(d, e, f);
+				put(w, dst, 3, 0, v);
+				put(w, dst, 2, 1, v);
+				put(w, dst, 1, 2, v);
+				put(w, dst, 0, 3, v);
+				v = avg3(e, f, g);
+				put(w, dst, 3, 1, v);
+				put(w, dst, 2, 2, v);
+				put(w, dst, 1, 3, v);
+				v = avg3(f, g, h);
+				put(w, dst, 3, 2, v);
+				put(w, dst, 2, 3, v);
+				put(w, dst, 3, 3, avg3(g, h, h));
+			}
+			case 7 -> { // VL
+				int e = w[top + 4] & 0xFF;
+				int f = w[top + 5] & 0xFF;
+				int g = w[top + 6] & 0xFF;
+				int h = w[top + 7] & 0xFF;
+				put(w, dst, 0, 0, avg2(a, b));
+				int v = avg2(b, c);
+				put(w, dst, 1, 0, v);
+				put(w, dst, 0, 2, v);
+				v = avg2(c, d);
+				put(w, dst, 2, 0, v);
+				put(w, dst, 1, 2, v);
+				v = avg2(d, e);
+				put(w, dst, 3, 0, v);
+				put(w, dst, 2, 2, v);
+				put(w, dst, 0, 1, avg3(a, b, c));
+				v = avg3(b, c, d);
+				put(w, dst, 1, 1, v);
+				put(w, dst, 0, 3, v);
+				v = avg3(c, d, e);
+				put(w, dst, 2, 1, v);
+				put(w, dst, 1, 3, v);
+				v = avg3(d, e, f);
+				put(w, dst, 3, 1, v);
+				put(w, dst, 2, 3, v);
+				put(w, dst, 3, 2, avg3(e, f, g));
+				put(w, dst, 3, 3, avg3(f, g, h));
+			}
+			case 8 -> { // HD
+				int v = avg2(i, x0);
+				put(w, dst, 0, 0, v);
+				put(w, dst, 2, 1, v);
+				v = avg2(j, i);
+				put(w, dst, 0, 1, v);
+				put(w, dst, 2, 2, v);
+				v = avg2(k, j);
+				put(w, dst, 0, 2, v);
+				put(w, dst, 2, 3, v);
+				put(w, dst, 0, 3, avg2(l, k));
+				put(w, dst, 3, 0, avg3(a, b, c));
+				put(w, dst, 2, 0, avg3(x0, a, b));
+				v = avg3(i, x0, a);
+				put(w, dst, 1, 0, v);
+				put(w, dst, 3, 1, v);
+				v = avg3(j, i, x0);
+				put(w, dst, 1, 1, v);
+				put(w, dst, 3, 2, v);
+				v = avg3(k, j, i);
+				put(w, dst, 1, 2, v);
+				put(w, dst, 3, 3, v);
+				put(w, dst, 1, 3, avg3(l, k, j));
+			}
+			default -> { // HU
+				put(w, dst, 0, 0, avg2(i, j));
+				int v = avg2(j, k);
+				put(w, dst, 2, 0, v);
+				put(w, dst, 0, 1, v);
+				v = avg2(k, l);
+				put(w, dst, 2, 1, v);
+				put(w, dst, 0, 2, v);
+				put(w, dst, 1, 0, avg3(i, j, k));
+				v = avg3(j, k, l);
+				put(w, dst, 3, 0, v);
+				put(w, dst, 1, 1, v);
+				v = avg3(k, l, l);
+				put(w, dst, 3, 1, v);
+				put(w, dst, 1, 2, v);
+				put(w, dst, 3, 2, l);
+				put(w, dst, 2, 2, l);
+				put(w, dst, 0, 3, l);
+				put(w, dst, 1, 3, l);
+				put(w, dst, 2, 3, l);
+				put(w, dst, 3, 3, l);
+			}
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package io.gotan.kit.image.webp;
+
+import javax.imageio.IIOException;
+
+/**
+ * Lecture de bits VP8L, poids faibles en premier.
+ * <p>
+ * Les octets sont chargés par 8 dans un accumulateur 64 bits : la lecture d'un
+ * symbole ne fait ni allocation ni appel virtuel.
+ */
+final class VP8LBitReader {
+
+	private final byte[] data;
+	private final int end;
+	private int position;
+	private long value;
+	private int bits;
+
+	VP8LBitReader(byte[] data, int offset, int length) {
+		this.data = data;
+		this.position = offset;
+		this.end = offset + length;
+	}
+
+	/**
+	 * Recharge l'accumulateur pour garantir au moins 56 bits disponibles (si le flux en contient).
+	 */
+	private void fill() {
+		while (bits <= 56 && position < end) {
+			value |= (data[position++] & 0xFFL) << bits;
+			bits += 8;
+		}
+	}
+
+	/**
+	 * Lit <code>n</code> bits (n &lt;= 24).
+	 */
+	int read(int n) throws IIOException {
+		if (bits < n) {
+			fill();
+			if (bits < n) {
+				throw new IIOException("Truncated VP8L bitstream");
+			}
+		}
+		int result = (int) value & ((1 << n) - 1);
+		value >>>= n;
+		bits -= n;
+		return result;
+	}
+
+	/**
+	 * Lit un symbole avec une table de Huffman à deux niveaux.
+	 *
+	 * @param table  Tables construites par {@link HuffmanTable}
+	 * @param offset Début de la table racine dans <code>table</code>
+	 */
+	int readSymbol(int[] table, int offset) throws IIOException {
+		if (bits < HuffmanTable.MAX_LENGTH) {
+			fill();
+		}
+		int peek = (int) value;
+		int entry = table[offset + (peek & HuffmanTable.ROOT_MASK)];
+		int length = entry >>> 16;
+		if (length > HuffmanTable.ROOT_BITS) {
+			int sub = length - HuffmanTable.ROOT_BITS;
+			int index = offset + (peek & HuffmanTable.ROOT_MASK) + (entry & 0xFFFF)
+					+ ((peek >>> HuffmanTable.ROOT_BITS) & ((1 << sub) - 1));
+			entry = table[index];
+			length = (entry >>> 16) + HuffmanTable.ROOT_BITS;
+		}
+		if (length > bits) {
+			throw new IIOException("Truncated VP8L bitstream");
+		}
+		value >>>= length;
+		bits -= length;
+		return entry & 0xFFFF;
+	}
+}
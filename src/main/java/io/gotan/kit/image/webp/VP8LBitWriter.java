@@ -0,0 +1,52 @@
+package io.gotan.kit.image.webp;
+
+import java.util.Arrays;
+
+/**
+ * Écriture de bits VP8L, poids faibles en premier, dans un tableau extensible.
+ */
+final class VP8LBitWriter {
+
+	private byte[] buffer;
+	private int size;
+	private long value;
+	private int bits;
+
+	VP8LBitWriter(int capacity) {
+		this.buffer = new byte[Math.max(capacity, 64)];
+	}
+
+	/**
+	 * Écrit les <code>n</code> bits de poids faible de <code>v</code> (n &lt;= 32).
+	 */
+	void putBits(int v, int n) {
+		if (n == 0) {
+			return;
+		}
+		value |= (v & (-1L >>> (64 - n))) << bits;
+		bits += n;
+		if (bits >= 32) {
+			if (size + 4 > buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+			buffer[size++] = (byte) value;
+			buffer[size++] = (byte) (value >>> 8);
+			buffer[size++] = (byte) (value >>> 16);
+			buffer[size++] = (byte) (value >>> 24);
+			value >>>= 32;
+			bits -= 32;
+		}
+	}
+
+	/**
+	 * @return Flux complété au prochain octet
+	 */
+	byte[] toByteArray() {
+		byte[] result = Arrays.copyOf(buffer, size + (bits + 7) / 8);
+		long v = value;
+		for (int i = size; i < result.length; i++, v >>>= 8) {
+			result[i] = (byte) v;
+		}
+		return result;
+	}
+}
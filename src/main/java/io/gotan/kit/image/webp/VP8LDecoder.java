@@ -0,0 +1,581 @@
+package io.gotan.kit.image.webp;
+
+import javax.imageio.IIOException;
+import java.util.Arrays;
+
+/**
+ * Décodeur WebP sans perte (VP8L).
+ * <p>
+ * Implémente le format tel que décrit par la spécification « WebP Lossless
+ * Bitstream » : transformations (prédiction, couleurs croisées, soustraction du
+ * vert, palette), codes de Huffman par groupes, références arrière et cache de
+ * couleurs. Les pixels sont produits en ARGB 32 bits.
+ */
+final class VP8LDecoder {
+
+	static final int SIGNATURE = 0x2F;
+
+	static final int NUM_LITERAL_CODES = 256;
+
+	static final int NUM_LENGTH_CODES = 24;
+
+	static final int NUM_DISTANCE_CODES = 40;
+
+	static final int MAX_CACHE_BITS = 11;
+
+	static final int PREDICTOR_TRANSFORM = 0;
+
+	static final int CROSS_COLOR_TRANSFORM = 1;
+
+	static final int SUBTRACT_GREEN_TRANSFORM = 2;
+
+	static final int COLOR_INDEXING_TRANSFORM = 3;
+
+	static final int[] CODE_LENGTH_ORDER = {17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+	private static final int CODE_LENGTH_CODES = 19;
+
+	private static final int[] CODE_LENGTH_EXTRA_BITS = {2, 3, 7};
+
+	private static final int[] CODE_LENGTH_REPEAT_OFFSETS = {3, 3, 11};
+
+	/**
+	 * Multiplicateur du hachage du cache de couleurs.
+	 */
+	static final int COLOR_CACHE_MULTIPLIER = 0x1E35A7BD;
+
+	private final VP8LBitReader reader;
+
+	private final int[] scratch = new int[HuffmanTable.SCRATCH_SIZE];
+
+	private int width;
+
+	private int height;
+
+	private boolean alphaHint;
+
+	private VP8LDecoder(byte[] data, int offset, int length) {
+		this.reader = new VP8LBitReader(data, offset, length);
+	}
+
+	/**
+	 * Lit l'en-tête d'un flux VP8L.
+	 *
+	 * @return Décodeur positionné après l'en-tête
+	 */
+	static VP8LDecoder open(byte[] data, int offset, int length) throws IIOException {
+		VP8LDecoder decoder = new VP8LDecoder(data, offset, length);
+		VP8LBitReader reader = decoder.reader;
+		if (reader.read(8) != SIGNATURE) {
+			throw new IIOException("Invalid VP8L signature");
+		}
+		decoder.width = reader.read(14) + 1;
+		decoder.height = reader.read(14) + 1;
+		decoder.alphaHint = reader.read(1) == 1;
+		if (reader.read(3) != 0) {
+			throw new IIOException("Unsupported VP8L version");
+		}
+		return decoder;
+	}
+
+	/**
+	 * Décode un flux d'image VP8L sans en-tête (canal alpha des images avec perte).
+	 *
+	 * @return Pixels ARGB, la valeur utile est dans le canal vert
+	 */
+	static int[] decodeImageStream(byte[] data, int offset, int length, int width, int height) throws IIOException {
+		VP8LDecoder decoder = new VP8LDecoder(data, offset, length);
+		decoder.width = width;
+		decoder.height = height;
+		return decoder.decodeImageStream(width, height, true);
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return Indication de l'en-tête : l'image utilise le canal alpha
+	 */
+	boolean hasAlphaHint() {
+		return alphaHint;
+	}
+
+	/**
+	 * Décode l'image.
+	 *
+	 * @return Pixels ARGB, ligne par ligne
+	 */
+	int[] decode() throws IIOException {
+		return decodeImageStream(width, height, true);
+	}
+
+	private int[] decodeImageStream(int xsize, int ysize, boolean level0) throws IIOException {
+		Transform[] transforms = new Transform[4];
+		int transformCount = 0;
+		int transformWidth = xsize;
+		if (level0) {
+			int seen = 0;
+			while (reader.read(1) == 1) {
+				int type = reader.read(2);
+				if ((seen & (1 << type)) != 0) {
+					throw new IIOException("VP8L transform used twice");
+				}
+				seen |= 1 << type;
+				Transform transform = readTransform(type, transformWidth, ysize);
+				transforms[transformCount++] = transform;
+				if (type == COLOR_INDEXING_TRANSFORM) {
+					transformWidth = subSampleSize(transformWidth, transform.bits);
+				}
+			}
+		}
+
+		int cacheBits = 0;
+		if (reader.read(1) == 1) {
+			cacheBits = reader.read(4);
+			if (cacheBits < 1 || cacheBits > MAX_CACHE_BITS) {
+				throw new IIOException("Invalid VP8L color cache size");
+			}
+		}
+
+		int metaBits = 0;
+		int metaWidth = 0;
+		int[] meta = null;
+		int groupCount = 1;
+		if (level0 && reader.read(1) == 1) {
+			metaBits = reader.read(3) + 2;
+			metaWidth = subSampleSize(transformWidth, metaBits);
+			meta = decodeImageStream(metaWidth, subSampleSize(ysize, metaBits), false);
+			for (int i = 0; i < meta.length; i++) {
+				meta[i] = (meta[i] >>> 8) & 0xFFFF;
+				groupCount = Math.max(groupCount, meta[i] + 1);
+			}
+		}
+
+		int cacheSize = cacheBits > 0 ? 1 << cacheBits : 0;
+		int[][][] groups = new int[groupCount][][];
+		int[] lengths = new int[NUM_LITERAL_CODES + NUM_LENGTH_CODES + cacheSize];
+		for (int g = 0; g < groupCount; g++) {
+			groups[g] = new int[][]{
+					readHuffmanCode(NUM_LITERAL_CODES + NUM_LENGTH_CODES + cacheSize, lengths),
+					readHuffmanCode(NUM_LITERAL_CODES, lengths),
+					readHuffmanCode(NUM_LITERAL_CODES, lengths),
+					readHuffmanCode(NUM_LITERAL_CODES, lengths),
+					readHuffmanCode(NUM_DISTANCE_CODES, lengths)
+			};
+		}
+
+		int[] pixels = new int[transformWidth * ysize];
+		decodePixels(pixels, transformWidth, ysize, groups, meta, metaBits, metaWidth, cacheBits);
+
+		for (int t = transformCount - 1; t >= 0; t--) {
+			pixels = transforms[t].inverse(pixels, ysize);
+		}
+		return pixels;
+	}
+
+	private Transform readTransform(int type, int xsize, int ysize) throws IIOException {
+		switch (type) {
+			case PREDICTOR_TRANSFORM:
+			case CROSS_COLOR_TRANSFORM: {
+				int bits = reader.read(3) + 2;
+				int[] data = decodeImageStream(subSampleSize(xsize, bits), subSampleSize(ysize, bits), false);
+				return new Transform(type, bits, xsize, data);
+			}
+			case SUBTRACT_GREEN_TRANSFORM:
+				return new Transform(type, 0, xsize, null);
+			default: {
+				int size = reader.read(8) + 1;
+				int bits = size > 16 ? 0 : size > 4 ? 1 : size > 2 ? 2 : 3;
+				int[] colors = decodeImageStream(size, 1, false);
+				// Palette codée en différences, hors palette : noir transparent
+				int[] palette = new int[1 << 8];
+				palette[0] = colors[0];
+				for (int i = 1; i < size; i++) {
+					palette[i] = addPixels(colors[i], palette[i - 1]);
+				}
+				return new Transform(type, bits, xsize, palette);
+			}
+		}
+	}
+
+	private int[] readHuffmanCode(int alphabetSize, int[] lengths) throws IIOException {
+		Arrays.fill(lengths, 0, alphabetSize, 0);
+		if (reader.read(1) == 1) {
+			// Code simple : un ou deux symboles
+			int symbols = reader.read(1) + 1;
+			int first = reader.read(reader.read(1) == 0 ? 1 : 8);
+			if (first >= alphabetSize) {
+				throw new IIOException("Invalid VP8L simple code");
+			}
+			lengths[first] = 1;
+			if (symbols == 2) {
+				int second = reader.read(8);
+				if (second >= alphabetSize) {
+					throw new IIOException("Invalid VP8L simple code");
+				}
+				lengths[second] = 1;
+			}
+		} else {
+			int[] codeLengthLengths = new int[CODE_LENGTH_CODES];
+			int count = reader.read(4) + 4;
+			for (int i = 0; i < count; i++) {
+				codeLengthLengths[CODE_LENGTH_ORDER[i]] = reader.read(3);
+			}
+			readCodeLengths(codeLengthLengths, alphabetSize, lengths);
+		}
+		int[] table = HuffmanTable.build(lengths, alphabetSize, scratch);
+		if (table == null) {
+			throw new IIOException("Invalid VP8L Huffman code");
+		}
+		return table;
+	}
+
+	private void readCodeLengths(int[] codeLengthLengths, int alphabetSize, int[] lengths) throws IIOException {
+		int[] table = HuffmanTable.build(codeLengthLengths, CODE_LENGTH_CODES, scratch);
+		if (table == null) {
+			throw new IIOException("Invalid VP8L code length code");
+		}
+		int maxSymbol = alphabetSize;
+		if (reader.read(1) == 1) {
+			int lengthBits = 2 + 2 * reader.read(3);
+			maxSymbol = 2 + reader.read(lengthBits);
+			if (maxSymbol > alphabetSize) {
+				throw new IIOException("Invalid VP8L code lengths");
+			}
+		}
+		int symbol = 0;
+		int previous = 8;
+		while (symbol < alphabetSize) {
+			if (maxSymbol-- == 0) {
+				break;
+			}
+			int code = reader.readSymbol(table, 0);
+			if (code < 16) {
+				lengths[symbol++] = code;
+				if (code != 0) {
+					previous = code;
+				}
+			} else {
+				int slot = code - 16;
+				int repeat = reader.read(CODE_LENGTH_EXTRA_BITS[slot]) + CODE_LENGTH_REPEAT_OFFSETS[slot];
+				if (symbol + repeat > alphabetSize) {
+					throw new IIOException("Invalid VP8L code lengths");
+				}
+				int value = code == 16 ? previous : 0;
+				while (repeat-- > 0) {
+					lengths[symbol++] = value;
+				}
+			}
+		}
+	}
+
+	private void decodePixels(int[] pixels, int xsize, int ysize, int[][][] groups, int[] meta, int metaBits,
+							  int metaWidth, int cacheBits) throws IIOException {
+		int total = xsize * ysize;
+		int[] cache = cacheBits > 0 ? new int[1 << cacheBits] : null;
+		int cacheShift = 32 - cacheBits;
+		int metaMask = (1 << metaBits) - 1;
+		int[][] group = groups[0];
+		int pos = 0;
+		int x = 0;
+		int y = 0;
+		boolean refresh = true;
+		while (pos < total) {
+			if (meta != null && (refresh || (x & metaMask) == 0)) {
+				group = groups[meta[(y >> metaBits) * metaWidth + (x >> metaBits)]];
+				refresh = false;
+			}
+			int code = reader.readSymbol(group[0], 0);
+			if (code < NUM_LITERAL_CODES) {
+				int red = reader.readSymbol(group[1], 0);
+				int blue = reader.readSymbol(group[2], 0);
+				int alpha = reader.readSymbol(group[3], 0);
+				int argb = (alpha << 24) | (red << 16) | (code << 8) | blue;
+				pixels[pos++] = argb;
+				if (cache != null) {
+					cache[(argb * COLOR_CACHE_MULTIPLIER) >>> cacheShift] = argb;
+				}
+				if (++x == xsize) {
+					x = 0;
+					y++;
+				}
+			} else if (code < NUM_LITERAL_CODES + NUM_LENGTH_CODES) {
+				int length = prefixValue(code - NUM_LITERAL_CODES);
+				int distanceCode = prefixValue(reader.readSymbol(group[4], 0));
+				int distance = planeCodeToDistance(xsize, distanceCode);
+				if (distance > pos || length > total - pos) {
+					throw new IIOException("Invalid VP8L backward reference");
+				}
+				for (int i = 0; i < length; i++, pos++) {
+					int argb = pixels[pos - distance];
+					pixels[pos] = argb;
+					if (cache != null) {
+						cache[(argb * COLOR_CACHE_MULTIPLIER) >>> cacheShift] = argb;
+					}
+				}
+				x += length;
+				while (x >= xsize) {
+					x -= xsize;
+					y++;
+				}
+				refresh = pos < total;
+			} else {
+				if (cache == null) {
+					throw new IIOException("Invalid VP8L color cache code");
+				}
+				int argb = cache[code - NUM_LITERAL_CODES - NUM_LENGTH_CODES];
+				pixels[pos++] = argb;
+				if (++x == xsize) {
+					x = 0;
+					y++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Valeur d'une longueur ou d'une distance à partir de son préfixe et de ses bits supplémentaires.
+	 */
+	private int prefixValue(int prefix) throws IIOException {
+		if (prefix < 4) {
+			return prefix + 1;
+		}
+		int extraBits = (prefix - 2) >> 1;
+		int offset = (2 + (prefix & 1)) << extraBits;
+		return offset + reader.read(extraBits) + 1;
+	}
+
+	static int planeCodeToDistance(int xsize, int planeCode) {
+		if (planeCode > 120) {
+			return planeCode - 120;
+		}
+		int code = VP8Tables.CODE_TO_PLANE[planeCode - 1] & 0xFF;
+		int distance = (code >> 4) * xsize + (8 - (code & 0xF));
+		return Math.max(1, distance);
+	}
+
+	static int subSampleSize(int size, int bits) {
+		return (size + (1 << bits) - 1) >> bits;
+	}
+
+	/**
+	 * Addition composante par composante, modulo 256.
+	 */
+	static int addPixels(int a, int b) {
+		int alphaGreen = (a & 0xFF00FF00) + (b & 0xFF00FF00);
+		int redBlue = (a & 0x00FF00FF) + (b & 0x00FF00FF);
+		return (alphaGreen & 0xFF00FF00) | (redBlue & 0x00FF00FF);
+	}
+
+	/**
+	 * Soustraction composante par composante, modulo 256.
+	 */
+	static int subPixels(int a, int b) {
+		int alphaGreen = 0x00FF00FF + (a & 0xFF00FF00) - (b & 0xFF00FF00);
+		int redBlue = 0xFF00FF00 + (a & 0x00FF00FF) - (b & 0x00FF00FF);
+		return (alphaGreen & 0xFF00FF00) | (redBlue & 0x00FF00FF);
+	}
+
+	static int average2(int a, int b) {
+		return (((a ^ b) & 0xFEFEFEFE) >>> 1) + (a & b);
+	}
+
+	/**
+	 * Prédiction VP8L d'un pixel.
+	 *
+	 * @param mode   Mode 0 à 13
+	 * @param pixels Image (déjà reconstruite avant <code>pos</code>)
+	 * @param pos    Position du pixel, hors première ligne et première colonne
+	 * @param width  Largeur de l'image
+	 */
+	static int predict(int mode, int[] pixels, int pos, int width) {
+		int top = pos - width;
+		switch (mode) {
+			case 0:
+				return 0xFF000000;
+			case 1:
+				return pixels[pos - 1];
+			case 2:
+				return pixels[top];
+			case 3:
+				return pixels[top + 1];
+			case 4:
+				return pixels[top - 1];
+			case 5:
+				return average2(average2(pixels[pos - 1], pixels[top + 1]), pixels[top]);
+			case 6:
+				return average2(pixels[pos - 1], pixels[top - 1]);
+			case 7:
+				return average2(pixels[pos - 1], pixels[top]);
+			case 8:
+				return average2(pixels[top - 1], pixels[top]);
+			case 9:
+				return average2(pixels[top], pixels[top + 1]);
+			case 10:
+				return average2(average2(pixels[pos - 1], pixels[top - 1]), average2(pixels[top], pixels[top + 1]));
+			case 11:
+				return select(pixels[top], pixels[pos - 1], pixels[top - 1]);
+			case 12:
+				return clampAddSubtractFull(pixels[pos - 1], pixels[top], pixels[top - 1]);
+			case 13:
+				return clampAddSubtractHalf(average2(pixels[pos - 1], pixels[top]), pixels[top - 1]);
+			default:
+				// Modes 14 et 15 : non définis, traités comme le mode 0 (comme libwebp)
+				return 0xFF000000;
+		}
+	}
+
+	private static int select(int top, int left, int topLeft) {
+		int predictLeft = 0;
+		int predictTop = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int t = (top >>> shift) & 0xFF;
+			int l = (left >>> shift) & 0xFF;
+			int tl = (topLeft >>> shift) & 0xFF;
+			predictLeft += Math.abs(t - tl);
+			predictTop += Math.abs(l - tl);
+		}
+		return predictLeft < predictTop ? left : top;
+	}
+
+	private static int clampAddSubtractFull(int a, int b, int c) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int v = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) - ((c >>> shift) & 0xFF);
+			result |= clip255(v) << shift;
+		}
+		return result;
+	}
+
+	private static int clampAddSubtractHalf(int a, int b) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			int va = (a >>> shift) & 0xFF;
+			int vb = (b >>> shift) & 0xFF;
+			result |= clip255(va + (va - vb) / 2) << shift;
+		}
+		return result;
+	}
+
+	private static int clip255(int v) {
+		return v < 0 ? 0 : Math.min(v, 255);
+	}
+
+	/**
+	 * Écart de couleur croisée : produit de deux octets signés, divisé par 32.
+	 */
+	static int colorTransformDelta(int multiplier, int color) {
+		return ((byte) multiplier * (byte) color) >> 5;
+	}
+
+	/**
+	 * Transformation lue dans le flux, appliquée en sens inverse après décodage.
+	 */
+	private static final class Transform {
+		final int type;
+		final int bits;
+		/**
+		 * Largeur de l'image avant la transformation.
+		 */
+		final int xsize;
+		final int[] data;
+
+		Transform(int type, int bits, int xsize, int[] data) {
+			this.type = type;
+			this.bits = bits;
+			this.xsize = xsize;
+			this.data = data;
+		}
+
+		int[] inverse(int[] pixels, int ysize) {
+			switch (type) {
+				case PREDICTOR_TRANSFORM:
+					inversePredictor(pixels, ysize);
+					return pixels;
+				case CROSS_COLOR_TRANSFORM:
+					inverseCrossColor(pixels, ysize);
+					return pixels;
+				case SUBTRACT_GREEN_TRANSFORM:
+					for (int i = 0; i < pixels.length; i++) {
+						int argb = pixels[i];
+						int green = (argb >>> 8) & 0xFF;
+						int redBlue = ((argb & 0x00FF00FF) + ((green << 16) | green)) & 0x00FF00FF;
+						pixels[i] = (argb & 0xFF00FF00) | redBlue;
+					}
+					return pixels;
+				default:
+					return inverseColorIndexing(pixels, ysize);
+			}
+		}
+
+		private void inversePredictor(int[] pixels, int ysize) {
+			int width = xsize;
+			pixels[0] = addPixels(pixels[0], 0xFF000000);
+			for (int x = 1; x < width; x++) {
+				pixels[x] = addPixels(pixels[x], pixels[x - 1]);
+			}
+			int blocksPerRow = subSampleSize(width, bits);
+			int blockMask = (1 << bits) - 1;
+			for (int y = 1; y < ysize; y++) {
+				int row = y * width;
+				pixels[row] = addPixels(pixels[row], pixels[row - width]);
+				int modes = (y >> bits) * blocksPerRow;
+				int mode = 0;
+				for (int x = 1; x < width; x++) {
+					if (x == 1 || (x & blockMask) == 0) {
+						mode = (data[modes + (x >> bits)] >>> 8) & 0xF;
+					}
+					int pos = row + x;
+					pixels[pos] = addPixels(pixels[pos], predict(mode, pixels, pos, width));
+				}
+			}
+		}
+
+		private void inverseCrossColor(int[] pixels, int ysize) {
+			int width = xsize;
+			int blocksPerRow = subSampleSize(width, bits);
+			for (int y = 0; y < ysize; y++) {
+				int multipliers = (y >> bits) * blocksPerRow;
+				for (int x = 0, pos = y * width; x < width; x++, pos++) {
+					int m = data[multipliers + (x >> bits)];
+					int argb = pixels[pos];
+					int green = argb >>> 8;
+					int red = (argb >>> 16) + colorTransformDelta(m, green);
+					red &= 0xFF;
+					int blue = argb + colorTransformDelta(m >>> 8, green) + colorTransformDelta(m >>> 16, red);
+					blue &= 0xFF;
+					pixels[pos] = (argb & 0xFF00FF00) | (red << 16) | blue;
+				}
+			}
+		}
+
+		private int[] inverseColorIndexing(int[] packed, int ysize) {
+			int[] palette = data;
+			if (bits == 0) {
+				for (int i = 0; i < packed.length; i++) {
+					packed[i] = palette[(packed[i] >>> 8) & 0xFF];
+				}
+				return packed;
+			}
+			int packedWidth = subSampleSize(xsize, bits);
+			int bitsPerPixel = 8 >> bits;
+			int countMask = (1 << bits) - 1;
+			int indexMask = (1 << bitsPerPixel) - 1;
+			int[] pixels = new int[xsize * ysize];
+			for (int y = 0; y < ysize; y++) {
+				int src = y * packedWidth;
+				int dst = y * xsize;
+				for (int x = 0; x < xsize; x++) {
+					int value = packed[src + (x >> bits)] >>> 8;
+					pixels[dst + x] = palette[(value >>> ((x & countMask) * bitsPerPixel)) & indexMask];
+				}
+			}
+			return pixels;
+		}
+	}
+}
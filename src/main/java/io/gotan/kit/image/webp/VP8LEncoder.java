@@ -0,0 +1,894 @@
+package io.gotan.kit.image.webp;
+
+import java.util.Arrays;
+
+import static io.gotan.kit.image.webp.VP8LDecoder.COLOR_CACHE_MULTIPLIER;
+import static io.gotan.kit.image.webp.VP8LDecoder.COLOR_INDEXING_TRANSFORM;
+import static io.gotan.kit.image.webp.VP8LDecoder.NUM_DISTANCE_CODES;
+import static io.gotan.kit.image.webp.VP8LDecoder.NUM_LENGTH_CODES;
+import static io.gotan.kit.image.webp.VP8LDecoder.NUM_LITERAL_CODES;
+import static io.gotan.kit.image.webp.VP8LDecoder.PREDICTOR_TRANSFORM;
+import static io.gotan.kit.image.webp.VP8LDecoder.SUBTRACT_GREEN_TRANSFORM;
+
+/**
+ * Encodeur WebP sans perte (VP8L).
+ * <p>
+ * Stratégie :
+ * <ul>
+ *     <li>256 couleurs au plus : palette triée, pixels regroupés par 2, 4 ou 8 dans le canal vert ;</li>
+ *     <li>sinon : soustraction du vert, puis prédiction par blocs de 16x16 (le mode qui minimise
+ *     la somme des résidus absolus) ;</li>
+ *     <li>références arrière LZ77 par chaînes de hachage, distances codées dans le voisinage 2D ;</li>
+ *     <li>taille du cache de couleurs choisie par estimation d'entropie ;</li>
+ *     <li>un seul groupe de codes de Huffman, longueurs limitées à 15 bits.</li>
+ * </ul>
+ * Les tableaux de travail sont alloués une fois par image.
+ */
+final class VP8LEncoder {
+
+	/**
+	 * Dimension maximum d'une image VP8L.
+	 */
+	static final int MAX_DIMENSION = 1 << 14;
+
+	private static final int MAX_PALETTE_SIZE = 256;
+
+	/**
+	 * Nombre de pixels entre deux notifications d'avancement.
+	 */
+	private static final int PROGRESS_INTERVAL = 1 << 16;
+
+	private static final int PREDICTOR_BITS = 4;
+
+	private static final int NUM_PREDICTORS = 14;
+
+	private static final int HASH_BITS = 16;
+
+	private static final int MIN_MATCH = 3;
+
+	private static final int MAX_MATCH = 4096;
+
+	private static final int WINDOW_SIZE = (1 << 20) - 120;
+
+	private static final int[] CACHE_BITS_CANDIDATES = {0, 2, 4, 6, 8, 10};
+
+	private static final int CODE_LENGTH_CODES = 19;
+
+	private static final int MAX_CODE_LENGTH_LENGTH = 7;
+
+	/**
+	 * Code de distance 2D (1 à 120) par voisinage : indice <code>dy * 16 + (8 - dx)</code>.
+	 */
+	private static final int[] PLANE_TO_CODE = new int[128];
+
+	static {
+		for (int code = 0; code < 120; code++) {
+			PLANE_TO_CODE[VP8Tables.CODE_TO_PLANE[code] & 0xFF] = code + 1;
+		}
+	}
+
+	private final VP8LBitWriter writer;
+
+	/**
+	 * Nombre maximum de candidats examinés par position dans les chaînes de hachage.
+	 */
+	private final int maxChain;
+
+	// Références arrière de l'image en cours : longueur (0 pour un littéral) et pixel ou code de distance
+	private int[] refLengths;
+	private int[] refValues;
+	private int refCount;
+
+	private Progress progress;
+
+	private VP8LEncoder(int capacity, int maxChain) {
+		this.writer = new VP8LBitWriter(capacity);
+		this.maxChain = maxChain;
+	}
+
+	/**
+	 * Encode une image.
+	 *
+	 * @param argb    Pixels ARGB non prémultipliés, ligne par ligne
+	 * @param width   Largeur, {@link #MAX_DIMENSION} au plus
+	 * @param height  Hauteur, {@link #MAX_DIMENSION} au plus
+	 * @param quality Effort de compression entre 0 et 1 : plus lent, plus compact
+	 * @return Flux VP8L (contenu du bloc <code>VP8L</code>)
+	 */
+	static byte[] encode(int[] argb, int width, int height, float quality) {
+		return encode(argb, width, height, quality, fraction -> true);
+	}
+
+	/**
+	 * Encode une image en suivant son avancement.
+	 *
+	 * @param progress Appelé régulièrement pendant la recherche de correspondances
+	 * @return Flux VP8L, <code>null</code> si l'encodage a été interrompu
+	 * @see #encode(int[], int, int, float)
+	 */
+	static byte[] encode(int[] argb, int width, int height, float quality, Progress progress) {
+		float effort = Math.max(0f, Math.min(1f, quality));
+		VP8LEncoder encoder = new VP8LEncoder(width * height / 2, 1 + (int) (effort * effort * 255));
+		encoder.progress = progress;
+		try {
+			return encoder.encodeImage(argb, width, height);
+		} catch (Aborted e) {
+			return null;
+		}
+	}
+
+	private byte[] encodeImage(int[] argb, int width, int height) {
+		boolean alpha = false;
+		for (int p : argb) {
+			if ((p >>> 24) != 0xFF) {
+				alpha = true;
+				break;
+			}
+		}
+		writer.putBits(VP8LDecoder.SIGNATURE, 8);
+		writer.putBits(width - 1, 14);
+		writer.putBits(height - 1, 14);
+		writer.putBits(alpha ? 1 : 0, 1);
+		writer.putBits(0, 3);
+
+		int[] pixels;
+		int xsize = width;
+		int[] palette = collectPalette(argb);
+		if (palette != null) {
+			writer.putBits(1, 1);
+			writer.putBits(COLOR_INDEXING_TRANSFORM, 2);
+			writer.putBits(palette.length - 1, 8);
+			int[] deltas = new int[palette.length];
+			deltas[0] = palette[0];
+			for (int i = 1; i < palette.length; i++) {
+				deltas[i] = VP8LDecoder.subPixels(palette[i], palette[i - 1]);
+			}
+			writeImageStream(deltas, palette.length, 1, false);
+			int bits = palette.length > 16 ? 0 : palette.length > 4 ? 1 : palette.length > 2 ? 2 : 3;
+			xsize = VP8LDecoder.subSampleSize(width, bits);
+			pixels = bundle(argb, width, height, palette, bits);
+		} else {
+			pixels = argb.clone();
+			writer.putBits(1, 1);
+			writer.putBits(SUBTRACT_GREEN_TRANSFORM, 2);
+			subtractGreen(pixels);
+			writer.putBits(1, 1);
+			writer.putBits(PREDICTOR_TRANSFORM, 2);
+			writer.putBits(PREDICTOR_BITS - 2, 3);
+			int[] residuals = new int[pixels.length];
+			int[] modes = predict(pixels, residuals, width, height);
+			writeImageStream(modes, VP8LDecoder.subSampleSize(width, PREDICTOR_BITS),
+					VP8LDecoder.subSampleSize(height, PREDICTOR_BITS), false);
+			pixels = residuals;
+		}
+		writer.putBits(0, 1);
+		writeImageStream(pixels, xsize, height, true);
+		return writer.toByteArray();
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	// Transformations
+
+	/**
+	 * @return Palette triée, ou <code>null</code> s'il y a plus de {@link #MAX_PALETTE_SIZE} couleurs
+	 */
+	private static int[] collectPalette(int[] argb) {
+		ColorSet colors = new ColorSet();
+		int last = ~argb[0];
+		for (int p : argb) {
+			if (p != last) {
+				last = p;
+				if (!colors.add(p) && colors.size > MAX_PALETTE_SIZE) {
+					return null;
+				}
+			}
+		}
+		int[] palette = Arrays.copyOf(colors.toArray(), colors.size);
+		Arrays.sort(palette);
+		return palette;
+	}
+
+	/**
+	 * Remplace les pixels par leur indice dans la palette, regroupés par <code>1 &lt;&lt; bits</code>.
+	 */
+	private static int[] bundle(int[] argb, int width, int height, int[] palette, int bits) {
+		ColorSet indexes = new ColorSet();
+		for (int i = 0; i < palette.length; i++) {
+			indexes.put(palette[i], i);
+		}
+		int packedWidth = VP8LDecoder.subSampleSize(width, bits);
+		int bitsPerPixel = 8 >> bits;
+		int mask = (1 << bits) - 1;
+		int[] packed = new int[packedWidth * height];
+		int lastColor = ~argb[0];
+		int lastIndex = 0;
+		for (int y = 0; y < height; y++) {
+			int src = y * width;
+			int dst = y * packedWidth;
+			for (int x = 0; x < width; x++) {
+				int p = argb[src + x];
+				if (p != lastColor) {
+					lastColor = p;
+					lastIndex = indexes.get(p);
+				}
+				packed[dst + (x >> bits)] |= lastIndex << (8 + (x & mask) * bitsPerPixel);
+			}
+			for (int x = 0; x < packedWidth; x++) {
+				packed[dst + x] |= 0xFF000000;
+			}
+		}
+		return packed;
+	}
+
+	private static void subtractGreen(int[] pixels) {
+		for (int i = 0; i < pixels.length; i++) {
+			int argb = pixels[i];
+			int green = (argb >>> 8) & 0xFF;
+			int redBlue = ((argb & 0x00FF00FF) + 0x01000100 - ((green << 16) | green)) & 0x00FF00FF;
+			pixels[i] = (argb & 0xFF00FF00) | redBlue;
+		}
+	}
+
+	/**
+	 * Choisit un mode de prédiction par bloc et calcule les résidus.
+	 *
+	 * @return Image des modes (dans le canal vert)
+	 */
+	private static int[] predict(int[] pixels, int[] residuals, int width, int height) {
+		int tilesX = VP8LDecoder.subSampleSize(width, PREDICTOR_BITS);
+		int tilesY = VP8LDecoder.subSampleSize(height, PREDICTOR_BITS);
+		int[] modes = new int[tilesX * tilesY];
+		int tile = 1 << PREDICTOR_BITS;
+
+		// Bords : noir opaque pour le premier pixel, gauche sur la première ligne, haut sur la première colonne
+		residuals[0] = VP8LDecoder.subPixels(pixels[0], 0xFF000000);
+		for (int x = 1; x < width; x++) {
+			residuals[x] = VP8LDecoder.subPixels(pixels[x], pixels[x - 1]);
+		}
+		for (int y = 1; y < height; y++) {
+			residuals[y * width] = VP8LDecoder.subPixels(pixels[y * width], pixels[(y - 1) * width]);
+		}
+
+		for (int ty = 0; ty < tilesY; ty++) {
+			int y0 = Math.max(1, ty * tile);
+			int y1 = Math.min(height, (ty + 1) * tile);
+			for (int tx = 0; tx < tilesX; tx++) {
+				int x0 = Math.max(1, tx * tile);
+				int x1 = Math.min(width, (tx + 1) * tile);
+				int bestMode = 0;
+				long bestCost = Long.MAX_VALUE;
+				for (int mode = 0; mode < NUM_PREDICTORS && y0 < y1 && x0 < x1; mode++) {
+					long cost = 0;
+					for (int y = y0; y < y1 && cost < bestCost; y++) {
+						for (int x = x0, pos = y * width + x0; x < x1; x++, pos++) {
+							cost += residualCost(VP8LDecoder.subPixels(pixels[pos],
+									VP8LDecoder.predict(mode, pixels, pos, width)));
+						}
+					}
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestMode = mode;
+					}
+				}
+				modes[ty * tilesX + tx] = 0xFF000000 | (bestMode << 8);
+				for (int y = y0; y < y1; y++) {
+					for (int x = x0, pos = y * width + x0; x < x1; x++, pos++) {
+						residuals[pos] = VP8LDecoder.subPixels(pixels[pos],
+								VP8LDecoder.predict(bestMode, pixels, pos, width));
+					}
+				}
+			}
+		}
+		return modes;
+	}
+
+	/**
+	 * Somme des valeurs absolues des composantes d'un résidu (octets signés).
+	 */
+	private static int residualCost(int residual) {
+		return Math.abs((byte) residual) + Math.abs((byte) (residual >> 8))
+				+ Math.abs((byte) (residual >> 16)) + Math.abs((byte) (residual >> 24));
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	// Flux d'image
+
+	/**
+	 * Écrit un flux d'image : cache de couleurs, codes de Huffman et pixels.
+	 *
+	 * @param level0 Image principale (indicateur de méta-codes), sinon image d'une transformation
+	 */
+	private void writeImageStream(int[] pixels, int xsize, int ysize, boolean level0) {
+		int count = xsize * ysize;
+		computeBackwardReferences(pixels, xsize, count);
+
+		int cacheBits = 0;
+		double bestCost = Double.MAX_VALUE;
+		for (int bits : CACHE_BITS_CANDIDATES) {
+			if (bits > 0 && (!level0 || 1 << bits > count)) {
+				break;
+			}
+			double cost = estimateCost(histograms(pixels, bits));
+			if (cost < bestCost) {
+				bestCost = cost;
+				cacheBits = bits;
+			}
+		}
+		int[][] histograms = histograms(pixels, cacheBits);
+
+		if (cacheBits > 0) {
+			writer.putBits(1, 1);
+			writer.putBits(cacheBits, 4);
+		} else {
+			writer.putBits(0, 1);
+		}
+		if (level0) {
+			writer.putBits(0, 1); // pas de méta-codes
+		}
+		HuffmanCode[] codes = new HuffmanCode[5];
+		for (int i = 0; i < 5; i++) {
+			codes[i] = HuffmanCode.of(histograms[i], HuffmanTable.MAX_LENGTH);
+			storeHuffmanCode(codes[i]);
+		}
+		writeReferences(pixels, cacheBits, codes);
+	}
+
+	/**
+	 * Découpe l'image en littéraux et copies (LZ77 glouton sur chaînes de hachage).
+	 */
+	private void computeBackwardReferences(int[] pixels, int xsize, int count) {
+		if (refLengths == null || refLengths.length < count) {
+			refLengths = new int[count];
+			refValues = new int[count];
+		}
+		int[] head = new int[1 << HASH_BITS];
+		Arrays.fill(head, -1);
+		int[] chain = new int[count];
+		refCount = 0;
+		int i = 0;
+		int nextCheck = 0;
+		while (i < count) {
+			if (i >= nextCheck) {
+				if (!progress.update((float) i / count)) {
+					throw new Aborted();
+				}
+				nextCheck = i + PROGRESS_INTERVAL;
+			}
+			int maxLength = Math.min(MAX_MATCH, count - i);
+			int bestLength = 0;
+			int bestDistance = 0;
+			if (maxLength >= MIN_MATCH) {
+				// Pixel précédent et pixel du dessus : les distances les moins chères
+				if (i >= 1) {
+					bestLength = matchLength(pixels, i - 1, i, maxLength);
+					bestDistance = 1;
+				}
+				if (i >= xsize && xsize > 1) {
+					int length = matchLength(pixels, i - xsize, i, maxLength);
+					if (length > bestLength) {
+						bestLength = length;
+						bestDistance = xsize;
+					}
+				}
+				int candidate = head[hash(pixels[i], pixels[i + 1])];
+				for (int n = maxChain; candidate >= 0 && n > 0 && bestLength < maxLength; n--) {
+					int distance = i - candidate;
+					if (distance > WINDOW_SIZE) {
+						break;
+					}
+					if (pixels[candidate + bestLength] == pixels[i + bestLength]) {
+						int length = matchLength(pixels, candidate, i, maxLength);
+						if (length > bestLength) {
+							bestLength = length;
+							bestDistance = distance;
+						}
+					}
+					candidate = chain[candidate];
+				}
+			}
+			if (bestLength >= MIN_MATCH) {
+				refLengths[refCount] = bestLength;
+				refValues[refCount++] = distanceToPlaneCode(xsize, bestDistance);
+				for (int end = i + bestLength; i < end; i++) {
+					insert(pixels, i, count, head, chain);
+				}
+			} else {
+				refLengths[refCount] = 0;
+				refValues[refCount++] = pixels[i];
+				insert(pixels, i, count, head, chain);
+				i++;
+			}
+		}
+	}
+
+	private static void insert(int[] pixels, int pos, int count, int[] head, int[] chain) {
+		if (pos + 1 < count) {
+			int h = hash(pixels[pos], pixels[pos + 1]);
+			chain[pos] = head[h];
+			head[h] = pos;
+		}
+	}
+
+	private static int hash(int a, int b) {
+		return ((a * COLOR_CACHE_MULTIPLIER) ^ (b * 0x9E3779B1)) >>> (32 - HASH_BITS);
+	}
+
+	private static int matchLength(int[] pixels, int from, int to, int max) {
+		int length = 0;
+		while (length < max && pixels[from + length] == pixels[to + length]) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Code de distance VP8L : voisinage 2D proche (1 à 120), sinon distance + 120.
+	 */
+	static int distanceToPlaneCode(int xsize, int distance) {
+		int dy = distance / xsize;
+		int dx = distance - dy * xsize;
+		if (dx <= 8 && dy < 8) {
+			return PLANE_TO_CODE[dy * 16 + 8 - dx];
+		} else if (dx > xsize - 8 && dy < 7) {
+			return PLANE_TO_CODE[(dy + 1) * 16 + 8 + (xsize - dx)];
+		}
+		return distance + 120;
+	}
+
+	/**
+	 * Histogrammes des cinq alphabets pour une taille de cache donnée.
+	 */
+	private int[][] histograms(int[] pixels, int cacheBits) {
+		int[][] histograms = {
+				new int[NUM_LITERAL_CODES + NUM_LENGTH_CODES + (cacheBits > 0 ? 1 << cacheBits : 0)],
+				new int[NUM_LITERAL_CODES], new int[NUM_LITERAL_CODES], new int[NUM_LITERAL_CODES],
+				new int[NUM_DISTANCE_CODES]
+		};
+		int[] green = histograms[0];
+		int[] cache = cacheBits > 0 ? new int[1 << cacheBits] : null;
+		int cacheShift = 32 - cacheBits;
+		int pos = 0;
+		for (int r = 0; r < refCount; r++) {
+			int length = refLengths[r];
+			if (length == 0) {
+				int argb = refValues[r];
+				if (cache != null) {
+					int key = (argb * COLOR_CACHE_MULTIPLIER) >>> cacheShift;
+					if (cache[key] == argb) {
+						green[NUM_LITERAL_CODES + NUM_LENGTH_CODES + key]++;
+						pos++;
+						continue;
+					}
+					cache[key] = argb;
+				}
+				green[(argb >>> 8) & 0xFF]++;
+				histograms[1][(argb >>> 16) & 0xFF]++;
+				histograms[2][argb & 0xFF]++;
+				histograms[3][argb >>> 24]++;
+				pos++;
+			} else {
+				green[NUM_LITERAL_CODES + prefixCode(length)]++;
+				histograms[4][prefixCode(refValues[r])]++;
+				if (cache != null) {
+					for (int end = pos + length; pos < end; pos++) {
+						int argb = pixels[pos];
+						cache[(argb * COLOR_CACHE_MULTIPLIER) >>> cacheShift] = argb;
+					}
+				} else {
+					pos += length;
+				}
+			}
+		}
+		return histograms;
+	}
+
+	/**
+	 * Coût estimé (entropie de Shannon, en bits) des symboles d'un jeu d'histogrammes.
+	 */
+	private static double estimateCost(int[][] histograms) {
+		double bits = 0;
+		for (int[] histogram : histograms) {
+			long total = 0;
+			int used = 0;
+			for (int count : histogram) {
+				total += count;
+				if (count > 0) {
+					used++;
+				}
+			}
+			for (int count : histogram) {
+				if (count > 0) {
+					bits += count * Math.log((double) total / count);
+				}
+			}
+			// Coût approximatif de la description du code lui-même
+			bits += used * 4 * Math.log(2);
+		}
+		return bits / Math.log(2);
+	}
+
+	private void writeReferences(int[] pixels, int cacheBits, HuffmanCode[] codes) {
+		HuffmanCode green = codes[0];
+		HuffmanCode red = codes[1];
+		HuffmanCode blue = codes[2];
+		HuffmanCode alpha = codes[3];
+		HuffmanCode distance = codes[4];
+		int[] cache = cacheBits > 0 ? new int[1 << cacheBits] : null;
+		int cacheShift = 32 - cacheBits;
+		int pos = 0;
+		for (int r = 0; r < refCount; r++) {
+			int length = refLengths[r];
+			if (length == 0) {
+				int argb = refValues[r];
+				if (cache != null) {
+					int key = (argb * COLOR_CACHE_MULTIPLIER) >>> cacheShift;
+					if (cache[key] == argb) {
+						green.write(writer, NUM_LITERAL_CODES + NUM_LENGTH_CODES + key);
+						pos++;
+						continue;
+					}
+					cache[key] = argb;
+				}
+				green.write(writer, (argb >>> 8) & 0xFF);
+				red.write(writer, (argb >>> 16) & 0xFF);
+				blue.write(writer, argb & 0xFF);
+				alpha.write(writer, argb >>> 24);
+				pos++;
+			} else {
+				green.write(writer, NUM_LITERAL_CODES + prefixCode(length));
+				writePrefixExtraBits(length);
+				int planeCode = refValues[r];
+				distance.write(writer, prefixCode(planeCode));
+				writePrefixExtraBits(planeCode);
+				if (cache != null) {
+					for (int end = pos + length; pos < end; pos++) {
+						int argb = pixels[pos];
+						cache[(argb * COLOR_CACHE_MULTIPLIER) >>> cacheShift] = argb;
+					}
+				} else {
+					pos += length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Préfixe d'une longueur ou d'un code de distance (valeur &gt;= 1).
+	 */
+	static int prefixCode(int value) {
+		if (value <= 2) {
+			return value - 1;
+		}
+		int v = value - 1;
+		int highest = 31 - Integer.numberOfLeadingZeros(v);
+		return 2 * highest + ((v >>> (highest - 1)) & 1);
+	}
+
+	private void writePrefixExtraBits(int value) {
+		if (value > 2) {
+			int v = value - 1;
+			int extraBits = 30 - Integer.numberOfLeadingZeros(v);
+			writer.putBits(v & ((1 << extraBits) - 1), extraBits);
+		}
+	}
+
+	// ---------------------------------------------------------------------------------------------
+	// Description des codes de Huffman
+
+	private void storeHuffmanCode(HuffmanCode code) {
+		int[] lengths = code.lengths;
+		int first = -1;
+		int second = -1;
+		int used = 0;
+		for (int symbol = 0; symbol < lengths.length && used < 3; symbol++) {
+			if (lengths[symbol] > 0) {
+				if (used == 0) {
+					first = symbol;
+				} else if (used == 1) {
+					second = symbol;
+				}
+				used++;
+			}
+		}
+		if (used == 0) {
+			// Code simple d'un symbole (0), jamais utilisé
+			writer.putBits(1, 1);
+			writer.putBits(0, 1);
+			writer.putBits(0, 1);
+			writer.putBits(0, 1);
+		} else if (used <= 2 && first < NUM_LITERAL_CODES && second < NUM_LITERAL_CODES) {
+			writer.putBits(1, 1);
+			writer.putBits(used - 1, 1);
+			if (first <= 1) {
+				writer.putBits(0, 1);
+				writer.putBits(first, 1);
+			} else {
+				writer.putBits(1, 1);
+				writer.putBits(first, 8);
+			}
+			if (used == 2) {
+				writer.putBits(second, 8);
+			}
+		} else {
+			storeFullHuffmanCode(lengths);
+		}
+	}
+
+	/**
+	 * Écrit les longueurs d'un code, compressées par répétitions (codes 16, 17, 18).
+	 */
+	private void storeFullHuffmanCode(int[] lengths) {
+		int size = lengths.length;
+		int[] tokens = new int[size];
+		int[] extras = new int[size];
+		int count = 0;
+		int previous = 8;
+		for (int i = 0; i < size; ) {
+			int value = lengths[i];
+			int run = 1;
+			while (i + run < size && lengths[i + run] == value) {
+				run++;
+			}
+			i += run;
+			if (value == 0) {
+				while (run > 0) {
+					if (run < 3) {
+						tokens[count++] = 0;
+						run--;
+					} else if (run < 11) {
+						tokens[count] = 17;
+						extras[count++] = run - 3;
+						run = 0;
+					} else {
+						int repeat = Math.min(run, 138);
+						tokens[count] = 18;
+						extras[count++] = repeat - 11;
+						run -= repeat;
+					}
+				}
+			} else {
+				if (value != previous) {
+					tokens[count++] = value;
+					run--;
+					previous = value;
+				}
+				while (run > 0) {
+					if (run < 3) {
+						tokens[count++] = value;
+						run--;
+					} else {
+						int repeat = Math.min(run, 6);
+						tokens[count] = 16;
+						extras[count++] = repeat - 3;
+						run -= repeat;
+					}
+				}
+			}
+		}
+
+		int[] histogram = new int[CODE_LENGTH_CODES];
+		for (int i = 0; i < count; i++) {
+			histogram[tokens[i]]++;
+		}
+		HuffmanCode lengthCode = HuffmanCode.of(histogram, MAX_CODE_LENGTH_LENGTH);
+		int codesToStore = CODE_LENGTH_CODES;
+		while (codesToStore > 4 && lengthCode.lengths[VP8LDecoder.CODE_LENGTH_ORDER[codesToStore - 1]] == 0) {
+			codesToStore--;
+		}
+		writer.putBits(0, 1);
+		writer.putBits(codesToStore - 4, 4);
+		for (int i = 0; i < codesToStore; i++) {
+			writer.putBits(lengthCode.lengths[VP8LDecoder.CODE_LENGTH_ORDER[i]], 3);
+		}
+		writer.putBits(0, 1); // toutes les longueurs sont écrites
+		for (int i = 0; i < count; i++) {
+			int token = tokens[i];
+			lengthCode.write(writer, token);
+			if (token == 16) {
+				writer.putBits(extras[i], 2);
+			} else if (token == 17) {
+				writer.putBits(extras[i], 3);
+			} else if (token == 18) {
+				writer.putBits(extras[i], 7);
+			}
+		}
+	}
+
+	/**
+	 * Suivi de l'encodage.
+	 */
+	@FunctionalInterface
+	interface Progress {
+		/**
+		 * @param fraction Avancement du flux en cours, entre 0 et 1
+		 * @return false pour interrompre l'encodage
+		 */
+		boolean update(float fraction);
+	}
+
+	/**
+	 * Interruption demandée par {@link Progress}.
+	 */
+	private static final class Aborted extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Aborted() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Code de Huffman canonique : longueurs déclarées et codes à écrire (bits inversés).
+	 */
+	private static final class HuffmanCode {
+		final int[] lengths;
+		final int[] codes;
+		/**
+		 * Nombre de bits écrits par symbole : 0 pour un code à un seul symbole.
+		 */
+		final int[] bits;
+
+		private HuffmanCode(int[] lengths, int[] codes, int[] bits) {
+			this.lengths = lengths;
+			this.codes = codes;
+			this.bits = bits;
+		}
+
+		void write(VP8LBitWriter writer, int symbol) {
+			writer.putBits(codes[symbol], bits[symbol]);
+		}
+
+		/**
+		 * Construit un code à partir des fréquences des symboles.
+		 * <p>
+		 * Si l'arbre optimal est trop profond, les petites fréquences sont relevées
+		 * (minimum doublé à chaque essai) jusqu'à respecter <code>maxLength</code>.
+		 */
+		static HuffmanCode of(int[] histogram, int maxLength) {
+			int size = histogram.length;
+			int[] lengths = new int[size];
+			int used = 0;
+			int single = 0;
+			for (int symbol = 0; symbol < size; symbol++) {
+				if (histogram[symbol] > 0) {
+					used++;
+					single = symbol;
+				}
+			}
+			int[] codes = new int[size];
+			int[] bits = new int[size];
+			if (used == 0) {
+				return new HuffmanCode(lengths, codes, bits);
+			}
+			if (used == 1) {
+				lengths[single] = 1;
+				return new HuffmanCode(lengths, codes, bits);
+			}
+
+			long[] sorted = new long[used];
+			int[] weights = new int[2 * used - 1];
+			int[] parents = new int[2 * used - 1];
+			int[] depths = new int[2 * used - 1];
+			for (long minimum = 1; ; minimum *= 2) {
+				int n = 0;
+				for (int symbol = 0; symbol < size; symbol++) {
+					if (histogram[symbol] > 0) {
+						sorted[n++] = (Math.max(histogram[symbol], minimum) << 12) | symbol;
+					}
+				}
+				Arrays.sort(sorted);
+				for (int i = 0; i < used; i++) {
+					weights[i] = (int) Math.min(Integer.MAX_VALUE / 2, sorted[i] >>> 12);
+				}
+				// Deux files : feuilles triées, puis nœuds internes créés dans l'ordre croissant
+				int leaf = 0;
+				int internal = used;
+				for (int next = used; next < 2 * used - 1; next++) {
+					int a = leaf < used && (internal >= next || weights[leaf] <= weights[internal]) ? leaf++ : internal++;
+					int b = leaf < used && (internal >= next || weights[leaf] <= weights[internal]) ? leaf++ : internal++;
+					weights[next] = weights[a] + weights[b];
+					parents[a] = next;
+					parents[b] = next;
+				}
+				int root = 2 * used - 2;
+				depths[root] = 0;
+				int maxDepth = 0;
+				for (int node = root - 1; node >= 0; node--) {
+					depths[node] = depths[parents[node]] + 1;
+					if (node < used) {
+						maxDepth = Math.max(maxDepth, depths[node]);
+					}
+				}
+				if (maxDepth <= maxLength) {
+					for (int i = 0; i < used; i++) {
+						lengths[(int) (sorted[i] & 0xFFF)] = depths[i];
+					}
+					break;
+				}
+			}
+
+			// Codes canoniques, émis poids forts en premier
+			int[] lengthCount = new int[maxLength + 1];
+			for (int length : lengths) {
+				lengthCount[length]++;
+			}
+			lengthCount[0] = 0;
+			int[] nextCode = new int[maxLength + 1];
+			int code = 0;
+			for (int length = 1; length <= maxLength; length++) {
+				code = (code + lengthCount[length - 1]) << 1;
+				nextCode[length] = code;
+			}
+			for (int symbol = 0; symbol < size; symbol++) {
+				int length = lengths[symbol];
+				if (length > 0) {
+					codes[symbol] = Integer.reverse(nextCode[length]++) >>> (32 - length);
+					bits[symbol] = length;
+				}
+			}
+			return new HuffmanCode(lengths, codes, bits);
+		}
+	}
+
+	/**
+	 * Ensemble de couleurs à adressage ouvert, avec une valeur associée.
+	 */
+	private static final class ColorSet {
+		private static final int CAPACITY = 1024;
+		private final int[] keys = new int[CAPACITY];
+		private final int[] values = new int[CAPACITY];
+		private final boolean[] used = new boolean[CAPACITY];
+		int size;
+
+		private int slot(int color) {
+			int i = (color * COLOR_CACHE_MULTIPLIER) >>> 22;
+			while (used[i] && keys[i] != color) {
+				i = (i + 1) & (CAPACITY - 1);
+			}
+			return i;
+		}
+
+		/**
+		 * @return <code>true</code> si la couleur était déjà présente
+		 */
+		boolean add(int color) {
+			int i = slot(color);
+			if (used[i]) {
+				return true;
+			}
+			if (size > MAX_PALETTE_SIZE) {
+				size++;
+				return false;
+			}
+			used[i] = true;
+			keys[i] = color;
+			size++;
+			return false;
+		}
+
+		void put(int color, int value) {
+			int i = slot(color);
+			if (!used[i]) {
+				used[i] = true;
+				keys[i] = color;
+				size++;
+			}
+			values[i] = value;
+		}
+
+		int get(int color) {
+			return values[slot(color)];
+		}
+
+		int[] toArray() {
+			int[] result = new int[size];
+			int n = 0;
+			for (int i = 0; i < CAPACITY; i++) {
+				if (used[i]) {
+					result[n++] = keys[i];
+				}
+			}
+			return result;
+		}
+	}
+}
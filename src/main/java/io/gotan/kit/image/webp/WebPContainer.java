@@ -0,0 +1,238 @@
+package io.gotan.kit.image.webp;
+
+import javax.imageio.IIOException;
+
+/**
+ * Conteneur RIFF d'une image WebP fixe : formats simple avec perte (<code>VP8 </code>),
+ * sans perte (<code>VP8L</code>) et étendu (<code>VP8X</code>, avec canal alpha
+ * <code>ALPH</code> éventuel). Les animations ne sont pas gérées.
+ * <p>
+ * Seuls les en-têtes sont lus à l'ouverture : les dimensions sont connues sans décoder l'image.
+ */
+final class WebPContainer {
+
+	private static final int VP8X_ANIMATION = 0x02;
+
+	private static final int VP8X_ALPHA = 0x10;
+
+	private static final int ALPHA_FILTER_HORIZONTAL = 1;
+
+	private static final int ALPHA_FILTER_VERTICAL = 2;
+
+	private static final int ALPHA_FILTER_GRADIENT = 3;
+
+	private final byte[] data;
+	private int width;
+	private int height;
+	private boolean alpha;
+
+	private int imageOffset = -1;
+	private int imageLength;
+	private boolean lossless;
+	private int alphaOffset = -1;
+	private int alphaLength;
+
+	private WebPContainer(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * @return <code>true</code> si les octets commencent par un en-tête RIFF WebP
+	 */
+	static boolean isWebP(byte[] header, int length) {
+		return length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+				&& header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P';
+	}
+
+	/**
+	 * Lit la structure d'un fichier WebP.
+	 *
+	 * @param data Fichier complet
+	 */
+	static WebPContainer parse(byte[] data) throws IIOException {
+		if (!isWebP(data, data.length)) {
+			throw new IIOException("Not a WebP file");
+		}
+		WebPContainer container = new WebPContainer(data);
+		int end = Math.min(data.length, 8 + readInt(data, 4));
+		int position = 12;
+		boolean extended = false;
+		while (position + 8 <= end) {
+			int fourcc = readInt(data, position);
+			int size = readInt(data, position + 4);
+			int start = position + 8;
+			if (size < 0 || start + size > end) {
+				throw new IIOException("Truncated WebP chunk");
+			}
+			switch (fourcc) {
+				case 0x58385056: { // VP8X
+					if (size < 10) {
+						throw new IIOException("Invalid VP8X chunk");
+					}
+					int flags = data[start] & 0xFF;
+					if ((flags & VP8X_ANIMATION) != 0) {
+						throw new IIOException("Animated WebP is not supported");
+					}
+					extended = true;
+					container.alpha = (flags & VP8X_ALPHA) != 0;
+					container.width = readInt24(data, start + 4) + 1;
+					container.height = readInt24(data, start + 7) + 1;
+					break;
+				}
+				case 0x48504C41: // ALPH
+					container.alphaOffset = start;
+					container.alphaLength = size;
+					break;
+				case 0x20385056: { // "VP8 "
+					VP8Decoder decoder = VP8Decoder.open(data, start, size);
+					container.setImage(start, size, false, decoder.getWidth(), decoder.getHeight(), extended);
+					return container;
+				}
+				case 0x4C385056: { // VP8L
+					VP8LDecoder decoder = VP8LDecoder.open(data, start, size);
+					container.setImage(start, size, true, decoder.getWidth(), decoder.getHeight(), extended);
+					if (!extended) {
+						container.alpha = decoder.hasAlphaHint();
+					}
+					return container;
+				}
+				default:
+					// Métadonnées (ICCP, EXIF, XMP...) et blocs inconnus : ignorés
+					break;
+			}
+			position = start + size + (size & 1);
+		}
+		throw new IIOException("No image data in WebP file");
+	}
+
+	private void setImage(int offset, int length, boolean lossless, int width, int height, boolean extended)
+			throws IIOException {
+		if (extended && (width != this.width || height != this.height)) {
+			throw new IIOException("WebP canvas and image sizes differ");
+		}
+		this.imageOffset = offset;
+		this.imageLength = length;
+		this.lossless = lossless;
+		this.width = width;
+		this.height = height;
+		if (lossless) {
+			// Le canal alpha d'une image sans perte est dans le flux VP8L
+			alphaOffset = -1;
+		}
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return <code>true</code> si l'image déclare un canal alpha
+	 */
+	boolean hasAlpha() {
+		return alpha;
+	}
+
+	boolean isLossless() {
+		return lossless;
+	}
+
+	/**
+	 * Décode l'image.
+	 *
+	 * @return Pixels ARGB non prémultipliés, ligne par ligne
+	 */
+	int[] decode() throws IIOException {
+		if (lossless) {
+			return VP8LDecoder.open(data, imageOffset, imageLength).decode();
+		}
+		int[] argb = new int[width * height];
+		VP8Decoder.open(data, imageOffset, imageLength).decode(argb);
+		if (alpha && alphaOffset >= 0) {
+			decodeAlpha(argb);
+		}
+		return argb;
+	}
+
+	/**
+	 * Décode le bloc ALPH et l'applique aux pixels.
+	 */
+	private void decodeAlpha(int[] argb) throws IIOException {
+		if (alphaLength < 1) {
+			throw new IIOException("Invalid ALPH chunk");
+		}
+		int header = data[alphaOffset] & 0xFF;
+		int compression = header & 3;
+		int filter = (header >> 2) & 3;
+		int count = width * height;
+		byte[] plane = new byte[count];
+		if (compression == 0) {
+			if (alphaLength - 1 < count) {
+				throw new IIOException("Truncated ALPH chunk");
+			}
+			System.arraycopy(data, alphaOffset + 1, plane, 0, count);
+		} else if (compression == 1) {
+			int[] green = VP8LDecoder.decodeImageStream(data, alphaOffset + 1, alphaLength - 1, width, height);
+			for (int i = 0; i < count; i++) {
+				plane[i] = (byte) (green[i] >> 8);
+			}
+		} else {
+			throw new IIOException("Invalid ALPH compression");
+		}
+		unfilter(plane, filter);
+		for (int i = 0; i < count; i++) {
+			argb[i] = (argb[i] & 0x00FFFFFF) | (plane[i] << 24);
+		}
+	}
+
+	/**
+	 * Annule le filtre prédictif du canal alpha, en place.
+	 */
+	private void unfilter(byte[] plane, int filter) {
+		if (filter == 0) {
+			return;
+		}
+		// Première ligne : prédiction par le pixel de gauche, quel que soit le filtre
+		for (int x = 1; x < width; x++) {
+			plane[x] += plane[x - 1];
+		}
+		for (int y = 1; y < height; y++) {
+			int row = y * width;
+			int prev = row - width;
+			switch (filter) {
+				case ALPHA_FILTER_HORIZONTAL:
+					plane[row] += plane[prev];
+					for (int x = 1; x < width; x++) {
+						plane[row + x] += plane[row + x - 1];
+					}
+					break;
+				case ALPHA_FILTER_VERTICAL:
+					for (int x = 0; x < width; x++) {
+						plane[row + x] += plane[prev + x];
+					}
+					break;
+				case ALPHA_FILTER_GRADIENT:
+					plane[row] += plane[prev];
+					for (int x = 1; x < width; x++) {
+						int g = (plane[row + x - 1] & 0xFF) + (plane[prev + x] & 0xFF) - (plane[prev + x - 1] & 0xFF);
+						plane[row + x] += (byte) (g < 0 ? 0 : Math.min(g, 255));
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16
+				| (data[offset + 3] & 0xFF) << 24;
+	}
+
+	private static int readInt24(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16;
+	}
+}
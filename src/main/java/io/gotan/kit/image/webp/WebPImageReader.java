@@ -0,0 +1,175 @@
+package io.gotan.kit.image.webp;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Décodeur ImageIO des images WebP fixes, avec et sans perte.
+ * <p>
+ * Le fichier est lu en entier à la première demande (les images WebP sont limitées
+ * à 16383 pixels de côté), puis seuls les en-têtes sont analysés tant que l'image
+ * n'est pas décodée. Les paramètres de lecture (zone source, sous-échantillonnage,
+ * image de destination) sont appliqués lors de la copie des pixels décodés.
+ */
+public class WebPImageReader extends ImageReader {
+
+	/**
+	 * Taille initiale du tampon de lecture quand la longueur du flux est inconnue.
+	 */
+	private static final int INITIAL_BUFFER = 64 * 1024;
+
+	private WebPContainer container;
+
+	public WebPImageReader(ImageReaderSpi originatingProvider) {
+		super(originatingProvider);
+	}
+
+	@Override
+	public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+		super.setInput(input, seekForwardOnly, ignoreMetadata);
+		container = null;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		container = null;
+	}
+
+	private WebPContainer readContainer() throws IOException {
+		if (container != null) {
+			return container;
+		}
+		if (!(input instanceof ImageInputStream stream)) {
+			throw new IllegalStateException("Input not set");
+		}
+		byte[] header = new byte[12];
+		stream.readFully(header);
+		if (!WebPContainer.isWebP(header, header.length)) {
+			throw new IIOException("Not a WebP file");
+		}
+		long riffSize = ((header[4] & 0xFFL) | (header[5] & 0xFFL) << 8 | (header[6] & 0xFFL) << 16
+				| (header[7] & 0xFFL) << 24) + 8;
+		if (riffSize > Integer.MAX_VALUE - 8 || riffSize < 12) {
+			throw new IIOException("Invalid WebP size");
+		}
+		// La taille annoncée n'est pas fiable : elle est bornée par la longueur du flux si elle
+		// est connue, sinon le tampon ne grandit qu'au fil des données effectivement lues
+		long length = stream.length();
+		if (length >= 0 && riffSize > length - stream.getStreamPosition() + header.length) {
+			throw new IIOException("Truncated WebP file");
+		}
+		byte[] data = new byte[(int) Math.min(riffSize, length >= 0 ? riffSize : INITIAL_BUFFER)];
+		System.arraycopy(header, 0, data, 0, header.length);
+		int read = header.length;
+		while (read < riffSize) {
+			if (read == data.length) {
+				data = Arrays.copyOf(data, (int) Math.min(riffSize, 2L * data.length));
+			}
+			int n = stream.read(data, read, data.length - read);
+			if (n < 0) {
+				throw new IIOException("Truncated WebP file");
+			}
+			read += n;
+		}
+		container = WebPContainer.parse(data);
+		return container;
+	}
+
+	private void checkIndex(int imageIndex) {
+		if (imageIndex != 0) {
+			throw new IndexOutOfBoundsException("WebP files contain a single image");
+		}
+	}
+
+	@Override
+	public int getNumImages(boolean allowSearch) {
+		return 1;
+	}
+
+	@Override
+	public int getWidth(int imageIndex) throws IOException {
+		checkIndex(imageIndex);
+		return readContainer().getWidth();
+	}
+
+	@Override
+	public int getHeight(int imageIndex) throws IOException {
+		checkIndex(imageIndex);
+		return readContainer().getHeight();
+	}
+
+	@Override
+	public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
+		checkIndex(imageIndex);
+		int type = readContainer().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		return List.of(ImageTypeSpecifier.createFromBufferedImageType(type)).iterator();
+	}
+
+	@Override
+	public IIOMetadata getStreamMetadata() {
+		return null;
+	}
+
+	@Override
+	public IIOMetadata getImageMetadata(int imageIndex) {
+		checkIndex(imageIndex);
+		return null;
+	}
+
+	@Override
+	public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
+		checkIndex(imageIndex);
+		WebPContainer webp = readContainer();
+		int width = webp.getWidth();
+		int height = webp.getHeight();
+		clearAbortRequest();
+		processImageStarted(imageIndex);
+		int[] argb = webp.decode();
+
+		BufferedImage destination = getDestination(param, getImageTypes(imageIndex), width, height);
+		Rectangle source = new Rectangle();
+		Rectangle target = new Rectangle();
+		computeRegions(param, width, height, destination, source, target);
+		int periodX = param != null ? param.getSourceXSubsampling() : 1;
+		int periodY = param != null ? param.getSourceYSubsampling() : 1;
+		int type = destination.getType();
+		boolean direct = type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB;
+		WritableRaster raster = destination.getRaster();
+		int[] row = new int[target.width];
+		for (int y = 0; y < target.height; y++) {
+			if (abortRequested()) {
+				processReadAborted();
+				return destination;
+			}
+			int src = (source.y + y * periodY) * width + source.x;
+			if (periodX == 1) {
+				System.arraycopy(argb, src, row, 0, target.width);
+			} else {
+				for (int x = 0; x < target.width; x++, src += periodX) {
+					row[x] = argb[src];
+				}
+			}
+			if (direct) {
+				raster.setDataElements(target.x, target.y + y, target.width, 1, row);
+			} else {
+				destination.setRGB(target.x, target.y + y, target.width, 1, row, 0, target.width);
+			}
+			processImageProgress(100f * (y + 1) / target.height);
+		}
+		processImageComplete();
+		return destination;
+	}
+}
@@ -0,0 +1,60 @@
+package io.gotan.kit.image.webp;
+
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Fournisseur ImageIO du décodeur WebP.
+ * <p>
+ * Déclaré dans <code>META-INF/services/javax.imageio.spi.ImageReaderSpi</code> : il est
+ * enregistré automatiquement dès que la bibliothèque est dans le classpath.
+ */
+public class WebPImageReaderSpi extends ImageReaderSpi {
+
+	static final String VENDOR = "Gotan";
+
+	static final String VERSION = "1.0";
+
+	static final String[] NAMES = {"webp", "WEBP"};
+
+	static final String[] SUFFIXES = {"webp"};
+
+	static final String[] MIME_TYPES = {"image/webp"};
+
+	public WebPImageReaderSpi() {
+		super(VENDOR, VERSION, NAMES, SUFFIXES, MIME_TYPES, WebPImageReader.class.getName(),
+				new Class<?>[]{ImageInputStream.class},
+				new String[]{WebPImageWriterSpi.class.getName()},
+				false, null, null, null, null,
+				false, null, null, null, null);
+	}
+
+	@Override
+	public boolean canDecodeInput(Object source) throws IOException {
+		if (!(source instanceof ImageInputStream stream)) {
+			return false;
+		}
+		byte[] header = new byte[12];
+		stream.mark();
+		int length;
+		try {
+			length = stream.read(header);
+		} finally {
+			stream.reset();
+		}
+		return WebPContainer.isWebP(header, Math.max(length, 0));
+	}
+
+	@Override
+	public ImageReader createReaderInstance(Object extension) {
+		return new WebPImageReader(this);
+	}
+
+	@Override
+	public String getDescription(Locale locale) {
+		return "WebP image reader (lossy and lossless)";
+	}
+}
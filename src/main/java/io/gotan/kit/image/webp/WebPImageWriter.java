@@ -0,0 +1,174 @@
+package io.gotan.kit.image.webp;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Encodeur ImageIO WebP, sans perte (VP8L).
+ * <p>
+ * La qualité de compression (<code>ImageWriteParam.setCompressionQuality</code>) règle
+ * l'effort de compression : plus elle est haute, plus le fichier est petit et l'encodage
+ * lent. L'image n'est jamais dégradée.
+ */
+public class WebPImageWriter extends ImageWriter {
+
+	/**
+	 * Effort de compression par défaut.
+	 */
+	public static final float DEFAULT_EFFORT = 0.75f;
+
+	static final String LOSSLESS = "Lossless";
+
+	public WebPImageWriter(ImageWriterSpi originatingProvider) {
+		super(originatingProvider);
+	}
+
+	@Override
+	public ImageWriteParam getDefaultWriteParam() {
+		return new WebPWriteParam(getLocale());
+	}
+
+	@Override
+	public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+		return null;
+	}
+
+	@Override
+	public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType, ImageWriteParam param) {
+		return null;
+	}
+
+	@Override
+	public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {
+		return null;
+	}
+
+	@Override
+	public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType, ImageWriteParam param) {
+		return null;
+	}
+
+	@Override
+	public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IOException {
+		if (!(output instanceof ImageOutputStream stream)) {
+			throw new IllegalStateException("Output not set");
+		}
+		if (image.hasRaster()) {
+			throw new UnsupportedOperationException("Raster output is not supported");
+		}
+		BufferedImage source = toBufferedImage(image.getRenderedImage());
+		Rectangle region = new Rectangle(0, 0, source.getWidth(), source.getHeight());
+		int periodX = 1;
+		int periodY = 1;
+		float effort = DEFAULT_EFFORT;
+		if (param != null) {
+			if (param.getSourceRegion() != null) {
+				region = region.intersection(param.getSourceRegion());
+			}
+			periodX = param.getSourceXSubsampling();
+			periodY = param.getSourceYSubsampling();
+			if (param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+				effort = param.getCompressionQuality();
+			}
+		}
+		int width = (region.width + periodX - 1) / periodX;
+		int height = (region.height + periodY - 1) / periodY;
+		if (width <= 0 || height <= 0) {
+			throw new IIOException("Empty source region");
+		}
+		if (width > VP8LEncoder.MAX_DIMENSION || height > VP8LEncoder.MAX_DIMENSION) {
+			throw new IIOException("Image too large for WebP: %dx%d".formatted(width, height));
+		}
+
+		clearAbortRequest();
+		processImageStarted(0);
+		int[] argb = new int[width * height];
+		if (periodX == 1 && periodY == 1) {
+			source.getRGB(region.x, region.y, width, height, argb, 0, width);
+		} else {
+			int[] row = new int[region.width];
+			for (int y = 0; y < height; y++) {
+				source.getRGB(region.x, region.y + y * periodY, region.width, 1, row, 0, region.width);
+				for (int x = 0; x < width; x++) {
+					argb[y * width + x] = row[x * periodX];
+				}
+			}
+		}
+		processImageProgress(5f);
+		if (abortRequested()) {
+			processWriteAborted();
+			return;
+		}
+		byte[] bitstream = VP8LEncoder.encode(argb, width, height, effort, fraction -> {
+			processImageProgress(10f + 80f * fraction);
+			return !abortRequested();
+		});
+		if (bitstream == null) {
+			processWriteAborted();
+			return;
+		}
+		processImageProgress(90f);
+
+		ByteOrder order = stream.getByteOrder();
+		try {
+			stream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+			int padding = bitstream.length & 1;
+			stream.writeBytes("RIFF");
+			stream.writeInt(4 + 8 + bitstream.length + padding);
+			stream.writeBytes("WEBP");
+			stream.writeBytes("VP8L");
+			stream.writeInt(bitstream.length);
+			stream.write(bitstream);
+			if (padding != 0) {
+				stream.write(0);
+			}
+			stream.flush();
+		} finally {
+			stream.setByteOrder(order);
+		}
+		processImageComplete();
+	}
+
+	private static BufferedImage toBufferedImage(RenderedImage image) {
+		if (image instanceof BufferedImage buffered) {
+			return buffered;
+		}
+		ColorModel colorModel = image.getColorModel();
+		WritableRaster raster = colorModel.createCompatibleWritableRaster(image.getWidth(), image.getHeight());
+		image.copyData(raster);
+		return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+	}
+
+	/**
+	 * Paramètres d'écriture : un seul type de compression (sans perte), qualité = effort.
+	 */
+	private static final class WebPWriteParam extends ImageWriteParam {
+		WebPWriteParam(Locale locale) {
+			super(locale);
+			canWriteCompressed = true;
+			compressionTypes = new String[]{LOSSLESS};
+			compressionType = LOSSLESS;
+			compressionQuality = DEFAULT_EFFORT;
+		}
+
+		@Override
+		public boolean isCompressionLossless() {
+			super.isCompressionLossless();
+			return true;
+		}
+	}
+}
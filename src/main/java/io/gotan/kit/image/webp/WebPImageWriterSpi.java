@@ -0,0 +1,42 @@
+package io.gotan.kit.image.webp;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.util.Locale;
+
+/**
+ * Fournisseur ImageIO de l'encodeur WebP sans perte.
+ * <p>
+ * Déclaré dans <code>META-INF/services/javax.imageio.spi.ImageWriterSpi</code> : il est
+ * enregistré automatiquement dès que la bibliothèque est dans le classpath.
+ */
+public class WebPImageWriterSpi extends ImageWriterSpi {
+
+	public WebPImageWriterSpi() {
+		super(WebPImageReaderSpi.VENDOR, WebPImageReaderSpi.VERSION, WebPImageReaderSpi.NAMES,
+				WebPImageReaderSpi.SUFFIXES, WebPImageReaderSpi.MIME_TYPES, WebPImageWriter.class.getName(),
+				new Class<?>[]{ImageOutputStream.class}, new String[]{WebPImageReaderSpi.class.getName()},
+				false, null, null, null, null,
+				false, null, null, null, null);
+	}
+
+	/**
+	 * Tout type d'image est accepté : les pixels sont convertis en ARGB 32 bits.
+	 */
+	@Override
+	public boolean canEncodeImage(ImageTypeSpecifier type) {
+		return true;
+	}
+
+	@Override
+	public ImageWriter createWriterInstance(Object extension) {
+		return new WebPImageWriter(this);
+	}
+
+	@Override
+	public String getDescription(Locale locale) {
+		return "WebP lossless image writer";
+	}
+}
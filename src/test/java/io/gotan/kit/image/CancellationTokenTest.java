@@ -0,0 +1,48 @@
+package io.gotan.kit.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CancellationTokenTest {
+
+	@Test
+	void veryLongTimeoutKeepsItsDeadline() {
+		for (Duration timeout : new Duration[]{ChronoUnit.CENTURIES.getDuration().multipliedBy(3),
+				ChronoUnit.FOREVER.getDuration(), Duration.ofNanos(Long.MAX_VALUE)}) {
+			CancellationToken token = CancellationToken.withTimeout(timeout);
+			assertFalse(token.isCancelled(), timeout::toString);
+			assertTrue(token.remaining().compareTo(Duration.ofDays(365 * 100)) > 0, timeout::toString);
+			assertTrue(token.deadline() != Long.MAX_VALUE, timeout::toString);
+			assertDoesNotThrow(token::throwIfCancelled);
+		}
+	}
+
+	@Test
+	void elapsedTimeoutIsExpired() {
+		CancellationToken token = CancellationToken.withTimeout(Duration.ofMillis(-5));
+
+		assertTrue(token.isExpired());
+		assertEquals(Duration.ZERO, token.remaining());
+		assertThrows(CancellationToken.DeadlineExceededException.class, token::throwIfCancelled);
+	}
+
+	@Test
+	void cancelWithoutDeadline() {
+		CancellationToken token = CancellationToken.create();
+		assertNull(token.remaining());
+
+		token.cancel();
+		assertTrue(token.isCancelled());
+		assertFalse(token.isExpired());
+		assertThrows(CancellationToken.CancelledException.class, token::throwIfCancelled);
+	}
+}
@@ -0,0 +1,68 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageCodecRegistryTest {
+
+	/**
+	 * Encodeur GIF qui écrit un marqueur.
+	 */
+	private static final class MarkerCodec implements ImageCodec {
+		private final AtomicInteger calls = new AtomicInteger();
+
+		@Override
+		public Set<ImageFormat> getFormats() {
+			return EnumSet.of(ImageFormat.GIF);
+		}
+
+		@Override
+		public Set<Capability> getCapabilities() {
+			return EnumSet.of(Capability.ENCODE);
+		}
+
+		@Override
+		public boolean encode(BufferedImage image, ImageFormat format, EncodeOptions options, CancellationToken token,
+							  OutputStream output) throws IOException {
+			calls.incrementAndGet();
+			output.write(new byte[]{'G', 'I', 'F'});
+			return true;
+		}
+	}
+
+	@Test
+	void legacyConversionUsesRegisteredCodec() throws Exception {
+		byte[] png = ImageFormatConverter.convertImage(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB),
+				ImageFormat.PNG, EncodeOptions.defaults());
+		MarkerCodec codec = new MarkerCodec();
+		ImageCodecRegistry.register(codec);
+		try {
+			assertArrayEquals(new byte[]{'G', 'I', 'F'}, ImageFormatConverter.convertImage(png, ImageFormat.GIF));
+			assertEquals(1, codec.calls.get());
+		} finally {
+			ImageCodecRegistry.unregister(codec);
+		}
+	}
+
+	@Test
+	void onlyImageFormatMimeTypesAreDecodable() {
+		for (ImageFormat format : ImageFormat.values()) {
+			assertTrue(ImageCodecRegistry.canDecode(format.getMimeType()), format::name);
+		}
+		// Lisible par ImageIO, mais hors ImageFormat
+		assertFalse(ImageCodecRegistry.canDecode("image/bmp"));
+		assertFalse(ImageCodecRegistry.canDecode("text/plain"));
+	}
+}
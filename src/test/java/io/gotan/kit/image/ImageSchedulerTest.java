@@ -0,0 +1,64 @@
+package io.gotan.kit.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageSchedulerTest {
+
+	@Test
+	void expiredTaskCallbacksDoNotBlockOtherWorkers() throws Exception {
+		try (ImageScheduler scheduler = new ImageScheduler(2)) {
+			ImageScheduler.Lane busy = scheduler.addLane("busy", 1, 1);
+			ImageScheduler.Lane other = scheduler.addLane("other", 1, 1);
+			CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			scheduler.submit(busy, () -> {
+				started.countDown();
+				return release.await(10, TimeUnit.SECONDS);
+			});
+			// Le traitement suivant, à échéance, passerait devant s'il était en attente avec lui
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			CompletableFuture<Object> late = scheduler.submit(busy, Duration.ofMillis(1), token -> "late");
+			// Callback lent de l'appelant : il attend un traitement qui doit passer par l'autre thread
+			CompletableFuture<Boolean> otherRan = late.handle((result, error) -> {
+				CountDownLatch ran = new CountDownLatch(1);
+				scheduler.submit(other, () -> {
+					ran.countDown();
+					return null;
+				});
+				try {
+					return ran.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			});
+			Thread.sleep(20);
+			release.countDown();
+
+			assertTrue(otherRan.get(30, TimeUnit.SECONDS));
+			assertTrue(late.isCompletedExceptionally());
+		}
+	}
+
+	@Test
+	void submitAfterCloseIsRejected() throws Exception {
+		ImageScheduler scheduler = new ImageScheduler(1);
+		ImageScheduler.Lane lane = scheduler.addLane("lane", 1, 1);
+		assertEquals("ok", scheduler.submit(lane, () -> "ok").get(10, TimeUnit.SECONDS));
+		scheduler.close();
+
+		CompletableFuture<String> rejected = scheduler.submit(lane, () -> "late");
+		assertTrue(rejected.isCompletedExceptionally());
+		assertInstanceOf(RejectedExecutionException.class, rejected.handle((result, error) -> error).join());
+	}
+}
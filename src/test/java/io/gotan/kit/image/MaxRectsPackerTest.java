@@ -0,0 +1,66 @@
+package io.gotan.kit.image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MaxRectsPackerTest {
+
+	@Test
+	void placedRectanglesStayInBoundsWithoutOverlap() {
+		int width = 512;
+		int height = 512;
+		MaxRectsPacker packer = new MaxRectsPacker(width, height);
+		Random random = new Random(7);
+		Rectangle bounds = new Rectangle(0, 0, width, height);
+		List<Rectangle> placed = new ArrayList<>();
+		long area = 0;
+		for (int i = 0; i < 400; i++) {
+			int w = 4 + random.nextInt(60);
+			int h = 4 + random.nextInt(60);
+			Point position = packer.insert(w, h);
+			if (position == null) {
+				continue;
+			}
+			Rectangle rect = new Rectangle(position.x, position.y, w, h);
+			assertTrue(bounds.contains(rect), () -> rect + " out of bounds");
+			for (Rectangle other : placed) {
+				assertFalse(other.intersects(rect), () -> rect + " overlaps " + other);
+			}
+			placed.add(rect);
+			area += (long) w * h;
+		}
+		assertTrue(placed.size() > 50);
+		assertEquals((double) area / (width * height), packer.occupancy(), 1e-9);
+		assertTrue(packer.occupancy() > 0.75, () -> "occupancy " + packer.occupancy());
+	}
+
+	@Test
+	void identicalTilesFillTheSurface() {
+		MaxRectsPacker packer = new MaxRectsPacker(64, 64);
+		for (int i = 0; i < 16; i++) {
+			assertNotNull(packer.insert(16, 16), "tile " + i);
+		}
+		assertEquals(1.0, packer.occupancy(), 1e-9);
+		assertNull(packer.insert(1, 1));
+	}
+
+	@Test
+	void tooLargeRectangleIsRejected() {
+		MaxRectsPacker packer = new MaxRectsPacker(100, 50);
+
+		assertNull(packer.insert(101, 10));
+		assertNull(packer.insert(10, 51));
+		assertEquals(new Point(0, 0), packer.insert(100, 50));
+		assertNull(packer.insert(1, 1));
+	}
+}
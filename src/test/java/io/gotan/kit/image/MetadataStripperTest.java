@@ -0,0 +1,147 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.MetadataStripper.Metadata;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetadataStripperTest {
+
+	private static BufferedImage sample() {
+		BufferedImage image = new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				image.setRGB(x, y, (x * 8) << 16 | (y * 10) << 8 | (x ^ y) * 4);
+			}
+		}
+		return image;
+	}
+
+	private static byte[] encode(String format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(ImageIO.write(sample(), format, out));
+		return out.toByteArray();
+	}
+
+	private static byte[] ascii(String value) {
+		return value.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			out.writeBytes(part);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] slice(byte[] data, int from, int to) {
+		byte[] result = new byte[to - from];
+		System.arraycopy(data, from, result, 0, result.length);
+		return result;
+	}
+
+	private static byte[] jpegSegment(int marker, byte[] content) {
+		int length = content.length + 2;
+		return concat(new byte[]{(byte) 0xFF, (byte) marker, (byte) (length >> 8), (byte) length}, content);
+	}
+
+	private static byte[] pngChunk(String type, byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(ascii(type));
+		crc.update(content);
+		return ByteBuffer.allocate(12 + content.length).putInt(content.length).put(ascii(type)).put(content)
+				.putInt((int) crc.getValue()).array();
+	}
+
+	private static byte[] riffChunk(String name, byte[] content) {
+		ByteBuffer chunk = ByteBuffer.allocate(8 + content.length + (content.length & 1))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		return chunk.put(ascii(name)).putInt(content.length).put(content).array();
+	}
+
+	private static byte[] riff(byte[] body) {
+		ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		return concat(header.put(ascii("RIFF")).putInt(4 + body.length).put(ascii("WEBP")).array(), body);
+	}
+
+	private static byte[] vp8x(int flags) {
+		// Drapeaux, 3 octets réservés, largeur - 1 et hauteur - 1 sur 24 bits
+		return new byte[]{(byte) flags, 0, 0, 0, 31, 0, 0, 23, 0, 0};
+	}
+
+	@Test
+	void jpegMetadataSegmentsAreRemoved() throws IOException, ImageFormatConverter.BadImageFormatException {
+		byte[] original = encode("jpeg");
+		// SOI puis segment JFIF APP0
+		int insert = 4 + ((original[4] & 0xFF) << 8 | (original[5] & 0xFF));
+		byte[] exif = jpegSegment(0xE1, concat(ascii("Exif\0\0"), new byte[]{'M', 'M', 0, 42}));
+		byte[] xmp = jpegSegment(0xE1, ascii("http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>"));
+		byte[] comment = jpegSegment(0xFE, ascii("hello"));
+		byte[] tagged = concat(slice(original, 0, insert), exif, xmp, comment,
+				slice(original, insert, original.length));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long removed = MetadataStripper.strip(new ByteArrayInputStream(tagged), out, MetadataStripper.DEFAULT_KEEP);
+
+		assertArrayEquals(original, out.toByteArray());
+		assertEquals(exif.length + xmp.length + comment.length, removed);
+		assertArrayEquals(tagged, MetadataStripper.strip(tagged, EnumSet.allOf(Metadata.class)));
+	}
+
+	@Test
+	void pngAncillaryChunksAreRemoved() throws IOException, ImageFormatConverter.BadImageFormatException {
+		byte[] original = encode("png");
+		// Signature puis chunk IHDR
+		int insert = 8 + 12 + 13;
+		byte[] text = pngChunk("tEXt", ascii("Comment\0hello"));
+		byte[] xmp = pngChunk("iTXt", ascii("XML:com.adobe.xmp\0\0\0\0\0<x:xmpmeta/>"));
+		byte[] exif = pngChunk("eXIf", new byte[]{'M', 'M', 0, 42});
+		byte[] gamma = pngChunk("gAMA", new byte[]{0, 0, (byte) 0xB1, (byte) 0x8F});
+		byte[] tagged = concat(slice(original, 0, insert), text, xmp, exif, gamma,
+				slice(original, insert, original.length));
+
+		// Le gamma fait partie du profil couleur, conservé par défaut
+		byte[] expected = concat(slice(original, 0, insert), gamma, slice(original, insert, original.length));
+		assertArrayEquals(expected, MetadataStripper.strip(tagged));
+		assertArrayEquals(original, MetadataStripper.strip(tagged, EnumSet.noneOf(Metadata.class)));
+	}
+
+	@Test
+	void webpChunksAreRemovedAndHeaderRewritten() throws IOException, ImageFormatConverter.BadImageFormatException {
+		byte[] simple = encode("webp");
+		// Flux VP8L du fichier simple, recopié dans un conteneur étendu
+		byte[] image = slice(simple, 12, simple.length);
+		byte[] icc = riffChunk("ICCP", ascii("icc"));
+		byte[] exif = riffChunk("EXIF", new byte[]{'M', 'M', 0, 42});
+		byte[] xmp = riffChunk("XMP ", ascii("<x:xmpmeta/>"));
+		byte[] tagged = riff(concat(riffChunk("VP8X", vp8x(0x2C)), icc, image, exif, xmp));
+
+		byte[] stripped = MetadataStripper.strip(tagged);
+
+		assertArrayEquals(riff(concat(riffChunk("VP8X", vp8x(0x20)), icc, image)), stripped);
+		assertEquals(stripped.length - 8,
+				ByteBuffer.wrap(stripped, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(stripped));
+		assertNotNull(decoded);
+		assertEquals(32, decoded.getWidth());
+		assertEquals(24, decoded.getHeight());
+
+		assertArrayEquals(riff(concat(riffChunk("VP8X", vp8x(0)), image)),
+				MetadataStripper.strip(tagged, EnumSet.noneOf(Metadata.class)));
+	}
+}
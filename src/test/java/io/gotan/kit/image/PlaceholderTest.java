@@ -0,0 +1,83 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlaceholderTest {
+
+	private static BufferedImage solid(int width, int height, Color color) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(color);
+		g.fillRect(0, 0, width, height);
+		g.dispose();
+		return image;
+	}
+
+	private static BufferedImage gradient(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | 0x40);
+			}
+		}
+		return image;
+	}
+
+	@Test
+	void matchesReferenceEncoder() {
+		// Valeurs de l'encodeur de référence (woltapp/blurhash)
+		assertEquals("00TI:j", Placeholder.blurHash(solid(8, 8, Color.RED), 1, 1));
+		assertEquals("L75?~Ep2fQp2p3flfQflfQfQfQfQ", Placeholder.blurHash(solid(32, 24, new Color(0x3366CC)), 4, 3));
+		assertEquals("LsGlBu2=wxoxqQR,jte;g0fjfQfj", Placeholder.blurHash(gradient(16, 12), 4, 3));
+	}
+
+	@Test
+	void componentCountFollowsOrientation() throws Exception {
+		Placeholder landscape = Placeholder.generate(gradient(64, 32));
+		Placeholder portrait = Placeholder.generate(gradient(32, 64));
+
+		// Premier caractère : (composantes X - 1) + (composantes Y - 1) * 9
+		assertEquals('L', landscape.getBlurHash().charAt(0));
+		assertEquals(28, landscape.getBlurHash().length());
+		assertEquals('T', portrait.getBlurHash().charAt(0));
+		assertEquals(28, portrait.getBlurHash().length());
+	}
+
+	@Test
+	void invalidComponentsAreRejected() {
+		BufferedImage image = solid(4, 4, Color.WHITE);
+
+		assertThrows(IllegalArgumentException.class, () -> Placeholder.blurHash(image, 0, 3));
+		assertThrows(IllegalArgumentException.class, () -> Placeholder.blurHash(image, 4, 10));
+	}
+
+	@Test
+	void dataUrlIsSmallJpeg() throws Exception {
+		Placeholder placeholder = Placeholder.generate(gradient(400, 300));
+		String prefix = "data:image/jpeg;base64,";
+
+		assertTrue(placeholder.getDataUrl().startsWith(prefix));
+		byte[] jpeg = Base64.getDecoder().decode(placeholder.getDataUrl().substring(prefix.length()));
+		BufferedImage thumbnail = ImageUtils.getImage(jpeg);
+		assertNotNull(thumbnail);
+		assertEquals(Placeholder.DATA_URL_SIZE, thumbnail.getWidth());
+		assertEquals(15, thumbnail.getHeight());
+	}
+
+	@Test
+	void encodedImageMatchesDecodedImage() throws Exception {
+		byte[] png = ImageFormatConverter.convertImage(gradient(200, 100), ImageFormat.PNG, EncodeOptions.defaults());
+
+		assertEquals(Placeholder.generate(png).getBlurHash(), Placeholder.blurHash(png));
+	}
+}
@@ -0,0 +1,93 @@
+package io.gotan.kit.image;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class TiffPagesTest {
+
+	private static ByteBuffer tiff(int pages) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+			writer.setOutput(stream);
+			writer.prepareWriteSequence(null);
+			for (int i = 0; i < pages; i++) {
+				writer.writeToSequence(new IIOImage(new BufferedImage(20 + i, 10, BufferedImage.TYPE_INT_RGB), null,
+						null), null);
+			}
+			writer.endWriteSequence();
+		} finally {
+			writer.dispose();
+		}
+		return ByteBuffer.wrap(output.toByteArray());
+	}
+
+	@Test
+	void pagesAreConsumedInOrder() throws Exception {
+		List<Integer> widths = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			int pages = TiffPages.convertPages(tiff(8), ImageFormat.PNG, EncodeOptions.defaults(),
+					(page, data) -> widths.add(ImageUtils.getImage(data).getWidth()), 3, executor);
+			assertEquals(8, pages);
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(List.of(20, 21, 22, 23, 24, 25, 26, 27), widths);
+	}
+
+	@Test
+	void errorInWorkerIsPropagated() throws Exception {
+		ByteBuffer source = tiff(6);
+		// Encodeur qui échoue avec une Error, comme un OutOfMemoryError sur une grande page
+		ImageCodec failing = new ImageCodec() {
+			@Override
+			public Set<ImageFormat> getFormats() {
+				return EnumSet.of(ImageFormat.GIF);
+			}
+
+			@Override
+			public Set<Capability> getCapabilities() {
+				return EnumSet.of(Capability.ENCODE);
+			}
+
+			@Override
+			public boolean encode(BufferedImage image, ImageFormat format, EncodeOptions options,
+								  CancellationToken token, OutputStream output) {
+				throw new AssertionError("encoder failure");
+			}
+		};
+		ImageCodecRegistry.register(failing);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			AssertionError error = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(AssertionError.class,
+					() -> TiffPages.convertPages(source, ImageFormat.GIF, EncodeOptions.defaults(), (page, data) -> {
+					}, 2, executor)));
+			assertEquals("encoder failure", error.getMessage());
+		} finally {
+			ImageCodecRegistry.unregister(failing);
+			executor.shutdownNow();
+		}
+	}
+}
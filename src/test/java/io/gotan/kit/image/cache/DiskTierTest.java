@@ -0,0 +1,117 @@
+package io.gotan.kit.image.cache;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskTierTest {
+
+	@TempDir
+	Path directory;
+
+	private static RenditionKey key(int i) {
+		return RenditionKey.forConversion(new byte[]{(byte) i, (byte) (i >> 8)}, ImageFormat.PNG, null);
+	}
+
+	@Test
+	void putThenGetReturnsSameBytes() throws IOException {
+		DiskTier tier = new DiskTier(directory, 1024);
+		tier.put(key(1), new byte[]{1, 2, 3});
+
+		assertArrayEquals(new byte[]{1, 2, 3}, tier.get(key(1)));
+		assertNull(tier.get(key(2)));
+		assertEquals(3, tier.getCurrentBytes());
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedAboveLimit() throws IOException {
+		DiskTier tier = new DiskTier(directory, 250);
+		tier.put(key(1), new byte[100]);
+		tier.put(key(2), new byte[100]);
+		tier.get(key(1));
+		tier.put(key(3), new byte[100]);
+
+		assertNotNull(tier.get(key(1)));
+		assertNull(tier.get(key(2)));
+		assertNotNull(tier.get(key(3)));
+		assertEquals(200, tier.getCurrentBytes());
+		assertEquals(2, countFiles());
+	}
+
+	@Test
+	void ignoresEntriesLargerThanLimit() throws IOException {
+		DiskTier tier = new DiskTier(directory, 10);
+		tier.put(key(1), new byte[11]);
+
+		assertNull(tier.get(key(1)));
+		assertEquals(0, countFiles());
+	}
+
+	@Test
+	void reloadsIndexFromDirectory() throws IOException {
+		DiskTier tier = new DiskTier(directory, 1024);
+		tier.put(key(1), new byte[]{4, 5});
+		tier.put(key(2), new byte[]{6});
+		Files.createFile(directory.resolve("interrupted.tmp"));
+
+		DiskTier reloaded = new DiskTier(directory, 1024);
+
+		assertEquals(2, reloaded.size());
+		assertEquals(3, reloaded.getCurrentBytes());
+		assertArrayEquals(new byte[]{4, 5}, reloaded.get(key(1)));
+		assertTrue(Files.notExists(directory.resolve("interrupted.tmp")));
+	}
+
+	@Test
+	void concurrentPutAndInvalidateKeepIndexConsistentWithFiles() throws Exception {
+		DiskTier tier = new DiskTier(directory, 64 * 40);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int offset = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 200; i++) {
+						RenditionKey key = key((i * 4 + offset) % 50);
+						if (i % 3 == 0) {
+							tier.invalidate(key);
+						} else {
+							tier.put(key, new byte[64]);
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(countFiles(), tier.size());
+		assertEquals(64L * tier.size(), tier.getCurrentBytes());
+		assertTrue(tier.getCurrentBytes() <= 64 * 40);
+	}
+
+	private long countFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".bin")).count();
+		}
+	}
+}
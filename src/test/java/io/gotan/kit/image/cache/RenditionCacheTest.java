@@ -0,0 +1,28 @@
+package io.gotan.kit.image.cache;
+
+import io.gotan.kit.image.ImageFormatConverter.ImageFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class RenditionCacheTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void callersCannotCorruptCachedRendition() throws Exception {
+		RenditionCache cache = new RenditionCache(1024, directory, 1024);
+		RenditionKey key = RenditionKey.forConversion(new byte[]{1}, ImageFormat.PNG, null);
+
+		byte[] computed = cache.getOrCompute(key, () -> new byte[]{1, 2, 3});
+		computed[0] = 9;
+		byte[] cached = cache.getOrCompute(key, () -> new byte[]{4, 5, 6});
+		cached[1] = 9;
+
+		assertArrayEquals(new byte[]{1, 2, 3}, cache.getOrCompute(key, () -> new byte[]{4, 5, 6}));
+	}
+}
@@ -0,0 +1,123 @@
+package io.gotan.kit.image.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+	private static void await(CountDownLatch latch) throws IOException {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	@Test
+	void concurrentCallsShareOneComputation() throws Exception {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		int callers = 8;
+		ExecutorService pool = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			results.add(pool.submit(() -> flights.execute("key", () -> {
+				calls.incrementAndGet();
+				started.countDown();
+				await(release);
+				return "value";
+			})));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			for (int i = 1; i < callers; i++) {
+				results.add(pool.submit(() -> flights.execute("key", () -> {
+					calls.incrementAndGet();
+					return "other";
+				})));
+			}
+			// Les appelants suivants attendent le calcul en cours
+			while (flights.getShared() < callers - 1) {
+				Thread.sleep(1);
+			}
+			release.countDown();
+			for (Future<String> result : results) {
+				assertEquals("value", result.get(10, TimeUnit.SECONDS));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1, calls.get());
+		assertEquals(1, flights.getComputations());
+		assertEquals(0, flights.size());
+	}
+
+	@Test
+	void failureIsNotRetained() throws Exception {
+		SingleFlight<String, String> flights = new SingleFlight<>(Duration.ofMinutes(1));
+
+		IOException error = assertThrows(IOException.class, () -> flights.execute("key", () -> {
+			throw new IOException("boom");
+		}));
+		assertEquals("boom", error.getMessage());
+		assertEquals(0, flights.size());
+
+		assertEquals("value", flights.execute("key", () -> "value"));
+		assertEquals(2, flights.getComputations());
+	}
+
+	@Test
+	void resultIsRetainedUntilInvalidated() throws Exception {
+		SingleFlight<String, Object> flights = new SingleFlight<>(Duration.ofMinutes(1));
+		Object first = new Object();
+
+		assertSame(first, flights.execute("key", () -> first));
+		assertSame(first, flights.execute("key", Object::new));
+		assertEquals(1, flights.getComputations());
+		assertEquals(1, flights.getShared());
+
+		flights.invalidate("key");
+		assertEquals(0, flights.size());
+		Object second = flights.execute("key", Object::new);
+		assertTrue(second != first);
+		assertEquals(2, flights.getComputations());
+	}
+
+	@Test
+	void resultExpiresAfterTtl() throws Exception {
+		SingleFlight<String, Object> flights = new SingleFlight<>(Duration.ofMillis(20));
+		Object first = flights.execute("key", Object::new);
+
+		Thread.sleep(50);
+		Object second = flights.execute("key", Object::new);
+		assertTrue(second != first);
+		assertEquals(2, flights.getComputations());
+	}
+
+	@Test
+	void withoutTtlResultIsNotRetained() throws Exception {
+		SingleFlight<String, String> flights = new SingleFlight<>();
+		flights.execute("key", () -> "value");
+
+		assertEquals(0, flights.size());
+		flights.execute("key", () -> "value");
+		assertEquals(2, flights.getComputations());
+		assertEquals(0, flights.getShared());
+	}
+}
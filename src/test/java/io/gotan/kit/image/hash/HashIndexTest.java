@@ -0,0 +1,113 @@
+package io.gotan.kit.image.hash;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashIndexTest {
+
+	/**
+	 * Résultat attendu : toutes les positions à distance au plus <code>maxDistance</code>,
+	 * de la plus proche à la plus lointaine puis par position.
+	 */
+	private static int[] bruteForce(long[] hashes, long hash, int maxDistance) {
+		return IntStream.range(0, hashes.length)
+				.filter(id -> Long.bitCount(hashes[id] ^ hash) <= maxDistance)
+				.boxed()
+				.sorted((a, b) -> {
+					int byDistance = Integer.compare(Long.bitCount(hashes[a] ^ hash), Long.bitCount(hashes[b] ^ hash));
+					return byDistance != 0 ? byDistance : Integer.compare(a, b);
+				})
+				.mapToInt(Integer::intValue)
+				.toArray();
+	}
+
+	private static long flipBits(long hash, int bits, Random random) {
+		long flipped = hash;
+		while (Long.bitCount(flipped ^ hash) < bits) {
+			flipped ^= 1L << random.nextInt(64);
+		}
+		return flipped;
+	}
+
+	/**
+	 * Index assez grand pour que les petites distances passent par les tables de blocs,
+	 * avec des grappes d'empreintes proches.
+	 */
+	private static long[] clusteredHashes(Random random) {
+		long[] hashes = new long[20_000];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = i % 10 == 0 || i < 10 ? random.nextLong() : flipBits(hashes[i - i % 10], random.nextInt(12), random);
+		}
+		return hashes;
+	}
+
+	@Test
+	void matchesBruteForceThroughChunkTables() {
+		Random random = new Random(7);
+		long[] hashes = clusteredHashes(random);
+		HashIndex index = new HashIndex(hashes);
+
+		for (int q = 0; q < 50; q++) {
+			long query = flipBits(hashes[random.nextInt(hashes.length)], random.nextInt(6), random);
+			for (int maxDistance : new int[]{0, 3, 7, 11}) {
+				assertSameMatches(bruteForce(hashes, query, maxDistance), index.search(query, maxDistance), hashes, query);
+			}
+		}
+	}
+
+	@Test
+	void matchesBruteForceWithSequentialScan() {
+		Random random = new Random(11);
+		long[] hashes = clusteredHashes(random);
+		HashIndex index = new HashIndex(hashes);
+
+		long query = hashes[123];
+		assertSameMatches(bruteForce(hashes, query, 20), index.search(query, 20), hashes, query);
+	}
+
+	@Test
+	void addAssignsSequentialPositionsAndGrows() {
+		HashIndex index = new HashIndex();
+		for (int i = 0; i < 3000; i++) {
+			assertEquals(i, index.add(i * 0x9E3779B97F4A7C15L));
+		}
+
+		assertEquals(3000, index.size());
+		assertEquals(42 * 0x9E3779B97F4A7C15L, index.get(42));
+		assertEquals(42, index.nearest(flipBits(42 * 0x9E3779B97F4A7C15L, 2, new Random(1)), 4));
+		assertThrows(IndexOutOfBoundsException.class, () -> index.get(3000));
+	}
+
+	@Test
+	void nearestReturnsMinusOneWhenNothingIsCloseEnough() {
+		HashIndex index = new HashIndex(new long[]{0L, -1L});
+
+		assertEquals(-1, index.nearest(0x0000FFFF0000FFFFL, 8));
+		assertEquals(0, index.nearest(0x3L, 2));
+		assertEquals(0, index.search(5L, -1).length);
+	}
+
+	/**
+	 * L'ordre entre deux empreintes à même distance n'est pas spécifié : compare par distance.
+	 */
+	private static void assertSameMatches(int[] expected, int[] actual, long[] hashes, long query) {
+		assertArrayEquals(sortedCopy(expected), sortedCopy(actual));
+		for (int i = 1; i < actual.length; i++) {
+			assertTrue(Long.bitCount(hashes[actual[i - 1]] ^ query) <= Long.bitCount(hashes[actual[i]] ^ query));
+		}
+	}
+
+	private static int[] sortedCopy(int[] ids) {
+		int[] copy = ids.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+}
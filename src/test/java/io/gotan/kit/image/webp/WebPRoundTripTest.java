@@ -0,0 +1,88 @@
+package io.gotan.kit.image.webp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.FileImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WebPRoundTripTest {
+
+	@TempDir
+	Path directory;
+
+	private static BufferedImage sample(int type) {
+		BufferedImage image = new BufferedImage(67, 41, type);
+		Random random = new Random(42);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				// Dégradé bruité : exerce les transformations et le cache de couleurs
+				int a = type == BufferedImage.TYPE_INT_ARGB ? (x * 4) & 0xFF : 0xFF;
+				image.setRGB(x, y, a << 24 | (x * 3) << 16 | (y * 5) << 8 | random.nextInt(16));
+			}
+		}
+		return image;
+	}
+
+	private static byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(ImageIO.write(image, "webp", out));
+		return out.toByteArray();
+	}
+
+	private static int[] pixels(BufferedImage image) {
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+
+	@Test
+	void losslessRoundTripKeepsOpaquePixels() throws IOException {
+		BufferedImage image = sample(BufferedImage.TYPE_INT_RGB);
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encode(image)));
+
+		assertEquals(image.getWidth(), decoded.getWidth());
+		assertEquals(image.getHeight(), decoded.getHeight());
+		assertArrayEquals(pixels(image), pixels(decoded));
+	}
+
+	@Test
+	void losslessRoundTripKeepsAlpha() throws IOException {
+		BufferedImage image = sample(BufferedImage.TYPE_INT_ARGB);
+		BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(encode(image)));
+
+		assertTrue(decoded.getColorModel().hasAlpha());
+		assertArrayEquals(pixels(image), pixels(decoded));
+	}
+
+	@Test
+	void rejectsOversizedRiffHeaderFromStream() {
+		byte[] header = {'R', 'I', 'F', 'F', 0x00, 0x00, 0x00, 0x7F, 'W', 'E', 'B', 'P'};
+
+		assertThrows(IIOException.class, () -> ImageIO.read(new ByteArrayInputStream(header)));
+	}
+
+	@Test
+	void rejectsOversizedRiffHeaderFromFile() throws IOException {
+		byte[] header = {'R', 'I', 'F', 'F', 0x00, 0x00, 0x00, 0x7F, 'W', 'E', 'B', 'P'};
+		Path file = Files.write(directory.resolve("crafted.webp"), header);
+
+		try (FileImageInputStream stream = new FileImageInputStream(file.toFile())) {
+			WebPImageReader reader = new WebPImageReader(new WebPImageReaderSpi());
+			reader.setInput(stream);
+			IIOException error = assertThrows(IIOException.class, () -> reader.getWidth(0));
+			assertEquals("Truncated WebP file", error.getMessage());
+		}
+	}
+}